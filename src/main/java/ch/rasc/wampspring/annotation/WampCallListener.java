@@ -49,6 +49,12 @@ import ch.rasc.wampspring.config.DefaultWampConfiguration;
  * A non null return value of this method will be sent back in a CALLRESULT message to the
  * client which sent the CALL message. If this method throws an exception it will be
  * wrapped in a CALLERROR message and sent back to the client.
+ * <p>
+ * The method may return a {@code CompletableFuture} (or any other
+ * {@code CompletionStage}), a {@link org.springframework.util.concurrent.ListenableFuture}
+ * or a {@link org.springframework.web.context.request.async.DeferredResult}. The
+ * CALLRESULT or CALLERROR message is then sent when the result completes and the inbound
+ * thread is free to process other messages in the meantime.
  */
 @Target({ ElementType.TYPE, ElementType.METHOD })
 @Retention(RetentionPolicy.RUNTIME)
@@ -70,4 +76,33 @@ public @interface WampCallListener {
 	 */
 	boolean[] authenticated() default {};
 
+	/**
+	 * Timeout in milliseconds for asynchronous return values. If the result does not
+	 * complete in time a CALLERROR message is sent back to the client and the result is
+	 * cancelled. A value of 0 or less disables the timeout.
+	 */
+	long timeout() default -1;
+
+	/**
+	 * A value greater than 0 enables streaming of the result. The method has to return
+	 * an {@link java.util.Iterator}, an {@link Iterable}, an array or a
+	 * {@code java.util.stream.Stream}. The elements are read one after the other and
+	 * sent to the caller in chunks of {@code streamChunkSize} elements, so the complete
+	 * result never has to be held in memory or serialized into one large message.
+	 * <p>
+	 * WAMP 1 has no progressive call results. The server answers the CALL immediately
+	 * with a CALLRESULT whose result is an object with the property
+	 * {@code streamTopicURI} (procURI + '#' + callID). The chunks follow as EVENT
+	 * messages on this topic, sent only to the caller. Each event is a
+	 * {@link ch.rasc.wampspring.method.CallResultChunk}, the last one has the flag
+	 * {@code last} set and, if reading the result failed, an {@code error} description.
+	 * <p>
+	 * The chunks are sent through the clientOutboundChannel as they are read. The
+	 * producer is throttled to the speed of the client, only a window of chunks may wait
+	 * in the channel and the outbound mailbox of the session. When the client does not
+	 * receive a chunk in time the stream is aborted. See
+	 * {@link ch.rasc.wampspring.method.WampAnnotationMethodMessageHandler#setStreamWindowSize(int)}.
+	 */
+	int streamChunkSize() default 0;
+
 }
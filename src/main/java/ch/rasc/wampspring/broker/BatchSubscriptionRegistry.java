@@ -0,0 +1,33 @@
+/**
+ * Copyright 2014-2017 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.broker;
+
+import java.util.Collection;
+
+/**
+ * Optional extension of a {@link SubscriptionRegistry} that removes the subscriptions of
+ * many sessions in one pass. The {@link SimpleBrokerMessageHandler} uses it when several
+ * sessions are closed at the same time, with any other registry it calls
+ * {@link SubscriptionRegistry#unregisterSession(String)} for each session.
+ */
+public interface BatchSubscriptionRegistry extends SubscriptionRegistry {
+
+	/**
+	 * Unregister all subscriptions of the given WebSocket sessions in one pass.
+	 */
+	void unregisterSessions(Collection<String> webSocketSessionIds);
+
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright 2014-2017 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.broker;
+
+import java.util.Arrays;
+
+/**
+ * Immutable bloom filter over topicURIs. Created from a {@link CountingBloomFilter} and
+ * sent to the peers as part of an {@link InterestSummary}.
+ */
+public class BloomFilter {
+
+	private final long[] bits;
+
+	private final int bitSize;
+
+	private final int hashFunctions;
+
+	public BloomFilter(long[] bits, int bitSize, int hashFunctions) {
+		this.bits = bits.clone();
+		this.bitSize = bitSize;
+		this.hashFunctions = hashFunctions;
+	}
+
+	/**
+	 * Returns false if the topicURI was definitely not added to the filter.
+	 */
+	public boolean mightContain(String topicURI) {
+		long hash = hash(topicURI);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		for (int i = 0; i < this.hashFunctions; i++) {
+			int index = index(h1, h2, i, this.bitSize);
+			if ((this.bits[index >>> 6] & 1L << index) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public boolean isEmpty() {
+		for (long word : this.bits) {
+			if (word != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public int getBitSize() {
+		return this.bitSize;
+	}
+
+	public int getHashFunctions() {
+		return this.hashFunctions;
+	}
+
+	/**
+	 * Returns a copy of the bits, for example to send them to a peer.
+	 */
+	public long[] toLongArray() {
+		return this.bits.clone();
+	}
+
+	/**
+	 * 64 bit FNV-1a hash of the string. The lower and the upper half are used as the two
+	 * base hashes for the double hashing of the filter indexes.
+	 */
+	static long hash(String value) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			hash ^= c & 0xff;
+			hash *= 0x100000001b3L;
+			hash ^= c >>> 8;
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	static int index(int h1, int h2, int i, int size) {
+		int combined = h1 + i * h2;
+		return (combined & Integer.MAX_VALUE) % size;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof BloomFilter)) {
+			return false;
+		}
+		BloomFilter other = (BloomFilter) obj;
+		return this.bitSize == other.bitSize
+				&& this.hashFunctions == other.hashFunctions
+				&& Arrays.equals(this.bits, other.bits);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(this.bits);
+	}
+
+	@Override
+	public String toString() {
+		return "BloomFilter [bitSize=" + this.bitSize + ", hashFunctions="
+				+ this.hashFunctions + "]";
+	}
+
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright 2014-2017 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.broker;
+
+import org.springframework.messaging.MessageChannel;
+
+import ch.rasc.wampspring.message.EventMessage;
+import ch.rasc.wampspring.message.WampMessageHeader;
+
+/**
+ * Connects the {@link SimpleBrokerMessageHandler}s of several nodes of a cluster, so
+ * that events published on one node reach the subscribers on all nodes.
+ * <p>
+ * Every node announces a summary of the topics its clients are subscribed to. An event
+ * is only forwarded to the peers whose summary matches the topic of the event, so the
+ * traffic between the nodes grows with the interest in a topic and not with the size
+ * of the cluster.
+ *
+ * @see LoopbackBrokerRelay
+ */
+public interface BrokerRelay {
+
+	/**
+	 * Starts the relay. Events received from peers are sent to the given channel with
+	 * the {@link WampMessageHeader#RELAY_NODE_ID} header set.
+	 */
+	void start(MessageChannel brokerChannel);
+
+	/**
+	 * Stops the relay and leaves the cluster.
+	 */
+	void stop();
+
+	/**
+	 * Forwards an event that was published on this node to all peers with a matching
+	 * subscription interest.
+	 */
+	void forward(EventMessage eventMessage);
+
+	/**
+	 * Announces the current subscription interest of this node to the peers.
+	 */
+	void updateInterest(InterestSummary interestSummary);
+
+}
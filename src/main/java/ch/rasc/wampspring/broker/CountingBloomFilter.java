@@ -0,0 +1,115 @@
+/**
+ * Copyright 2014-2017 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.broker;
+
+import org.springframework.util.Assert;
+
+/**
+ * Bloom filter with a counter per position, so that topicURIs can be removed again.
+ * The counters saturate at 255; a saturated counter is never decremented, which keeps
+ * the filter free of false negatives.
+ * <p>
+ * Not thread safe.
+ */
+public class CountingBloomFilter {
+
+	private final byte[] counters;
+
+	private final int hashFunctions;
+
+	/**
+	 * @param expectedInsertions number of topicURIs the filter is sized for
+	 * @param falsePositiveProbability desired false positive probability when the filter
+	 * contains the expected number of topicURIs
+	 */
+	public CountingBloomFilter(int expectedInsertions, double falsePositiveProbability) {
+		Assert.isTrue(expectedInsertions > 0, "'expectedInsertions' must be positive");
+		Assert.isTrue(falsePositiveProbability > 0 && falsePositiveProbability < 1,
+				"'falsePositiveProbability' must be between 0 and 1");
+
+		double ln2 = Math.log(2);
+		int size = (int) Math.ceil(
+				-expectedInsertions * Math.log(falsePositiveProbability) / (ln2 * ln2));
+		this.counters = new byte[Math.max(64, size)];
+		this.hashFunctions = Math.max(1,
+				(int) Math.round((double) this.counters.length / expectedInsertions * ln2));
+	}
+
+	public void add(String topicURI) {
+		long hash = BloomFilter.hash(topicURI);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		for (int i = 0; i < this.hashFunctions; i++) {
+			int index = BloomFilter.index(h1, h2, i, this.counters.length);
+			int count = this.counters[index] & 0xff;
+			if (count < 255) {
+				this.counters[index] = (byte) (count + 1);
+			}
+		}
+	}
+
+	/**
+	 * Removes a topicURI that was previously added. Removing a topicURI that was not
+	 * added corrupts the filter.
+	 */
+	public void remove(String topicURI) {
+		long hash = BloomFilter.hash(topicURI);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		for (int i = 0; i < this.hashFunctions; i++) {
+			int index = BloomFilter.index(h1, h2, i, this.counters.length);
+			int count = this.counters[index] & 0xff;
+			if (count > 0 && count < 255) {
+				this.counters[index] = (byte) (count - 1);
+			}
+		}
+	}
+
+	public boolean mightContain(String topicURI) {
+		long hash = BloomFilter.hash(topicURI);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		for (int i = 0; i < this.hashFunctions; i++) {
+			if (this.counters[BloomFilter.index(h1, h2, i,
+					this.counters.length)] == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Creates an immutable {@link BloomFilter} with a bit set for every non zero counter.
+	 */
+	public BloomFilter toBloomFilter() {
+		long[] bits = new long[(this.counters.length + 63) >>> 6];
+		for (int i = 0; i < this.counters.length; i++) {
+			if (this.counters[i] != 0) {
+				bits[i >>> 6] |= 1L << i;
+			}
+		}
+		return new BloomFilter(bits, this.counters.length, this.hashFunctions);
+	}
+
+	public int getSize() {
+		return this.counters.length;
+	}
+
+	public int getHashFunctions() {
+		return this.hashFunctions;
+	}
+
+}
@@ -15,16 +15,23 @@
  */
 package ch.rasc.wampspring.broker;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.springframework.messaging.Message;
+import org.springframework.util.AntPathMatcher;
 import org.springframework.util.PathMatcher;
 
 import ch.rasc.wampspring.message.PubSubMessage;
@@ -36,7 +43,7 @@ import ch.rasc.wampspring.message.UnsubscribeMessage;
  * @author Sebastien Deleuze
  * @author Ralph Schaer
  */
-public class DefaultSubscriptionRegistry implements SubscriptionRegistry {
+public class DefaultSubscriptionRegistry implements BatchSubscriptionRegistry {
 
 	/** Default maximum number of entries for the destination cache: 1024 */
 	private static final int DEFAULT_CACHE_LIMIT = 1024;
@@ -48,13 +55,15 @@ public class DefaultSubscriptionRegistry implements SubscriptionRegistry {
 
 	private final DestinationCache destinationCache = new DestinationCache();
 
+	private final AtomicLong cacheHits = new AtomicLong();
+
+	private final AtomicLong cacheMisses = new AtomicLong();
+
 	protected final Log logger = LogFactory.getLog(getClass());
 
 	// webSocketSessionId -> destinations
 	private final ConcurrentMap<String, Set<String>> sessionDestinations = new ConcurrentHashMap<>();
 
-	private final Object monitor = new Object();
-
 	public DefaultSubscriptionRegistry(PathMatcher pathMatcher) {
 		this.pathMatcher = pathMatcher;
 	}
@@ -98,61 +107,99 @@ public class DefaultSubscriptionRegistry implements SubscriptionRegistry {
 		this.cacheLimit = cacheLimit;
 	}
 
-	protected void removeSessionDestination(String sessionId, String destination) {
+	/**
+	 * Number of sessions with at least one subscription.
+	 */
+	public int getSessionCount() {
+		return this.sessionDestinations.size();
+	}
+
+	/**
+	 * Number of subscriptions of all sessions.
+	 */
+	public int getSubscriptionCount() {
+		int count = 0;
+		for (Set<String> destinations : this.sessionDestinations.values()) {
+			count += destinations.size();
+		}
+		return count;
+	}
+
+	/**
+	 * Number of lookups answered from the destination cache.
+	 */
+	public long getCacheHits() {
+		return this.cacheHits.get();
+	}
+
+	/**
+	 * Number of lookups that had to match the subscriptions of all sessions.
+	 */
+	public long getCacheMisses() {
+		return this.cacheMisses.get();
+	}
+
+	/**
+	 * Number of destinations in the cache.
+	 */
+	public int getCacheSize() {
+		return this.destinationCache.cache.size();
+	}
 
+	protected void removeSessionDestination(String sessionId, String destination) {
 		Set<String> destinations = this.sessionDestinations.get(sessionId);
-		if (destinations != null) {
-			String removedDestination = null;
-			String removedSessionId = null;
-			synchronized (this.monitor) {
-				if (destinations.remove(destination)) {
-					removedDestination = destination;
-					if (destinations.isEmpty()) {
-						this.sessionDestinations.remove(sessionId);
-						removedSessionId = sessionId;
-					}
-				}
-			}
-			if (removedDestination != null) {
-				this.destinationCache.updateAfterRemovedDestination(sessionId,
-						removedDestination);
-			}
-			if (removedSessionId != null) {
-				this.destinationCache.updateAfterRemovedSession(removedSessionId);
+		if (destinations != null && destinations.remove(destination)) {
+			if (destinations.isEmpty()) {
+				this.sessionDestinations.remove(sessionId, destinations);
 			}
+			this.destinationCache.updateAfterRemovedDestination(sessionId, destination,
+					destinations);
 		}
-
 	}
 
 	@Override
 	public void unregisterSession(String sessionId) {
-		Set<String> destinations = this.sessionDestinations.remove(sessionId);
-		if (destinations != null) {
-			this.destinationCache.updateAfterRemovedSession(sessionId);
+		if (this.sessionDestinations.remove(sessionId) != null) {
+			this.destinationCache.updateAfterRemovedSessions(
+					Collections.singleton(sessionId));
+		}
+	}
+
+	@Override
+	public void unregisterSessions(Collection<String> sessionIds) {
+		List<String> removedSessionIds = new ArrayList<>(sessionIds.size());
+		for (String sessionId : sessionIds) {
+			if (this.sessionDestinations.remove(sessionId) != null) {
+				removedSessionIds.add(sessionId);
+			}
+		}
+		if (!removedSessionIds.isEmpty()) {
+			this.destinationCache.updateAfterRemovedSessions(removedSessionIds);
 		}
 	}
 
-	private Set<String> addSessionId(String sessionId, String destination) {
+	private void addSessionId(String sessionId, String destination) {
 		Set<String> destinations = this.sessionDestinations.get(sessionId);
 		if (destinations == null) {
-			synchronized (this.monitor) {
-				destinations = this.sessionDestinations.get(sessionId);
-				if (destinations == null) {
-					destinations = new HashSet<>(4);
-					this.sessionDestinations.put(sessionId, destinations);
-				}
+			destinations = newConcurrentSet();
+			Set<String> existing = this.sessionDestinations.putIfAbsent(sessionId,
+					destinations);
+			if (existing != null) {
+				destinations = existing;
 			}
 		}
 		destinations.add(destination);
-		return destinations;
 	}
 
 	private Set<String> findSubscriptionsInternal(String destination) {
 		Set<String> sessionIds = this.destinationCache.getSessionIds(destination);
 		if (sessionIds != null) {
+			this.cacheHits.incrementAndGet();
 			return sessionIds;
 		}
+		this.cacheMisses.incrementAndGet();
 
+		long version = this.destinationCache.getVersion();
 		sessionIds = new HashSet<>();
 		for (Map.Entry<String, Set<String>> subscribedSessions : this.sessionDestinations
 				.entrySet()) {
@@ -165,99 +212,255 @@ public class DefaultSubscriptionRegistry implements SubscriptionRegistry {
 		}
 
 		if (!sessionIds.isEmpty()) {
-			this.destinationCache.addSessionIds(destination, sessionIds);
+			this.destinationCache.addSessionIds(destination, sessionIds, version);
 		}
 
 		return sessionIds;
 	}
 
+	/**
+	 * {@link PathMatcher#isPattern(String)} of the {@link AntPathMatcher} does not consider
+	 * URI template variables, but {@link PathMatcher#match(String, String)} does.
+	 */
+	private boolean isPattern(String destination) {
+		return this.pathMatcher.isPattern(destination) || destination.indexOf('{') != -1;
+	}
+
+	private static Set<String> newConcurrentSet() {
+		return Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>(4));
+	}
+
 	/**
 	 * A cache for destinations previously resolved via
-	 * {@link DefaultSubscriptionRegistry#findSubscriptionsInternal(String, Message)}
+	 * {@link DefaultSubscriptionRegistry#findSubscriptionsInternal(String)}
+	 * <p>
+	 * Every destination has its own concurrent set of session ids. Subscribe and
+	 * unsubscribe update only the sets of the affected destinations without a global lock
+	 * and without copying the sets, and lookups read the sets directly. A version counter
+	 * that is incremented before each update prevents that a lookup running concurrently
+	 * with a subscription change caches an outdated result.
+	 * <p>
+	 * The cache also keeps a reverse index from a session to the cached destinations that
+	 * contain the session. Removing a subscription or a whole session therefore only
+	 * touches the session's own cache entries instead of scanning the entire cache.
 	 */
 	private class DestinationCache {
 
-		/** Map from destination -> sessionId for fast look-ups */
-		private final Map<String, Set<String>> accessCache = new ConcurrentHashMap<>(
+		/** Map from destination -> cached entry */
+		private final ConcurrentMap<String, CachedDestination> cache = new ConcurrentHashMap<>(
 				DEFAULT_CACHE_LIMIT);
 
-		/** Map from destination -> sessionId with locking */
-		@SuppressWarnings("serial")
-		private final Map<String, Set<String>> updateCache = new LinkedHashMap<String, Set<String>>(
-				DEFAULT_CACHE_LIMIT, 0.75f, true) {
-			@Override
-			protected boolean removeEldestEntry(Map.Entry<String, Set<String>> eldest) {
-				return size() > DefaultSubscriptionRegistry.this.cacheLimit;
-			}
-		};
+		/** Map from sessionId -> cached entries that contain the session */
+		private final ConcurrentMap<String, Set<CachedDestination>> sessionCachedDestinations = new ConcurrentHashMap<>();
+
+		/**
+		 * Entries in the order they were added, used for eviction. May still contain
+		 * entries that were removed from the cache because they became empty. Guarded by
+		 * itself.
+		 */
+		private final Deque<CachedDestination> insertionOrder = new ArrayDeque<>();
+
+		private final AtomicLong version = new AtomicLong();
 
 		public Set<String> getSessionIds(String destination) {
-			return this.accessCache.get(destination);
+			CachedDestination cachedDestination = this.cache.get(destination);
+			return cachedDestination != null
+					? Collections.unmodifiableSet(cachedDestination.sessionIds) : null;
+		}
+
+		public long getVersion() {
+			return this.version.get();
 		}
 
-		public void addSessionIds(String destination, Set<String> sessionIds) {
-			synchronized (this.updateCache) {
-				this.updateCache.put(destination, new HashSet<>(sessionIds));
-				this.accessCache.put(destination, sessionIds);
+		public void addSessionIds(String destination, Set<String> sessionIds,
+				long resolvedVersion) {
+			CachedDestination cachedDestination = new CachedDestination(destination);
+			for (String sessionId : sessionIds) {
+				link(cachedDestination, sessionId);
+			}
+
+			if (this.cache.putIfAbsent(destination, cachedDestination) != null) {
+				unlink(cachedDestination);
+				return;
+			}
+
+			if (this.version.get() != resolvedVersion) {
+				// subscriptions changed while the session ids were resolved
+				this.cache.remove(destination, cachedDestination);
+				unlink(cachedDestination);
+				return;
+			}
+
+			int limit = DefaultSubscriptionRegistry.this.cacheLimit;
+			synchronized (this.insertionOrder) {
+				this.insertionOrder.add(cachedDestination);
+				while (this.cache.size() > limit) {
+					CachedDestination eldest = this.insertionOrder.poll();
+					if (eldest == null) {
+						break;
+					}
+					if (this.cache.remove(eldest.destination, eldest)) {
+						unlink(eldest);
+					}
+				}
+
+				if (this.insertionOrder.size() > 2 * limit) {
+					removeDeadEntries();
+				}
+			}
+		}
+
+		/**
+		 * Removes the entries from the insertion order that are no longer in the cache, so
+		 * they neither count against the limit nor keep the queue growing.
+		 */
+		private void removeDeadEntries() {
+			Iterator<CachedDestination> it = this.insertionOrder.iterator();
+			while (it.hasNext()) {
+				CachedDestination entry = it.next();
+				if (this.cache.get(entry.destination) != entry) {
+					it.remove();
+				}
 			}
 		}
 
 		public void updateAfterNewSession(String destination, String sessionId) {
-			synchronized (this.updateCache) {
-				for (Map.Entry<String, Set<String>> entry : this.updateCache.entrySet()) {
-					String cachedDestination = entry.getKey();
+			this.version.incrementAndGet();
+			if (isPattern(destination)) {
+				for (CachedDestination cachedDestination : this.cache.values()) {
 					if (DefaultSubscriptionRegistry.this.pathMatcher.match(destination,
-							cachedDestination)) {
-						Set<String> sessionIds = entry.getValue();
-						sessionIds.add(sessionId);
-						this.accessCache.put(cachedDestination,
-								new HashSet<>(sessionIds));
+							cachedDestination.destination)) {
+						link(cachedDestination, sessionId);
 					}
 				}
 			}
+			else {
+				CachedDestination cachedDestination = this.cache.get(destination);
+				if (cachedDestination != null) {
+					link(cachedDestination, sessionId);
+				}
+			}
 		}
 
-		public void updateAfterRemovedDestination(String sessionId, String destination) {
-			synchronized (this.updateCache) {
-				Set<String> sessionIds = this.updateCache.get(destination);
-				if (sessionIds != null) {
-					sessionIds.remove(sessionId);
-					if (sessionIds.isEmpty()) {
-						this.updateCache.remove(destination);
-						this.accessCache.remove(destination);
-					}
-					else {
-						this.accessCache.put(destination, new HashSet<>(sessionIds));
-					}
+		/**
+		 * Removes the session from the cached destinations that match the removed
+		 * destination, unless one of the remaining destinations of the session still
+		 * matches.
+		 */
+		public void updateAfterRemovedDestination(String sessionId, String destination,
+				Set<String> remainingDestinations) {
+			this.version.incrementAndGet();
+			Set<CachedDestination> cachedDestinations = this.sessionCachedDestinations
+					.get(sessionId);
+			if (cachedDestinations == null) {
+				return;
+			}
+
+			boolean pattern = isPattern(destination);
+			for (CachedDestination cachedDestination : cachedDestinations) {
+				String cached = cachedDestination.destination;
+				boolean matches = pattern
+						? DefaultSubscriptionRegistry.this.pathMatcher.match(destination,
+								cached)
+						: destination.equals(cached);
+				if (matches && !matchesAny(remainingDestinations, cached)) {
+					cachedDestinations.remove(cachedDestination);
+					removeSessionId(cachedDestination, sessionId);
 				}
 			}
 		}
 
-		public void updateAfterRemovedSession(String sessionId) {
-			synchronized (this.updateCache) {
-				Set<String> destinationsToRemove = new HashSet<>();
-				for (Map.Entry<String, Set<String>> entry : this.updateCache.entrySet()) {
-					String destination = entry.getKey();
-					Set<String> sessiondIds = entry.getValue();
-					if (sessiondIds.remove(sessionId)) {
-						if (sessiondIds.isEmpty()) {
-							destinationsToRemove.add(destination);
-						}
-						else {
-							this.accessCache.put(destination, new HashSet<>(sessiondIds));
+		/**
+		 * Removes the sessions from all cached destinations in one pass. Entries that end
+		 * up empty are dropped from the cache after all sessions have been removed.
+		 */
+		public void updateAfterRemovedSessions(Collection<String> sessionIds) {
+			this.version.incrementAndGet();
+			Set<CachedDestination> touched = new HashSet<>();
+			for (String sessionId : sessionIds) {
+				Set<CachedDestination> cachedDestinations = this.sessionCachedDestinations
+						.remove(sessionId);
+				if (cachedDestinations != null) {
+					for (CachedDestination cachedDestination : cachedDestinations) {
+						if (cachedDestination.sessionIds.remove(sessionId)) {
+							touched.add(cachedDestination);
 						}
 					}
 				}
-				for (String destination : destinationsToRemove) {
-					this.updateCache.remove(destination);
-					this.accessCache.remove(destination);
+			}
+
+			for (CachedDestination cachedDestination : touched) {
+				if (cachedDestination.sessionIds.isEmpty()) {
+					// a lookup after the removal resolves the destination again
+					this.cache.remove(cachedDestination.destination, cachedDestination);
 				}
 			}
 		}
 
+		private void link(CachedDestination cachedDestination, String sessionId) {
+			Set<CachedDestination> cachedDestinations = this.sessionCachedDestinations
+					.get(sessionId);
+			if (cachedDestinations == null) {
+				cachedDestinations = Collections.newSetFromMap(
+						new ConcurrentHashMap<CachedDestination, Boolean>(4));
+				Set<CachedDestination> existing = this.sessionCachedDestinations
+						.putIfAbsent(sessionId, cachedDestinations);
+				if (existing != null) {
+					cachedDestinations = existing;
+				}
+			}
+			cachedDestinations.add(cachedDestination);
+			cachedDestination.sessionIds.add(sessionId);
+		}
+
+		private void unlink(CachedDestination cachedDestination) {
+			for (String sessionId : cachedDestination.sessionIds) {
+				Set<CachedDestination> cachedDestinations = this.sessionCachedDestinations
+						.get(sessionId);
+				if (cachedDestinations != null) {
+					cachedDestinations.remove(cachedDestination);
+				}
+			}
+		}
+
+		private void removeSessionId(CachedDestination cachedDestination,
+				String sessionId) {
+			if (cachedDestination.sessionIds.remove(sessionId)
+					&& cachedDestination.sessionIds.isEmpty()) {
+				// a lookup after the removal resolves the destination again
+				this.cache.remove(cachedDestination.destination, cachedDestination);
+			}
+		}
+
+		private boolean matchesAny(Set<String> destinationPatterns, String destination) {
+			for (String destinationPattern : destinationPatterns) {
+				if (DefaultSubscriptionRegistry.this.pathMatcher.match(destinationPattern,
+						destination)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
 		@Override
 		public String toString() {
-			return "cache[" + this.accessCache.size() + " destination(s)]";
+			return "cache[" + this.cache.size() + " destination(s)]";
+		}
+	}
+
+	/**
+	 * A cached destination and the ids of the sessions that are subscribed to it. Uses
+	 * identity equality so a stale reference in the reverse index never affects a newer
+	 * entry for the same destination.
+	 */
+	private static class CachedDestination {
+
+		private final String destination;
+
+		private final Set<String> sessionIds = newConcurrentSet();
+
+		CachedDestination(String destination) {
+			this.destination = destination;
 		}
 	}
 
@@ -0,0 +1,48 @@
+/**
+ * Copyright 2014-2017 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.broker;
+
+import java.util.List;
+
+import ch.rasc.wampspring.message.EventMessage;
+
+/**
+ * Append-only log of the events the {@link SimpleBrokerMessageHandler} sends to the
+ * subscribers of a topic. Every journaled event gets a unique, increasing offset. A
+ * client that reconnects sends the offset of the last event it received with the
+ * SUBSCRIBE message and the broker replays the events it missed.
+ *
+ * @see MappedFileEventJournal
+ */
+public interface EventJournal {
+
+	/**
+	 * Appends the event to the journal.
+	 * @param eventMessage the event sent to all subscribers of its topic
+	 * @return the offset of the event or -1 if the topic of the event is not journaled
+	 */
+	long append(EventMessage eventMessage);
+
+	/**
+	 * Reads the journaled events of a topic.
+	 * @param topicURI the topicURI of the subscription
+	 * @param afterOffset only events with a greater offset are returned
+	 * @param maxEvents maximum number of events to return
+	 * @return the events in the order of their offsets, possibly empty
+	 */
+	List<EventMessage> read(String topicURI, long afterOffset, int maxEvents);
+
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright 2014-2017 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.broker;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.springframework.util.PathMatcher;
+
+/**
+ * Immutable summary of the topicURIs the clients of one node are subscribed to. Peers
+ * consult the summary before they forward an event to the node.
+ * <p>
+ * Topics without wildcards are either listed exactly or, for nodes with many
+ * subscribed topics, summarized in a {@link BloomFilter}. A bloom filter may report
+ * topics the node is not subscribed to, in that case the peer forwards an event that
+ * the node drops because it finds no subscriber.
+ */
+public class InterestSummary {
+
+	public static final InterestSummary EMPTY = new InterestSummary(
+			Collections.<String>emptySet(), Collections.<String>emptyList());
+
+	private final Set<String> topics;
+
+	private final BloomFilter topicFilter;
+
+	private final List<String> patterns;
+
+	public InterestSummary(Set<String> topics, List<String> patterns) {
+		this.topics = Collections.unmodifiableSet(new HashSet<>(topics));
+		this.topicFilter = null;
+		this.patterns = Collections.unmodifiableList(patterns);
+	}
+
+	public InterestSummary(BloomFilter topicFilter, List<String> patterns) {
+		this.topics = Collections.emptySet();
+		this.topicFilter = topicFilter;
+		this.patterns = Collections.unmodifiableList(patterns);
+	}
+
+	/**
+	 * Returns true if a client of the node is subscribed to the topicURI.
+	 */
+	public boolean matches(String topicURI, PathMatcher pathMatcher) {
+		if (this.topicFilter != null) {
+			if (this.topicFilter.mightContain(topicURI)) {
+				return true;
+			}
+		}
+		else if (this.topics.contains(topicURI)) {
+			return true;
+		}
+		for (String pattern : this.patterns) {
+			if (pathMatcher.match(pattern, topicURI)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public boolean isEmpty() {
+		return this.topics.isEmpty()
+				&& (this.topicFilter == null || this.topicFilter.isEmpty())
+				&& this.patterns.isEmpty();
+	}
+
+	/**
+	 * Subscribed topicURIs without wildcards. Empty if the topics are summarized in a
+	 * {@link #getTopicFilter()}.
+	 */
+	public Set<String> getTopics() {
+		return this.topics;
+	}
+
+	/**
+	 * Bloom filter of the subscribed topicURIs without wildcards or null if the topics
+	 * are listed exactly.
+	 */
+	public BloomFilter getTopicFilter() {
+		return this.topicFilter;
+	}
+
+	/**
+	 * Subscribed topicURI patterns.
+	 */
+	public List<String> getPatterns() {
+		return this.patterns;
+	}
+
+	@Override
+	public String toString() {
+		return "InterestSummary [topics="
+				+ (this.topicFilter != null ? this.topicFilter : this.topics.size())
+				+ ", patterns=" + this.patterns.size() + "]";
+	}
+
+}
@@ -0,0 +1,198 @@
+/**
+ * Copyright 2014-2017 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.broker;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.util.PathMatcher;
+
+/**
+ * Keeps track of the topicURIs the sessions of this node are subscribed to and creates
+ * the {@link InterestSummary} the node announces to its peers. The summary only changes
+ * when the first session subscribes to a topicURI or the last session unsubscribes from
+ * it. It is not rebuilt on every change, but the next time it is requested, so a burst
+ * of subscriptions that is announced once costs a single rebuild.
+ * <p>
+ * By default the summary lists the subscribed topicURIs exactly. Created with an
+ * expected number of topics, the tracker summarizes topics without wildcards in a
+ * {@link CountingBloomFilter} that is updated incrementally and announces a compact
+ * {@link BloomFilter} snapshot, whose size does not depend on the length of the
+ * topicURIs.
+ */
+public class InterestTracker {
+
+	private final PathMatcher pathMatcher;
+
+	/** Map from topicURI -> number of subscribed sessions */
+	private final Map<String, Integer> topicCounts = new HashMap<>();
+
+	/** Map from sessionId -> subscribed topicURIs */
+	private final Map<String, Set<String>> sessionTopics = new HashMap<>();
+
+	/** Subscribed topicURIs without wildcards, only used without a topic filter */
+	private final Set<String> topics = new HashSet<>();
+
+	private final CountingBloomFilter topicFilter;
+
+	private final List<String> patterns = new ArrayList<>();
+
+	private InterestSummary summary;
+
+	private boolean summaryOutdated;
+
+	/**
+	 * Creates a tracker whose summaries list the topicURIs exactly.
+	 */
+	public InterestTracker(PathMatcher pathMatcher) {
+		this.pathMatcher = pathMatcher;
+		this.topicFilter = null;
+		this.summary = InterestSummary.EMPTY;
+	}
+
+	/**
+	 * Creates a tracker whose summaries contain a bloom filter of the topicURIs.
+	 *
+	 * @param expectedTopics number of distinct topicURIs the filter is sized for
+	 * @param falsePositiveProbability desired probability that a peer forwards an event
+	 * for a topicURI without subscribers
+	 */
+	public InterestTracker(PathMatcher pathMatcher, int expectedTopics,
+			double falsePositiveProbability) {
+		this.pathMatcher = pathMatcher;
+		this.topicFilter = new CountingBloomFilter(expectedTopics,
+				falsePositiveProbability);
+		this.summary = createSummary();
+	}
+
+	/**
+	 * @return true if the summary changed
+	 */
+	public synchronized boolean subscribe(String sessionId, String topicURI) {
+		Set<String> topics = this.sessionTopics.get(sessionId);
+		if (topics == null) {
+			topics = new HashSet<>();
+			this.sessionTopics.put(sessionId, topics);
+		}
+		if (!topics.add(topicURI)) {
+			return false;
+		}
+		return increment(topicURI);
+	}
+
+	/**
+	 * @return true if the summary changed
+	 */
+	public synchronized boolean unsubscribe(String sessionId, String topicURI) {
+		Set<String> topics = this.sessionTopics.get(sessionId);
+		if (topics == null || !topics.remove(topicURI)) {
+			return false;
+		}
+		if (topics.isEmpty()) {
+			this.sessionTopics.remove(sessionId);
+		}
+		return decrement(topicURI);
+	}
+
+	/**
+	 * Removes all subscriptions of the session.
+	 * @return true if the summary changed
+	 */
+	public synchronized boolean unregisterSession(String sessionId) {
+		Set<String> topics = this.sessionTopics.remove(sessionId);
+		if (topics == null) {
+			return false;
+		}
+		boolean changed = false;
+		for (String topicURI : topics) {
+			changed |= decrement(topicURI);
+		}
+		return changed;
+	}
+
+	public synchronized InterestSummary getSummary() {
+		if (this.summaryOutdated) {
+			this.summary = createSummary();
+			this.summaryOutdated = false;
+		}
+		return this.summary;
+	}
+
+	private boolean increment(String topicURI) {
+		Integer count = this.topicCounts.get(topicURI);
+		if (count == null) {
+			this.topicCounts.put(topicURI, 1);
+			topicAdded(topicURI);
+			return true;
+		}
+		this.topicCounts.put(topicURI, count + 1);
+		return false;
+	}
+
+	private boolean decrement(String topicURI) {
+		Integer count = this.topicCounts.get(topicURI);
+		if (count == null) {
+			return false;
+		}
+		if (count == 1) {
+			this.topicCounts.remove(topicURI);
+			topicRemoved(topicURI);
+			return true;
+		}
+		this.topicCounts.put(topicURI, count - 1);
+		return false;
+	}
+
+	private void topicAdded(String topicURI) {
+		if (this.pathMatcher.isPattern(topicURI)) {
+			this.patterns.add(topicURI);
+		}
+		else if (this.topicFilter != null) {
+			this.topicFilter.add(topicURI);
+		}
+		else {
+			this.topics.add(topicURI);
+		}
+		this.summaryOutdated = true;
+	}
+
+	private void topicRemoved(String topicURI) {
+		if (this.pathMatcher.isPattern(topicURI)) {
+			this.patterns.remove(topicURI);
+		}
+		else if (this.topicFilter != null) {
+			this.topicFilter.remove(topicURI);
+		}
+		else {
+			this.topics.remove(topicURI);
+		}
+		this.summaryOutdated = true;
+	}
+
+	private InterestSummary createSummary() {
+		List<String> patternsCopy = new ArrayList<>(this.patterns);
+		if (this.topicFilter != null) {
+			return new InterestSummary(this.topicFilter.toBloomFilter(), patternsCopy);
+		}
+
+		return new InterestSummary(this.topics, patternsCopy);
+	}
+
+}
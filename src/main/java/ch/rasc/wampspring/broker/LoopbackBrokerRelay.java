@@ -0,0 +1,191 @@
+/**
+ * Copyright 2014-2017 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.broker;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.Assert;
+import org.springframework.util.PathMatcher;
+
+import ch.rasc.wampspring.message.EventMessage;
+import ch.rasc.wampspring.message.WampMessageHeader;
+
+/**
+ * {@link BrokerRelay} that connects brokers running in the same JVM. All relays that
+ * share a {@link Network} form one cluster. Useful for tests and as a reference for
+ * relays that connect the nodes over a network transport.
+ */
+public class LoopbackBrokerRelay implements BrokerRelay {
+
+	private final Log logger = LogFactory.getLog(getClass());
+
+	private final String nodeId;
+
+	private final Network network;
+
+	private volatile MessageChannel brokerChannel;
+
+	private volatile InterestSummary interestSummary = InterestSummary.EMPTY;
+
+	private final AtomicLong forwardedEvents = new AtomicLong();
+
+	private final AtomicLong suppressedEvents = new AtomicLong();
+
+	private final AtomicLong receivedEvents = new AtomicLong();
+
+	public LoopbackBrokerRelay(String nodeId, Network network) {
+		Assert.notNull(nodeId, "'nodeId' must not be null");
+		Assert.notNull(network, "'network' must not be null");
+		this.nodeId = nodeId;
+		this.network = network;
+	}
+
+	@Override
+	public void start(MessageChannel channel) {
+		this.brokerChannel = channel;
+		this.network.join(this);
+	}
+
+	@Override
+	public void stop() {
+		this.network.leave(this);
+		this.brokerChannel = null;
+	}
+
+	@Override
+	public void forward(EventMessage eventMessage) {
+		for (LoopbackBrokerRelay peer : this.network.nodes) {
+			if (peer == this) {
+				continue;
+			}
+			if (peer.interestSummary.matches(eventMessage.getTopicURI(),
+					this.network.pathMatcher)) {
+				this.forwardedEvents.incrementAndGet();
+				peer.receive(eventMessage, this.nodeId);
+			}
+			else {
+				this.suppressedEvents.incrementAndGet();
+			}
+		}
+	}
+
+	@Override
+	public void updateInterest(InterestSummary summary) {
+		this.interestSummary = summary;
+	}
+
+	/**
+	 * Called by a peer. Delivers a copy of the event to the local broker.
+	 */
+	protected void receive(EventMessage eventMessage, String fromNodeId) {
+		MessageChannel channel = this.brokerChannel;
+		if (channel == null) {
+			return;
+		}
+
+		EventMessage copy = new EventMessage(eventMessage.getTopicURI(),
+				eventMessage.getEvent());
+		copy.setEligibleWebSocketSessionIds(
+				eventMessage.getEligibleWebSocketSessionIds());
+		copy.setExcludeWebSocketSessionIds(eventMessage.getExcludeWebSocketSessionIds());
+		copy.setHeader(WampMessageHeader.RELAY_NODE_ID, fromNodeId);
+
+		this.receivedEvents.incrementAndGet();
+		try {
+			channel.send(copy);
+		}
+		catch (Throwable ex) {
+			this.logger.error("Failed to deliver relayed " + copy, ex);
+		}
+	}
+
+	public String getNodeId() {
+		return this.nodeId;
+	}
+
+	/**
+	 * Returns the interest summary this node announced to its peers.
+	 */
+	public InterestSummary getInterestSummary() {
+		return this.interestSummary;
+	}
+
+	/**
+	 * Number of events sent to a peer.
+	 */
+	public long getForwardedEvents() {
+		return this.forwardedEvents.get();
+	}
+
+	/**
+	 * Number of times an event was not sent to a peer because the peer has no matching
+	 * subscription.
+	 */
+	public long getSuppressedEvents() {
+		return this.suppressedEvents.get();
+	}
+
+	/**
+	 * Number of events received from peers.
+	 */
+	public long getReceivedEvents() {
+		return this.receivedEvents.get();
+	}
+
+	@Override
+	public String toString() {
+		return "LoopbackBrokerRelay [nodeId=" + this.nodeId + "]";
+	}
+
+	/**
+	 * The nodes of a loopback cluster.
+	 */
+	public static class Network {
+
+		private final CopyOnWriteArrayList<LoopbackBrokerRelay> nodes;
+
+		private final PathMatcher pathMatcher;
+
+		public Network() {
+			this(new AntPathMatcher());
+		}
+
+		public Network(PathMatcher pathMatcher) {
+			this.nodes = new CopyOnWriteArrayList<>();
+			this.pathMatcher = pathMatcher;
+		}
+
+		void join(LoopbackBrokerRelay relay) {
+			this.nodes.addIfAbsent(relay);
+		}
+
+		void leave(LoopbackBrokerRelay relay) {
+			this.nodes.remove(relay);
+		}
+
+		public List<LoopbackBrokerRelay> getNodes() {
+			return this.nodes;
+		}
+
+	}
+
+}
@@ -0,0 +1,448 @@
+/**
+ * Copyright 2014-2017 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.broker;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.util.Assert;
+import org.springframework.util.PathMatcher;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ch.rasc.wampspring.message.EventMessage;
+
+/**
+ * {@link EventJournal} that appends the events to memory-mapped segment files in a
+ * directory.
+ * <p>
+ * A segment file is named after the offset of its first event and holds records of the
+ * form {@code [length: int][offset: long][topic length: short][topic][event as JSON]}.
+ * The length of a record is written last, so a record that was only partially written
+ * when the process died is ignored when the journal is opened again. When a segment is
+ * full a new one is started and the oldest segment is deleted if there are more than
+ * {@code maxSegments} segments.
+ * <p>
+ * For every segment a sparse index keeps the position of every 64th record. A replay
+ * starts at the indexed record before the requested offset and reads the segments
+ * sequentially from there. The indexes are rebuilt by scanning the segments when the
+ * journal is opened.
+ * <p>
+ * The journal only contains the events of topics that match one of the configured
+ * topic patterns. Without patterns every topic is journaled. Written records are in the
+ * page cache of the operating system and survive a crash of the JVM. Call
+ * {@link #force()} to write them to the storage device.
+ */
+public class MappedFileEventJournal implements EventJournal, Closeable {
+
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	public static final int DEFAULT_MAX_SEGMENTS = 16;
+
+	private static final String SEGMENT_SUFFIX = ".journal";
+
+	/** Size of offset and topic length of a record */
+	private static final int RECORD_HEADER_SIZE = 8 + 2;
+
+	private static final int INDEX_INTERVAL = 64;
+
+	private final Log logger = LogFactory.getLog(getClass());
+
+	private final File directory;
+
+	private final ObjectMapper objectMapper;
+
+	private final int segmentSize;
+
+	private final int maxSegments;
+
+	private final List<String> topicPatterns;
+
+	private final PathMatcher pathMatcher;
+
+	private final List<Segment> segments = new ArrayList<>();
+
+	private long nextOffset = 1;
+
+	public MappedFileEventJournal(File directory, ObjectMapper objectMapper)
+			throws IOException {
+		this(directory, objectMapper, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_SEGMENTS,
+				Collections.<String>emptyList(), null);
+	}
+
+	/**
+	 * @param directory directory of the segment files, created if it does not exist
+	 * @param objectMapper serializes and deserializes the events
+	 * @param segmentSize size of a segment file in bytes
+	 * @param maxSegments maximum number of segment files that are kept
+	 * @param topicPatterns only events of topics matching one of these patterns are
+	 * journaled, all events if the list is empty
+	 * @param pathMatcher matches the topic patterns and pattern subscriptions, may be
+	 * null if there are no topic patterns
+	 */
+	public MappedFileEventJournal(File directory, ObjectMapper objectMapper,
+			int segmentSize, int maxSegments, List<String> topicPatterns,
+			PathMatcher pathMatcher) throws IOException {
+		Assert.notNull(directory, "directory must not be null");
+		Assert.notNull(objectMapper, "objectMapper must not be null");
+		Assert.isTrue(segmentSize > 0, "segmentSize must be greater than 0");
+		Assert.isTrue(maxSegments > 0, "maxSegments must be greater than 0");
+		Assert.isTrue(topicPatterns.isEmpty() || pathMatcher != null,
+				"pathMatcher is required for topic patterns");
+
+		this.directory = directory;
+		this.objectMapper = objectMapper;
+		this.segmentSize = segmentSize;
+		this.maxSegments = maxSegments;
+		this.topicPatterns = new ArrayList<>(topicPatterns);
+		this.pathMatcher = pathMatcher;
+
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Failed to create directory " + directory);
+		}
+		open();
+	}
+
+	private void open() throws IOException {
+		File[] files = this.directory.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(SEGMENT_SUFFIX);
+			}
+		});
+		if (files == null) {
+			return;
+		}
+		Arrays.sort(files);
+
+		for (File file : files) {
+			String name = file.getName();
+			long baseOffset = Long
+					.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+			Segment segment = new Segment(file, baseOffset,
+					(int) Math.max(file.length(), this.segmentSize));
+			segment.recover();
+			this.segments.add(segment);
+			this.nextOffset = Math.max(this.nextOffset, segment.lastOffset + 1);
+		}
+	}
+
+	/**
+	 * Returns true if the events of the topic are journaled.
+	 */
+	public boolean isJournaled(String topicURI) {
+		if (this.topicPatterns.isEmpty()) {
+			return true;
+		}
+		for (String pattern : this.topicPatterns) {
+			if (this.pathMatcher.match(pattern, topicURI)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public long append(EventMessage eventMessage) {
+		String topicURI = eventMessage.getTopicURI();
+		if (!isJournaled(topicURI)) {
+			return -1;
+		}
+
+		try {
+			byte[] topic = topicURI.getBytes(StandardCharsets.UTF_8);
+			byte[] event = this.objectMapper.writeValueAsBytes(eventMessage.getEvent());
+			int length = RECORD_HEADER_SIZE + topic.length + event.length;
+			// the record and the terminating zero length have to fit into a segment
+			if (topic.length > 0xFFFF || length + 8 > this.segmentSize) {
+				this.logger.warn("Event is too large for the journal: " + eventMessage);
+				return -1;
+			}
+
+			synchronized (this.segments) {
+				Segment segment = this.segments.isEmpty() ? null
+						: this.segments.get(this.segments.size() - 1);
+				if (segment == null || segment.remaining() < length + 8) {
+					segment = roll();
+				}
+				long offset = this.nextOffset++;
+				segment.append(offset, topic, event, length);
+				return offset;
+			}
+		}
+		catch (IOException e) {
+			this.logger.error("Failed to append " + eventMessage + " to the journal", e);
+			return -1;
+		}
+	}
+
+	private Segment roll() throws IOException {
+		File file = new File(this.directory,
+				String.format("%020d", this.nextOffset) + SEGMENT_SUFFIX);
+		Segment segment = new Segment(file, this.nextOffset, this.segmentSize);
+		this.segments.add(segment);
+
+		while (this.segments.size() > this.maxSegments) {
+			Segment oldest = this.segments.remove(0);
+			oldest.close();
+			if (!oldest.file.delete()) {
+				this.logger.warn("Failed to delete journal segment " + oldest.file);
+			}
+		}
+		return segment;
+	}
+
+	@Override
+	public List<EventMessage> read(String topicURI, long afterOffset, int maxEvents) {
+		boolean pattern = this.pathMatcher != null
+				&& this.pathMatcher.isPattern(topicURI);
+
+		// the records before the write position of a segment never change, they are
+		// read without holding the lock so that appends are not blocked by a replay
+		List<SegmentRange> ranges = new ArrayList<>();
+		synchronized (this.segments) {
+			for (Segment segment : this.segments) {
+				if (segment.lastOffset > afterOffset) {
+					ranges.add(new SegmentRange(segment,
+							segment.startPosition(afterOffset), segment.writePosition));
+				}
+			}
+		}
+
+		List<EventMessage> result = new ArrayList<>();
+		for (SegmentRange range : ranges) {
+			try {
+				if (!range.segment.read(topicURI, pattern, afterOffset,
+						range.startPosition, range.endPosition, maxEvents, result)) {
+					break;
+				}
+			}
+			catch (IOException e) {
+				this.logger.error(
+						"Failed to read journal segment " + range.segment.file, e);
+				break;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the offset the next event will get.
+	 */
+	public long getNextOffset() {
+		synchronized (this.segments) {
+			return this.nextOffset;
+		}
+	}
+
+	/**
+	 * Returns the number of segment files.
+	 */
+	public int getSegmentCount() {
+		synchronized (this.segments) {
+			return this.segments.size();
+		}
+	}
+
+	/**
+	 * Writes the content of the segments to the storage device.
+	 */
+	public void force() {
+		synchronized (this.segments) {
+			for (Segment segment : this.segments) {
+				segment.buffer.force();
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		synchronized (this.segments) {
+			for (Segment segment : this.segments) {
+				segment.buffer.force();
+				segment.close();
+			}
+			this.segments.clear();
+		}
+	}
+
+	/**
+	 * The records of a segment a read has to scan, taken while the lock is held.
+	 */
+	private static class SegmentRange {
+
+		final Segment segment;
+
+		final int startPosition;
+
+		final int endPosition;
+
+		SegmentRange(Segment segment, int startPosition, int endPosition) {
+			this.segment = segment;
+			this.startPosition = startPosition;
+			this.endPosition = endPosition;
+		}
+	}
+
+	private class Segment {
+
+		final File file;
+
+		final FileChannel channel;
+
+		final MappedByteBuffer buffer;
+
+		/** Map from offset -> position of every INDEX_INTERVAL record */
+		final TreeMap<Long, Integer> index = new TreeMap<>();
+
+		int writePosition = 0;
+
+		long lastOffset;
+
+		int records = 0;
+
+		Segment(File file, long baseOffset, int size) throws IOException {
+			this.file = file;
+			this.lastOffset = baseOffset - 1;
+			@SuppressWarnings("resource")
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			this.channel = raf.getChannel();
+			this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+
+		/**
+		 * Scans the records of an existing segment and rebuilds the index.
+		 */
+		void recover() {
+			int position = 0;
+			int limit = this.buffer.capacity();
+			while (position + 4 <= limit) {
+				int length = this.buffer.getInt(position);
+				if (length < RECORD_HEADER_SIZE || position + 4 + length > limit) {
+					break;
+				}
+				indexRecord(this.buffer.getLong(position + 4), position);
+				position += 4 + length;
+			}
+			this.writePosition = position;
+		}
+
+		int remaining() {
+			return this.buffer.capacity() - this.writePosition;
+		}
+
+		void append(long offset, byte[] topic, byte[] event, int length) {
+			int position = this.writePosition;
+			this.buffer.position(position + 4);
+			this.buffer.putLong(offset);
+			this.buffer.putShort((short) topic.length);
+			this.buffer.put(topic);
+			this.buffer.put(event);
+			// writing the length last marks the record as complete
+			this.buffer.putInt(position, length);
+			indexRecord(offset, position);
+			this.writePosition = position + 4 + length;
+		}
+
+		private void indexRecord(long offset, int position) {
+			if (this.records++ % INDEX_INTERVAL == 0) {
+				this.index.put(offset, position);
+			}
+			this.lastOffset = offset;
+		}
+
+		/**
+		 * Returns the position of the indexed record before the offset. Has to be called
+		 * while the lock is held.
+		 */
+		int startPosition(long afterOffset) {
+			Map.Entry<Long, Integer> start = this.index.floorEntry(afterOffset + 1);
+			return start != null ? start.getValue() : 0;
+		}
+
+		/**
+		 * Adds the matching events after the offset between the two positions to the
+		 * result.
+		 * @return false if the result is full
+		 */
+		boolean read(String topicURI, boolean pattern, long afterOffset,
+				int startPosition, int endPosition, int maxEvents,
+				List<EventMessage> result) throws IOException {
+			int position = startPosition;
+
+			while (position < endPosition) {
+				int length = this.buffer.getInt(position);
+				long offset = this.buffer.getLong(position + 4);
+				if (offset > afterOffset) {
+					int topicLength = this.buffer.getShort(position + 12) & 0xFFFF;
+					byte[] topic = new byte[topicLength];
+					readBytes(position + 4 + RECORD_HEADER_SIZE, topic);
+					String recordTopicURI = new String(topic, StandardCharsets.UTF_8);
+
+					if (pattern
+							? MappedFileEventJournal.this.pathMatcher.match(topicURI,
+									recordTopicURI)
+							: topicURI.equals(recordTopicURI)) {
+						byte[] event = new byte[length - RECORD_HEADER_SIZE
+								- topicLength];
+						readBytes(position + 4 + RECORD_HEADER_SIZE + topicLength, event);
+						EventMessage eventMessage = new EventMessage(recordTopicURI,
+								MappedFileEventJournal.this.objectMapper.readValue(event,
+										Object.class));
+						eventMessage.setOffset(offset);
+						result.add(eventMessage);
+						if (result.size() >= maxEvents) {
+							return false;
+						}
+					}
+				}
+				position += 4 + length;
+			}
+			return true;
+		}
+
+		private void readBytes(int position, byte[] dest) {
+			ByteBuffer source = this.buffer.duplicate();
+			source.position(position);
+			source.get(dest);
+		}
+
+		void close() {
+			try {
+				this.channel.close();
+			}
+			catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+
+}
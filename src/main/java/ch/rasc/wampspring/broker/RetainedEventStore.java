@@ -0,0 +1,151 @@
+/**
+ * Copyright 2014-2017 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.broker;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.util.Assert;
+import org.springframework.util.PathMatcher;
+
+import ch.rasc.wampspring.message.EventMessage;
+
+/**
+ * Keeps the last events of every topicURI, so that the {@link SimpleBrokerMessageHandler}
+ * can send them to a client immediately after it subscribed. Clients no longer need an
+ * additional CALL to fetch the current state of a topic.
+ * <p>
+ * The store holds up to {@code eventsPerTopic} events for each of up to
+ * {@code maxTopics} topics. When the limit of topics is reached the topic that was
+ * least recently published to or subscribed to is evicted.
+ * <p>
+ * Only events that are sent to all subscribers are retained, events with a list of
+ * eligible or excluded receivers are not. The broker does not retain PUBLISH messages
+ * with excludeMe either. When a {@link PathMatcher} is configured a subscription to a
+ * pattern receives the retained events of all matching topics.
+ */
+public class RetainedEventStore {
+
+	private final int maxTopics;
+
+	private final int eventsPerTopic;
+
+	private final PathMatcher pathMatcher;
+
+	private final Map<String, Deque<EventMessage>> events;
+
+	public RetainedEventStore(int maxTopics, int eventsPerTopic) {
+		this(maxTopics, eventsPerTopic, null);
+	}
+
+	public RetainedEventStore(final int maxTopics, int eventsPerTopic,
+			PathMatcher pathMatcher) {
+		Assert.isTrue(maxTopics > 0, "maxTopics must be greater than 0");
+		Assert.isTrue(eventsPerTopic > 0, "eventsPerTopic must be greater than 0");
+		this.maxTopics = maxTopics;
+		this.eventsPerTopic = eventsPerTopic;
+		this.pathMatcher = pathMatcher;
+		this.events = new LinkedHashMap<String, Deque<EventMessage>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<String, Deque<EventMessage>> eldest) {
+				return size() > maxTopics;
+			}
+		};
+	}
+
+	/**
+	 * Retains the event if it is sent to all subscribers of its topic.
+	 */
+	public void retain(EventMessage eventMessage) {
+		if (eventMessage.getEligibleWebSocketSessionIds() != null
+				|| eventMessage.getExcludeWebSocketSessionIds() != null) {
+			return;
+		}
+
+		synchronized (this.events) {
+			Deque<EventMessage> topicEvents = this.events
+					.get(eventMessage.getTopicURI());
+			if (topicEvents == null) {
+				topicEvents = new ArrayDeque<>(this.eventsPerTopic);
+				this.events.put(eventMessage.getTopicURI(), topicEvents);
+			}
+			else if (topicEvents.size() == this.eventsPerTopic) {
+				topicEvents.poll();
+			}
+			topicEvents.add(eventMessage);
+		}
+	}
+
+	/**
+	 * Returns the retained events for a subscription to the given topicURI, oldest
+	 * first.
+	 */
+	public List<EventMessage> getRetainedEvents(String topicURI) {
+		synchronized (this.events) {
+			if (this.pathMatcher != null && this.pathMatcher.isPattern(topicURI)) {
+				List<EventMessage> result = new ArrayList<>();
+				for (Map.Entry<String, Deque<EventMessage>> entry : this.events
+						.entrySet()) {
+					if (this.pathMatcher.match(topicURI, entry.getKey())) {
+						result.addAll(entry.getValue());
+					}
+				}
+				return result;
+			}
+
+			Deque<EventMessage> topicEvents = this.events.get(topicURI);
+			if (topicEvents == null) {
+				return Collections.emptyList();
+			}
+			return new ArrayList<>(topicEvents);
+		}
+	}
+
+	/**
+	 * Removes the retained events of the topicURI.
+	 */
+	public void remove(String topicURI) {
+		synchronized (this.events) {
+			this.events.remove(topicURI);
+		}
+	}
+
+	/**
+	 * Returns the number of topics with retained events.
+	 */
+	public int getTopicCount() {
+		synchronized (this.events) {
+			return this.events.size();
+		}
+	}
+
+	public int getMaxTopics() {
+		return this.maxTopics;
+	}
+
+	public int getEventsPerTopic() {
+		return this.eventsPerTopic;
+	}
+
+}
@@ -15,7 +15,19 @@
  */
 package ch.rasc.wampspring.broker;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -24,9 +36,14 @@ import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageChannel;
 import org.springframework.messaging.MessageHandler;
 import org.springframework.messaging.SubscribableChannel;
+import org.springframework.util.AntPathMatcher;
 import org.springframework.util.Assert;
+import org.springframework.util.PathMatcher;
+
+import com.fasterxml.jackson.core.JsonFactory;
 
 import ch.rasc.wampspring.config.WampMessageSelector;
+import ch.rasc.wampspring.config.WampMetrics;
 import ch.rasc.wampspring.config.WampSession;
 import ch.rasc.wampspring.message.EventMessage;
 import ch.rasc.wampspring.message.PubSubMessage;
@@ -34,6 +51,7 @@ import ch.rasc.wampspring.message.PublishMessage;
 import ch.rasc.wampspring.message.SubscribeMessage;
 import ch.rasc.wampspring.message.UnsubscribeMessage;
 import ch.rasc.wampspring.message.WampMessage;
+import ch.rasc.wampspring.message.WampMessageHeader;
 import ch.rasc.wampspring.message.WampMessageType;
 
 /**
@@ -62,6 +80,53 @@ public class SimpleBrokerMessageHandler implements MessageHandler, SmartLifecycl
 
 	private boolean authenticationRequiredGlobal = false;
 
+	private JsonFactory jsonFactory;
+
+	private RetainedEventStore retainedEventStore;
+
+	private EventJournal eventJournal;
+
+	private int maxReplayEvents = 10_000;
+
+	private BrokerRelay brokerRelay;
+
+	private InterestTracker interestTracker;
+
+	/**
+	 * Held while the interest summary is read and announced, so an older summary never
+	 * overtakes a newer one.
+	 */
+	private final Object interestMonitor = new Object();
+
+	/** Set when the interest changed and the summary was not announced yet */
+	private final AtomicBoolean interestChanged = new AtomicBoolean(false);
+
+	private PathMatcher pathMatcher = new AntPathMatcher();
+
+	private WampMetrics wampMetrics;
+
+	/**
+	 * Read lock held while an event is stored and its subscribers are looked up, write
+	 * lock held while a subscription is registered and the events it missed are read.
+	 * Only used when events are retained or journaled.
+	 */
+	private final ReadWriteLock storeLock = new ReentrantReadWriteLock();
+
+	/**
+	 * Sessions that subscribed with a journal offset. Only these sessions receive the
+	 * offsets of the journaled events.
+	 */
+	private final Set<String> offsetSessionIds = Collections
+			.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	/**
+	 * Sessions whose subscriptions still have to be removed. Closed sessions that arrive
+	 * while another thread is busy with the registry are removed together in one
+	 * {@link BatchSubscriptionRegistry#unregisterSessions(java.util.Collection)} call if
+	 * the registry supports it.
+	 */
+	private final Queue<String> pendingSessionCleanups = new ConcurrentLinkedQueue<>();
+
 	public SimpleBrokerMessageHandler(SubscribableChannel inboundChannel,
 			MessageChannel outboundChannel, SubscribableChannel brokerChannel,
 			SubscriptionRegistry subscriptionRegistry,
@@ -84,6 +149,103 @@ public class SimpleBrokerMessageHandler implements MessageHandler, SmartLifecycl
 		this.authenticationRequiredGlobal = authenticationRequiredGlobal;
 	}
 
+	/**
+	 * Enables the pre-encoded event mode. When a {@link JsonFactory} is set, the broker
+	 * serializes every EVENT message only once and all receivers share the encoded frame.
+	 * The factory should be the same instance the JSON codec of the
+	 * {@link ch.rasc.wampspring.config.WampSubProtocolHandler} uses. Sessions with another
+	 * codec, e.g. a {@link ch.rasc.wampspring.message.BinaryWampMessageCodec}, share a
+	 * second frame that the first of them serializes.
+	 * <p>
+	 * By default this is null and every EVENT message is serialized per receiver.
+	 */
+	public void setJsonFactory(JsonFactory jsonFactory) {
+		this.jsonFactory = jsonFactory;
+	}
+
+	/**
+	 * Enables the last value cache. Every event sent to all subscribers of a topic is
+	 * kept in the store and a new subscriber immediately receives the retained events of
+	 * the topic.
+	 * <p>
+	 * By default this is null and a subscriber only receives events that are published
+	 * after it subscribed.
+	 */
+	public void setRetainedEventStore(RetainedEventStore retainedEventStore) {
+		this.retainedEventStore = retainedEventStore;
+	}
+
+	public RetainedEventStore getRetainedEventStore() {
+		return this.retainedEventStore;
+	}
+
+	/**
+	 * Enables the event journal. Every event sent to all subscribers of a journaled topic
+	 * is appended to the journal and carries its offset. A client that sends a SUBSCRIBE
+	 * message with the offset of the last event it received gets the events it missed,
+	 * see {@link SubscribeMessage#getReplayOffset()}.
+	 * <p>
+	 * By default this is null and no events are journaled.
+	 */
+	public void setEventJournal(EventJournal eventJournal) {
+		this.eventJournal = eventJournal;
+	}
+
+	public EventJournal getEventJournal() {
+		return this.eventJournal;
+	}
+
+	/**
+	 * Maximum number of events that are replayed for one SUBSCRIBE message. By default
+	 * this is set to 10000.
+	 */
+	public void setMaxReplayEvents(int maxReplayEvents) {
+		this.maxReplayEvents = maxReplayEvents;
+	}
+
+	/**
+	 * Connects this broker with the brokers of other nodes. Events published on this
+	 * node are forwarded to the peers that have subscribers for the topicURI and events
+	 * received from the peers are delivered to the local subscribers.
+	 */
+	public void setBrokerRelay(BrokerRelay brokerRelay) {
+		this.brokerRelay = brokerRelay;
+	}
+
+	public BrokerRelay getBrokerRelay() {
+		return this.brokerRelay;
+	}
+
+	/**
+	 * Sets the {@link PathMatcher} that decides if a subscribed topicURI is a pattern.
+	 * Used for the interest summary that is announced through the {@link BrokerRelay}.
+	 * Default is an {@link AntPathMatcher}.
+	 */
+	public void setPathMatcher(PathMatcher pathMatcher) {
+		this.pathMatcher = pathMatcher;
+	}
+
+	/**
+	 * Sets the tracker that creates the interest summary announced through the
+	 * {@link BrokerRelay}. By default a tracker that lists the topicURIs exactly is
+	 * created when the broker starts.
+	 */
+	public void setInterestTracker(InterestTracker interestTracker) {
+		this.interestTracker = interestTracker;
+	}
+
+	public InterestTracker getInterestTracker() {
+		return this.interestTracker;
+	}
+
+	/**
+	 * Reports the number of receivers of each event and the time it took to find them
+	 * in the {@link SubscriptionRegistry} to the given metrics.
+	 */
+	public void setWampMetrics(WampMetrics wampMetrics) {
+		this.wampMetrics = wampMetrics;
+	}
+
 	public void setAutoStartup(boolean autoStartup) {
 		this.autoStartup = autoStartup;
 	}
@@ -106,6 +268,13 @@ public class SimpleBrokerMessageHandler implements MessageHandler, SmartLifecycl
 			}
 			this.clientInboundChannel.subscribe(this);
 			this.brokerChannel.subscribe(this);
+			if (this.brokerRelay != null) {
+				if (this.interestTracker == null) {
+					this.interestTracker = new InterestTracker(this.pathMatcher);
+				}
+				this.brokerRelay.start(this.brokerChannel);
+				this.brokerRelay.updateInterest(this.interestTracker.getSummary());
+			}
 			this.running = true;
 			this.logger.info("Started.");
 		}
@@ -119,6 +288,9 @@ public class SimpleBrokerMessageHandler implements MessageHandler, SmartLifecycl
 			}
 			this.clientInboundChannel.unsubscribe(this);
 			this.brokerChannel.unsubscribe(this);
+			if (this.brokerRelay != null) {
+				this.brokerRelay.stop();
+			}
 			this.running = false;
 			this.logger.info("Stopped.");
 		}
@@ -157,29 +329,122 @@ public class SimpleBrokerMessageHandler implements MessageHandler, SmartLifecycl
 		WampMessageType messageType = wampMessage.getType();
 
 		if (messageType == WampMessageType.EVENT) {
-			sendMessageToSubscribers((EventMessage) wampMessage);
+			EventMessage eventMessage = (EventMessage) wampMessage;
+			sendMessageToSubscribers(eventMessage);
+			if (this.brokerRelay != null && eventMessage
+					.getHeader(WampMessageHeader.RELAY_NODE_ID) == null) {
+				this.brokerRelay.forward(eventMessage);
+			}
 		}
 		else if (messageType == WampMessageType.PUBLISH) {
 			checkAuthentication(wampMessage);
-			sendMessageToSubscribers((PublishMessage) wampMessage);
+			PublishMessage publishMessage = (PublishMessage) wampMessage;
+			sendMessageToSubscribers(publishMessage);
+			if (this.brokerRelay != null) {
+				this.brokerRelay.forward(toRelayEvent(publishMessage));
+			}
 		}
 		else if (messageType == WampMessageType.SUBSCRIBE) {
 			checkAuthentication(wampMessage);
-			this.subscriptionRegistry
-					.registerSubscription((SubscribeMessage) wampMessage);
+			SubscribeMessage subscribeMessage = (SubscribeMessage) wampMessage;
+			if (this.eventJournal != null && subscribeMessage.getReplayOffset() != null) {
+				this.offsetSessionIds.add(subscribeMessage.getWebSocketSessionId());
+			}
+			registerSubscription(subscribeMessage);
+			if (this.interestTracker != null
+					&& this.interestTracker.subscribe(
+							subscribeMessage.getWebSocketSessionId(),
+							subscribeMessage.getTopicURI())) {
+				announceInterest();
+			}
 		}
 		else if (messageType == WampMessageType.UNSUBSCRIBE) {
 			UnsubscribeMessage unsubscribeMessage = (UnsubscribeMessage) wampMessage;
 			if (unsubscribeMessage.isCleanup()) {
-				this.subscriptionRegistry
-						.unregisterSession(unsubscribeMessage.getWebSocketSessionId());
+				this.pendingSessionCleanups
+						.add(unsubscribeMessage.getWebSocketSessionId());
+				unregisterPendingSessions();
 			}
 			else {
 				checkAuthentication(wampMessage);
 				this.subscriptionRegistry.unregisterSubscription(unsubscribeMessage);
+				if (this.interestTracker != null
+						&& this.interestTracker.unsubscribe(
+								unsubscribeMessage.getWebSocketSessionId(),
+								unsubscribeMessage.getTopicURI())) {
+					announceInterest();
+				}
+			}
+		}
+
+	}
+
+	private void unregisterPendingSessions() {
+		List<String> sessionIds = new ArrayList<>();
+		String sessionId;
+		while ((sessionId = this.pendingSessionCleanups.poll()) != null) {
+			sessionIds.add(sessionId);
+		}
+
+		this.offsetSessionIds.removeAll(sessionIds);
+
+		if (sessionIds.size() > 1
+				&& this.subscriptionRegistry instanceof BatchSubscriptionRegistry) {
+			((BatchSubscriptionRegistry) this.subscriptionRegistry)
+					.unregisterSessions(sessionIds);
+		}
+		else {
+			for (String id : sessionIds) {
+				this.subscriptionRegistry.unregisterSession(id);
+			}
+		}
+
+		if (this.interestTracker != null) {
+			boolean changed = false;
+			for (String id : sessionIds) {
+				changed |= this.interestTracker.unregisterSession(id);
+			}
+			if (changed) {
+				announceInterest();
+			}
+		}
+	}
+
+	private void announceInterest() {
+		if (this.brokerRelay == null) {
+			return;
+		}
+		this.interestChanged.set(true);
+		try {
+			synchronized (this.interestMonitor) {
+				// a thread that waited for the monitor may find its change already
+				// announced by the previous holder
+				if (this.interestChanged.compareAndSet(true, false)) {
+					this.brokerRelay.updateInterest(this.interestTracker.getSummary());
+				}
 			}
 		}
+		catch (Throwable ex) {
+			this.logger.error("Failed to announce interest to " + this.brokerRelay, ex);
+		}
+	}
 
+	/**
+	 * Creates the event that is forwarded to the peers for a PUBLISH message. The
+	 * publisher is added to the excluded sessions if the message requests excludeMe.
+	 */
+	protected EventMessage toRelayEvent(PublishMessage publishMessage) {
+		EventMessage eventMessage = new EventMessage(publishMessage.getTopicURI(),
+				publishMessage.getEvent());
+
+		Set<String> exclude = publishMessage.getExclude();
+		if (publishMessage.getExcludeMe() != null && publishMessage.getExcludeMe()) {
+			exclude = exclude != null ? new HashSet<>(exclude) : new HashSet<String>();
+			exclude.add(publishMessage.getWebSocketSessionId());
+		}
+		eventMessage.setExcludeWebSocketSessionIds(exclude);
+		eventMessage.setEligibleWebSocketSessionIds(publishMessage.getEligible());
+		return eventMessage;
 	}
 
 	private void checkAuthentication(WampMessage wampMessage) {
@@ -190,15 +455,108 @@ public class SimpleBrokerMessageHandler implements MessageHandler, SmartLifecycl
 		}
 	}
 
+	/**
+	 * Writes an event that is sent to all subscribers of its topic to the event journal
+	 * and the retained event store.
+	 */
+	protected void storeEvent(EventMessage eventMessage) {
+		if (this.eventJournal != null) {
+			long offset = this.eventJournal.append(eventMessage);
+			if (offset >= 0) {
+				eventMessage.setOffset(offset);
+			}
+		}
+		if (this.retainedEventStore != null) {
+			encodeEvent(eventMessage);
+			this.retainedEventStore.retain(eventMessage);
+		}
+	}
+
+	/**
+	 * Registers the subscription and sends the stored events the new subscriber missed.
+	 * No event is stored or delivered while this happens, so a concurrently published
+	 * event is either replayed or delivered live after the replayed events, never both.
+	 */
+	private void registerSubscription(SubscribeMessage subscribeMessage) {
+		if (this.retainedEventStore == null && this.eventJournal == null) {
+			this.subscriptionRegistry.registerSubscription(subscribeMessage);
+			return;
+		}
+
+		Lock lock = this.storeLock.writeLock();
+		lock.lock();
+		try {
+			this.subscriptionRegistry.registerSubscription(subscribeMessage);
+			for (EventMessage event : getMissedEvents(subscribeMessage)) {
+				sendEventMessage(
+						copyEventMessage(event, subscribeMessage.getWebSocketSessionId()));
+			}
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the events the new subscriber missed since the offset in the SUBSCRIBE
+	 * message or, if the message does not contain an offset, the retained events of the
+	 * topic.
+	 */
+	protected List<EventMessage> getMissedEvents(SubscribeMessage subscribeMessage) {
+		if (this.eventJournal != null && subscribeMessage.getReplayOffset() != null) {
+			return this.eventJournal.read(subscribeMessage.getTopicURI(),
+					subscribeMessage.getReplayOffset(), this.maxReplayEvents);
+		}
+		if (this.retainedEventStore != null) {
+			return this.retainedEventStore
+					.getRetainedEvents(subscribeMessage.getTopicURI());
+		}
+		return Collections.emptyList();
+	}
+
+	/**
+	 * Locks the stores while an event is stored and its subscribers are looked up.
+	 * Returns null if events are neither retained nor journaled.
+	 */
+	private Lock lockStore() {
+		if (this.retainedEventStore == null && this.eventJournal == null) {
+			return null;
+		}
+		Lock lock = this.storeLock.readLock();
+		lock.lock();
+		return lock;
+	}
+
 	protected void sendMessageToSubscribers(EventMessage eventMessage) {
-		Set<String> sessionIds = this.subscriptionRegistry
-				.findSubscriptions(eventMessage);
+		Set<String> sessionIds;
+		long lookupNanos = 0;
+		Lock lock = lockStore();
+		try {
+			if (eventMessage.getEligibleWebSocketSessionIds() == null
+					&& eventMessage.getExcludeWebSocketSessionIds() == null) {
+				storeEvent(eventMessage);
+			}
+
+			long start = this.wampMetrics != null ? System.nanoTime() : 0;
+			sessionIds = this.subscriptionRegistry.findSubscriptions(eventMessage);
+			if (this.wampMetrics != null) {
+				lookupNanos = System.nanoTime() - start;
+			}
+		}
+		finally {
+			if (lock != null) {
+				lock.unlock();
+			}
+		}
+		int receivers = 0;
 
 		if (sessionIds.size() > 0) {
 			if (this.logger.isDebugEnabled()) {
 				this.logger.debug("Broadcasting to " + sessionIds.size() + " sessions.");
 			}
 
+			encodeEvent(eventMessage);
+
 			Set<String> eligibleSessionIds = eventMessage
 					.getEligibleWebSocketSessionIds();
 			Set<String> excludeSessionIds = eventMessage.getExcludeWebSocketSessionIds();
@@ -207,15 +565,18 @@ public class SimpleBrokerMessageHandler implements MessageHandler, SmartLifecycl
 				if (excludeSessionIds != null) {
 					if (!excludeSessionIds.contains(sessionId)) {
 						sendEventMessage(eventMessage, sessionId);
+						receivers++;
 					}
 				}
 				else if (eligibleSessionIds != null) {
 					if (eligibleSessionIds.contains(sessionId)) {
 						sendEventMessage(eventMessage, sessionId);
+						receivers++;
 					}
 				}
 				else {
 					sendEventMessage(eventMessage, sessionId);
+					receivers++;
 				}
 			}
 		}
@@ -224,11 +585,41 @@ public class SimpleBrokerMessageHandler implements MessageHandler, SmartLifecycl
 				this.logger.debug("No subscriptions found for " + eventMessage);
 			}
 		}
+
+		if (this.wampMetrics != null) {
+			this.wampMetrics.eventBroadcast(receivers, lookupNanos);
+		}
 	}
 
 	protected void sendMessageToSubscribers(PublishMessage publishMessage) {
-		Set<String> subscribedSessionIds = this.subscriptionRegistry
-				.findSubscriptions(publishMessage);
+		EventMessage storedEvent = null;
+		Set<String> subscribedSessionIds;
+		long lookupNanos = 0;
+		Lock lock = lockStore();
+		try {
+			// like events with excluded receivers, an event that is not sent back to
+			// the publisher is not stored, it would be replayed to the publisher
+			if (lock != null && publishMessage.getEligible() == null
+					&& publishMessage.getExclude() == null
+					&& !Boolean.TRUE.equals(publishMessage.getExcludeMe())) {
+				storedEvent = new EventMessage(publishMessage,
+						publishMessage.getWebSocketSessionId());
+				storeEvent(storedEvent);
+			}
+
+			long start = this.wampMetrics != null ? System.nanoTime() : 0;
+			subscribedSessionIds = this.subscriptionRegistry
+					.findSubscriptions(publishMessage);
+			if (this.wampMetrics != null) {
+				lookupNanos = System.nanoTime() - start;
+			}
+		}
+		finally {
+			if (lock != null) {
+				lock.unlock();
+			}
+		}
+		int receivers = 0;
 
 		if (subscribedSessionIds.size() > 0) {
 			if (this.logger.isDebugEnabled()) {
@@ -236,9 +627,17 @@ public class SimpleBrokerMessageHandler implements MessageHandler, SmartLifecycl
 						"Broadcasting to " + subscribedSessionIds.size() + " sessions.");
 			}
 
+			EventMessage eventMessage = storedEvent;
+			if (eventMessage == null) {
+				eventMessage = new EventMessage(publishMessage,
+						publishMessage.getWebSocketSessionId());
+				encodeEvent(eventMessage);
+			}
+
 			for (String subscriptionSessionId : subscribedSessionIds) {
 				if (isSessionEligible(publishMessage, subscriptionSessionId)) {
-					sendEventMessage(publishMessage, subscriptionSessionId);
+					sendEventMessage(eventMessage, subscriptionSessionId);
+					receivers++;
 				}
 			}
 		}
@@ -247,21 +646,69 @@ public class SimpleBrokerMessageHandler implements MessageHandler, SmartLifecycl
 				this.logger.debug("No subscriptions found for " + publishMessage);
 			}
 		}
+
+		if (this.wampMetrics != null) {
+			this.wampMetrics.eventBroadcast(receivers, lookupNanos);
+		}
 	}
 
+	/**
+	 * Sends a broadcast event to one subscriber. The copy is marked as conflatable, a
+	 * lagging subscriber may only receive the latest event of the topic.
+	 */
 	protected void sendEventMessage(EventMessage originEventMessage,
 			String receiverSessionId) {
-		EventMessage eventMessage = new EventMessage(originEventMessage,
+		EventMessage eventMessage = copyEventMessage(originEventMessage,
 				receiverSessionId);
+		eventMessage.setConflatable(true);
 		sendEventMessage(eventMessage);
 	}
 
+	/**
+	 * Creates the copy of an event for one receiver. The journal offset is only sent to
+	 * sessions that subscribed with an offset, other clients receive a standard EVENT
+	 * message.
+	 */
+	private EventMessage copyEventMessage(EventMessage originEventMessage,
+			String receiverSessionId) {
+		EventMessage eventMessage = new EventMessage(originEventMessage,
+				receiverSessionId);
+		if (eventMessage.getOffset() != null
+				&& !this.offsetSessionIds.contains(receiverSessionId)) {
+			eventMessage.setOffset(null);
+		}
+		return eventMessage;
+	}
+
+	/**
+	 * Creates the EVENT message for one receiver of a PUBLISH message and sends it.
+	 * @deprecated the broker no longer calls this method. A PUBLISH message is converted
+	 * to one encoded {@link EventMessage} that is sent to every receiver with
+	 * {@link #sendEventMessage(EventMessage, String)}, override that method instead.
+	 */
+	@Deprecated
 	protected void sendEventMessage(PublishMessage publishMessage,
 			String receiverSessionId) {
 		EventMessage eventMessage = new EventMessage(publishMessage, receiverSessionId);
 		sendEventMessage(eventMessage);
 	}
 
+	/**
+	 * Serializes the event once so that the copies created for each receiver share the
+	 * same frame. If serialization fails the message is left untouched and every copy is
+	 * serialized on its own when it is sent to the client.
+	 */
+	protected void encodeEvent(EventMessage eventMessage) {
+		if (this.jsonFactory != null && !eventMessage.isEncoded()) {
+			try {
+				eventMessage.encode(this.jsonFactory);
+			}
+			catch (IOException ex) {
+				this.logger.error("Failed to encode " + eventMessage, ex);
+			}
+		}
+	}
+
 	protected void sendEventMessage(EventMessage eventMessage) {
 		try {
 			this.clientOutboundChannel.send(eventMessage);
@@ -0,0 +1,435 @@
+/**
+ * Copyright 2014-2017 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.broker;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.Assert;
+import org.springframework.util.PathMatcher;
+import org.springframework.util.StringUtils;
+
+import ch.rasc.wampspring.message.PubSubMessage;
+import ch.rasc.wampspring.message.SubscribeMessage;
+import ch.rasc.wampspring.message.UnsubscribeMessage;
+
+/**
+ * A {@link SubscriptionRegistry} that indexes the subscriptions by destination instead
+ * of scanning all sessions on a lookup.
+ * <p>
+ * Subscriptions to a topicURI without wildcards are stored in a hash map. Subscriptions
+ * to a pattern are stored in a trie keyed by the path segments of the pattern. A lookup
+ * only follows the trie branches whose segment matches the corresponding segment of the
+ * destination, so the cost depends on the depth of the topicURI and the number of
+ * matching patterns and not on the number of sessions. Every candidate pattern is
+ * confirmed with the {@link PathMatcher} before its sessions are returned.
+ * <p>
+ * Subscribe and unsubscribe calls update the destinations of the session and the index
+ * together while holding a write lock, lookups of topicURIs without wildcards do not
+ * lock.
+ * <p>
+ * The trie splits patterns and destinations with the path separator of the
+ * {@link PathMatcher}. The default is {@link AntPathMatcher#DEFAULT_PATH_SEPARATOR}, use
+ * {@link #TrieSubscriptionRegistry(PathMatcher, String)} if the matcher is configured
+ * with a different separator.
+ *
+ * <pre class="code">
+ * &#064;Configuration
+ * public class WampConfig extends DefaultWampConfiguration {
+ *
+ * 	&#064;Override
+ * 	&#064;Bean
+ * 	public SubscriptionRegistry subscriptionRegistry() {
+ * 		return new TrieSubscriptionRegistry(pathMatcher());
+ * 	}
+ * }
+ * </pre>
+ */
+public class TrieSubscriptionRegistry implements BatchSubscriptionRegistry {
+
+	private final PathMatcher pathMatcher;
+
+	private final String pathSeparator;
+
+	// topicURI -> webSocketSessionIds, only destinations that are not a pattern
+	private final ConcurrentMap<String, Set<String>> exactSubscriptions = new ConcurrentHashMap<>();
+
+	// webSocketSessionId -> destinations
+	private final ConcurrentMap<String, Set<String>> sessionDestinations = new ConcurrentHashMap<>();
+
+	private final PatternNode patternRoot = new PatternNode();
+
+	// guards updates of sessionDestinations and the indexes and reads of the pattern trie
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private volatile int patternCount = 0;
+
+	public TrieSubscriptionRegistry(PathMatcher pathMatcher) {
+		this(pathMatcher, AntPathMatcher.DEFAULT_PATH_SEPARATOR);
+	}
+
+	public TrieSubscriptionRegistry(PathMatcher pathMatcher, String pathSeparator) {
+		Assert.notNull(pathMatcher, "'pathMatcher' must not be null");
+		Assert.hasLength(pathSeparator, "'pathSeparator' must not be empty");
+		this.pathMatcher = pathMatcher;
+		this.pathSeparator = pathSeparator;
+	}
+
+	@Override
+	public void registerSubscription(SubscribeMessage subscribeMessage) {
+		String sessionId = subscribeMessage.getWebSocketSessionId();
+		String destination = subscribeMessage.getTopicURI();
+		if (sessionId != null && destination != null) {
+			this.lock.writeLock().lock();
+			try {
+				if (addSessionDestination(sessionId, destination)) {
+					addToIndex(sessionId, destination);
+				}
+			}
+			finally {
+				this.lock.writeLock().unlock();
+			}
+		}
+	}
+
+	@Override
+	public void unregisterSubscription(UnsubscribeMessage unsubscribeMessage) {
+		String sessionId = unsubscribeMessage.getWebSocketSessionId();
+		String destination = unsubscribeMessage.getTopicURI();
+		if (sessionId != null && destination != null) {
+			this.lock.writeLock().lock();
+			try {
+				Set<String> destinations = this.sessionDestinations.get(sessionId);
+				if (destinations != null && destinations.remove(destination)) {
+					if (destinations.isEmpty()) {
+						this.sessionDestinations.remove(sessionId);
+					}
+					removeFromIndex(sessionId, destination);
+				}
+			}
+			finally {
+				this.lock.writeLock().unlock();
+			}
+		}
+	}
+
+	@Override
+	public void unregisterSession(String webSocketSessionId) {
+		this.lock.writeLock().lock();
+		try {
+			Set<String> destinations = this.sessionDestinations
+					.remove(webSocketSessionId);
+			if (destinations != null) {
+				for (String destination : destinations) {
+					removeFromIndex(webSocketSessionId, destination);
+				}
+			}
+		}
+		finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes the subscriptions of all sessions while holding the write lock only once.
+	 */
+	@Override
+	public void unregisterSessions(Collection<String> webSocketSessionIds) {
+		this.lock.writeLock().lock();
+		try {
+			for (String webSocketSessionId : webSocketSessionIds) {
+				Set<String> destinations = this.sessionDestinations
+						.remove(webSocketSessionId);
+				if (destinations != null) {
+					for (String destination : destinations) {
+						removeFromIndex(webSocketSessionId, destination);
+					}
+				}
+			}
+		}
+		finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public Set<String> findSubscriptions(PubSubMessage pubSubMessage) {
+		String destination = pubSubMessage.getDestination();
+		if (destination == null) {
+			return Collections.emptySet();
+		}
+
+		Set<String> exact = this.exactSubscriptions.get(destination);
+		if (this.patternCount == 0) {
+			return exact != null ? Collections.unmodifiableSet(exact)
+					: Collections.<String>emptySet();
+		}
+
+		Set<String> sessionIds = new HashSet<>();
+		if (exact != null) {
+			sessionIds.addAll(exact);
+		}
+
+		String[] segments = tokenize(destination);
+		this.lock.readLock().lock();
+		try {
+			collectPatternSubscriptions(this.patternRoot, segments, 0, destination,
+					sessionIds);
+		}
+		finally {
+			this.lock.readLock().unlock();
+		}
+		return sessionIds;
+	}
+
+	@Override
+	public boolean hasSubscriptions() {
+		return !this.sessionDestinations.isEmpty();
+	}
+
+	/**
+	 * Number of sessions with at least one subscription.
+	 */
+	public int getSessionCount() {
+		return this.sessionDestinations.size();
+	}
+
+	/**
+	 * Number of subscriptions of all sessions.
+	 */
+	public int getSubscriptionCount() {
+		int count = 0;
+		for (Set<String> destinations : this.sessionDestinations.values()) {
+			count += destinations.size();
+		}
+		return count;
+	}
+
+	private boolean addSessionDestination(String sessionId, String destination) {
+		Set<String> destinations = this.sessionDestinations.get(sessionId);
+		if (destinations == null) {
+			destinations = newConcurrentSet();
+			this.sessionDestinations.put(sessionId, destinations);
+		}
+		return destinations.add(destination);
+	}
+
+	/**
+	 * Adds the session to the index of the destination. Has to be called while holding
+	 * the write lock.
+	 */
+	private void addToIndex(String sessionId, String destination) {
+		if (isPattern(destination)) {
+			PatternNode node = this.patternRoot;
+			boolean multiSegment = false;
+			for (String segment : tokenize(destination)) {
+				if (isMultiSegmentWildcard(segment)) {
+					multiSegment = true;
+					break;
+				}
+				node = node.getOrCreateChild(segment, isPattern(segment));
+			}
+
+			Map<String, Set<String>> patterns = multiSegment ? node.multiSegmentPatterns
+					: node.patterns;
+			Set<String> sessionIds = patterns.get(destination);
+			if (sessionIds == null) {
+				sessionIds = newConcurrentSet();
+				patterns.put(destination, sessionIds);
+				this.patternCount++;
+			}
+			sessionIds.add(sessionId);
+		}
+		else {
+			Set<String> sessionIds = this.exactSubscriptions.get(destination);
+			if (sessionIds == null) {
+				sessionIds = newConcurrentSet();
+				this.exactSubscriptions.put(destination, sessionIds);
+			}
+			sessionIds.add(sessionId);
+		}
+	}
+
+	/**
+	 * Removes the session from the index of the destination. Has to be called while
+	 * holding the write lock.
+	 */
+	private void removeFromIndex(String sessionId, String destination) {
+		if (isPattern(destination)) {
+			removePattern(this.patternRoot, tokenize(destination), 0, destination,
+					sessionId);
+		}
+		else {
+			Set<String> sessionIds = this.exactSubscriptions.get(destination);
+			if (sessionIds != null && sessionIds.remove(sessionId)
+					&& sessionIds.isEmpty()) {
+				this.exactSubscriptions.remove(destination);
+			}
+		}
+	}
+
+	/**
+	 * Removes the session from the pattern and prunes empty trie nodes on the way back.
+	 * @return true if the node is empty after the removal
+	 */
+	private boolean removePattern(PatternNode node, String[] segments, int index,
+			String pattern, String sessionId) {
+
+		if (index == segments.length || isMultiSegmentWildcard(segments[index])) {
+			Map<String, Set<String>> patterns = index < segments.length
+					? node.multiSegmentPatterns : node.patterns;
+			Set<String> sessionIds = patterns.get(pattern);
+			if (sessionIds != null && sessionIds.remove(sessionId)
+					&& sessionIds.isEmpty()) {
+				patterns.remove(pattern);
+				this.patternCount--;
+			}
+			return node.isEmpty();
+		}
+
+		String segment = segments[index];
+		boolean wildcard = isPattern(segment);
+		PatternNode child = node.getChild(segment, wildcard);
+		if (child != null
+				&& removePattern(child, segments, index + 1, pattern, sessionId)) {
+			node.removeChild(segment, wildcard);
+		}
+		return node.isEmpty();
+	}
+
+	private void collectPatternSubscriptions(PatternNode node, String[] segments,
+			int index, String destination, Set<String> sessionIds) {
+
+		// patterns with a ** wildcard at this depth can match any remainder
+		collectMatching(node.multiSegmentPatterns, destination, sessionIds);
+
+		if (index == segments.length) {
+			collectMatching(node.patterns, destination, sessionIds);
+			return;
+		}
+
+		String segment = segments[index];
+		PatternNode literalChild = node.literalChildren.get(segment);
+		if (literalChild != null) {
+			collectPatternSubscriptions(literalChild, segments, index + 1, destination,
+					sessionIds);
+		}
+
+		for (Map.Entry<String, PatternNode> entry : node.wildcardChildren.entrySet()) {
+			if (this.pathMatcher.match(entry.getKey(), segment)) {
+				collectPatternSubscriptions(entry.getValue(), segments, index + 1,
+						destination, sessionIds);
+			}
+		}
+	}
+
+	private void collectMatching(Map<String, Set<String>> patterns, String destination,
+			Set<String> sessionIds) {
+		for (Map.Entry<String, Set<String>> entry : patterns.entrySet()) {
+			if (this.pathMatcher.match(entry.getKey(), destination)) {
+				sessionIds.addAll(entry.getValue());
+			}
+		}
+	}
+
+	/**
+	 * {@link AntPathMatcher#isPattern(String)} does not consider URI template variables,
+	 * but {@link AntPathMatcher#match(String, String)} does.
+	 */
+	private boolean isPattern(String path) {
+		return this.pathMatcher.isPattern(path) || path.indexOf('{') != -1;
+	}
+
+	private String[] tokenize(String path) {
+		return StringUtils.tokenizeToStringArray(path, this.pathSeparator, false, true);
+	}
+
+	private static boolean isMultiSegmentWildcard(String segment) {
+		return "**".equals(segment);
+	}
+
+	private static Set<String> newConcurrentSet() {
+		return Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>(4));
+	}
+
+	@Override
+	public String toString() {
+		return "TrieSubscriptionRegistry[" + this.sessionDestinations.size()
+				+ " session(s), " + this.exactSubscriptions.size() + " topic(s), "
+				+ this.patternCount + " pattern(s)]";
+	}
+
+	/**
+	 * A node of the pattern trie. Guarded by the lock of the registry.
+	 */
+	private static class PatternNode {
+
+		/** Children for segments without wildcards, looked up directly */
+		final Map<String, PatternNode> literalChildren = new HashMap<>(4);
+
+		/** Children for segments like {@code fo*}, {@code ?oo} or {@code {id}} */
+		final Map<String, PatternNode> wildcardChildren = new HashMap<>(4);
+
+		/** Patterns that end at this node: pattern -> webSocketSessionIds */
+		final Map<String, Set<String>> patterns = new HashMap<>(4);
+
+		/**
+		 * Patterns that continue with a {@code **} segment after this node: pattern ->
+		 * webSocketSessionIds
+		 */
+		final Map<String, Set<String>> multiSegmentPatterns = new HashMap<>(4);
+
+		PatternNode getChild(String segment, boolean wildcard) {
+			return wildcard ? this.wildcardChildren.get(segment)
+					: this.literalChildren.get(segment);
+		}
+
+		PatternNode getOrCreateChild(String segment, boolean wildcard) {
+			Map<String, PatternNode> children = wildcard ? this.wildcardChildren
+					: this.literalChildren;
+			PatternNode child = children.get(segment);
+			if (child == null) {
+				child = new PatternNode();
+				children.put(segment, child);
+			}
+			return child;
+		}
+
+		void removeChild(String segment, boolean wildcard) {
+			if (wildcard) {
+				this.wildcardChildren.remove(segment);
+			}
+			else {
+				this.literalChildren.remove(segment);
+			}
+		}
+
+		boolean isEmpty() {
+			return this.literalChildren.isEmpty() && this.wildcardChildren.isEmpty()
+					&& this.patterns.isEmpty() && this.multiSegmentPatterns.isEmpty();
+		}
+	}
+
+}
@@ -21,11 +21,15 @@ import org.springframework.messaging.handler.invocation.HandlerMethodArgumentRes
 import org.springframework.messaging.support.AbstractMessageChannel;
 import org.springframework.web.socket.server.HandshakeInterceptor;
 
+import ch.rasc.wampspring.message.WampMessageCodec;
+
 /**
- * A convenient implementation of the {@link WampConfigurer} interface, providing empty
- * method.
+ * A convenient implementation of the {@link WampConfigurer},
+ * {@link WampChannelExecutorConfigurer} and {@link WampMessageCodecConfigurer}
+ * interfaces, providing empty methods.
  */
-public class AbstractWampConfigurer implements WampConfigurer {
+public class AbstractWampConfigurer implements WampConfigurer,
+		WampChannelExecutorConfigurer, WampMessageCodecConfigurer {
 
 	@Override
 	public void registerWampEndpoints(WampEndpointRegistry registry) {
@@ -42,6 +46,18 @@ public class AbstractWampConfigurer implements WampConfigurer {
 		// by default nothing here
 	}
 
+	@Override
+	public void configureClientInboundChannelExecutor(
+			ChannelExecutorRegistration registration) {
+		// by default nothing here
+	}
+
+	@Override
+	public void configureClientOutboundChannelExecutor(
+			ChannelExecutorRegistration registration) {
+		// by default nothing here
+	}
+
 	@Override
 	public void addArgumentResolvers(
 			List<HandlerMethodArgumentResolver> argumentResolvers) {
@@ -54,4 +70,9 @@ public class AbstractWampConfigurer implements WampConfigurer {
 		// by default nothing here
 	}
 
+	@Override
+	public void addMessageCodecs(List<WampMessageCodec> messageCodecs) {
+		// by default nothing here
+	}
+
 }
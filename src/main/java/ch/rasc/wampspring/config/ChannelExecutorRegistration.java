@@ -0,0 +1,223 @@
+/**
+ * Copyright 2014-2017 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.config;
+
+/**
+ * Options for the executor that processes the messages of a client channel.
+ * <p>
+ * By default the executor has an unbounded queue. To get a predictable memory usage
+ * under overload configure a {@link #setQueueCapacity(int) queue capacity}, a
+ * {@link #setMaxPoolSize(int) maximum pool size} and an
+ * {@link #setOverloadPolicy(OverloadPolicy) overload policy}.
+ */
+public class ChannelExecutorRegistration {
+
+	private int corePoolSize = Runtime.getRuntime().availableProcessors() * 2;
+
+	private int maxPoolSize = Integer.MAX_VALUE;
+
+	private int keepAliveSeconds = 60;
+
+	private int queueCapacity = Integer.MAX_VALUE;
+
+	private OverloadPolicy overloadPolicy = OverloadPolicy.ABORT;
+
+	private boolean sessionOrdered = false;
+
+	private int sessionLanes = Runtime.getRuntime().availableProcessors() * 2;
+
+	private boolean virtualThreads = false;
+
+	private int maxConcurrency = 1000;
+
+	/**
+	 * Set the core pool size of the executor.
+	 * <p>
+	 * The default value is the number of available processors times two.
+	 */
+	public ChannelExecutorRegistration setCorePoolSize(int corePoolSize) {
+		this.corePoolSize = corePoolSize;
+		return this;
+	}
+
+	/**
+	 * Protected accessor for internal use.
+	 */
+	protected int getCorePoolSize() {
+		return this.corePoolSize;
+	}
+
+	/**
+	 * Set the maximum pool size of the executor. Additional threads are only started
+	 * when the queue is full, so with the default unbounded queue this setting has no
+	 * effect. When a queue capacity is configured this value should be set as well,
+	 * otherwise the executor starts a new thread for every message that does not fit
+	 * into the queue.
+	 * <p>
+	 * The default value is {@code Integer.MAX_VALUE}.
+	 */
+	public ChannelExecutorRegistration setMaxPoolSize(int maxPoolSize) {
+		this.maxPoolSize = maxPoolSize;
+		return this;
+	}
+
+	/**
+	 * Protected accessor for internal use.
+	 */
+	protected int getMaxPoolSize() {
+		return this.maxPoolSize;
+	}
+
+	/**
+	 * Set the time limit in seconds for which threads may remain idle before being
+	 * terminated.
+	 * <p>
+	 * The default value is 60.
+	 */
+	public ChannelExecutorRegistration setKeepAliveSeconds(int keepAliveSeconds) {
+		this.keepAliveSeconds = keepAliveSeconds;
+		return this;
+	}
+
+	/**
+	 * Protected accessor for internal use.
+	 */
+	protected int getKeepAliveSeconds() {
+		return this.keepAliveSeconds;
+	}
+
+	/**
+	 * Set the maximum number of messages that wait in the queue of the executor. When the
+	 * queue is full and the maximum pool size is reached the
+	 * {@link #setOverloadPolicy(OverloadPolicy) overload policy} is applied to new
+	 * messages. For a {@link #setSessionOrdered(boolean) session ordered} executor the
+	 * capacity is divided equally between the lanes.
+	 * <p>
+	 * The default value is {@code Integer.MAX_VALUE}.
+	 */
+	public ChannelExecutorRegistration setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+		return this;
+	}
+
+	/**
+	 * Protected accessor for internal use.
+	 */
+	protected int getQueueCapacity() {
+		return this.queueCapacity;
+	}
+
+	/**
+	 * Set the policy that is applied to messages that do not fit into the queue.
+	 * <p>
+	 * The default value is {@link OverloadPolicy#ABORT}.
+	 */
+	public ChannelExecutorRegistration setOverloadPolicy(OverloadPolicy overloadPolicy) {
+		this.overloadPolicy = overloadPolicy;
+		return this;
+	}
+
+	/**
+	 * Protected accessor for internal use.
+	 */
+	protected OverloadPolicy getOverloadPolicy() {
+		return this.overloadPolicy;
+	}
+
+	/**
+	 * When set to true the messages of one WebSocket session are processed one after
+	 * the other in the order they were received, while messages of different sessions
+	 * are still processed in parallel. See {@link SessionOrderedExecutor}.
+	 * <p>
+	 * With this option enabled handlers no longer need to synchronize the processing of
+	 * concurrent messages from the same client.
+	 * <p>
+	 * The default value is false.
+	 */
+	public ChannelExecutorRegistration setSessionOrdered(boolean sessionOrdered) {
+		this.sessionOrdered = sessionOrdered;
+		return this;
+	}
+
+	/**
+	 * Protected accessor for internal use.
+	 */
+	protected boolean isSessionOrdered() {
+		return this.sessionOrdered;
+	}
+
+	/**
+	 * Configure the number of serial lanes the WebSocket sessions are distributed on
+	 * when {@link #setSessionOrdered(boolean)} is enabled. This is the maximum number of
+	 * messages that are processed in parallel.
+	 * <p>
+	 * The default value is the number of available processors times two.
+	 */
+	public ChannelExecutorRegistration setSessionLanes(int sessionLanes) {
+		this.sessionLanes = sessionLanes;
+		return this;
+	}
+
+	/**
+	 * Protected accessor for internal use.
+	 */
+	protected int getSessionLanes() {
+		return this.sessionLanes;
+	}
+
+	/**
+	 * When set to true the messages are processed on virtual threads instead of a
+	 * thread pool. See {@link VirtualThreadExecutor}. Useful for the clientInboundChannel
+	 * when {@code @WampCallListener} methods block on I/O. The pool size, queue capacity
+	 * and overload policy settings are ignored, the number of concurrently processed
+	 * messages is limited by {@link #setMaxConcurrency(int)}.
+	 * <p>
+	 * Requires Java 21, on older runtimes platform threads are used.
+	 * <p>
+	 * The default value is false.
+	 */
+	public ChannelExecutorRegistration setVirtualThreads(boolean virtualThreads) {
+		this.virtualThreads = virtualThreads;
+		return this;
+	}
+
+	/**
+	 * Protected accessor for internal use.
+	 */
+	protected boolean isVirtualThreads() {
+		return this.virtualThreads;
+	}
+
+	/**
+	 * Set the maximum number of messages that are processed at the same time when
+	 * {@link #setVirtualThreads(boolean) virtual threads} are enabled. Further messages
+	 * block the sending thread until a message has been processed.
+	 * <p>
+	 * The default value is 1000.
+	 */
+	public ChannelExecutorRegistration setMaxConcurrency(int maxConcurrency) {
+		this.maxConcurrency = maxConcurrency;
+		return this;
+	}
+
+	/**
+	 * Protected accessor for internal use.
+	 */
+	protected int getMaxConcurrency() {
+		return this.maxConcurrency;
+	}
+
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright 2014-2017 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.config;
+
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageHandlingRunnable;
+import org.springframework.util.Assert;
+
+import ch.rasc.wampspring.message.EventMessage;
+import ch.rasc.wampspring.message.WampMessage;
+import ch.rasc.wampspring.message.WampMessageType;
+
+/**
+ * {@link RejectedExecutionHandler} for the executors of the client channels that applies
+ * an {@link OverloadPolicy} to the message of the rejected task.
+ */
+public class ChannelOverloadHandler implements RejectedExecutionHandler {
+
+	private final OverloadPolicy overloadPolicy;
+
+	private final Log logger = LogFactory.getLog(getClass());
+
+	public ChannelOverloadHandler(OverloadPolicy overloadPolicy) {
+		Assert.notNull(overloadPolicy, "OverloadPolicy must not be null");
+		this.overloadPolicy = overloadPolicy;
+	}
+
+	public OverloadPolicy getOverloadPolicy() {
+		return this.overloadPolicy;
+	}
+
+	@Override
+	public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+		if (!executor.isShutdown()) {
+			switch (this.overloadPolicy) {
+			case CALLER_RUNS:
+				task.run();
+				return;
+			case DISCARD:
+				if (discard(task)) {
+					return;
+				}
+				break;
+			case DISCARD_OLDEST_EVENT:
+				if (discardOldestEvent(executor.getQueue())) {
+					executor.execute(task);
+					return;
+				}
+				break;
+			default:
+				break;
+			}
+		}
+
+		throw new RejectedExecutionException(
+				"Task " + task + " rejected from " + executor);
+	}
+
+	/**
+	 * Returns true if the message of the task may be dropped with the
+	 * {@link OverloadPolicy#DISCARD} policy.
+	 */
+	boolean discard(Runnable task) {
+		WampMessage message = getMessage(task);
+		if (message == null || !isDroppable(message)) {
+			return false;
+		}
+		if (this.logger.isDebugEnabled()) {
+			this.logger.debug(
+					"Dropped message because the channel is overloaded: " + message);
+		}
+		return true;
+	}
+
+	/**
+	 * Removes the oldest task with a conflatable EVENT message from the queue. Returns
+	 * false if the queue does not contain such a task.
+	 */
+	boolean discardOldestEvent(Queue<Runnable> queue) {
+		for (Iterator<Runnable> it = queue.iterator(); it.hasNext();) {
+			Runnable queuedTask = it.next();
+			WampMessage message = getMessage(queuedTask);
+			if (message != null && message.getType() == WampMessageType.EVENT
+					&& isDroppable(message)) {
+				if (queue.remove(queuedTask)) {
+					if (this.logger.isDebugEnabled()) {
+						this.logger.debug(
+								"Dropped oldest event because the channel is overloaded: "
+										+ message);
+					}
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Only PUBLISH messages and EVENT messages a broadcast sends to all subscribers may
+	 * be dropped. Other EVENT messages are chunks of a streamed CALL result or replayed
+	 * events, and the remaining messages either expect an answer, are an answer or clean
+	 * up a closed session.
+	 */
+	private static boolean isDroppable(WampMessage message) {
+		if (message.getType() == WampMessageType.PUBLISH) {
+			return true;
+		}
+		return message instanceof EventMessage
+				&& ((EventMessage) message).isConflatable();
+	}
+
+	private static WampMessage getMessage(Runnable task) {
+		if (task instanceof MessageHandlingRunnable) {
+			Message<?> message = ((MessageHandlingRunnable) task).getMessage();
+			if (message instanceof WampMessage) {
+				return (WampMessage) message;
+			}
+		}
+		return null;
+	}
+
+}
@@ -15,6 +15,7 @@
  */
 package ch.rasc.wampspring.config;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Executor;
@@ -47,6 +48,7 @@ import org.springframework.web.socket.handler.WebSocketHandlerDecoratorFactory;
 import org.springframework.web.socket.messaging.SubProtocolWebSocketHandler;
 import org.springframework.web.socket.server.HandshakeInterceptor;
 
+import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.databind.MappingJsonFactory;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
@@ -55,12 +57,18 @@ import ch.rasc.wampspring.annotation.WampCallListener;
 import ch.rasc.wampspring.annotation.WampPublishListener;
 import ch.rasc.wampspring.annotation.WampSubscribeListener;
 import ch.rasc.wampspring.annotation.WampUnsubscribeListener;
+import ch.rasc.wampspring.broker.BrokerRelay;
 import ch.rasc.wampspring.broker.DefaultSubscriptionRegistry;
+import ch.rasc.wampspring.broker.EventJournal;
+import ch.rasc.wampspring.broker.InterestTracker;
+import ch.rasc.wampspring.broker.RetainedEventStore;
 import ch.rasc.wampspring.broker.SimpleBrokerMessageHandler;
 import ch.rasc.wampspring.broker.SubscriptionRegistry;
 import ch.rasc.wampspring.cra.AuthenticationHandler;
 import ch.rasc.wampspring.cra.AuthenticationSecretProvider;
 import ch.rasc.wampspring.cra.DefaultAuthenticationHandler;
+import ch.rasc.wampspring.message.JsonWampMessageCodec;
+import ch.rasc.wampspring.message.WampMessageCodec;
 import ch.rasc.wampspring.method.MethodParameterConverter;
 import ch.rasc.wampspring.method.WampAnnotationMethodMessageHandler;
 
@@ -84,6 +92,12 @@ public class DefaultWampConfiguration {
 
 	protected ConversionService internalConversionService = null;
 
+	protected JsonFactory internalJsonFactory = null;
+
+	private ChannelExecutorRegistration clientInboundChannelExecutorRegistration;
+
+	private ChannelExecutorRegistration clientOutboundChannelExecutorRegistration;
+
 	@Autowired(required = false)
 	public void setConfigurers(List<WampConfigurer> configurers) {
 		if (!CollectionUtils.isEmpty(configurers)) {
@@ -118,7 +132,8 @@ public class DefaultWampConfiguration {
 	@Bean
 	public SubscribableChannel clientInboundChannel() {
 		ExecutorSubscribableChannel executorSubscribableChannel = new ExecutorSubscribableChannel(
-				clientInboundChannelExecutor());
+				channelExecutor(clientInboundChannelExecutor(),
+						getClientInboundChannelExecutorRegistration()));
 		configureClientInboundChannel(executorSubscribableChannel);
 		return executorSubscribableChannel;
 	}
@@ -131,15 +146,31 @@ public class DefaultWampConfiguration {
 
 	@Bean
 	public Executor clientInboundChannelExecutor() {
-		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
-		executor.setThreadNamePrefix("wampClientInboundChannel-");
-		executor.setCorePoolSize(Runtime.getRuntime().availableProcessors() * 2);
-		executor.setMaxPoolSize(Integer.MAX_VALUE);
-		executor.setKeepAliveSeconds(60);
-		executor.setQueueCapacity(Integer.MAX_VALUE);
-		executor.setAllowCoreThreadTimeOut(true);
+		return createChannelExecutor("wampClientInboundChannel-",
+				getClientInboundChannelExecutorRegistration());
+	}
 
-		return executor;
+	protected final ChannelExecutorRegistration getClientInboundChannelExecutorRegistration() {
+		if (this.clientInboundChannelExecutorRegistration == null) {
+			this.clientInboundChannelExecutorRegistration = new ChannelExecutorRegistration();
+			configureClientInboundChannelExecutor(
+					this.clientInboundChannelExecutorRegistration);
+		}
+		return this.clientInboundChannelExecutorRegistration;
+	}
+
+	/**
+	 * Configure the {@link #clientInboundChannelExecutor()} and how the messages of the
+	 * clientInboundChannel are dispatched to it.
+	 */
+	public void configureClientInboundChannelExecutor(
+			ChannelExecutorRegistration registration) {
+		for (WampConfigurer wc : this.configurers) {
+			if (wc instanceof WampChannelExecutorConfigurer) {
+				((WampChannelExecutorConfigurer) wc)
+						.configureClientInboundChannelExecutor(registration);
+			}
+		}
 	}
 
 	/**
@@ -147,7 +178,9 @@ public class DefaultWampConfiguration {
 	 */
 	@Bean
 	public SubscribableChannel clientOutboundChannel() {
-		return new ExecutorSubscribableChannel(clientOutboundChannelExecutor());
+		return new ExecutorSubscribableChannel(channelExecutor(
+				clientOutboundChannelExecutor(),
+				getClientOutboundChannelExecutorRegistration()));
 	}
 	
 	@Bean
@@ -157,17 +190,75 @@ public class DefaultWampConfiguration {
 
 	@Bean
 	public Executor clientOutboundChannelExecutor() {
+		return createChannelExecutor("wampClientOutboundChannel-",
+				getClientOutboundChannelExecutorRegistration());
+	}
+
+	protected final ChannelExecutorRegistration getClientOutboundChannelExecutorRegistration() {
+		if (this.clientOutboundChannelExecutorRegistration == null) {
+			this.clientOutboundChannelExecutorRegistration = new ChannelExecutorRegistration();
+			configureClientOutboundChannelExecutor(
+					this.clientOutboundChannelExecutorRegistration);
+		}
+		return this.clientOutboundChannelExecutorRegistration;
+	}
+
+	/**
+	 * Configure the {@link #clientOutboundChannelExecutor()} and how the messages of the
+	 * clientOutboundChannel are dispatched to it.
+	 */
+	public void configureClientOutboundChannelExecutor(
+			ChannelExecutorRegistration registration) {
+		for (WampConfigurer wc : this.configurers) {
+			if (wc instanceof WampChannelExecutorConfigurer) {
+				((WampChannelExecutorConfigurer) wc)
+						.configureClientOutboundChannelExecutor(registration);
+			}
+		}
+	}
+
+	private static Executor createChannelExecutor(String threadNamePrefix,
+			ChannelExecutorRegistration registration) {
+		if (registration.isVirtualThreads()) {
+			return new VirtualThreadExecutor(threadNamePrefix,
+					registration.getMaxConcurrency());
+		}
+
 		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
-		executor.setThreadNamePrefix("wampClientOutboundChannel-");
-		executor.setCorePoolSize(Runtime.getRuntime().availableProcessors() * 2);
-		executor.setMaxPoolSize(Integer.MAX_VALUE);
-		executor.setKeepAliveSeconds(60);
-		executor.setQueueCapacity(Integer.MAX_VALUE);
+		executor.setThreadNamePrefix(threadNamePrefix);
+		executor.setCorePoolSize(registration.getCorePoolSize());
+		executor.setMaxPoolSize(registration.getMaxPoolSize());
+		executor.setKeepAliveSeconds(registration.getKeepAliveSeconds());
 		executor.setAllowCoreThreadTimeOut(true);
 
+		if (registration.isSessionOrdered()) {
+			// the lanes queue the messages, there are never more queued tasks than lanes
+			executor.setQueueCapacity(Integer.MAX_VALUE);
+		}
+		else {
+			executor.setQueueCapacity(registration.getQueueCapacity());
+			executor.setRejectedExecutionHandler(
+					new ChannelOverloadHandler(registration.getOverloadPolicy()));
+		}
+
 		return executor;
 	}
 
+	/**
+	 * Wraps the executor of a channel into a {@link SessionOrderedExecutor} when the
+	 * registration requests session ordered processing.
+	 */
+	private static Executor channelExecutor(Executor executor,
+			ChannelExecutorRegistration registration) {
+		if (!registration.isSessionOrdered()) {
+			return executor;
+		}
+		int lanes = registration.getSessionLanes();
+		int laneCapacity = Math.max(1, registration.getQueueCapacity() / lanes);
+		return new SessionOrderedExecutor(executor, lanes, laneCapacity,
+				new ChannelOverloadHandler(registration.getOverloadPolicy()));
+	}
+
 	/**
 	 * Channel from the application to the {@link #brokerMessageHandler()}
 	 */
@@ -184,6 +275,65 @@ public class DefaultWampConfiguration {
 		return null;
 	}
 
+	/**
+	 * Store for the last events of each topic that the {@link #brokerMessageHandler()}
+	 * sends to new subscribers. By default this is null and no events are retained.
+	 * Override this method to enable the last value cache.
+	 *
+	 * <pre class="code">
+	 * &#064;Override
+	 * public RetainedEventStore retainedEventStore() {
+	 * 	return new RetainedEventStore(10_000, 1, pathMatcher());
+	 * }
+	 * </pre>
+	 */
+	public RetainedEventStore retainedEventStore() {
+		return null;
+	}
+
+	/**
+	 * Journal the {@link #brokerMessageHandler()} appends the events to, so that
+	 * reconnecting clients can replay the events they missed. By default this is null and
+	 * no events are journaled. Override this method to enable the journal.
+	 *
+	 * <pre class="code">
+	 * &#064;Override
+	 * &#064;Bean
+	 * public EventJournal eventJournal() throws IOException {
+	 * 	return new MappedFileEventJournal(new File("journal"), new ObjectMapper());
+	 * }
+	 * </pre>
+	 */
+	public EventJournal eventJournal() throws IOException {
+		return null;
+	}
+
+	/**
+	 * Relay that connects the {@link #brokerMessageHandler()} with the brokers of the
+	 * other nodes of a cluster. By default this is null and events are only delivered to
+	 * the clients connected to this node.
+	 */
+	public BrokerRelay brokerRelay() {
+		return null;
+	}
+
+	/**
+	 * Tracker that creates the interest summary the {@link #brokerMessageHandler()}
+	 * announces through the {@link #brokerRelay()}. By default this is null and the
+	 * summary lists the subscribed topicURIs exactly. Nodes with many subscribed topics
+	 * can summarize them in a bloom filter instead.
+	 *
+	 * <pre class="code">
+	 * &#064;Override
+	 * public InterestTracker interestTracker() {
+	 * 	return new InterestTracker(pathMatcher(), 100_000, 0.01);
+	 * }
+	 * </pre>
+	 */
+	public InterestTracker interestTracker() {
+		return null;
+	}
+
 	@Bean
 	public MessageHandler brokerMessageHandler() {
 		SimpleBrokerMessageHandler messageHandler = new SimpleBrokerMessageHandler(
@@ -191,6 +341,18 @@ public class DefaultWampConfiguration {
 				subscriptionRegistry(), brokerMessageHandlerMessageSelector());
 
 		messageHandler.setAuthenticationRequiredGlobal(authenticationRequired());
+		messageHandler.setJsonFactory(jsonFactory());
+		messageHandler.setRetainedEventStore(retainedEventStore());
+		try {
+			messageHandler.setEventJournal(eventJournal());
+		}
+		catch (IOException e) {
+			throw new IllegalStateException("Failed to open the event journal", e);
+		}
+		messageHandler.setBrokerRelay(brokerRelay());
+		messageHandler.setInterestTracker(interestTracker());
+		messageHandler.setWampMetrics(wampMessageBrokerStats());
+		messageHandler.setPathMatcher(pathMatcher());
 
 		return messageHandler;
 	}
@@ -220,6 +382,8 @@ public class DefaultWampConfiguration {
 				methodMessageHandlerMessageSelector(), messageConverter());
 
 		messageHandler.setAuthenticationRequiredGlobal(authenticationRequired());
+		messageHandler.setTaskScheduler(messageBrokerSockJsTaskScheduler());
+		messageHandler.setWampMetrics(wampMessageBrokerStats());
 
 		List<HandlerMethodArgumentResolver> argumentResolvers = new ArrayList<>();
 		addArgumentResolvers(argumentResolvers);
@@ -269,6 +433,18 @@ public class DefaultWampConfiguration {
 		return null;
 	}
 
+	/**
+	 * Returns the {@link JsonFactory} that serializes and deserializes the WAMP messages.
+	 * The broker uses the same instance to encode an EVENT message only once for all
+	 * subscribers.
+	 */
+	protected JsonFactory jsonFactory() {
+		if (this.internalJsonFactory == null) {
+			this.internalJsonFactory = new MappingJsonFactory(lookupObjectMapper());
+		}
+		return this.internalJsonFactory;
+	}
+
 	private ObjectMapper lookupObjectMapper() {
 		if (this.internalObjectMapper == null) {
 			this.internalObjectMapper = objectMapper();
@@ -325,6 +501,27 @@ public class DefaultWampConfiguration {
 		return false;
 	}
 
+	/**
+	 * Statistics about the processed messages, the subscriptions, the outbound queues and
+	 * the latency of the CALLs. By default this is null and no statistics are collected.
+	 * Override this method and annotate it with {@link Bean} to enable the statistics.
+	 *
+	 * <pre class="code">
+	 * &#064;Override
+	 * &#064;Bean
+	 * public WampMessageBrokerStats wampMessageBrokerStats() {
+	 * 	WampMessageBrokerStats stats = new WampMessageBrokerStats();
+	 * 	stats.setSubscriptionRegistry(subscriptionRegistry());
+	 * 	stats.setTaskScheduler(messageBrokerSockJsTaskScheduler());
+	 * 	stats.setSlowCallThreshold(500);
+	 * 	return stats;
+	 * }
+	 * </pre>
+	 */
+	public WampMessageBrokerStats wampMessageBrokerStats() {
+		return null;
+	}
+
 	private WebSocketTransportRegistration transportRegistration;
 
 	@Bean
@@ -334,7 +531,12 @@ public class DefaultWampConfiguration {
 
 		WebMvcWampEndpointRegistry registry = new WebMvcWampEndpointRegistry(handler,
 				getTransportRegistration(), messageBrokerSockJsTaskScheduler(),
-				new MappingJsonFactory(lookupObjectMapper()));
+				messageCodecs());
+		WampMessageBrokerStats stats = wampMessageBrokerStats();
+		if (stats != null) {
+			registry.getWampSubProtocolHandler().setWampMetrics(stats);
+			stats.setSubProtocolHandler(registry.getWampSubProtocolHandler());
+		}
 
 		List<HandshakeInterceptor> handshakeInterceptors = new ArrayList<>();
 		addHandshakeInterceptors(handshakeInterceptors);
@@ -358,6 +560,25 @@ public class DefaultWampConfiguration {
 		}
 	}
 
+	/**
+	 * Codecs for the supported WebSocket subprotocols. The first codec is the JSON codec
+	 * for the "wamp" subprotocol, followed by the codecs of the configurers.
+	 */
+	protected List<WampMessageCodec> messageCodecs() {
+		List<WampMessageCodec> messageCodecs = new ArrayList<>();
+		messageCodecs.add(new JsonWampMessageCodec(jsonFactory()));
+		addMessageCodecs(messageCodecs);
+		return messageCodecs;
+	}
+
+	protected void addMessageCodecs(List<WampMessageCodec> messageCodecs) {
+		for (WampConfigurer wc : this.configurers) {
+			if (wc instanceof WampMessageCodecConfigurer) {
+				((WampMessageCodecConfigurer) wc).addMessageCodecs(messageCodecs);
+			}
+		}
+	}
+
 	protected WebSocketHandler decorateWebSocketHandler(WebSocketHandler handler) {
 		WebSocketHandler decoratedHandler = handler;
 		for (WebSocketHandlerDecoratorFactory factory : getTransportRegistration()
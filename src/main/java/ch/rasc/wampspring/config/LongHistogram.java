@@ -0,0 +1,159 @@
+/**
+ * Copyright 2014-2017 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.config;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of non negative long values like latencies in nanoseconds or
+ * fan-out sizes. Values are counted in buckets with a relative width of 1/8, so a
+ * percentile is reported with an error of at most 12.5% of the value.
+ */
+public class LongHistogram {
+
+	private static final int SUB_BUCKET_BITS = 3;
+
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	/** Values below this limit have their own bucket */
+	private static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+
+	private static final int BUCKETS = LINEAR_LIMIT
+			+ (63 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	private final AtomicLong count = new AtomicLong();
+
+	private final AtomicLong sum = new AtomicLong();
+
+	private final AtomicLong max = new AtomicLong();
+
+	public void record(long value) {
+		long v = Math.max(0, value);
+		this.counts.incrementAndGet(bucketIndex(v));
+		this.count.incrementAndGet();
+		this.sum.addAndGet(v);
+
+		long currentMax;
+		while (v > (currentMax = this.max.get())) {
+			if (this.max.compareAndSet(currentMax, v)) {
+				break;
+			}
+		}
+	}
+
+	public long getCount() {
+		return this.count.get();
+	}
+
+	public long getSum() {
+		return this.sum.get();
+	}
+
+	public long getMax() {
+		return this.max.get();
+	}
+
+	public double getMean() {
+		long c = this.count.get();
+		return c > 0 ? (double) this.sum.get() / c : 0;
+	}
+
+	/**
+	 * Returns the upper bound of the bucket that contains the value at the given
+	 * percentile.
+	 * @param percentile between 0 and 100
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long total = 0;
+		long[] snapshot = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = this.counts.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				return Math.min(bucketUpperBound(i), this.max.get());
+			}
+		}
+		return this.max.get();
+	}
+
+	/**
+	 * Resets all counters. Values recorded concurrently may be lost.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			this.counts.set(i, 0);
+		}
+		this.count.set(0);
+		this.sum.set(0);
+		this.max.set(0);
+	}
+
+	/**
+	 * Returns a summary of the recorded latencies with the values in milliseconds.
+	 */
+	public String toLatencyString() {
+		return String.format(Locale.ENGLISH,
+				"count=%d, mean=%.3f, p50=%.3f, p99=%.3f, max=%.3f ms", getCount(),
+				toMillis((long) getMean()), toMillis(getValueAtPercentile(50)),
+				toMillis(getValueAtPercentile(99)), toMillis(getMax()));
+	}
+
+	@Override
+	public String toString() {
+		return String.format(Locale.ENGLISH,
+				"count=%d, mean=%.1f, p50=%d, p99=%d, max=%d", getCount(), getMean(),
+				getValueAtPercentile(50), getValueAtPercentile(99), getMax());
+	}
+
+	private static double toMillis(long nanos) {
+		return (double) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	static int bucketIndex(long value) {
+		if (value < LINEAR_LIMIT) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> exponent - SUB_BUCKET_BITS) & SUB_BUCKETS - 1;
+		return LINEAR_LIMIT + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + subBucket;
+	}
+
+	static long bucketUpperBound(int index) {
+		if (index < LINEAR_LIMIT) {
+			return index;
+		}
+		int exponent = (index - LINEAR_LIMIT) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+		int subBucket = (index - LINEAR_LIMIT) % SUB_BUCKETS;
+		long width = 1L << exponent - SUB_BUCKET_BITS;
+		long lowerBound = (long) (SUB_BUCKETS + subBucket) << exponent - SUB_BUCKET_BITS;
+		return lowerBound + width - 1;
+	}
+
+}
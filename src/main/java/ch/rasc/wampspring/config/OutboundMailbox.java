@@ -0,0 +1,384 @@
+/**
+ * Copyright 2014-2017 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.config;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.SessionLimitExceededException;
+
+import ch.rasc.wampspring.message.CallTrace;
+import ch.rasc.wampspring.message.EventMessage;
+import ch.rasc.wampspring.message.WampMessage;
+import ch.rasc.wampspring.message.WampMessageCodec;
+import ch.rasc.wampspring.message.WampMessageHeader;
+
+/**
+ * Queue of the outbound messages of one WebSocket session.
+ * <p>
+ * Only one thread at a time writes to the session. Threads that send a message while
+ * another thread writes only add the message to the queue and return immediately, so a
+ * slow client does not block the threads of the clientOutboundChannel. The queue is
+ * bounded by a message and a byte limit. When a limit is exceeded the session is
+ * considered too slow and a {@link SessionLimitExceededException} is thrown, which
+ * closes the session.
+ * <p>
+ * With conflation enabled, a broadcast EVENT message replaces a broadcast EVENT message
+ * for the same topicURI that is still waiting in the queue. A lagging client then only
+ * receives the latest event of every topic instead of being disconnected. Only events
+ * that are {@link EventMessage#isConflatable() conflatable} are replaced, replayed
+ * events and the chunks of a streamed CALL result are always sent.
+ * <p>
+ * With a batch delay, the write of a message is delayed until either {@code batchSize}
+ * messages are queued or {@code batchDelay} milliseconds have passed since the first
+ * message of the batch was queued. The queued messages are then taken from the queue
+ * at once and written back to back while the flush lock is held. Every message is
+ * still written with its own {@link WebSocketSession#sendMessage(WebSocketMessage)}
+ * call, the delay only groups the writes and, with conflation enabled, gives newer
+ * events more time to replace queued ones.
+ * <p>
+ * The {@link WampMessageHeader#SENT_CALLBACK} of a message is run after its frame was
+ * written to the session, or when the message is discarded by {@link #clear()}.
+ */
+public class OutboundMailbox {
+
+	private final Log logger = LogFactory.getLog(getClass());
+
+	private final WebSocketSession session;
+
+	private final WampMessageCodec codec;
+
+	private final int messageLimit;
+
+	private final int bufferSizeLimit;
+
+	private final boolean conflateEvents;
+
+	private final int batchSize;
+
+	private final long batchDelay;
+
+	private final TaskScheduler taskScheduler;
+
+	private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+
+	private final Runnable scheduledFlush = new Runnable() {
+		@Override
+		public void run() {
+			OutboundMailbox.this.flushScheduled.set(false);
+			try {
+				flush();
+			}
+			catch (IOException | RuntimeException e) {
+				handleScheduledFlushFailure(e);
+			}
+		}
+	};
+
+	private final Deque<Entry> queue = new ArrayDeque<>();
+
+	/** Map from topicURI -> queued event, only used when events are conflated */
+	private final Map<String, Entry> queuedEvents = new HashMap<>();
+
+	private final Lock flushLock = new ReentrantLock();
+
+	private int queuedBytes = 0;
+
+	private final AtomicLong sentMessages = new AtomicLong();
+
+	private final AtomicLong conflatedMessages = new AtomicLong();
+
+	private final AtomicLong sentBatches = new AtomicLong();
+
+	private volatile int maxQueuedMessages = 0;
+
+	private WampMetrics wampMetrics;
+
+	public OutboundMailbox(WebSocketSession session, WampMessageCodec codec,
+			int messageLimit, int bufferSizeLimit, boolean conflateEvents) {
+		this(session, codec, messageLimit, bufferSizeLimit, conflateEvents, 1, 0, null);
+	}
+
+	/**
+	 * Creates a mailbox that delays the writes to the session. With a {@code batchDelay}
+	 * greater than 0 and a {@code taskScheduler} the queued messages are written as soon
+	 * as {@code batchSize} messages are queued, at the latest {@code batchDelay}
+	 * milliseconds after the first message was queued. Without a delay every message is
+	 * written immediately and {@code batchSize} has no effect.
+	 */
+	public OutboundMailbox(WebSocketSession session, WampMessageCodec codec,
+			int messageLimit, int bufferSizeLimit, boolean conflateEvents,
+			int batchSize, long batchDelay, TaskScheduler taskScheduler) {
+		this.session = session;
+		this.codec = codec;
+		this.messageLimit = messageLimit;
+		this.bufferSizeLimit = bufferSizeLimit;
+		this.conflateEvents = conflateEvents;
+		this.batchSize = Math.max(1, batchSize);
+		this.batchDelay = taskScheduler != null ? Math.max(0, batchDelay) : 0;
+		this.taskScheduler = taskScheduler;
+	}
+
+	/**
+	 * Reports the sent messages and their serialization time to the given metrics.
+	 */
+	public void setWampMetrics(WampMetrics wampMetrics) {
+		this.wampMetrics = wampMetrics;
+	}
+
+	public String getSessionId() {
+		return this.session.getId();
+	}
+
+	/**
+	 * Encodes the message, adds it to the queue and writes the queued messages to the
+	 * session if no other thread is currently writing.
+	 * @throws SessionLimitExceededException if the message or byte limit is exceeded
+	 */
+	public void send(WampMessage message) throws IOException {
+		WebSocketMessage<?> frame;
+		if (this.wampMetrics != null) {
+			long start = System.nanoTime();
+			frame = this.codec.encode(message);
+			long end = System.nanoTime();
+			this.wampMetrics.messageSent(message.getType(), end - start);
+
+			CallTrace trace = message.getCallTrace();
+			if (trace != null) {
+				trace.stageCompleted(CallTrace.Stage.OUTBOUND_DISPATCH, start);
+				trace.stageCompleted(CallTrace.Stage.SERIALIZATION, end);
+			}
+		}
+		else {
+			frame = this.codec.encode(message);
+		}
+
+		int queuedMessages = enqueue(message, frame);
+		if (this.batchDelay > 0 && queuedMessages < this.batchSize) {
+			scheduleFlush();
+		}
+		else {
+			flush();
+		}
+	}
+
+	private void scheduleFlush() {
+		if (this.flushScheduled.compareAndSet(false, true)) {
+			this.taskScheduler.schedule(this.scheduledFlush,
+					new Date(System.currentTimeMillis() + this.batchDelay));
+		}
+	}
+
+	private void handleScheduledFlushFailure(Exception e) {
+		this.logger.error("Failed to send queued messages to session "
+				+ this.session.getId() + ". Closing session.", e);
+		clear();
+		try {
+			this.session.close(CloseStatus.SESSION_NOT_RELIABLE);
+		}
+		catch (IOException ex) {
+			// ignore
+		}
+	}
+
+	/**
+	 * Adds the message to the queue and returns the number of queued messages.
+	 */
+	private int enqueue(WampMessage message, WebSocketMessage<?> frame) {
+		String topicURI = this.conflateEvents && message instanceof EventMessage
+				&& ((EventMessage) message).isConflatable()
+						? ((EventMessage) message).getTopicURI() : null;
+
+		synchronized (this.queue) {
+			if (topicURI != null) {
+				Entry queuedEvent = this.queuedEvents.get(topicURI);
+				if (queuedEvent != null) {
+					int newQueuedBytes = this.queuedBytes + frame.getPayloadLength()
+							- queuedEvent.frame.getPayloadLength();
+					if (newQueuedBytes > this.bufferSizeLimit) {
+						throw limitExceeded();
+					}
+					this.queuedBytes = newQueuedBytes;
+					queuedEvent.frame = frame;
+					this.conflatedMessages.incrementAndGet();
+					return this.queue.size();
+				}
+			}
+
+			int payloadLength = frame.getPayloadLength();
+			if (!this.queue.isEmpty() && (this.queue.size() >= this.messageLimit
+					|| this.queuedBytes + payloadLength > this.bufferSizeLimit)) {
+				throw limitExceeded();
+			}
+
+			Runnable sentCallback = message.getHeader(WampMessageHeader.SENT_CALLBACK);
+			Entry entry = new Entry(frame, topicURI, sentCallback);
+			this.queue.add(entry);
+			this.queuedBytes += payloadLength;
+			if (topicURI != null) {
+				this.queuedEvents.put(topicURI, entry);
+			}
+			if (this.queue.size() > this.maxQueuedMessages) {
+				this.maxQueuedMessages = this.queue.size();
+			}
+			return this.queue.size();
+		}
+	}
+
+	private SessionLimitExceededException limitExceeded() {
+		return new SessionLimitExceededException(
+				"Outbound queue of session " + this.session.getId()
+						+ " exceeded the limit, messages: " + this.queue.size()
+						+ ", bytes: " + this.queuedBytes,
+				CloseStatus.SESSION_NOT_RELIABLE);
+	}
+
+	/**
+	 * Removes all messages from the queue.
+	 */
+	private List<Entry> poll() {
+		synchronized (this.queue) {
+			if (this.queue.isEmpty()) {
+				return Collections.emptyList();
+			}
+			List<Entry> entries = new ArrayList<>(this.queue);
+			this.queue.clear();
+			this.queuedEvents.clear();
+			this.queuedBytes = 0;
+			return entries;
+		}
+	}
+
+	private void flush() throws IOException {
+		while (getQueuedMessages() > 0 && this.flushLock.tryLock()) {
+			try {
+				List<Entry> entries;
+				while (!(entries = poll()).isEmpty()) {
+					for (Entry entry : entries) {
+						this.session.sendMessage(entry.frame);
+						this.sentMessages.incrementAndGet();
+						if (entry.sentCallback != null) {
+							entry.sentCallback.run();
+						}
+					}
+					this.sentBatches.incrementAndGet();
+				}
+			}
+			finally {
+				this.flushLock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Removes all queued messages and runs their sent callbacks, so that nobody waits for
+	 * messages that are never written. Called when the session is closed.
+	 */
+	public void clear() {
+		List<Entry> entries = poll();
+		for (Entry entry : entries) {
+			if (entry.sentCallback != null) {
+				try {
+					entry.sentCallback.run();
+				}
+				catch (RuntimeException e) {
+					this.logger.error("Sent callback of a discarded message failed", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of messages that wait in the queue.
+	 */
+	public int getQueuedMessages() {
+		synchronized (this.queue) {
+			return this.queue.size();
+		}
+	}
+
+	/**
+	 * Returns the payload size in bytes of the messages that wait in the queue.
+	 */
+	public int getQueuedBytes() {
+		synchronized (this.queue) {
+			return this.queuedBytes;
+		}
+	}
+
+	/**
+	 * Returns the highest number of messages that waited in the queue at the same time.
+	 */
+	public int getMaxQueuedMessages() {
+		return this.maxQueuedMessages;
+	}
+
+	/**
+	 * Returns the number of messages that were written to the session.
+	 */
+	public long getSentMessages() {
+		return this.sentMessages.get();
+	}
+
+	/**
+	 * Returns the number of times the queued messages were taken from the queue and
+	 * written to the session.
+	 */
+	public long getSentBatches() {
+		return this.sentBatches.get();
+	}
+
+	/**
+	 * Returns the number of EVENT messages that were replaced by a newer event for the
+	 * same topicURI before they were sent.
+	 */
+	public long getConflatedMessages() {
+		return this.conflatedMessages.get();
+	}
+
+	private static class Entry {
+
+		WebSocketMessage<?> frame;
+
+		final String topicURI;
+
+		final Runnable sentCallback;
+
+		Entry(WebSocketMessage<?> frame, String topicURI, Runnable sentCallback) {
+			this.frame = frame;
+			this.topicURI = topicURI;
+			this.sentCallback = sentCallback;
+		}
+	}
+
+}
@@ -0,0 +1,55 @@
+/**
+ * Copyright 2014-2017 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.config;
+
+/**
+ * Defines what happens with a message when the queue of a client channel executor is
+ * full. See {@link ChannelExecutorRegistration#setOverloadPolicy(OverloadPolicy)}.
+ */
+public enum OverloadPolicy {
+
+	/**
+	 * The message is rejected and the sender of the message receives a
+	 * {@link org.springframework.messaging.MessageDeliveryException}. A CALL message
+	 * received from a client is answered with a CALLERROR.
+	 */
+	ABORT,
+
+	/**
+	 * The message is processed in the thread of the sender, which slows down the sender.
+	 * Not supported for a session ordered executor, where it behaves like
+	 * {@link #ABORT}, because it would break the order of the messages.
+	 */
+	CALLER_RUNS,
+
+	/**
+	 * PUBLISH messages and the EVENT messages of a broadcast are silently dropped. All
+	 * other messages (CALL, CALLRESULT, CALLERROR, the UNSUBSCRIBE messages that clean up
+	 * a closed session, the chunks of a streamed CALL result and replayed events) are
+	 * rejected like with {@link #ABORT}, so a client receives a CALLERROR for its CALL.
+	 */
+	DISCARD,
+
+	/**
+	 * The oldest queued EVENT message of a broadcast is dropped to make room for the new
+	 * message. If no such EVENT message is queued the new message is rejected like with
+	 * {@link #ABORT}. Chunks of a streamed CALL result and replayed events are never
+	 * dropped. Useful for the clientOutboundChannel where newer events supersede older
+	 * ones.
+	 */
+	DISCARD_OLDEST_EVENT
+
+}
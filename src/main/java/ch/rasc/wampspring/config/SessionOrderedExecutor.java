@@ -0,0 +1,204 @@
+/**
+ * Copyright 2014-2017 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.config;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageHandlingRunnable;
+import org.springframework.util.Assert;
+
+import ch.rasc.wampspring.message.WampMessageHeader;
+
+/**
+ * {@link Executor} for the clientInboundChannel that guarantees that the messages of one
+ * WebSocket session are handled one after the other in the order they were received,
+ * while messages of different sessions are handled in parallel.
+ * <p>
+ * The WebSocket session id of a message is hashed onto a fixed number of serial lanes.
+ * Every lane runs its tasks one at a time on the underlying executor, so at most one
+ * thread per lane is busy. Sessions that are mapped to the same lane share the lane, a
+ * larger number of lanes reduces the chance that a slow message of one session delays
+ * the messages of another session.
+ * <p>
+ * Each lane queues up to the configured lane capacity tasks, further tasks are handled
+ * according to the {@link OverloadPolicy} of the {@link ChannelOverloadHandler}.
+ * {@link OverloadPolicy#CALLER_RUNS} is treated like {@link OverloadPolicy#ABORT} because
+ * it would break the order of the messages.
+ * <p>
+ * Tasks that are not {@link MessageHandlingRunnable}s or whose message does not contain
+ * a WebSocket session id are passed directly to the underlying executor.
+ */
+public class SessionOrderedExecutor implements Executor {
+
+	/**
+	 * Maximum number of tasks a lane runs before it hands the thread back to the
+	 * underlying executor, so lanes with a steady stream of messages do not starve other
+	 * lanes when the executor has fewer threads than lanes.
+	 */
+	private static final int MAX_TASKS_PER_RUN = 64;
+
+	private final Executor executor;
+
+	private final Lane[] lanes;
+
+	private final int laneCapacity;
+
+	private final ChannelOverloadHandler overloadHandler;
+
+	private final Log logger = LogFactory.getLog(getClass());
+
+	public SessionOrderedExecutor(Executor executor, int lanes) {
+		this(executor, lanes, Integer.MAX_VALUE,
+				new ChannelOverloadHandler(OverloadPolicy.ABORT));
+	}
+
+	public SessionOrderedExecutor(Executor executor, int lanes, int laneCapacity,
+			ChannelOverloadHandler overloadHandler) {
+		Assert.notNull(executor, "Executor must not be null");
+		Assert.isTrue(lanes > 0, "Number of lanes must be greater than 0");
+		Assert.isTrue(laneCapacity > 0, "Lane capacity must be greater than 0");
+		Assert.notNull(overloadHandler, "ChannelOverloadHandler must not be null");
+		this.executor = executor;
+		this.laneCapacity = laneCapacity;
+		this.overloadHandler = overloadHandler;
+		this.lanes = new Lane[lanes];
+		for (int i = 0; i < lanes; i++) {
+			this.lanes[i] = new Lane();
+		}
+	}
+
+	public Executor getExecutor() {
+		return this.executor;
+	}
+
+	public int getLanes() {
+		return this.lanes.length;
+	}
+
+	public int getLaneCapacity() {
+		return this.laneCapacity;
+	}
+
+	@Override
+	public void execute(Runnable task) {
+		String sessionId = getSessionId(task);
+		if (sessionId == null) {
+			this.executor.execute(task);
+		}
+		else {
+			this.lanes[(sessionId.hashCode() & Integer.MAX_VALUE) % this.lanes.length]
+					.execute(task);
+		}
+	}
+
+	private static String getSessionId(Runnable task) {
+		if (task instanceof MessageHandlingRunnable) {
+			Message<?> message = ((MessageHandlingRunnable) task).getMessage();
+			if (message != null) {
+				return (String) message.getHeaders()
+						.get(WampMessageHeader.WEBSOCKET_SESSION_ID.name());
+			}
+		}
+		return null;
+	}
+
+	private class Lane implements Runnable {
+
+		private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+		private final AtomicInteger size = new AtomicInteger();
+
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+
+		void execute(Runnable task) {
+			if (this.size.incrementAndGet() > SessionOrderedExecutor.this.laneCapacity) {
+				this.size.decrementAndGet();
+				handleOverload(task);
+				return;
+			}
+			this.tasks.add(task);
+			schedule();
+		}
+
+		private void handleOverload(Runnable task) {
+			ChannelOverloadHandler handler = SessionOrderedExecutor.this.overloadHandler;
+			switch (handler.getOverloadPolicy()) {
+			case DISCARD:
+				if (handler.discard(task)) {
+					return;
+				}
+				break;
+			case DISCARD_OLDEST_EVENT:
+				if (handler.discardOldestEvent(this.tasks)) {
+					// the new task takes the place of the removed task
+					this.tasks.add(task);
+					schedule();
+					return;
+				}
+				break;
+			default:
+				break;
+			}
+			throw new RejectedExecutionException("Task " + task
+					+ " rejected from " + SessionOrderedExecutor.this);
+		}
+
+		private void schedule() {
+			if (this.scheduled.compareAndSet(false, true)) {
+				try {
+					SessionOrderedExecutor.this.executor.execute(this);
+				}
+				catch (RuntimeException e) {
+					this.scheduled.set(false);
+					throw e;
+				}
+			}
+		}
+
+		@Override
+		public void run() {
+			try {
+				Runnable task;
+				int count = 0;
+				while (count++ < MAX_TASKS_PER_RUN
+						&& (task = this.tasks.poll()) != null) {
+					this.size.decrementAndGet();
+					try {
+						task.run();
+					}
+					catch (Throwable t) {
+						SessionOrderedExecutor.this.logger.error("Failed to handle message", t);
+					}
+				}
+			}
+			finally {
+				this.scheduled.set(false);
+				if (!this.tasks.isEmpty()) {
+					schedule();
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,166 @@
+/**
+ * Copyright 2014-2017 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.config;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.Assert;
+
+/**
+ * {@link Executor} that runs every task on its own virtual thread, so handlers that
+ * block on I/O (JDBC, HTTP calls to other services) do not occupy a thread of a fixed
+ * size pool.
+ * <p>
+ * The number of tasks that run at the same time is limited by a semaphore. When all
+ * permits are taken {@link #execute(Runnable)} blocks the calling thread until a task
+ * finishes. For the clientInboundChannel this means the WebSocket container stops
+ * reading messages from the clients, which pushes the load back to the network.
+ * <p>
+ * Virtual threads are available since Java 21. On older runtimes the executor falls
+ * back to a cached pool of platform threads that is limited by the same semaphore.
+ */
+public class VirtualThreadExecutor implements Executor, DisposableBean {
+
+	private static final Log logger = LogFactory.getLog(VirtualThreadExecutor.class);
+
+	private final ExecutorService executor;
+
+	private final boolean virtual;
+
+	private final Semaphore permits;
+
+	private final int maxConcurrency;
+
+	public VirtualThreadExecutor(String threadNamePrefix, int maxConcurrency) {
+		Assert.isTrue(maxConcurrency > 0, "maxConcurrency must be greater than 0");
+		ExecutorService virtualThreadExecutor = createVirtualThreadExecutor(
+				threadNamePrefix);
+		if (virtualThreadExecutor != null) {
+			this.executor = virtualThreadExecutor;
+			this.virtual = true;
+		}
+		else {
+			logger.info("Virtual threads are not supported by this runtime. "
+					+ threadNamePrefix + " uses platform threads");
+			this.executor = Executors
+					.newCachedThreadPool(new CustomizableThreadFactory(threadNamePrefix));
+			this.virtual = false;
+		}
+		this.maxConcurrency = maxConcurrency;
+		this.permits = new Semaphore(maxConcurrency);
+	}
+
+	/**
+	 * Returns true if the Java runtime supports virtual threads.
+	 */
+	public static boolean isVirtualThreadsSupported() {
+		try {
+			Thread.class.getMethod("ofVirtual");
+			return true;
+		}
+		catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	private static ExecutorService createVirtualThreadExecutor(String threadNamePrefix) {
+		if (!isVirtualThreadsSupported()) {
+			return null;
+		}
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			builder = builderClass.getMethod("name", String.class, long.class)
+					.invoke(builder, threadNamePrefix, 1L);
+			ThreadFactory threadFactory = (ThreadFactory) builderClass
+					.getMethod("factory").invoke(builder);
+			Method newThreadPerTaskExecutor = Executors.class
+					.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+			return (ExecutorService) newThreadPerTaskExecutor.invoke(null,
+					threadFactory);
+		}
+		catch (ReflectiveOperationException | RuntimeException e) {
+			// virtual threads are a preview feature on Java 19 and 20
+			logger.debug("Failed to create virtual thread executor", e);
+			return null;
+		}
+	}
+
+	@Override
+	public void execute(final Runnable task) {
+		try {
+			this.permits.acquire();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RejectedExecutionException(
+					"Interrupted while waiting for a free permit", e);
+		}
+
+		try {
+			this.executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						task.run();
+					}
+					finally {
+						VirtualThreadExecutor.this.permits.release();
+					}
+				}
+			});
+		}
+		catch (RejectedExecutionException e) {
+			this.permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns true if the tasks run on virtual threads, false if the executor fell back
+	 * to platform threads.
+	 */
+	public boolean isVirtual() {
+		return this.virtual;
+	}
+
+	public int getMaxConcurrency() {
+		return this.maxConcurrency;
+	}
+
+	/**
+	 * Returns the number of tasks that are currently running.
+	 */
+	public int getActiveCount() {
+		return this.maxConcurrency - this.permits.availablePermits();
+	}
+
+	@Override
+	public void destroy() {
+		this.executor.shutdown();
+	}
+
+}
@@ -0,0 +1,38 @@
+/**
+ * Copyright 2014-2017 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.config;
+
+/**
+ * Optional interface a {@link WampConfigurer} implements to configure the executors of
+ * the client channels. {@link AbstractWampConfigurer} implements it with empty methods.
+ */
+public interface WampChannelExecutorConfigurer {
+
+	/**
+	 * Configure the executor of the clientInboundChannel, e.g. to bound its queue, to
+	 * process the messages of a WebSocket session in order or to run blocking handlers on
+	 * virtual threads.
+	 */
+	void configureClientInboundChannelExecutor(ChannelExecutorRegistration registration);
+
+	/**
+	 * Configure the executor of the clientOutboundChannel, e.g. to bound its queue and
+	 * drop the oldest events when a client can not keep up.
+	 */
+	void configureClientOutboundChannelExecutor(
+			ChannelExecutorRegistration registration);
+
+}
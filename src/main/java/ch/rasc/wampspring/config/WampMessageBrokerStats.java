@@ -0,0 +1,516 @@
+/**
+ * Copyright 2014-2017 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.config;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.scheduling.TaskScheduler;
+
+import ch.rasc.wampspring.broker.DefaultSubscriptionRegistry;
+import ch.rasc.wampspring.broker.SubscriptionRegistry;
+import ch.rasc.wampspring.broker.TrieSubscriptionRegistry;
+import ch.rasc.wampspring.message.CallTrace;
+import ch.rasc.wampspring.message.WampMessageType;
+
+/**
+ * Gathers statistics about the WAMP message processing, similar to the
+ * WebSocketMessageBrokerStats of Spring's STOMP support.
+ * <p>
+ * The {@link WampSubProtocolHandler}, the broker and the annotation method message
+ * handler report to this bean through the {@link WampMetrics} interface. The
+ * subscription registry and the outbound mailboxes are queried when a value is read.
+ * All values are exposed as getters and as a flat map in {@link #getMetrics()}, which
+ * makes it easy to bind them to a monitoring system. If a {@link TaskScheduler} is set
+ * the statistics are logged at INFO level every {@link #setLoggingPeriod(long)
+ * loggingPeriod} milliseconds.
+ * <p>
+ * For every procedure the bean keeps a histogram of the end-to-end latency and of each
+ * {@link CallTrace.Stage}. Calls slower than the {@link #setSlowCallThreshold(long)
+ * slowCallThreshold} are logged at WARN level with the duration of every stage.
+ * <p>
+ * The bean is only created when
+ * {@link DefaultWampConfiguration#wampMessageBrokerStats()} is overridden.
+ */
+public class WampMessageBrokerStats
+		implements WampMetrics, InitializingBean, DisposableBean {
+
+	/**
+	 * Name under which calls of procedures are recorded once
+	 * {@link #setMaxProcedures(int)} distinct procURIs have been seen.
+	 */
+	public static final String OTHER_PROCEDURES = "other";
+
+	private final Log logger = LogFactory.getLog(getClass());
+
+	private final AtomicLongArray receivedMessages = new AtomicLongArray(
+			WampMessageType.values().length);
+
+	private final AtomicLongArray sentMessages = new AtomicLongArray(
+			WampMessageType.values().length);
+
+	private final LongHistogram decodeTime = new LongHistogram();
+
+	private final LongHistogram encodeTime = new LongHistogram();
+
+	private final LongHistogram fanOut = new LongHistogram();
+
+	private final LongHistogram subscriptionLookupTime = new LongHistogram();
+
+	private final ConcurrentMap<String, CallStats> callStats = new ConcurrentHashMap<>();
+
+	private int maxProcedures = 200;
+
+	private long slowCallThresholdNanos = -1;
+
+	private final AtomicLong slowCalls = new AtomicLong();
+
+	private SubscriptionRegistry subscriptionRegistry;
+
+	private WampSubProtocolHandler subProtocolHandler;
+
+	private TaskScheduler taskScheduler;
+
+	private long loggingPeriod = TimeUnit.MINUTES.toMillis(30);
+
+	private ScheduledFuture<?> loggingTask;
+
+	public void setSubscriptionRegistry(SubscriptionRegistry subscriptionRegistry) {
+		this.subscriptionRegistry = subscriptionRegistry;
+	}
+
+	public void setSubProtocolHandler(WampSubProtocolHandler subProtocolHandler) {
+		this.subProtocolHandler = subProtocolHandler;
+	}
+
+	/**
+	 * Scheduler for the periodic log output. Without a scheduler the statistics are not
+	 * logged.
+	 */
+	public void setTaskScheduler(TaskScheduler taskScheduler) {
+		this.taskScheduler = taskScheduler;
+	}
+
+	/**
+	 * Period in milliseconds between two log outputs. Default is 30 minutes. A value of 0
+	 * or less disables the log output.
+	 */
+	public void setLoggingPeriod(long loggingPeriod) {
+		this.loggingPeriod = loggingPeriod;
+	}
+
+	public long getLoggingPeriod() {
+		return this.loggingPeriod;
+	}
+
+	/**
+	 * Maximum number of distinct procURIs with their own latency histograms. Calls of
+	 * further procedures are recorded under {@link #OTHER_PROCEDURES}. Every procedure
+	 * needs about 35 KB for its histograms. Default is 200.
+	 */
+	public void setMaxProcedures(int maxProcedures) {
+		this.maxProcedures = maxProcedures;
+	}
+
+	/**
+	 * Calls whose answer is written later than the given number of milliseconds after
+	 * the CALL arrived are logged with the duration of each stage. Default is -1, which
+	 * disables the log output.
+	 */
+	public void setSlowCallThreshold(long slowCallThreshold) {
+		this.slowCallThresholdNanos = slowCallThreshold >= 0
+				? TimeUnit.MILLISECONDS.toNanos(slowCallThreshold) : -1;
+	}
+
+	@Override
+	public void afterPropertiesSet() {
+		if (this.taskScheduler != null && this.loggingPeriod > 0) {
+			this.loggingTask = this.taskScheduler.scheduleAtFixedRate(new Runnable() {
+				@Override
+				public void run() {
+					if (WampMessageBrokerStats.this.logger.isInfoEnabled()) {
+						WampMessageBrokerStats.this.logger
+								.info(WampMessageBrokerStats.this.toString());
+					}
+				}
+			}, this.loggingPeriod);
+		}
+	}
+
+	@Override
+	public void destroy() {
+		if (this.loggingTask != null) {
+			this.loggingTask.cancel(false);
+			this.loggingTask = null;
+		}
+	}
+
+	@Override
+	public void messageReceived(WampMessageType type, long decodeNanos) {
+		this.receivedMessages.incrementAndGet(type.ordinal());
+		this.decodeTime.record(decodeNanos);
+	}
+
+	@Override
+	public void messageSent(WampMessageType type, long encodeNanos) {
+		this.sentMessages.incrementAndGet(type.ordinal());
+		this.encodeTime.record(encodeNanos);
+	}
+
+	@Override
+	public void eventBroadcast(int receivers, long lookupNanos) {
+		this.fanOut.record(receivers);
+		this.subscriptionLookupTime.record(lookupNanos);
+	}
+
+	@Override
+	public void callCompleted(String procURI, long nanos, boolean error) {
+		CallStats stats = getOrCreateCallStats(procURI);
+		stats.latency.record(nanos);
+		if (error) {
+			stats.errors.incrementAndGet();
+		}
+	}
+
+	@Override
+	public void callTraced(CallTrace callTrace) {
+		CallStats stats = getOrCreateCallStats(callTrace.getProcURI());
+		long total = callTrace.getTotalNanos();
+		stats.endToEnd.record(total);
+		for (CallTrace.Stage stage : CallTrace.Stage.values()) {
+			stats.stages[stage.ordinal()].record(callTrace.getStageNanos(stage));
+		}
+
+		if (this.slowCallThresholdNanos >= 0 && total > this.slowCallThresholdNanos) {
+			this.slowCalls.incrementAndGet();
+			if (this.logger.isWarnEnabled()) {
+				this.logger.warn("Slow call " + callTrace);
+			}
+		}
+	}
+
+	private CallStats getOrCreateCallStats(String procURI) {
+		CallStats stats = this.callStats.get(procURI);
+		if (stats == null) {
+			String key = this.callStats.size() < this.maxProcedures ? procURI
+					: OTHER_PROCEDURES;
+			stats = this.callStats.get(key);
+			if (stats == null) {
+				stats = new CallStats();
+				CallStats existing = this.callStats.putIfAbsent(key, stats);
+				if (existing != null) {
+					stats = existing;
+				}
+			}
+		}
+		return stats;
+	}
+
+	/**
+	 * Number of messages of the given type received from clients.
+	 */
+	public long getReceivedMessages(WampMessageType type) {
+		return this.receivedMessages.get(type.ordinal());
+	}
+
+	/**
+	 * Number of messages of the given type sent to clients.
+	 */
+	public long getSentMessages(WampMessageType type) {
+		return this.sentMessages.get(type.ordinal());
+	}
+
+	/**
+	 * Time in nanoseconds it took to parse the frames of the clients.
+	 */
+	public LongHistogram getDecodeTime() {
+		return this.decodeTime;
+	}
+
+	/**
+	 * Time in nanoseconds it took to serialize the messages sent to the clients.
+	 */
+	public LongHistogram getEncodeTime() {
+		return this.encodeTime;
+	}
+
+	/**
+	 * Number of sessions an EVENT or PUBLISH message was delivered to.
+	 */
+	public LongHistogram getFanOut() {
+		return this.fanOut;
+	}
+
+	/**
+	 * Time in nanoseconds the subscription registry needed to find the subscribers of
+	 * an event.
+	 */
+	public LongHistogram getSubscriptionLookupTime() {
+		return this.subscriptionLookupTime;
+	}
+
+	/**
+	 * Latency in nanoseconds of the calls of the procedure, or null if the procedure was
+	 * never called.
+	 */
+	public LongHistogram getCallLatency(String procURI) {
+		CallStats stats = this.callStats.get(procURI);
+		return stats != null ? stats.latency : null;
+	}
+
+	/**
+	 * Time in nanoseconds from the arrival of a CALL of the procedure until its answer
+	 * was written, or null if the procedure was never called.
+	 */
+	public LongHistogram getCallEndToEndLatency(String procURI) {
+		CallStats stats = this.callStats.get(procURI);
+		return stats != null ? stats.endToEnd : null;
+	}
+
+	/**
+	 * Duration in nanoseconds of one stage of the calls of the procedure, or null if the
+	 * procedure was never called.
+	 */
+	public LongHistogram getCallStageLatency(String procURI, CallTrace.Stage stage) {
+		CallStats stats = this.callStats.get(procURI);
+		return stats != null ? stats.stages[stage.ordinal()] : null;
+	}
+
+	/**
+	 * Number of calls that exceeded the slow call threshold.
+	 */
+	public long getSlowCalls() {
+		return this.slowCalls.get();
+	}
+
+	/**
+	 * Number of calls of the procedure that were answered with a CALLERROR.
+	 */
+	public long getCallErrors(String procURI) {
+		CallStats stats = this.callStats.get(procURI);
+		return stats != null ? stats.errors.get() : 0;
+	}
+
+	/**
+	 * The procURIs that have been called.
+	 */
+	public Iterable<String> getProcedures() {
+		return Collections.unmodifiableSet(this.callStats.keySet());
+	}
+
+	/**
+	 * Number of sessions with at least one subscription or -1 if the registry does not
+	 * provide the number.
+	 */
+	public int getSubscribedSessionCount() {
+		if (this.subscriptionRegistry instanceof DefaultSubscriptionRegistry) {
+			return ((DefaultSubscriptionRegistry) this.subscriptionRegistry)
+					.getSessionCount();
+		}
+		if (this.subscriptionRegistry instanceof TrieSubscriptionRegistry) {
+			return ((TrieSubscriptionRegistry) this.subscriptionRegistry)
+					.getSessionCount();
+		}
+		return -1;
+	}
+
+	/**
+	 * Number of subscriptions or -1 if the registry does not provide the number.
+	 */
+	public int getSubscriptionCount() {
+		if (this.subscriptionRegistry instanceof DefaultSubscriptionRegistry) {
+			return ((DefaultSubscriptionRegistry) this.subscriptionRegistry)
+					.getSubscriptionCount();
+		}
+		if (this.subscriptionRegistry instanceof TrieSubscriptionRegistry) {
+			return ((TrieSubscriptionRegistry) this.subscriptionRegistry)
+					.getSubscriptionCount();
+		}
+		return -1;
+	}
+
+	/**
+	 * Ratio of subscription lookups answered from the destination cache of the
+	 * {@link DefaultSubscriptionRegistry}, or -1 if the registry has no cache.
+	 */
+	public double getDestinationCacheHitRate() {
+		if (this.subscriptionRegistry instanceof DefaultSubscriptionRegistry) {
+			DefaultSubscriptionRegistry registry = (DefaultSubscriptionRegistry) this.subscriptionRegistry;
+			long hits = registry.getCacheHits();
+			long total = hits + registry.getCacheMisses();
+			return total > 0 ? (double) hits / total : 0;
+		}
+		return -1;
+	}
+
+	/**
+	 * Number of messages waiting in the outbound mailboxes of all sessions.
+	 */
+	public long getOutboundQueueDepth() {
+		long depth = 0;
+		if (this.subProtocolHandler != null) {
+			for (OutboundMailbox mailbox : this.subProtocolHandler
+					.getOutboundMailboxes()) {
+				depth += mailbox.getQueuedMessages();
+			}
+		}
+		return depth;
+	}
+
+	/**
+	 * Number of messages waiting in the fullest outbound mailbox.
+	 */
+	public int getMaxOutboundQueueDepth() {
+		int max = 0;
+		if (this.subProtocolHandler != null) {
+			for (OutboundMailbox mailbox : this.subProtocolHandler
+					.getOutboundMailboxes()) {
+				max = Math.max(max, mailbox.getQueuedMessages());
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * Returns a snapshot of all values with dotted names, e.g.
+	 * <code>wamp.messages.received.CALL</code> or
+	 * <code>wamp.call.latency.p99[procURI]</code>. Latencies are in nanoseconds.
+	 */
+	public Map<String, Number> getMetrics() {
+		Map<String, Number> metrics = new LinkedHashMap<>();
+		for (WampMessageType type : WampMessageType.values()) {
+			metrics.put("wamp.messages.received." + type, getReceivedMessages(type));
+			metrics.put("wamp.messages.sent." + type, getSentMessages(type));
+		}
+		putHistogram(metrics, "wamp.decode.time", this.decodeTime);
+		putHistogram(metrics, "wamp.encode.time", this.encodeTime);
+		putHistogram(metrics, "wamp.broker.fanout", this.fanOut);
+		putHistogram(metrics, "wamp.broker.lookup.time", this.subscriptionLookupTime);
+		metrics.put("wamp.registry.sessions", getSubscribedSessionCount());
+		metrics.put("wamp.registry.subscriptions", getSubscriptionCount());
+		metrics.put("wamp.registry.cache.hitrate", getDestinationCacheHitRate());
+		metrics.put("wamp.outbound.queue.depth", getOutboundQueueDepth());
+		metrics.put("wamp.outbound.queue.max", getMaxOutboundQueueDepth());
+		for (Map.Entry<String, CallStats> entry : this.callStats.entrySet()) {
+			String suffix = "[" + entry.getKey() + "]";
+			LongHistogram latency = entry.getValue().latency;
+			metrics.put("wamp.call.count" + suffix, latency.getCount());
+			metrics.put("wamp.call.errors" + suffix, entry.getValue().errors.get());
+			metrics.put("wamp.call.latency.mean" + suffix, latency.getMean());
+			metrics.put("wamp.call.latency.p99" + suffix,
+					latency.getValueAtPercentile(99));
+			metrics.put("wamp.call.latency.max" + suffix, latency.getMax());
+			LongHistogram endToEnd = entry.getValue().endToEnd;
+			metrics.put("wamp.call.e2e.p99" + suffix, endToEnd.getValueAtPercentile(99));
+			for (CallTrace.Stage stage : CallTrace.Stage.values()) {
+				metrics.put("wamp.call.stage." + stage.name().toLowerCase() + ".p99"
+						+ suffix, entry.getValue().stages[stage.ordinal()]
+								.getValueAtPercentile(99));
+			}
+		}
+		metrics.put("wamp.call.slow", getSlowCalls());
+		return metrics;
+	}
+
+	private static void putHistogram(Map<String, Number> metrics, String name,
+			LongHistogram histogram) {
+		metrics.put(name + ".count", histogram.getCount());
+		metrics.put(name + ".mean", histogram.getMean());
+		metrics.put(name + ".p99", histogram.getValueAtPercentile(99));
+		metrics.put(name + ".max", histogram.getMax());
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("WampMessageBrokerStats [received={");
+		appendTypeCounts(sb, this.receivedMessages);
+		sb.append("}, sent={");
+		appendTypeCounts(sb, this.sentMessages);
+		sb.append("}, decode[").append(this.decodeTime.toLatencyString());
+		sb.append("], encode[").append(this.encodeTime.toLatencyString());
+		sb.append("], registry[sessions=").append(getSubscribedSessionCount());
+		sb.append(", subscriptions=").append(getSubscriptionCount());
+		sb.append(", cacheHitRate=")
+				.append(String.format(Locale.ENGLISH, "%.2f", getDestinationCacheHitRate()));
+		sb.append(", lookup ").append(this.subscriptionLookupTime.toLatencyString());
+		sb.append("], fanOut[").append(this.fanOut);
+		sb.append("], outboundQueue[depth=").append(getOutboundQueueDepth());
+		sb.append(", max=").append(getMaxOutboundQueueDepth());
+		sb.append("], calls={");
+		boolean first = true;
+		for (Map.Entry<String, CallStats> entry : this.callStats.entrySet()) {
+			if (!first) {
+				sb.append(", ");
+			}
+			first = false;
+			sb.append(entry.getKey()).append("[")
+					.append(entry.getValue().latency.toLatencyString())
+					.append(", errors=").append(entry.getValue().errors.get())
+					.append(", e2e p99=")
+					.append(String.format(Locale.ENGLISH, "%.3f", entry.getValue().endToEnd
+							.getValueAtPercentile(99) / 1_000_000.0))
+					.append(" ms]");
+		}
+		sb.append("}, slowCalls=").append(getSlowCalls());
+		return sb.append("]").toString();
+	}
+
+	private static void appendTypeCounts(StringBuilder sb, AtomicLongArray counts) {
+		boolean first = true;
+		for (WampMessageType type : WampMessageType.values()) {
+			long count = counts.get(type.ordinal());
+			if (count > 0) {
+				if (!first) {
+					sb.append(", ");
+				}
+				first = false;
+				sb.append(type).append("=").append(count);
+			}
+		}
+	}
+
+	private static class CallStats {
+
+		final LongHistogram latency = new LongHistogram();
+
+		final AtomicLong errors = new AtomicLong();
+
+		final LongHistogram endToEnd = new LongHistogram();
+
+		final LongHistogram[] stages = new LongHistogram[CallTrace.Stage
+				.values().length];
+
+		CallStats() {
+			for (int i = 0; i < this.stages.length; i++) {
+				this.stages[i] = new LongHistogram();
+			}
+		}
+
+	}
+
+}
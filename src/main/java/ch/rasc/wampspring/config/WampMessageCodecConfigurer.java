@@ -0,0 +1,46 @@
+/**
+ * Copyright 2014-2017 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.config;
+
+import java.util.List;
+
+import ch.rasc.wampspring.message.WampMessageCodec;
+
+/**
+ * Optional interface a {@link WampConfigurer} implements to register the codecs for
+ * additional WebSocket subprotocols. {@link AbstractWampConfigurer} implements it with an
+ * empty method.
+ */
+public interface WampMessageCodecConfigurer {
+
+	/**
+	 * Add codecs for additional WebSocket subprotocols, e.g. a
+	 * {@link ch.rasc.wampspring.message.BinaryWampMessageCodec}.
+	 * <p>
+	 * The list already contains the JSON codec for the "wamp" subprotocol. It is the
+	 * first codec and is used for clients that do not request a subprotocol. Adding
+	 * another codec for "wamp", e.g. a
+	 * {@link ch.rasc.wampspring.message.JsonWampMessageCodec} with deferred payload
+	 * parsing, replaces the default codec.
+	 * <p>
+	 * The broker serializes an EVENT message once for every codec that sends it, not for
+	 * every receiver, see
+	 * {@link ch.rasc.wampspring.message.EventMessage#encode(com.fasterxml.jackson.core.JsonFactory)}.
+	 * @param messageCodecs the registered codecs, initially only the JSON codec
+	 */
+	void addMessageCodecs(List<WampMessageCodec> messageCodecs);
+
+}
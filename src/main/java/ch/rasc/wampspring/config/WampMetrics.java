@@ -0,0 +1,66 @@
+/**
+ * Copyright 2014-2017 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.config;
+
+import ch.rasc.wampspring.message.CallTrace;
+import ch.rasc.wampspring.message.WampMessageType;
+
+/**
+ * Callback the WAMP components report their activity to. {@link WampMessageBrokerStats}
+ * aggregates the values in memory. To export them to a monitoring system like
+ * Micrometer, either bind the getters of {@link WampMessageBrokerStats} as gauges or
+ * implement this interface and record the values with the timers and counters of the
+ * monitoring system.
+ * <p>
+ * Implementations are called on the threads that process the messages and must be
+ * thread safe and fast.
+ */
+public interface WampMetrics {
+
+	/**
+	 * A client sent a message.
+	 * @param decodeNanos time it took to parse the frame
+	 */
+	void messageReceived(WampMessageType type, long decodeNanos);
+
+	/**
+	 * A message is sent to a client.
+	 * @param encodeNanos time it took to serialize the message
+	 */
+	void messageSent(WampMessageType type, long encodeNanos);
+
+	/**
+	 * The broker delivered an EVENT or PUBLISH message to its subscribers.
+	 * @param receivers number of sessions the event was sent to
+	 * @param lookupNanos time the subscription registry needed to find the subscribers
+	 */
+	void eventBroadcast(int receivers, long lookupNanos);
+
+	/**
+	 * A CALL message was answered.
+	 * @param procURI the called procedure
+	 * @param nanos time from receiving the CALL to sending the CALLRESULT or CALLERROR
+	 * @param error true if a CALLERROR was sent
+	 */
+	void callCompleted(String procURI, long nanos, boolean error);
+
+	/**
+	 * The answer of a CALL was written to the session.
+	 * @param callTrace the durations of the stages the call passed
+	 */
+	void callTraced(CallTrace callTrace);
+
+}
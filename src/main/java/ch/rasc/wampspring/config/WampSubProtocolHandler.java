@@ -16,16 +16,23 @@
 package ch.rasc.wampspring.config;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageChannel;
+import org.springframework.scheduling.TaskScheduler;
 import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
 import org.springframework.web.socket.CloseStatus;
-import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketMessage;
 import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.handler.SessionLimitExceededException;
@@ -35,9 +42,13 @@ import com.fasterxml.jackson.core.JsonFactory;
 
 import ch.rasc.wampspring.message.CallErrorMessage;
 import ch.rasc.wampspring.message.CallMessage;
+import ch.rasc.wampspring.message.CallTrace;
+import ch.rasc.wampspring.message.JsonWampMessageCodec;
 import ch.rasc.wampspring.message.UnsubscribeMessage;
 import ch.rasc.wampspring.message.WampMessage;
+import ch.rasc.wampspring.message.WampMessageCodec;
 import ch.rasc.wampspring.message.WampMessageHeader;
+import ch.rasc.wampspring.message.WampMessageType;
 import ch.rasc.wampspring.message.WelcomeMessage;
 
 /**
@@ -55,15 +66,154 @@ public class WampSubProtocolHandler implements SubProtocolHandler {
 
 	private static final String SERVER_IDENTIFIER = "wampspring/1.1";
 
-	private final JsonFactory jsonFactory;
+	private final WampMessageCodec defaultCodec;
+
+	private final Map<String, WampMessageCodec> codecs;
+
+	private boolean outboundMailboxEnabled = false;
+
+	private int outboundMessageLimit = 1000;
+
+	private int outboundBufferSizeLimit = 512 * 1024;
+
+	private boolean conflateEvents = false;
+
+	private int outboundBatchSize = 1;
+
+	private long outboundBatchDelay = 0;
+
+	private TaskScheduler outboundBatchScheduler;
+
+	private WampMetrics wampMetrics;
+
+	private final ConcurrentMap<String, OutboundMailbox> outboundMailboxes = new ConcurrentHashMap<>();
 
 	public WampSubProtocolHandler(JsonFactory jsonFactory) {
-		this.jsonFactory = jsonFactory;
+		this(Collections
+				.<WampMessageCodec>singletonList(new JsonWampMessageCodec(jsonFactory)));
+	}
+
+	/**
+	 * Creates a handler that supports the subprotocols of the given codecs. The first
+	 * codec is used for sessions that did not negotiate a subprotocol. If more than one
+	 * codec handles the same subprotocol the last one wins.
+	 */
+	public WampSubProtocolHandler(List<WampMessageCodec> codecs) {
+		Assert.notEmpty(codecs, "'codecs' must not be empty");
+		Map<String, WampMessageCodec> codecMap = new LinkedHashMap<>();
+		for (WampMessageCodec codec : codecs) {
+			codecMap.put(codec.getSubProtocol(), codec);
+		}
+		this.codecs = Collections.unmodifiableMap(codecMap);
+		this.defaultCodec = codecMap.get(codecs.get(0).getSubProtocol());
+	}
+
+	/**
+	 * Enable a per-session {@link OutboundMailbox}. Outbound messages of a session are
+	 * queued and written by one thread at a time, a session whose queue exceeds the
+	 * message or byte limit is closed.
+	 * <p>
+	 * By default this is disabled.
+	 */
+	public void setOutboundMailboxEnabled(boolean outboundMailboxEnabled) {
+		this.outboundMailboxEnabled = outboundMailboxEnabled;
+	}
+
+	public boolean isOutboundMailboxEnabled() {
+		return this.outboundMailboxEnabled;
+	}
+
+	/**
+	 * Maximum number of messages queued per session. By default this is set to 1000.
+	 */
+	public void setOutboundMessageLimit(int outboundMessageLimit) {
+		this.outboundMessageLimit = outboundMessageLimit;
+	}
+
+	/**
+	 * Maximum number of bytes queued per session. By default this is set to 512K.
+	 */
+	public void setOutboundBufferSizeLimit(int outboundBufferSizeLimit) {
+		this.outboundBufferSizeLimit = outboundBufferSizeLimit;
+	}
+
+	/**
+	 * When set to true a queued broadcast EVENT message is replaced by a newer broadcast
+	 * EVENT message for the same topicURI. See
+	 * {@link ch.rasc.wampspring.message.EventMessage#isConflatable()}. By
+	 * default this is set to false.
+	 */
+	public void setConflateEvents(boolean conflateEvents) {
+		this.conflateEvents = conflateEvents;
+	}
+
+	/**
+	 * Number of queued messages that are written to the session before the
+	 * {@link #setOutboundBatchDelay(long) batch delay} has elapsed. By default this is set
+	 * to 1.
+	 */
+	public void setOutboundBatchSize(int outboundBatchSize) {
+		this.outboundBatchSize = outboundBatchSize;
+	}
+
+	/**
+	 * Maximum time in milliseconds a message waits in the mailbox before it is written to
+	 * the session. The delay does not reduce the number of writes, it only groups them.
+	 * Only used when a {@link #setOutboundBatchScheduler(TaskScheduler) scheduler} is
+	 * configured. By default this is set to 0, which writes every message immediately.
+	 */
+	public void setOutboundBatchDelay(long outboundBatchDelay) {
+		this.outboundBatchDelay = outboundBatchDelay;
+	}
+
+	/**
+	 * The scheduler that writes batches after the {@link #setOutboundBatchDelay(long)
+	 * batch delay} has elapsed.
+	 */
+	public void setOutboundBatchScheduler(TaskScheduler outboundBatchScheduler) {
+		this.outboundBatchScheduler = outboundBatchScheduler;
+	}
+
+	/**
+	 * Reports the received and sent messages and the time it took to parse and
+	 * serialize them to the given metrics.
+	 */
+	public void setWampMetrics(WampMetrics wampMetrics) {
+		this.wampMetrics = wampMetrics;
+	}
+
+	/**
+	 * Returns the outbound mailbox of the session or null if the session does not exist
+	 * or the outbound mailbox is not enabled.
+	 */
+	public OutboundMailbox getOutboundMailbox(String webSocketSessionId) {
+		return this.outboundMailboxes.get(webSocketSessionId);
+	}
+
+	/**
+	 * Returns the outbound mailboxes of all open sessions.
+	 */
+	public Collection<OutboundMailbox> getOutboundMailboxes() {
+		return Collections.unmodifiableCollection(this.outboundMailboxes.values());
 	}
 
 	@Override
 	public List<String> getSupportedProtocols() {
-		return Collections.singletonList("wamp");
+		return new ArrayList<>(this.codecs.keySet());
+	}
+
+	/**
+	 * Returns the codec for the subprotocol the session negotiated during the handshake.
+	 */
+	protected WampMessageCodec getCodec(WebSocketSession session) {
+		String protocol = session.getAcceptedProtocol();
+		if (StringUtils.hasText(protocol)) {
+			WampMessageCodec codec = this.codecs.get(protocol);
+			if (codec != null) {
+				return codec;
+			}
+		}
+		return this.defaultCodec;
 	}
 
 	/**
@@ -73,11 +223,20 @@ public class WampSubProtocolHandler implements SubProtocolHandler {
 	public void handleMessageFromClient(WebSocketSession session,
 			WebSocketMessage<?> webSocketMessage, MessageChannel outputChannel) {
 
-		Assert.isInstanceOf(TextMessage.class, webSocketMessage);
+		WampMessageCodec codec = getCodec(session);
 		WampMessage wampMessage = null;
 		try {
-			wampMessage = WampMessage.fromJson(session, this.jsonFactory,
-					((TextMessage) webSocketMessage).getPayload());
+			long start = this.wampMetrics != null ? System.nanoTime() : 0;
+			wampMessage = codec.decode(session, webSocketMessage);
+			if (this.wampMetrics != null && wampMessage != null) {
+				long end = System.nanoTime();
+				this.wampMetrics.messageReceived(wampMessage.getType(), end - start);
+				if (wampMessage instanceof CallMessage) {
+					CallTrace trace = new CallTrace((CallMessage) wampMessage, start);
+					trace.stageCompleted(CallTrace.Stage.PARSE, end);
+					wampMessage.setCallTrace(trace);
+				}
+			}
 		}
 		catch (Throwable ex) {
 			if (logger.isErrorEnabled()) {
@@ -101,8 +260,7 @@ public class WampSubProtocolHandler implements SubProtocolHandler {
 						(CallMessage) wampMessage, "", ex.toString());
 
 				try {
-					String json = callErrorMessage.toJson(this.jsonFactory);
-					session.sendMessage(new TextMessage(json));
+					session.sendMessage(encode(codec, callErrorMessage));
 				}
 				catch (Throwable t) {
 					// Could be part of normal workflow (e.g. browser tab closed)
@@ -128,8 +286,20 @@ public class WampSubProtocolHandler implements SubProtocolHandler {
 
 		boolean closeWebSocketSession = false;
 		try {
-			String json = ((WampMessage) message).toJson(this.jsonFactory);
-			session.sendMessage(new TextMessage(json));
+			WampMessage wampMessage = (WampMessage) message;
+			OutboundMailbox mailbox = this.outboundMailboxes.get(session.getId());
+			if (mailbox != null) {
+				mailbox.send(wampMessage);
+			}
+			else {
+				session.sendMessage(encode(getCodec(session), wampMessage));
+				Runnable sentCallback = wampMessage
+						.getHeader(WampMessageHeader.SENT_CALLBACK);
+				if (sentCallback != null) {
+					sentCallback.run();
+				}
+			}
+			completeCallTrace(wampMessage);
 		}
 		catch (SessionLimitExceededException ex) {
 			// Bad session, just get out
@@ -153,6 +323,41 @@ public class WampSubProtocolHandler implements SubProtocolHandler {
 		}
 	}
 
+	private WebSocketMessage<?> encode(WampMessageCodec codec, WampMessage message)
+			throws IOException {
+		if (this.wampMetrics == null) {
+			return codec.encode(message);
+		}
+		long start = System.nanoTime();
+		WebSocketMessage<?> frame = codec.encode(message);
+		long end = System.nanoTime();
+		this.wampMetrics.messageSent(message.getType(), end - start);
+
+		CallTrace trace = message.getCallTrace();
+		if (trace != null) {
+			trace.stageCompleted(CallTrace.Stage.OUTBOUND_DISPATCH, start);
+			trace.stageCompleted(CallTrace.Stage.SERIALIZATION, end);
+		}
+		return frame;
+	}
+
+	/**
+	 * Reports the trace of a CALLRESULT or CALLERROR message after it was written to the
+	 * session or queued in the outbound mailbox.
+	 */
+	private void completeCallTrace(WampMessage message) {
+		if (this.wampMetrics == null) {
+			return;
+		}
+		CallTrace trace = message.getCallTrace();
+		if (trace != null && (message.getType() == WampMessageType.CALLRESULT
+				|| message.getType() == WampMessageType.CALLERROR)) {
+			trace.stageCompleted(CallTrace.Stage.WRITE);
+			trace.setError(message.getType() == WampMessageType.CALLERROR);
+			this.wampMetrics.callTraced(trace);
+		}
+	}
+
 	@Override
 	public String resolveSessionId(Message<?> message) {
 		return (String) message.getHeaders()
@@ -165,11 +370,23 @@ public class WampSubProtocolHandler implements SubProtocolHandler {
 		if (session.getTextMessageSizeLimit() < MINIMUM_WEBSOCKET_MESSAGE_SIZE) {
 			session.setTextMessageSizeLimit(MINIMUM_WEBSOCKET_MESSAGE_SIZE);
 		}
+		if (session.getBinaryMessageSizeLimit() < MINIMUM_WEBSOCKET_MESSAGE_SIZE) {
+			session.setBinaryMessageSizeLimit(MINIMUM_WEBSOCKET_MESSAGE_SIZE);
+		}
+
+		if (this.outboundMailboxEnabled) {
+			OutboundMailbox mailbox = new OutboundMailbox(session, getCodec(session),
+					this.outboundMessageLimit, this.outboundBufferSizeLimit,
+					this.conflateEvents, this.outboundBatchSize, this.outboundBatchDelay,
+					this.outboundBatchScheduler);
+			mailbox.setWampMetrics(this.wampMetrics);
+			this.outboundMailboxes.put(session.getId(), mailbox);
+		}
 
 		WelcomeMessage welcomeMessage = new WelcomeMessage(session.getId(),
 				SERVER_IDENTIFIER);
 		try {
-			session.sendMessage(new TextMessage(welcomeMessage.toJson(this.jsonFactory)));
+			session.sendMessage(encode(getCodec(session), welcomeMessage));
 		}
 		catch (IOException e) {
 			logger.error("Failed to send welcome message to client in session "
@@ -180,6 +397,11 @@ public class WampSubProtocolHandler implements SubProtocolHandler {
 	@Override
 	public void afterSessionEnded(WebSocketSession session, CloseStatus closeStatus,
 			MessageChannel outputChannel) {
+		OutboundMailbox mailbox = this.outboundMailboxes.remove(session.getId());
+		if (mailbox != null) {
+			mailbox.clear();
+		}
+
 		/*
 		 * To cleanup we send an internal messages to the handlers. It might be possible
 		 * that this is an unexpected session end and the client did not unsubscribe his
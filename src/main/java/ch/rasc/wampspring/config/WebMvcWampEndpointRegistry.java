@@ -16,6 +16,7 @@
 package ch.rasc.wampspring.config;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -34,6 +35,9 @@ import org.springframework.web.util.UrlPathHelper;
 
 import com.fasterxml.jackson.core.JsonFactory;
 
+import ch.rasc.wampspring.message.JsonWampMessageCodec;
+import ch.rasc.wampspring.message.WampMessageCodec;
+
 /**
  * @author Rossen Stoyanchev
  * @author Artem Bilan
@@ -60,10 +64,19 @@ public class WebMvcWampEndpointRegistry implements WampEndpointRegistry {
 	public WebMvcWampEndpointRegistry(WebSocketHandler webSocketHandler,
 			WebSocketTransportRegistration transportRegistration,
 			TaskScheduler defaultSockJsTaskScheduler, JsonFactory jsonFactory) {
+		this(webSocketHandler, transportRegistration, defaultSockJsTaskScheduler,
+				Collections.<WampMessageCodec>singletonList(
+						new JsonWampMessageCodec(jsonFactory)));
+	}
+
+	public WebMvcWampEndpointRegistry(WebSocketHandler webSocketHandler,
+			WebSocketTransportRegistration transportRegistration,
+			TaskScheduler defaultSockJsTaskScheduler,
+			List<WampMessageCodec> messageCodecs) {
 
 		Assert.notNull(webSocketHandler, "'webSocketHandler' is required ");
 		Assert.notNull(transportRegistration, "'transportRegistration' is required");
-		Assert.notNull(jsonFactory, "'jsonFactory' is required");
+		Assert.notEmpty(messageCodecs, "'messageCodecs' is required");
 
 		this.webSocketHandler = webSocketHandler;
 		this.subProtocolWebSocketHandler = unwrapSubProtocolWebSocketHandler(
@@ -78,10 +91,40 @@ public class WebMvcWampEndpointRegistry implements WampEndpointRegistry {
 					transportRegistration.getSendBufferSizeLimit());
 		}
 
-		this.wampSubProtocolHandler = new WampSubProtocolHandler(jsonFactory);
+		this.wampSubProtocolHandler = new WampSubProtocolHandler(messageCodecs);
+		if (transportRegistration.getOutboundMessageLimit() != null
+				|| transportRegistration.getOutboundBufferSizeLimit() != null
+				|| transportRegistration.isConflateEvents()
+				|| transportRegistration.getOutboundBatchSize() != null) {
+			this.wampSubProtocolHandler.setOutboundMailboxEnabled(true);
+			this.wampSubProtocolHandler
+					.setConflateEvents(transportRegistration.isConflateEvents());
+			if (transportRegistration.getOutboundMessageLimit() != null) {
+				this.wampSubProtocolHandler.setOutboundMessageLimit(
+						transportRegistration.getOutboundMessageLimit());
+			}
+			if (transportRegistration.getOutboundBufferSizeLimit() != null) {
+				this.wampSubProtocolHandler.setOutboundBufferSizeLimit(
+						transportRegistration.getOutboundBufferSizeLimit());
+			}
+			if (transportRegistration.getOutboundBatchSize() != null) {
+				this.wampSubProtocolHandler.setOutboundBatchSize(
+						transportRegistration.getOutboundBatchSize());
+				if (transportRegistration.getOutboundBatchDelay() != null) {
+					this.wampSubProtocolHandler.setOutboundBatchDelay(
+							transportRegistration.getOutboundBatchDelay());
+					this.wampSubProtocolHandler
+							.setOutboundBatchScheduler(defaultSockJsTaskScheduler);
+				}
+			}
+		}
 		this.sockJsScheduler = defaultSockJsTaskScheduler;
 	}
 
+	public WampSubProtocolHandler getWampSubProtocolHandler() {
+		return this.wampSubProtocolHandler;
+	}
+
 	public void addHandshakeInterceptors(List<HandshakeInterceptor> interceptors) {
 		this.handshakeInterceptors = interceptors;
 	}
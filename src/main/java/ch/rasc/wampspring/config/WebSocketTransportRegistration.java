@@ -31,6 +31,16 @@ public class WebSocketTransportRegistration {
 
 	private Integer sendBufferSizeLimit;
 
+	private Integer outboundMessageLimit;
+
+	private Integer outboundBufferSizeLimit;
+
+	private Integer outboundBatchSize;
+
+	private Integer outboundBatchDelay;
+
+	private boolean conflateEvents = false;
+
 	private final List<WebSocketHandlerDecoratorFactory> decoratorFactories = new ArrayList<>(
 			2);
 
@@ -125,6 +135,117 @@ public class WebSocketTransportRegistration {
 		return this.sendBufferSizeLimit;
 	}
 
+	/**
+	 * Configure the maximum number of outbound messages that are queued for a WebSocket
+	 * session while a previous message is still being sent. Setting this option, the
+	 * {@link #setOutboundBufferSizeLimit(int)} or {@link #setConflateEvents(boolean)}
+	 * enables a per-session {@link OutboundMailbox}. A slow client then no longer blocks
+	 * the threads of the clientOutboundChannel, its messages wait in the mailbox. When
+	 * the mailbox exceeds one of its limits the session is closed.
+	 *
+	 * <p>
+	 * The default value is 1000 when the mailbox is enabled.
+	 */
+	public WebSocketTransportRegistration setOutboundMessageLimit(
+			int outboundMessageLimit) {
+		this.outboundMessageLimit = outboundMessageLimit;
+		return this;
+	}
+
+	/**
+	 * Protected accessor for internal use.
+	 */
+	protected Integer getOutboundMessageLimit() {
+		return this.outboundMessageLimit;
+	}
+
+	/**
+	 * Configure the maximum number of bytes that are queued in the per-session
+	 * {@link OutboundMailbox}. See {@link #setOutboundMessageLimit(int)}.
+	 *
+	 * <p>
+	 * The default value is 512K (i.e. 512 * 1024) when the mailbox is enabled.
+	 */
+	public WebSocketTransportRegistration setOutboundBufferSizeLimit(
+			int outboundBufferSizeLimit) {
+		this.outboundBufferSizeLimit = outboundBufferSizeLimit;
+		return this;
+	}
+
+	/**
+	 * Protected accessor for internal use.
+	 */
+	protected Integer getOutboundBufferSizeLimit() {
+		return this.outboundBufferSizeLimit;
+	}
+
+	/**
+	 * When set to true, a broadcast EVENT message that waits in the per-session
+	 * {@link OutboundMailbox} is replaced by a newer broadcast EVENT message for the same
+	 * topicURI. A lagging client only receives the latest value of each topic instead of
+	 * being disconnected. Useful for topics where the latest value supersedes older
+	 * values, like market data. Replayed events and streamed CALL results are never
+	 * replaced.
+	 *
+	 * <p>
+	 * The default value is false.
+	 */
+	public WebSocketTransportRegistration setConflateEvents(boolean conflateEvents) {
+		this.conflateEvents = conflateEvents;
+		return this;
+	}
+
+	/**
+	 * Protected accessor for internal use.
+	 */
+	protected boolean isConflateEvents() {
+		return this.conflateEvents;
+	}
+
+	/**
+	 * Number of queued messages that end the {@link #setOutboundBatchDelay(int) batch
+	 * delay} early. With a batch delay the messages queued in the per-session
+	 * {@link OutboundMailbox} are written when {@code batchSize} messages are queued or
+	 * when the delay has elapsed. Every message is still written to the session on its
+	 * own, batching only delays and groups the writes.
+	 *
+	 * <p>
+	 * Setting this property enables the {@link OutboundMailbox}. By default batching is
+	 * disabled.
+	 */
+	public WebSocketTransportRegistration setOutboundBatchSize(int batchSize) {
+		this.outboundBatchSize = batchSize;
+		return this;
+	}
+
+	/**
+	 * Protected accessor for internal use.
+	 */
+	protected Integer getOutboundBatchSize() {
+		return this.outboundBatchSize;
+	}
+
+	/**
+	 * Configure the time in milliseconds a batch waits for more messages before it is
+	 * written to the session. Only used together with
+	 * {@link #setOutboundBatchSize(int)}. Each message waits at most this long, so keep
+	 * the value small (a few milliseconds).
+	 *
+	 * <p>
+	 * The default value is 0, every message is written immediately.
+	 */
+	public WebSocketTransportRegistration setOutboundBatchDelay(int batchDelay) {
+		this.outboundBatchDelay = batchDelay;
+		return this;
+	}
+
+	/**
+	 * Protected accessor for internal use.
+	 */
+	protected Integer getOutboundBatchDelay() {
+		return this.outboundBatchDelay;
+	}
+
 	/**
 	 * Configure one or more factories to decorate the handler used to process WebSocket
 	 * messages. This may be useful in some advanced use cases, for example to allow
@@ -0,0 +1,116 @@
+/**
+ * Copyright 2014-2017 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.message;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.springframework.util.Assert;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import com.fasterxml.jackson.core.JsonFactory;
+
+/**
+ * A {@link WampMessageCodec} that sends and receives the WAMP messages as binary frames.
+ * The messages keep the array layout of the WAMP v1 specification, only the data format
+ * is different.
+ * <p>
+ * Works with every Jackson data format module for a binary format, for example CBOR
+ * (requires jackson-dataformat-cbor on the classpath):
+ *
+ * <pre class="code">
+ * new BinaryWampMessageCodec(&quot;wamp.cbor&quot;, new ObjectMapper(new CBORFactory()).getFactory());
+ * </pre>
+ *
+ * The factory needs an {@link com.fasterxml.jackson.core.ObjectCodec} to read and write
+ * the call arguments and event payloads.
+ */
+public class BinaryWampMessageCodec implements WampMessageCodec {
+
+	private final String subProtocol;
+
+	private final JsonFactory jsonFactory;
+
+	private boolean deferPayloadParsing = false;
+
+	public BinaryWampMessageCodec(String subProtocol, JsonFactory jsonFactory) {
+		Assert.hasText(subProtocol, "'subProtocol' must not be empty");
+		Assert.notNull(jsonFactory, "'jsonFactory' must not be null");
+		Assert.notNull(jsonFactory.getCodec(), "'jsonFactory' requires an ObjectCodec");
+		this.subProtocol = subProtocol;
+		this.jsonFactory = jsonFactory;
+	}
+
+	public JsonFactory getJsonFactory() {
+		return this.jsonFactory;
+	}
+
+	public boolean isDeferPayloadParsing() {
+		return this.deferPayloadParsing;
+	}
+
+	/**
+	 * If true, object and array arguments of CALL messages and events of PUBLISH
+	 * messages are not read into maps and lists. They are kept as
+	 * {@link com.fasterxml.jackson.databind.util.TokenBuffer} and bound directly to the
+	 * parameter types of the handler method. Code that reads
+	 * {@link CallMessage#getArguments()} or {@link PublishMessage#getEvent()} has to be
+	 * able to handle these buffers.
+	 * <p>
+	 * Default is false.
+	 */
+	public void setDeferPayloadParsing(boolean deferPayloadParsing) {
+		this.deferPayloadParsing = deferPayloadParsing;
+	}
+
+	@Override
+	public String getSubProtocol() {
+		return this.subProtocol;
+	}
+
+	@Override
+	public WampMessage decode(WebSocketSession session,
+			WebSocketMessage<?> webSocketMessage) throws IOException {
+		Assert.isInstanceOf(BinaryMessage.class, webSocketMessage);
+		ByteBuffer payload = ((BinaryMessage) webSocketMessage).getPayload();
+
+		byte[] data;
+		if (payload.hasArray() && payload.arrayOffset() == 0 && payload.position() == 0
+				&& payload.remaining() == payload.array().length) {
+			data = payload.array();
+		}
+		else {
+			data = new byte[payload.remaining()];
+			payload.duplicate().get(data);
+		}
+
+		return WampMessage.fromBytes(session, this.jsonFactory, data,
+				this.deferPayloadParsing);
+	}
+
+	@Override
+	public WebSocketMessage<?> encode(WampMessage wampMessage) throws IOException {
+		return new BinaryMessage(wampMessage.toBytes(this.jsonFactory));
+	}
+
+	@Override
+	public String toString() {
+		return "BinaryWampMessageCodec [" + this.subProtocol + "]";
+	}
+
+}
@@ -16,9 +16,7 @@
 package ch.rasc.wampspring.message;
 
 import java.io.IOException;
-import java.io.StringWriter;
 
-import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonToken;
@@ -55,6 +53,7 @@ public class CallErrorMessage extends WampMessage {
 
 		setWebSocketSessionId(callMessage.getWebSocketSessionId());
 		setPrincipal(callMessage.getPrincipal());
+		setCallTrace(callMessage.getCallTrace());
 	}
 
 	public CallErrorMessage(JsonParser jp) throws IOException {
@@ -100,22 +99,16 @@ public class CallErrorMessage extends WampMessage {
 	}
 
 	@Override
-	public String toJson(JsonFactory jsonFactory) throws IOException {
-		try (StringWriter sw = new StringWriter();
-				JsonGenerator jg = jsonFactory.createGenerator(sw)) {
-			jg.writeStartArray();
-			jg.writeNumber(getTypeId());
-			jg.writeString(this.callID);
-			jg.writeString(this.errorURI);
-			jg.writeString(this.errorDesc);
-			if (this.errorDetails != null) {
-				jg.writeObject(this.errorDetails);
-			}
-			jg.writeEndArray();
-			jg.close();
-
-			return sw.toString();
+	void writeTo(JsonGenerator jg) throws IOException {
+		jg.writeStartArray();
+		jg.writeNumber(getTypeId());
+		jg.writeString(this.callID);
+		jg.writeString(this.errorURI);
+		jg.writeString(this.errorDesc);
+		if (this.errorDetails != null) {
+			jg.writeObject(this.errorDetails);
 		}
+		jg.writeEndArray();
 	}
 
 	@Override
@@ -16,13 +16,11 @@
 package ch.rasc.wampspring.message;
 
 import java.io.IOException;
-import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
-import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonToken;
@@ -61,6 +59,11 @@ public class CallMessage extends WampMessage {
 	}
 
 	public CallMessage(JsonParser jp, WampSession wampSession) throws IOException {
+		this(jp, wampSession, false);
+	}
+
+	CallMessage(JsonParser jp, WampSession wampSession, boolean deferPayloadParsing)
+			throws IOException {
 		super(WampMessageType.CALL);
 
 		if (jp.nextToken() != JsonToken.VALUE_STRING) {
@@ -75,7 +78,7 @@ public class CallMessage extends WampMessage {
 
 		List<Object> args = new ArrayList<>();
 		while (jp.nextToken() != JsonToken.END_ARRAY) {
-			args.add(jp.readValueAs(Object.class));
+			args.add(readPayload(jp, deferPayloadParsing));
 		}
 
 		if (!args.isEmpty()) {
@@ -94,6 +97,11 @@ public class CallMessage extends WampMessage {
 		return this.procURI;
 	}
 
+	/**
+	 * Returns the call arguments. Object and array arguments are
+	 * {@link com.fasterxml.jackson.databind.util.TokenBuffer}s if the message was read
+	 * with deferred payload parsing.
+	 */
 	public List<Object> getArguments() {
 		return this.arguments;
 	}
@@ -104,23 +112,18 @@ public class CallMessage extends WampMessage {
 	}
 
 	@Override
-	public String toJson(JsonFactory jsonFactory) throws IOException {
-		try (StringWriter sw = new StringWriter();
-				JsonGenerator jg = jsonFactory.createGenerator(sw)) {
-			jg.writeStartArray();
-			jg.writeNumber(getTypeId());
-			jg.writeString(this.callID);
-			jg.writeString(this.procURI);
-			if (this.arguments != null) {
-				for (Object argument : this.arguments) {
-					jg.writeObject(argument);
-				}
+	void writeTo(JsonGenerator jg) throws IOException {
+		jg.writeStartArray();
+		jg.writeNumber(getTypeId());
+		jg.writeString(this.callID);
+		jg.writeString(this.procURI);
+		if (this.arguments != null) {
+			for (Object argument : this.arguments) {
+				jg.writeObject(argument);
 			}
-
-			jg.writeEndArray();
-			jg.close();
-			return sw.toString();
 		}
+
+		jg.writeEndArray();
 	}
 
 	@Override
@@ -0,0 +1,154 @@
+/**
+ * Copyright 2014-2017 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.message;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timestamps of the stages a CALL passes from the arrival of the frame until the
+ * CALLRESULT or CALLERROR is written to the WebSocket session. The trace travels with
+ * the CALL message and is copied to its answer (see
+ * {@link WampMessage#getCallTrace()}). It is reported to
+ * {@link ch.rasc.wampspring.config.WampMetrics#callTraced(CallTrace)} when the answer
+ * was written.
+ */
+public class CallTrace {
+
+	public enum Stage {
+		/** Parsing the frame into a CALL message */
+		PARSE,
+
+		/** Handing the CALL over the inbound channel and looking up the handler method */
+		DISPATCH,
+
+		/** Converting the call arguments to the method parameters */
+		ARGUMENT_RESOLUTION,
+
+		/** Executing the method, for asynchronous results until the result completes */
+		INVOCATION,
+
+		/** Handing the answer over the outbound channel to the session */
+		OUTBOUND_DISPATCH,
+
+		/** Serializing the answer */
+		SERIALIZATION,
+
+		/** Writing the frame to the session */
+		WRITE
+	}
+
+	private static final Stage[] STAGES = Stage.values();
+
+	private final String callID;
+
+	private final String procURI;
+
+	private final String webSocketSessionId;
+
+	/** marks[0] is the arrival, marks[i + 1] the end of stage i, 0 if not reached */
+	private final long[] marks = new long[STAGES.length + 1];
+
+	private volatile boolean error;
+
+	public CallTrace(CallMessage callMessage, long receivedNanos) {
+		this.callID = callMessage.getCallID();
+		this.procURI = callMessage.getProcURI();
+		this.webSocketSessionId = callMessage.getWebSocketSessionId();
+		this.marks[0] = receivedNanos;
+	}
+
+	/**
+	 * Records the current time as the end of the stage.
+	 */
+	public void stageCompleted(Stage stage) {
+		stageCompleted(stage, System.nanoTime());
+	}
+
+	public void stageCompleted(Stage stage, long nanos) {
+		this.marks[stage.ordinal() + 1] = nanos;
+	}
+
+	public void setError(boolean error) {
+		this.error = error;
+	}
+
+	/**
+	 * Returns true if the call was answered with a CALLERROR.
+	 */
+	public boolean isError() {
+		return this.error;
+	}
+
+	public String getCallID() {
+		return this.callID;
+	}
+
+	public String getProcURI() {
+		return this.procURI;
+	}
+
+	public String getWebSocketSessionId() {
+		return this.webSocketSessionId;
+	}
+
+	/**
+	 * Duration of the stage in nanoseconds. A stage that was skipped, for example the
+	 * invocation of a call that failed during argument resolution, has a duration of 0.
+	 */
+	public long getStageNanos(Stage stage) {
+		long end = this.marks[stage.ordinal() + 1];
+		if (end == 0) {
+			return 0;
+		}
+		return end - previousMark(stage.ordinal() + 1);
+	}
+
+	/**
+	 * Nanoseconds from the arrival of the CALL until the end of the last completed
+	 * stage.
+	 */
+	public long getTotalNanos() {
+		return previousMark(this.marks.length) - this.marks[0];
+	}
+
+	private long previousMark(int index) {
+		for (int i = index - 1; i > 0; i--) {
+			if (this.marks[i] != 0) {
+				return this.marks[i];
+			}
+		}
+		return this.marks[0];
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("CallTrace [callID=").append(this.callID)
+				.append(", procURI=").append(this.procURI).append(", session=")
+				.append(this.webSocketSessionId).append(", error=").append(this.error)
+				.append(", total=").append(toMillis(getTotalNanos())).append(" ms");
+		for (Stage stage : STAGES) {
+			sb.append(", ").append(stage.name().toLowerCase()).append("=")
+					.append(toMillis(getStageNanos(stage)));
+		}
+		return sb.append("]").toString();
+	}
+
+	private static String toMillis(long nanos) {
+		return String.format(Locale.ENGLISH, "%.3f", (double) nanos / TimeUnit.MILLISECONDS.toNanos(1));
+	}
+
+}
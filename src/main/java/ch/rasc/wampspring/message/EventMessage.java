@@ -16,7 +16,7 @@
 package ch.rasc.wampspring.message;
 
 import java.io.IOException;
-import java.io.StringWriter;
+import java.util.Arrays;
 import java.util.Set;
 
 import com.fasterxml.jackson.core.JsonFactory;
@@ -30,6 +30,11 @@ import ch.rasc.wampspring.config.WampSession;
  * Subscribers receive PubSub events published by other components of the system via the
  * EVENT message. The EVENT message contains the topicURI, the topic under which the event
  * was published, and the event, the PubSub payload.
+ * <p>
+ * Events that were written to an {@link ch.rasc.wampspring.broker.EventJournal} carry
+ * their journal offset as an additional fourth element, but only when they are sent to
+ * a session that subscribed with an offset. Clients send the offset of the last received
+ * event in a {@link SubscribeMessage} to replay missed events.
  *
  * <p>
  * Server-to-Client message
@@ -44,10 +49,18 @@ public class EventMessage extends PubSubMessage {
 
 	private Set<String> eligibleWebSocketSessionIds;
 
+	private EncodedFrames encodedFrames;
+
+	private Long offset;
+
+	private boolean conflatable;
+
 	public EventMessage(EventMessage originEventMessage,
 			String receiverWebSocketSessionId) {
 		super(WampMessageType.EVENT, originEventMessage.getTopicURI());
 		this.event = originEventMessage.getEvent();
+		this.encodedFrames = originEventMessage.encodedFrames;
+		this.offset = originEventMessage.offset;
 
 		setWebSocketSessionId(receiverWebSocketSessionId);
 		setPrincipal(originEventMessage.getPrincipal());
@@ -83,6 +96,10 @@ public class EventMessage extends PubSubMessage {
 
 		jp.nextToken();
 		this.event = jp.readValueAs(Object.class);
+
+		if (jp.nextToken() == JsonToken.VALUE_NUMBER_INT) {
+			this.offset = jp.getLongValue();
+		}
 	}
 
 	public Object getEvent() {
@@ -105,19 +122,107 @@ public class EventMessage extends PubSubMessage {
 		this.eligibleWebSocketSessionIds = eligibleSessionIds;
 	}
 
+	/**
+	 * Returns the offset of this event in the event journal or null if the event was not
+	 * journaled.
+	 */
+	public Long getOffset() {
+		return this.offset;
+	}
+
+	/**
+	 * Sets the journal offset that is sent as fourth element of the message, null
+	 * removes it. Copies keep their own offset, the frames with and without an offset
+	 * are kept separately.
+	 */
+	public void setOffset(Long offset) {
+		this.offset = offset;
+	}
+
+	/**
+	 * Returns true if an outbound mailbox with conflation enabled may replace this event
+	 * with a newer event of the same topicURI. Only the copies the broker sends to the
+	 * subscribers of a topic are conflatable. Replayed events and the chunks of a
+	 * streamed CALL result are always delivered.
+	 */
+	public boolean isConflatable() {
+		return this.conflatable;
+	}
+
+	public void setConflatable(boolean conflatable) {
+		this.conflatable = conflatable;
+	}
+
+	/**
+	 * Serializes this message with the given {@link JsonFactory} and keeps the result.
+	 * Copies created with {@link #EventMessage(EventMessage, String)} share the kept
+	 * frames. {@link #toJson(JsonFactory)} and {@link #toBytes(JsonFactory)} return the
+	 * kept frame for a factory without serializing the event again. Called with a factory
+	 * that has no frame yet, e.g. the one of a
+	 * {@link ch.rasc.wampspring.message.BinaryWampMessageCodec}, they serialize the event
+	 * and keep that frame as well, so the event is serialized once per codec and not
+	 * once per receiver.
+	 *
+	 * @param jsonFactory the factory that is used for sending the message to the clients
+	 */
+	public void encode(JsonFactory jsonFactory) throws IOException {
+		EncodedFrames frames = new EncodedFrames();
+		boolean withOffset = this.offset != null;
+		if (jsonFactory.canHandleBinaryNatively()) {
+			frames.add(jsonFactory, withOffset, null, super.toBytes(jsonFactory));
+		}
+		else {
+			frames.add(jsonFactory, withOffset, super.toJson(jsonFactory), null);
+		}
+		this.encodedFrames = frames;
+	}
+
+	public boolean isEncoded() {
+		return this.encodedFrames != null;
+	}
+
 	@Override
 	public String toJson(JsonFactory jsonFactory) throws IOException {
-		try (StringWriter sw = new StringWriter();
-				JsonGenerator jg = jsonFactory.createGenerator(sw)) {
-			jg.writeStartArray();
-			jg.writeNumber(getTypeId());
-			jg.writeString(getTopicURI());
-			jg.writeObject(this.event);
-			jg.writeEndArray();
-			jg.close();
-
-			return sw.toString();
+		EncodedFrames frames = this.encodedFrames;
+		if (frames == null) {
+			return super.toJson(jsonFactory);
 		}
+		boolean withOffset = this.offset != null;
+		EncodedFrame frame = frames.get(jsonFactory, withOffset, false);
+		if (frame != null) {
+			return frame.json;
+		}
+		String json = super.toJson(jsonFactory);
+		frames.add(jsonFactory, withOffset, json, null);
+		return json;
+	}
+
+	@Override
+	public byte[] toBytes(JsonFactory jsonFactory) throws IOException {
+		EncodedFrames frames = this.encodedFrames;
+		if (frames == null) {
+			return super.toBytes(jsonFactory);
+		}
+		boolean withOffset = this.offset != null;
+		EncodedFrame frame = frames.get(jsonFactory, withOffset, true);
+		if (frame != null) {
+			return frame.bytes;
+		}
+		byte[] bytes = super.toBytes(jsonFactory);
+		frames.add(jsonFactory, withOffset, null, bytes);
+		return bytes;
+	}
+
+	@Override
+	void writeTo(JsonGenerator jg) throws IOException {
+		jg.writeStartArray();
+		jg.writeNumber(getTypeId());
+		jg.writeString(getTopicURI());
+		jg.writeObject(this.event);
+		if (this.offset != null) {
+			jg.writeNumber(this.offset.longValue());
+		}
+		jg.writeEndArray();
 	}
 
 	@Override
@@ -125,4 +230,54 @@ public class EventMessage extends PubSubMessage {
 		return "EventMessage [topicURI=" + getTopicURI() + ", event=" + this.event + "]";
 	}
 
+	/**
+	 * Immutable frame of an EVENT message together with the factory that created it.
+	 * Either {@link #json} or {@link #bytes} is set.
+	 */
+	private static class EncodedFrame {
+		final JsonFactory jsonFactory;
+
+		final boolean withOffset;
+
+		final String json;
+
+		final byte[] bytes;
+
+		EncodedFrame(JsonFactory jsonFactory, boolean withOffset, String json,
+				byte[] bytes) {
+			this.jsonFactory = jsonFactory;
+			this.withOffset = withOffset;
+			this.json = json;
+			this.bytes = bytes;
+		}
+	}
+
+	/**
+	 * The frames of an EVENT message, one per factory and with or without the offset,
+	 * shared by all copies of the message. There are only a few frames, so a copy on
+	 * write array is enough. Two threads that serialize the same event concurrently
+	 * both keep their frame, only one of them is returned by later lookups.
+	 */
+	private static class EncodedFrames {
+		private volatile EncodedFrame[] frames = new EncodedFrame[0];
+
+		EncodedFrame get(JsonFactory jsonFactory, boolean withOffset, boolean binary) {
+			for (EncodedFrame frame : this.frames) {
+				if (frame.jsonFactory == jsonFactory && frame.withOffset == withOffset
+						&& (binary ? frame.bytes != null : frame.json != null)) {
+					return frame;
+				}
+			}
+			return null;
+		}
+
+		synchronized void add(JsonFactory jsonFactory, boolean withOffset, String json,
+				byte[] bytes) {
+			EncodedFrame[] newFrames = Arrays.copyOf(this.frames, this.frames.length + 1);
+			newFrames[this.frames.length] = new EncodedFrame(jsonFactory, withOffset,
+					json, bytes);
+			this.frames = newFrames;
+		}
+	}
+
 }
@@ -0,0 +1,89 @@
+/**
+ * Copyright 2014-2017 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.message;
+
+import java.io.IOException;
+
+import org.springframework.util.Assert;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import com.fasterxml.jackson.core.JsonFactory;
+
+/**
+ * The default {@link WampMessageCodec} for the "wamp" subprotocol. Sends and receives
+ * JSON text frames as described in the WAMP v1 specification.
+ */
+public class JsonWampMessageCodec implements WampMessageCodec {
+
+	public static final String SUBPROTOCOL = "wamp";
+
+	private final JsonFactory jsonFactory;
+
+	private boolean deferPayloadParsing = false;
+
+	public JsonWampMessageCodec(JsonFactory jsonFactory) {
+		Assert.notNull(jsonFactory, "'jsonFactory' must not be null");
+		this.jsonFactory = jsonFactory;
+	}
+
+	public JsonFactory getJsonFactory() {
+		return this.jsonFactory;
+	}
+
+	public boolean isDeferPayloadParsing() {
+		return this.deferPayloadParsing;
+	}
+
+	/**
+	 * If true, object and array arguments of CALL messages and events of PUBLISH
+	 * messages are not read into maps and lists. They are kept as
+	 * {@link com.fasterxml.jackson.databind.util.TokenBuffer} and bound directly to the
+	 * parameter types of the handler method. Code that reads
+	 * {@link CallMessage#getArguments()} or {@link PublishMessage#getEvent()} has to be
+	 * able to handle these buffers.
+	 * <p>
+	 * Default is false.
+	 */
+	public void setDeferPayloadParsing(boolean deferPayloadParsing) {
+		this.deferPayloadParsing = deferPayloadParsing;
+	}
+
+	@Override
+	public String getSubProtocol() {
+		return SUBPROTOCOL;
+	}
+
+	@Override
+	public WampMessage decode(WebSocketSession session,
+			WebSocketMessage<?> webSocketMessage) throws IOException {
+		Assert.isInstanceOf(TextMessage.class, webSocketMessage);
+		return WampMessage.fromJson(session, this.jsonFactory,
+				((TextMessage) webSocketMessage).getPayload(), this.deferPayloadParsing);
+	}
+
+	@Override
+	public WebSocketMessage<?> encode(WampMessage wampMessage) throws IOException {
+		return new TextMessage(wampMessage.toJson(this.jsonFactory));
+	}
+
+	@Override
+	public String toString() {
+		return "JsonWampMessageCodec [" + SUBPROTOCOL + "]";
+	}
+
+}
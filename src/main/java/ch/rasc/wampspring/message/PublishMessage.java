@@ -16,10 +16,8 @@
 package ch.rasc.wampspring.message;
 
 import java.io.IOException;
-import java.io.StringWriter;
 import java.util.Set;
 
-import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonToken;
@@ -76,6 +74,11 @@ public class PublishMessage extends PubSubMessage {
 	}
 
 	public PublishMessage(JsonParser jp, WampSession wampSession) throws IOException {
+		this(jp, wampSession, false);
+	}
+
+	PublishMessage(JsonParser jp, WampSession wampSession, boolean deferPayloadParsing)
+			throws IOException {
 		super(WampMessageType.PUBLISH);
 
 		if (jp.nextToken() != JsonToken.VALUE_STRING) {
@@ -84,7 +87,7 @@ public class PublishMessage extends PubSubMessage {
 		setTopicURI(replacePrefix(jp.getValueAsString(), wampSession));
 
 		jp.nextToken();
-		this.event = jp.readValueAs(Object.class);
+		this.event = readPayload(jp, deferPayloadParsing);
 
 		if (jp.nextToken() != JsonToken.END_ARRAY) {
 			if (jp.getCurrentToken() == JsonToken.VALUE_TRUE
@@ -129,6 +132,11 @@ public class PublishMessage extends PubSubMessage {
 
 	}
 
+	/**
+	 * Returns the event. An object or array event is a
+	 * {@link com.fasterxml.jackson.databind.util.TokenBuffer} if the message was read
+	 * with deferred payload parsing.
+	 */
 	public Object getEvent() {
 		return this.event;
 	}
@@ -151,28 +159,23 @@ public class PublishMessage extends PubSubMessage {
 	}
 
 	@Override
-	public String toJson(JsonFactory jsonFactory) throws IOException {
-		try (StringWriter sw = new StringWriter();
-				JsonGenerator jg = jsonFactory.createGenerator(sw)) {
-			jg.writeStartArray();
-			jg.writeNumber(getTypeId());
-			jg.writeString(getTopicURI());
-
-			jg.writeObject(this.event);
-			if (this.excludeMe != null && this.excludeMe) {
-				jg.writeBoolean(true);
-			}
-			else if (this.exclude != null) {
-				jg.writeObject(this.exclude);
-				if (this.eligible != null) {
-					jg.writeObject(this.eligible);
-				}
+	void writeTo(JsonGenerator jg) throws IOException {
+		jg.writeStartArray();
+		jg.writeNumber(getTypeId());
+		jg.writeString(getTopicURI());
+
+		jg.writeObject(this.event);
+		if (this.excludeMe != null && this.excludeMe) {
+			jg.writeBoolean(true);
+		}
+		else if (this.exclude != null) {
+			jg.writeObject(this.exclude);
+			if (this.eligible != null) {
+				jg.writeObject(this.eligible);
 			}
-
-			jg.writeEndArray();
-			jg.close();
-			return sw.toString();
 		}
+
+		jg.writeEndArray();
 	}
 
 	@Override
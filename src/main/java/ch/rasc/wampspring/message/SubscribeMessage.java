@@ -16,9 +16,7 @@
 package ch.rasc.wampspring.message;
 
 import java.io.IOException;
-import java.io.StringWriter;
 
-import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonToken;
@@ -28,6 +26,12 @@ import ch.rasc.wampspring.config.WampSession;
 /**
  * A client requests access to a valid topicURI to receive events published to the given
  * topicURI.
+ * <p>
+ * As an extension to WAMP 1 the message may contain a third element, an options object
+ * with the property {@code offset}. When the broker has an
+ * {@link ch.rasc.wampspring.broker.EventJournal} the client receives the journaled
+ * events of the topic after this offset, e.g. after a reconnect:
+ * {@code [5, "topicURI", {"offset": 1234}]}
  *
  * <p>
  * Client-to-Server message
@@ -36,8 +40,15 @@ import ch.rasc.wampspring.config.WampSession;
  */
 public class SubscribeMessage extends PubSubMessage {
 
+	private final Long replayOffset;
+
 	public SubscribeMessage(String topicURI) {
+		this(topicURI, null);
+	}
+
+	public SubscribeMessage(String topicURI, Long replayOffset) {
 		super(WampMessageType.SUBSCRIBE, topicURI);
+		this.replayOffset = replayOffset;
 	}
 
 	public SubscribeMessage(JsonParser jp) throws IOException {
@@ -51,24 +62,49 @@ public class SubscribeMessage extends PubSubMessage {
 			throw new IOException();
 		}
 		setTopicURI(replacePrefix(jp.getValueAsString(), wampSession));
+
+		Long offset = null;
+		if (jp.nextToken() == JsonToken.START_OBJECT) {
+			while (jp.nextToken() == JsonToken.FIELD_NAME) {
+				String fieldName = jp.getCurrentName();
+				jp.nextToken();
+				if ("offset".equals(fieldName)
+						&& jp.getCurrentToken() == JsonToken.VALUE_NUMBER_INT) {
+					offset = jp.getLongValue();
+				}
+				else {
+					jp.skipChildren();
+				}
+			}
+		}
+		this.replayOffset = offset;
+	}
+
+	/**
+	 * Returns the offset of the last event the client has seen or null if the client did
+	 * not request a replay.
+	 */
+	public Long getReplayOffset() {
+		return this.replayOffset;
 	}
 
 	@Override
-	public String toJson(JsonFactory jsonFactory) throws IOException {
-		try (StringWriter sw = new StringWriter();
-				JsonGenerator jg = jsonFactory.createGenerator(sw)) {
-			jg.writeStartArray();
-			jg.writeNumber(getTypeId());
-			jg.writeString(getTopicURI());
-			jg.writeEndArray();
-			jg.close();
-			return sw.toString();
+	void writeTo(JsonGenerator jg) throws IOException {
+		jg.writeStartArray();
+		jg.writeNumber(getTypeId());
+		jg.writeString(getTopicURI());
+		if (this.replayOffset != null) {
+			jg.writeStartObject();
+			jg.writeNumberField("offset", this.replayOffset);
+			jg.writeEndObject();
 		}
+		jg.writeEndArray();
 	}
 
 	@Override
 	public String toString() {
-		return "SubscribeMessage [topicURI=" + getTopicURI() + "]";
+		return "SubscribeMessage [topicURI=" + getTopicURI() + ", replayOffset="
+				+ this.replayOffset + "]";
 	}
 
 }
@@ -27,9 +27,14 @@ import org.springframework.messaging.MessageHeaders;
 import org.springframework.messaging.handler.annotation.support.DestinationVariableMethodArgumentResolver;
 import org.springframework.web.socket.WebSocketSession;
 
+import com.fasterxml.jackson.core.JsonEncoding;
 import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.SegmentedStringWriter;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 
 import ch.rasc.wampspring.config.WampSession;
 
@@ -39,6 +44,12 @@ public abstract class WampMessage implements Message<Object> {
 
 	private final MutableMessageHeaders messageHeaders = new MutableMessageHeaders();
 
+	/**
+	 * Not a header, so that {@code @Headers} and {@code Message} arguments of handler
+	 * methods do not see it
+	 */
+	private CallTrace callTrace;
+
 	WampMessage(WampMessageType type) {
 		setHeader(WampMessageHeader.WAMP_MESSAGE_TYPE, type);
 	}
@@ -97,6 +108,18 @@ public abstract class WampMessage implements Message<Object> {
 		setHeader(WampMessageHeader.WAMP_SESSION, wampSession);
 	}
 
+	/**
+	 * Returns the trace of a CALL message or of the CALLRESULT or CALLERROR message that
+	 * answers it. Null if call tracing is not enabled.
+	 */
+	public CallTrace getCallTrace() {
+		return this.callTrace;
+	}
+
+	public void setCallTrace(CallTrace callTrace) {
+		this.callTrace = callTrace;
+	}
+
 	@Override
 	public Object getPayload() {
 		return EMPTY_OBJECT;
@@ -109,63 +132,173 @@ public abstract class WampMessage implements Message<Object> {
 
 	public static <T extends WampMessage> T fromJson(WebSocketSession session,
 			JsonFactory jsonFactory, String json) throws IOException {
+		return fromJson(session, jsonFactory, json, false);
+	}
+
+	/**
+	 * Reads a message from a JSON text frame.
+	 *
+	 * @param deferPayloadParsing if true, object and array arguments of CALL messages
+	 * and events of PUBLISH messages are kept as {@link TokenBuffer} instead of being
+	 * read into maps and lists. The buffer is bound to the parameter type of the handler
+	 * method by the {@link ch.rasc.wampspring.method.MethodParameterConverter}.
+	 */
+	public static <T extends WampMessage> T fromJson(WebSocketSession session,
+			JsonFactory jsonFactory, String json, boolean deferPayloadParsing)
+			throws IOException {
 
 		WampSession wampSession = new WampSession(session);
 
-		T newWampMessage = fromJson(jsonFactory, json, wampSession);
+		T newWampMessage;
+		try (JsonParser jp = jsonFactory.createParser(json)) {
+			newWampMessage = read(jp, wampSession, deferPayloadParsing);
+		}
+		initSessionHeaders(newWampMessage, session, wampSession);
+		return newWampMessage;
+	}
+
+	/**
+	 * Reads a message from a binary frame. The {@link JsonFactory} has to be a factory
+	 * for a binary data format (e.g. CBOR) with an {@link com.fasterxml.jackson.core.ObjectCodec}.
+	 */
+	public static <T extends WampMessage> T fromBytes(WebSocketSession session,
+			JsonFactory jsonFactory, byte[] data) throws IOException {
+		return fromBytes(session, jsonFactory, data, false);
+	}
+
+	/**
+	 * Reads a message from a binary frame.
+	 *
+	 * @see #fromJson(WebSocketSession, JsonFactory, String, boolean)
+	 */
+	public static <T extends WampMessage> T fromBytes(WebSocketSession session,
+			JsonFactory jsonFactory, byte[] data, boolean deferPayloadParsing)
+			throws IOException {
 
-		newWampMessage.setWebSocketSessionId(session.getId());
-		newWampMessage.setPrincipal(session.getPrincipal());
-		newWampMessage.setWampSession(wampSession);
+		WampSession wampSession = new WampSession(session);
 
+		T newWampMessage;
+		try (JsonParser jp = jsonFactory.createParser(data)) {
+			newWampMessage = read(jp, wampSession, deferPayloadParsing);
+		}
+		initSessionHeaders(newWampMessage, session, wampSession);
 		return newWampMessage;
 	}
 
-	public abstract String toJson(JsonFactory jsonFactory) throws IOException;
+	private static void initSessionHeaders(WampMessage wampMessage,
+			WebSocketSession session, WampSession wampSession) {
+		if (wampMessage != null) {
+			wampMessage.setWebSocketSessionId(session.getId());
+			wampMessage.setPrincipal(session.getPrincipal());
+			wampMessage.setWampSession(wampSession);
+		}
+	}
+
+	/**
+	 * Writes the message as an array to the generator.
+	 */
+	abstract void writeTo(JsonGenerator jg) throws IOException;
+
+	/**
+	 * Serializes the message into a JSON string. The text is collected in the recycled
+	 * buffers of the factory instead of a new growing buffer for every message.
+	 */
+	public String toJson(JsonFactory jsonFactory) throws IOException {
+		SegmentedStringWriter sw = new SegmentedStringWriter(
+				jsonFactory._getBufferRecycler());
+		try (JsonGenerator jg = jsonFactory.createGenerator(sw)) {
+			writeTo(jg);
+		}
+		return sw.getAndClear();
+	}
+
+	/**
+	 * Serializes the message with the given factory into a byte array. Returns UTF-8
+	 * encoded JSON for a JSON factory and is used for binary data formats like CBOR. The
+	 * bytes are collected in the recycled buffers of the factory.
+	 */
+	public byte[] toBytes(JsonFactory jsonFactory) throws IOException {
+		ByteArrayBuilder bb = new ByteArrayBuilder(jsonFactory._getBufferRecycler());
+		try {
+			try (JsonGenerator jg = jsonFactory.createGenerator(bb, JsonEncoding.UTF8)) {
+				writeTo(jg);
+			}
+			return bb.toByteArray();
+		}
+		finally {
+			bb.release();
+		}
+	}
 
 	public static <T extends WampMessage> T fromJson(JsonFactory jsonFactory, String json)
 			throws IOException {
 		return fromJson(jsonFactory, json, null);
 	}
 
-	@SuppressWarnings("unchecked")
 	public static <T extends WampMessage> T fromJson(JsonFactory jsonFactory, String json,
 			WampSession wampSession) throws IOException {
-
 		try (JsonParser jp = jsonFactory.createParser(json)) {
-			if (jp.nextToken() != JsonToken.START_ARRAY) {
-				throw new IOException("Not a JSON array");
-			}
-			if (jp.nextToken() != JsonToken.VALUE_NUMBER_INT) {
-				throw new IOException("Wrong message format");
-			}
+			return read(jp, wampSession, false);
+		}
+	}
 
-			WampMessageType messageType = WampMessageType.fromTypeId(jp.getValueAsInt());
-
-			switch (messageType) {
-			case WELCOME:
-				return (T) new WelcomeMessage(jp);
-			case PREFIX:
-				return (T) new PrefixMessage(jp);
-			case CALL:
-				return (T) new CallMessage(jp, wampSession);
-			case CALLRESULT:
-				return (T) new CallResultMessage(jp);
-			case CALLERROR:
-				return (T) new CallErrorMessage(jp);
-			case SUBSCRIBE:
-				return (T) new SubscribeMessage(jp, wampSession);
-			case UNSUBSCRIBE:
-				return (T) new UnsubscribeMessage(jp, wampSession);
-			case PUBLISH:
-				return (T) new PublishMessage(jp, wampSession);
-			case EVENT:
-				return (T) new EventMessage(jp, wampSession);
-			default:
-				return null;
-			}
+	public static <T extends WampMessage> T fromBytes(JsonFactory jsonFactory,
+			byte[] data, WampSession wampSession) throws IOException {
+		try (JsonParser jp = jsonFactory.createParser(data)) {
+			return read(jp, wampSession, false);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T extends WampMessage> T read(JsonParser jp, WampSession wampSession,
+			boolean deferPayloadParsing) throws IOException {
+		if (jp.nextToken() != JsonToken.START_ARRAY) {
+			throw new IOException("Not an array");
+		}
+		if (jp.nextToken() != JsonToken.VALUE_NUMBER_INT) {
+			throw new IOException("Wrong message format");
+		}
+
+		WampMessageType messageType = WampMessageType.fromTypeId(jp.getValueAsInt());
+
+		switch (messageType) {
+		case WELCOME:
+			return (T) new WelcomeMessage(jp);
+		case PREFIX:
+			return (T) new PrefixMessage(jp);
+		case CALL:
+			return (T) new CallMessage(jp, wampSession, deferPayloadParsing);
+		case CALLRESULT:
+			return (T) new CallResultMessage(jp);
+		case CALLERROR:
+			return (T) new CallErrorMessage(jp);
+		case SUBSCRIBE:
+			return (T) new SubscribeMessage(jp, wampSession);
+		case UNSUBSCRIBE:
+			return (T) new UnsubscribeMessage(jp, wampSession);
+		case PUBLISH:
+			return (T) new PublishMessage(jp, wampSession, deferPayloadParsing);
+		case EVENT:
+			return (T) new EventMessage(jp, wampSession);
+		default:
+			return null;
+		}
+	}
 
+	/**
+	 * Reads the value at the current token. Objects and arrays are copied into a
+	 * {@link TokenBuffer} if the parsing is deferred, scalar values are always read
+	 * directly.
+	 */
+	static Object readPayload(JsonParser jp, boolean deferPayloadParsing)
+			throws IOException {
+		if (deferPayloadParsing && jp.getCurrentToken() != null
+				&& jp.getCurrentToken().isStructStart()) {
+			TokenBuffer tokenBuffer = new TokenBuffer(jp);
+			tokenBuffer.copyCurrentStructure(jp);
+			return tokenBuffer;
 		}
+		return jp.readValueAs(Object.class);
 	}
 
 	@SuppressWarnings("serial")
@@ -0,0 +1,55 @@
+/**
+ * Copyright 2014-2017 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.message;
+
+import java.io.IOException;
+
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+/**
+ * Converts {@link WampMessage}s from and to WebSocket frames for one WebSocket
+ * subprotocol.
+ * <p>
+ * The {@link ch.rasc.wampspring.config.WampSubProtocolHandler} announces the subprotocols
+ * of all registered codecs and picks the codec for a session according to the
+ * subprotocol that was negotiated during the handshake.
+ *
+ * @see JsonWampMessageCodec
+ * @see BinaryWampMessageCodec
+ */
+public interface WampMessageCodec {
+
+	/**
+	 * Name of the WebSocket subprotocol this codec handles, e.g. "wamp"
+	 */
+	String getSubProtocol();
+
+	/**
+	 * Creates a {@link WampMessage} from a frame a client sent.
+	 * @param session the WebSocket session that received the frame
+	 * @param webSocketMessage the frame
+	 * @return the message or null if the message type is unknown
+	 */
+	WampMessage decode(WebSocketSession session, WebSocketMessage<?> webSocketMessage)
+			throws IOException;
+
+	/**
+	 * Creates the frame that is sent to the client.
+	 */
+	WebSocketMessage<?> encode(WampMessage wampMessage) throws IOException;
+
+}
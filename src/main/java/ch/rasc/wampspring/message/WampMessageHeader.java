@@ -21,5 +21,19 @@ package ch.rasc.wampspring.message;
  * header
  */
 public enum WampMessageHeader {
-	WAMP_MESSAGE_TYPE, PRINCIPAL, WEBSOCKET_SESSION_ID, WAMP_SESSION
+	WAMP_MESSAGE_TYPE, PRINCIPAL, WEBSOCKET_SESSION_ID, WAMP_SESSION,
+
+	/**
+	 * Id of the cluster node an EVENT message was received from. Set by a
+	 * {@link ch.rasc.wampspring.broker.BrokerRelay}, events with this header are only
+	 * delivered to local subscribers and not forwarded again.
+	 */
+	RELAY_NODE_ID,
+
+	/**
+	 * {@link Runnable} that is run after the message was written to the WebSocket
+	 * session, or discarded because the session was closed. Used for the flow control of
+	 * streamed CALL results.
+	 */
+	SENT_CALLBACK
 }
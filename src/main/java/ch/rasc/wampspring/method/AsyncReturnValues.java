@@ -0,0 +1,120 @@
+/**
+ * Copyright 2014-2017 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.method;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.function.BiConsumer;
+
+import org.springframework.util.ClassUtils;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.context.request.async.DeferredResult.DeferredResultHandler;
+
+/**
+ * Adapts the asynchronous return types of {@code @WampCallListener} methods to a
+ * {@link ListenableFuture}. Supported are {@link ListenableFuture}, {@link DeferredResult}
+ * and, on Java 8 and later, {@link CompletionStage} (e.g. CompletableFuture).
+ */
+abstract class AsyncReturnValues {
+
+	private static final boolean completionStagePresent = ClassUtils.isPresent(
+			"java.util.concurrent.CompletionStage",
+			AsyncReturnValues.class.getClassLoader());
+
+	/**
+	 * Returns true if the return value of a method is completed asynchronously.
+	 */
+	static boolean isAsyncReturnValue(Object returnValue) {
+		return returnValue instanceof ListenableFuture
+				|| returnValue instanceof DeferredResult
+				|| completionStagePresent
+						&& CompletionStageAdapter.isCompletionStage(returnValue);
+	}
+
+	/**
+	 * Returns a {@link ListenableFuture} that completes with the result of the
+	 * asynchronous return value.
+	 */
+	@SuppressWarnings("unchecked")
+	static ListenableFuture<Object> toListenableFuture(Object returnValue) {
+		if (returnValue instanceof ListenableFuture) {
+			return (ListenableFuture<Object>) returnValue;
+		}
+		if (returnValue instanceof DeferredResult) {
+			return adaptDeferredResult((DeferredResult<Object>) returnValue);
+		}
+		if (completionStagePresent
+				&& CompletionStageAdapter.isCompletionStage(returnValue)) {
+			return CompletionStageAdapter.adapt(returnValue);
+		}
+		throw new IllegalArgumentException(
+				"Unsupported asynchronous return value: " + returnValue);
+	}
+
+	private static ListenableFuture<Object> adaptDeferredResult(
+			DeferredResult<Object> deferredResult) {
+		final SettableListenableFuture<Object> future = new SettableListenableFuture<>();
+		deferredResult.setResultHandler(new DeferredResultHandler() {
+			@Override
+			public void handleResult(Object result) {
+				if (result instanceof Throwable) {
+					future.setException((Throwable) result);
+				}
+				else {
+					future.set(result);
+				}
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * Separate class so that the Java 8 types are only loaded when they are available.
+	 */
+	private static class CompletionStageAdapter {
+
+		static boolean isCompletionStage(Object returnValue) {
+			return returnValue instanceof CompletionStage;
+		}
+
+		@SuppressWarnings("unchecked")
+		static ListenableFuture<Object> adapt(Object returnValue) {
+			final SettableListenableFuture<Object> future = new SettableListenableFuture<>();
+			((CompletionStage<Object>) returnValue)
+					.whenComplete(new BiConsumer<Object, Throwable>() {
+						@Override
+						public void accept(Object result, Throwable ex) {
+							if (ex != null) {
+								if (ex instanceof CompletionException
+										&& ex.getCause() != null) {
+									future.setException(ex.getCause());
+								}
+								else {
+									future.setException(ex);
+								}
+							}
+							else {
+								future.set(result);
+							}
+						}
+					});
+			return future;
+		}
+	}
+
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright 2014-2017 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.method;
+
+import java.util.List;
+
+/**
+ * One chunk of a streamed CALL result. See
+ * {@link ch.rasc.wampspring.annotation.WampCallListener#streamChunkSize()}.
+ */
+public class CallResultChunk {
+
+	private final long seq;
+
+	private final List<Object> items;
+
+	private final boolean last;
+
+	private final String error;
+
+	public CallResultChunk(long seq, List<Object> items, boolean last, String error) {
+		this.seq = seq;
+		this.items = items;
+		this.last = last;
+		this.error = error;
+	}
+
+	/**
+	 * Sequence number of the chunk, starting with 0.
+	 */
+	public long getSeq() {
+		return this.seq;
+	}
+
+	public List<Object> getItems() {
+		return this.items;
+	}
+
+	/**
+	 * True if this is the last chunk of the stream.
+	 */
+	public boolean isLast() {
+		return this.last;
+	}
+
+	/**
+	 * Description of the error that aborted the stream, null if the stream completed
+	 * successfully.
+	 */
+	public String getError() {
+		return this.error;
+	}
+
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright 2014-2017 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.method;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ObjectUtils;
+
+/**
+ * Iterates over the elements of a streamed CALL result. Supported are
+ * {@link Iterator}, {@link Iterable}, arrays and, on Java 8 and later, {@link Stream}.
+ * Results that implement {@link AutoCloseable} are closed after the last element.
+ */
+class CallResultStream {
+
+	private static final boolean streamPresent = ClassUtils
+			.isPresent("java.util.stream.Stream", CallResultStream.class.getClassLoader());
+
+	private final Iterator<?> iterator;
+
+	private final AutoCloseable closeable;
+
+	private CallResultStream(Iterator<?> iterator, AutoCloseable closeable) {
+		this.iterator = iterator;
+		this.closeable = closeable;
+	}
+
+	static CallResultStream of(Object returnValue) {
+		AutoCloseable closeable = returnValue instanceof AutoCloseable
+				? (AutoCloseable) returnValue : null;
+
+		Iterator<?> iterator;
+		if (returnValue == null) {
+			iterator = Collections.emptyIterator();
+		}
+		else if (returnValue instanceof Iterator) {
+			iterator = (Iterator<?>) returnValue;
+		}
+		else if (returnValue instanceof Iterable) {
+			iterator = ((Iterable<?>) returnValue).iterator();
+		}
+		else if (returnValue.getClass().isArray()) {
+			iterator = Arrays.asList(ObjectUtils.toObjectArray(returnValue)).iterator();
+		}
+		else if (streamPresent && StreamAdapter.isStream(returnValue)) {
+			iterator = StreamAdapter.iterator(returnValue);
+		}
+		else {
+			throw new IllegalArgumentException(
+					"Unsupported streaming return value: " + returnValue.getClass());
+		}
+		return new CallResultStream(iterator, closeable);
+	}
+
+	boolean hasNext() {
+		return this.iterator.hasNext();
+	}
+
+	Object next() {
+		return this.iterator.next();
+	}
+
+	void close() {
+		if (this.closeable != null) {
+			try {
+				this.closeable.close();
+			}
+			catch (Exception e) {
+				// ignore
+			}
+		}
+	}
+
+	/**
+	 * Separate class so that the Java 8 types are only loaded when they are available.
+	 */
+	private static class StreamAdapter {
+
+		static boolean isStream(Object returnValue) {
+			return returnValue instanceof Stream;
+		}
+
+		static Iterator<?> iterator(Object returnValue) {
+			return ((Stream<?>) returnValue).iterator();
+		}
+	}
+
+}
@@ -0,0 +1,250 @@
+/**
+ * Copyright 2014-2017 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.method;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.MultiValueMap;
+import org.springframework.util.PathMatcher;
+
+import ch.rasc.wampspring.message.WampMessage;
+import ch.rasc.wampspring.message.WampMessageType;
+import ch.rasc.wampspring.method.WampAnnotationMethodMessageHandler.Match;
+
+/**
+ * Routing table of the {@link WampAnnotationMethodMessageHandler} that is built once
+ * after all handler methods are detected.
+ * <p>
+ * The mappings are separated by {@link WampMessageType}. For every type the table keeps
+ * a map from exact destinations to mappings and a list of all mappings together with the
+ * literal prefixes of their patterns. A lookup first checks the exact destinations and
+ * only if there is no match evaluates the mappings whose literal prefix matches the
+ * beginning of the destination, instead of all mappings. The resolved matches
+ * are kept in a cache per message type that is bounded by the cache limit, the eldest
+ * entries are evicted first.
+ *
+ * @author Ralph Schaer
+ */
+class DestinationRoutingTable {
+
+	private final Map<WampMessageType, Routes> routes = new EnumMap<>(
+			WampMessageType.class);
+
+	private final int cacheLimit;
+
+	DestinationRoutingTable(
+			MultiValueMap<WampMessageMappingInfo, WampHandlerMethod> handlerMethods,
+			PathMatcher pathMatcher, int cacheLimit) {
+		this.cacheLimit = cacheLimit;
+
+		for (Map.Entry<WampMessageMappingInfo, List<WampHandlerMethod>> entry : handlerMethods
+				.entrySet()) {
+			WampMessageMappingInfo mapping = entry.getKey();
+			WampMessageType messageType = mapping.getMessageTypeMessageCondition()
+					.getMessageType();
+			Routes routesOfType = this.routes.get(messageType);
+			if (routesOfType == null) {
+				routesOfType = new Routes();
+				this.routes.put(messageType, routesOfType);
+			}
+			routesOfType.add(mapping, entry.getValue(), pathMatcher);
+		}
+	}
+
+	/**
+	 * Returns the matching handler methods for the given message. Returns an empty list
+	 * if no handler method matches.
+	 */
+	List<Match> getMatches(WampMessage message, String destination) {
+		Routes routesOfType = this.routes.get(message.getType());
+		if (routesOfType == null) {
+			return Collections.emptyList();
+		}
+
+		List<Match> matches = routesOfType.cache.get(destination);
+		if (matches == null) {
+			matches = routesOfType.resolve(message, destination);
+			routesOfType.addToCache(destination, matches, this.cacheLimit);
+		}
+		return matches;
+	}
+
+	/**
+	 * Returns the literal beginning of the pattern that every destination matched by the
+	 * pattern starts with. Returns an empty string if the path matcher is not an
+	 * {@link AntPathMatcher}.
+	 */
+	static String literalPrefix(String pattern, PathMatcher pathMatcher) {
+		if (!(pathMatcher instanceof AntPathMatcher)) {
+			return "";
+		}
+
+		int end = pattern.length();
+		for (int i = 0; i < pattern.length(); i++) {
+			char c = pattern.charAt(i);
+			if (c == '*' || c == '?' || c == '{') {
+				end = i;
+				break;
+			}
+		}
+
+		// '/a/**' matches '/a' as well, so the trailing separator is not part of the
+		// prefix
+		while (end > 0 && !Character.isLetterOrDigit(pattern.charAt(end - 1))) {
+			end--;
+		}
+		return pattern.substring(0, end);
+	}
+
+	private static class Routes {
+
+		private final Map<String, Set<WampMessageMappingInfo>> exactMappings = new LinkedHashMap<>();
+
+		private final List<PrefixMapping> prefixMappings = new ArrayList<>();
+
+		private final Set<WampMessageMappingInfo> allMappings = new LinkedHashSet<>();
+
+		private final Map<WampMessageMappingInfo, List<WampHandlerMethod>> handlerMethods = new LinkedHashMap<>();
+
+		/** Map from destination -> resolved matches */
+		private final ConcurrentMap<String, List<Match>> cache = new ConcurrentHashMap<>();
+
+		/** Cached destinations in the order they were added, used for eviction */
+		private final Queue<String> insertionOrder = new ConcurrentLinkedQueue<>();
+
+		private final AtomicInteger insertionOrderSize = new AtomicInteger();
+
+		void add(WampMessageMappingInfo mapping, List<WampHandlerMethod> methods,
+				PathMatcher pathMatcher) {
+			this.allMappings.add(mapping);
+			this.handlerMethods.put(mapping, methods);
+
+			List<String> prefixes = new ArrayList<>();
+			Set<String> patterns = mapping.getDestinationConditions().getPatterns();
+			if (patterns.isEmpty()) {
+				// matches every destination
+				prefixes.add("");
+			}
+			for (String pattern : patterns) {
+				prefixes.add(literalPrefix(pattern, pathMatcher));
+				if (!pathMatcher.isPattern(pattern)) {
+					Set<WampMessageMappingInfo> mappings = this.exactMappings.get(pattern);
+					if (mappings == null) {
+						mappings = new LinkedHashSet<>();
+						this.exactMappings.put(pattern, mappings);
+					}
+					mappings.add(mapping);
+				}
+			}
+
+			this.prefixMappings.add(new PrefixMapping(mapping,
+					prefixes.toArray(new String[prefixes.size()])));
+		}
+
+		List<Match> resolve(WampMessage message, String destination) {
+			List<Match> matches = new ArrayList<>();
+
+			Set<WampMessageMappingInfo> exact = this.exactMappings.get(destination);
+			if (exact != null) {
+				addMatches(exact, message, matches);
+			}
+
+			if (matches.isEmpty()) {
+				if ("**".equals(destination)) {
+					addMatches(this.allMappings, message, matches);
+				}
+				else {
+					List<WampMessageMappingInfo> candidates = new ArrayList<>();
+					for (PrefixMapping prefixMapping : this.prefixMappings) {
+						if (prefixMapping.isCandidate(destination)) {
+							candidates.add(prefixMapping.mapping);
+						}
+					}
+					addMatches(candidates, message, matches);
+				}
+			}
+
+			return matches.isEmpty() ? Collections.<Match>emptyList()
+					: Collections.unmodifiableList(matches);
+		}
+
+		private void addMatches(Iterable<WampMessageMappingInfo> mappings,
+				WampMessage message, List<Match> matches) {
+			for (WampMessageMappingInfo mapping : mappings) {
+				WampMessageMappingInfo match = mapping.getMatchingCondition(message);
+				if (match != null) {
+					for (WampHandlerMethod method : this.handlerMethods.get(mapping)) {
+						matches.add(new Match(match, method));
+					}
+				}
+			}
+		}
+
+		void addToCache(String destination, List<Match> matches, int cacheLimit) {
+			if (cacheLimit <= 0 || this.cache.putIfAbsent(destination, matches) != null) {
+				return;
+			}
+
+			this.insertionOrder.add(destination);
+			this.insertionOrderSize.incrementAndGet();
+			while (this.insertionOrderSize.get() > cacheLimit) {
+				String eldest = this.insertionOrder.poll();
+				if (eldest == null) {
+					break;
+				}
+				this.insertionOrderSize.decrementAndGet();
+				this.cache.remove(eldest);
+			}
+		}
+	}
+
+	private static class PrefixMapping {
+
+		final WampMessageMappingInfo mapping;
+
+		final String[] literalPrefixes;
+
+		PrefixMapping(WampMessageMappingInfo mapping, String[] literalPrefixes) {
+			this.mapping = mapping;
+			this.literalPrefixes = literalPrefixes;
+		}
+
+		boolean isCandidate(String destination) {
+			for (String literalPrefix : this.literalPrefixes) {
+				// ignore case, the path matcher could be case insensitive
+				if (destination.regionMatches(true, 0, literalPrefix, 0,
+						literalPrefix.length())) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+}
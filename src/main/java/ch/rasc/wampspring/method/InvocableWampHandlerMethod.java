@@ -15,10 +15,14 @@
  */
 package ch.rasc.wampspring.method;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.Arrays;
 
+import org.springframework.beans.factory.BeanFactory;
 import org.springframework.core.DefaultParameterNameDiscoverer;
 import org.springframework.core.GenericTypeResolver;
 import org.springframework.core.MethodParameter;
@@ -26,6 +30,7 @@ import org.springframework.core.ParameterNameDiscoverer;
 import org.springframework.messaging.handler.HandlerMethod;
 import org.springframework.messaging.handler.invocation.HandlerMethodArgumentResolver;
 import org.springframework.messaging.handler.invocation.HandlerMethodArgumentResolverComposite;
+import org.springframework.util.ClassUtils;
 import org.springframework.util.ReflectionUtils;
 
 import ch.rasc.wampspring.message.WampMessage;
@@ -36,7 +41,20 @@ import ch.rasc.wampspring.message.WampMessage;
  *
  * <p>
  * Use {@link #setMessageMethodArgumentResolvers(HandlerMethodArgumentResolver)} to
- * customize the list of argument resolvers.
+ * customize the list of argument resolvers. The resolver responsible for a parameter is
+ * looked up once when the resolvers are set and not for every invocation. Parameters
+ * without a resolver are converted from the message arguments with a
+ * {@link MethodParameterConverter.Binding} that is created once per parameter.
+ * <p>
+ * An instance is meant to be created once per handler method and reused for every
+ * message. When created with a bean name and a {@link BeanFactory} the bean of a
+ * singleton is resolved on the first invocation and then cached, the bean of any other
+ * scope is looked up for each invocation.
+ * <p>
+ * The method is invoked through a {@link MethodHandle} that is created once per
+ * instance. If no handle can be created, or the bean is not an instance of the class
+ * that declares the method (e.g. a JDK dynamic proxy), the method is invoked with
+ * reflection.
  * <p>
  *
  * @author Rossen Stoyanchev
@@ -49,20 +67,84 @@ public class InvocableWampHandlerMethod extends HandlerMethod {
 
 	private ParameterNameDiscoverer parameterNameDiscoverer = new DefaultParameterNameDiscoverer();
 
-	private final MethodParameterConverter methodParameterConverter;
+	private HandlerMethodArgumentResolver[] parameterResolvers;
+
+	private final MethodParameterConverter.Binding[] parameterBindings;
+
+	private final BeanFactory beanFactory;
+
+	private final String beanName;
+
+	private final boolean singletonBean;
+
+	private volatile Object resolvedBean;
+
+	private final MethodHandle methodHandle;
 
 	/**
-	 * Create an instance from a {@code HandlerMethod}.
+	 * Create an instance from a {@code HandlerMethod} with an already resolved bean.
 	 */
 	public InvocableWampHandlerMethod(HandlerMethod handlerMethod,
 			MethodParameterConverter methodParameterConverter) {
+		this(handlerMethod, null, methodParameterConverter);
+	}
+
+	/**
+	 * Create an instance from a {@code HandlerMethod}. If the bean of the handler method
+	 * is a bean name, it is resolved with the given {@link BeanFactory}.
+	 */
+	public InvocableWampHandlerMethod(HandlerMethod handlerMethod,
+			BeanFactory beanFactory, MethodParameterConverter methodParameterConverter) {
 		super(handlerMethod);
-		this.methodParameterConverter = methodParameterConverter;
+
+		if (beanFactory != null && handlerMethod.getBean() instanceof String) {
+			this.beanFactory = beanFactory;
+			this.beanName = (String) handlerMethod.getBean();
+			this.singletonBean = beanFactory.isSingleton(this.beanName);
+		}
+		else {
+			this.beanFactory = null;
+			this.beanName = null;
+			this.singletonBean = true;
+			this.resolvedBean = handlerMethod.getBean();
+		}
+
+		MethodParameter[] parameters = getMethodParameters();
+		this.parameterBindings = new MethodParameterConverter.Binding[parameters.length];
+		for (int i = 0; i < parameters.length; i++) {
+			parameters[i].initParameterNameDiscovery(this.parameterNameDiscoverer);
+			GenericTypeResolver.resolveParameterType(parameters[i], getBeanType());
+			this.parameterBindings[i] = methodParameterConverter.bind(parameters[i]);
+		}
+		initParameterResolvers();
+		this.methodHandle = createMethodHandle(getBridgedMethod());
+	}
+
+	/**
+	 * Create a handle with the type {@code (Object bean, Object[] args)Object} for the
+	 * given method, or {@code null} if the method cannot be unreflected.
+	 */
+	private MethodHandle createMethodHandle(Method method) {
+		try {
+			ReflectionUtils.makeAccessible(method);
+			MethodHandle handle = MethodHandles.lookup().unreflect(method);
+			return handle
+					.asSpreader(Object[].class, method.getParameterTypes().length)
+					.asType(MethodType.methodType(Object.class, Object.class,
+							Object[].class));
+		}
+		catch (IllegalAccessException | RuntimeException ex) {
+			if (this.logger.isDebugEnabled()) {
+				this.logger.debug("Falling back to reflection for " + method, ex);
+			}
+			return null;
+		}
 	}
 
 	public void setMessageMethodArgumentResolvers(
 			HandlerMethodArgumentResolver argumentResolvers) {
 		this.argumentResolvers = argumentResolvers;
+		initParameterResolvers();
 	}
 
 	/**
@@ -74,6 +156,50 @@ public class InvocableWampHandlerMethod extends HandlerMethod {
 	public void setParameterNameDiscoverer(
 			ParameterNameDiscoverer parameterNameDiscoverer) {
 		this.parameterNameDiscoverer = parameterNameDiscoverer;
+		for (MethodParameter parameter : getMethodParameters()) {
+			parameter.initParameterNameDiscovery(parameterNameDiscoverer);
+		}
+	}
+
+	private void initParameterResolvers() {
+		MethodParameter[] parameters = getMethodParameters();
+		HandlerMethodArgumentResolver[] resolvers = new HandlerMethodArgumentResolver[parameters.length];
+		for (int i = 0; i < parameters.length; i++) {
+			resolvers[i] = findArgumentResolver(parameters[i]);
+		}
+		this.parameterResolvers = resolvers;
+	}
+
+	private HandlerMethodArgumentResolver findArgumentResolver(
+			MethodParameter parameter) {
+		if (this.argumentResolvers instanceof HandlerMethodArgumentResolverComposite) {
+			for (HandlerMethodArgumentResolver resolver : ((HandlerMethodArgumentResolverComposite) this.argumentResolvers)
+					.getResolvers()) {
+				if (resolver.supportsParameter(parameter)) {
+					return resolver;
+				}
+			}
+			return null;
+		}
+		if (this.argumentResolvers.supportsParameter(parameter)) {
+			return this.argumentResolvers;
+		}
+		return null;
+	}
+
+	/**
+	 * Return the bean the method is invoked on. Singletons are only resolved once.
+	 */
+	protected Object getTargetBean() {
+		if (!this.singletonBean) {
+			return this.beanFactory.getBean(this.beanName);
+		}
+		Object bean = this.resolvedBean;
+		if (bean == null) {
+			bean = this.beanFactory.getBean(this.beanName);
+			this.resolvedBean = bean;
+		}
+		return bean;
 	}
 
 	/**
@@ -82,10 +208,29 @@ public class InvocableWampHandlerMethod extends HandlerMethod {
 	 * method raised an exception
 	 */
 	public Object invoke(WampMessage message, Object... providedArgs) throws Exception {
+		return invokeWithArguments(resolveArguments(message, providedArgs));
+	}
+
+	/**
+	 * Resolves the method arguments for the given message. Together with
+	 * {@link #invokeWithArguments(Object[])} an alternative to
+	 * {@link #invoke(WampMessage, Object...)} that allows timing the two steps
+	 * separately.
+	 */
+	public Object[] resolveArguments(WampMessage message, Object... providedArgs)
+			throws Exception {
 		Object[] args = getMethodArgumentValues(message, providedArgs);
 		if (this.logger.isTraceEnabled()) {
 			this.logger.trace("Resolved arguments: " + Arrays.asList(args));
 		}
+		return args;
+	}
+
+	/**
+	 * Invokes the method with arguments returned from
+	 * {@link #resolveArguments(WampMessage, Object...)}.
+	 */
+	public Object invokeWithArguments(Object[] args) throws Exception {
 		Object returnValue = doInvoke(args);
 		if (this.logger.isTraceEnabled()) {
 			this.logger.trace("Returned value: " + returnValue);
@@ -100,16 +245,15 @@ public class InvocableWampHandlerMethod extends HandlerMethod {
 			throws Exception {
 
 		MethodParameter[] parameters = getMethodParameters();
+		HandlerMethodArgumentResolver[] resolvers = this.parameterResolvers;
 		Object[] args = new Object[parameters.length];
 		int argIndex = 0;
 		for (int i = 0; i < parameters.length; i++) {
 			MethodParameter parameter = parameters[i];
-			parameter.initParameterNameDiscovery(this.parameterNameDiscoverer);
-			GenericTypeResolver.resolveParameterType(parameter, getBean().getClass());
 
-			if (this.argumentResolvers.supportsParameter(parameter)) {
+			if (resolvers[i] != null) {
 				try {
-					args[i] = this.argumentResolvers.resolveArgument(parameter, message);
+					args[i] = resolvers[i].resolveArgument(parameter, message);
 					continue;
 				}
 				catch (Exception ex) {
@@ -122,8 +266,7 @@ public class InvocableWampHandlerMethod extends HandlerMethod {
 			}
 
 			if (providedArgs != null) {
-				args[i] = this.methodParameterConverter.convert(parameter,
-						providedArgs[argIndex]);
+				args[i] = this.parameterBindings[i].convert(providedArgs[argIndex]);
 				if (args[i] != null) {
 					argIndex++;
 					continue;
@@ -163,12 +306,61 @@ public class InvocableWampHandlerMethod extends HandlerMethod {
 	 * Invoke the handler method with the given argument values.
 	 */
 	protected Object doInvoke(Object... args) throws Exception {
+		Object bean = getTargetBean();
+		if (this.methodHandle != null
+				&& getBridgedMethod().getDeclaringClass().isInstance(bean)) {
+			try {
+				return (Object) this.methodHandle.invokeExact(bean, args);
+			}
+			catch (ClassCastException | NullPointerException
+					| IllegalArgumentException ex) {
+				// the handle reports arguments that do not fit the parameters with
+				// these exceptions, reflection with an IllegalArgumentException
+				if (!argumentsMatchParameters(args)) {
+					throw new IllegalStateException(
+							getInvocationErrorMessage("argument type mismatch", args),
+							ex);
+				}
+				throw ex;
+			}
+			catch (Exception | Error ex) {
+				throw ex;
+			}
+			catch (Throwable t) {
+				String msg = getInvocationErrorMessage(
+						"Failed to invoke controller method", args);
+				throw new IllegalStateException(msg, t);
+			}
+		}
+		return doInvokeReflectively(bean, args);
+	}
+
+	private boolean argumentsMatchParameters(Object[] args) {
+		Class<?>[] parameterTypes = getBridgedMethod().getParameterTypes();
+		if (args == null) {
+			return parameterTypes.length == 0;
+		}
+		if (args.length != parameterTypes.length) {
+			return false;
+		}
+		for (int i = 0; i < args.length; i++) {
+			if (!ClassUtils.isAssignableValue(parameterTypes[i], args[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Invoke the handler method with reflection.
+	 */
+	private Object doInvokeReflectively(Object bean, Object[] args) throws Exception {
 		ReflectionUtils.makeAccessible(getBridgedMethod());
 		try {
-			return getBridgedMethod().invoke(getBean(), args);
+			return getBridgedMethod().invoke(bean, args);
 		}
 		catch (IllegalArgumentException ex) {
-			assertTargetBean(getBridgedMethod(), getBean(), args);
+			assertTargetBean(getBridgedMethod(), bean, args);
 			throw new IllegalStateException(
 					getInvocationErrorMessage(ex.getMessage(), args), ex);
 		}
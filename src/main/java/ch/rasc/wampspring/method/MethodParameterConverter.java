@@ -15,23 +15,36 @@
  */
 package ch.rasc.wampspring.method;
 
-import java.lang.reflect.TypeVariable;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import org.springframework.beans.BeanUtils;
 import org.springframework.core.MethodParameter;
 import org.springframework.core.convert.ConversionService;
 import org.springframework.core.convert.TypeDescriptor;
 import org.springframework.lang.UsesJava8;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.type.CollectionType;
-import com.fasterxml.jackson.databind.type.TypeBindings;
 import com.fasterxml.jackson.databind.type.TypeFactory;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 
+/**
+ * Converts the arguments of CALL and PUBLISH messages to the types of the handler method
+ * parameters.
+ * <p>
+ * {@link #bind(MethodParameter)} creates a {@link Binding} with everything that only
+ * depends on the parameter: the {@link TypeDescriptor}, the Jackson {@link JavaType}s
+ * and the Optional handling. {@link InvocableWampHandlerMethod} creates the bindings of
+ * its parameters once and converts every argument with them, so a conversion neither
+ * inspects the parameter again nor looks up the binding.
+ */
 public class MethodParameterConverter {
 
 	private final ObjectMapper objectMapper;
@@ -44,87 +57,174 @@ public class MethodParameterConverter {
 		this.conversionService = conversionService;
 	}
 
+	/**
+	 * Creates the binding for the parameter. The parameter type has to be resolved
+	 * against the handler class before this method is called.
+	 */
+	public Binding bind(MethodParameter parameter) {
+		return new Binding(parameter);
+	}
+
+	/**
+	 * Converts the argument to the type of the parameter. Creates a new binding for
+	 * every call, code that converts arguments for the same parameter more than once
+	 * should keep the binding from {@link #bind(MethodParameter)}.
+	 */
 	public Object convert(MethodParameter parameter, Object argument) {
-		if (argument == null) {
-			if (parameter.getParameterType().getName().equals("java.util.Optional")) {
-				return OptionalUnwrapper.empty();
-			}
+		return bind(parameter).convert(argument);
+	}
 
-			return null;
+	/**
+	 * The conversion of the arguments for one method parameter.
+	 */
+	public class Binding {
+
+		private final Class<?> targetClass;
+
+		private final boolean optional;
+
+		/**
+		 * Type of the parameter, or of the wrapped value if the parameter is an Optional
+		 */
+		private final JavaType javaType;
+
+		/**
+		 * Element type if the parameter is a collection with a known element type
+		 */
+		private final JavaType elementType;
+
+		/**
+		 * Collection or array type used when the values are converted by Jackson
+		 */
+		private final JavaType containerType;
+
+		/**
+		 * True if the elements of a collection or array parameter are no simple values.
+		 * The conversion service is not able to convert them and the arguments are
+		 * converted directly by Jackson.
+		 */
+		private final boolean jacksonContainerConversion;
+
+		private final ConcurrentMap<Class<?>, Boolean> convertibleSourceClasses = new ConcurrentHashMap<>(
+				4);
+
+		Binding(MethodParameter parameter) {
+			TypeFactory typeFactory = MethodParameterConverter.this.objectMapper
+					.getTypeFactory();
+
+			this.targetClass = parameter.getParameterType();
+			this.optional = this.targetClass.getName().equals("java.util.Optional");
+			TypeDescriptor typeDescriptor = new TypeDescriptor(parameter);
+
+			MethodParameter valueParameter = this.optional
+					? parameter.nestedIfOptional() : parameter;
+			this.javaType = typeFactory
+					.constructType(valueParameter.getNestedGenericParameterType());
+
+			TypeDescriptor elementTypeDescriptor = typeDescriptor.isCollection()
+					|| typeDescriptor.isArray() ? typeDescriptor.getElementTypeDescriptor()
+							: null;
+
+			if (elementTypeDescriptor != null) {
+				this.containerType = this.javaType;
+				this.elementType = typeDescriptor.isCollection()
+						? this.javaType.getContentType() : null;
+				this.jacksonContainerConversion = !BeanUtils
+						.isSimpleValueType(elementTypeDescriptor.getType());
+			}
+			else {
+				this.elementType = null;
+				this.containerType = null;
+				this.jacksonContainerConversion = false;
+			}
 		}
 
-		Class<?> sourceClass = argument.getClass();
-		Class<?> targetClass = parameter.getParameterType();
-
-		TypeDescriptor td = new TypeDescriptor(parameter);
+		public Object convert(Object argument) {
+			if (argument == null) {
+				if (this.optional) {
+					return OptionalUnwrapper.empty();
+				}
+				return null;
+			}
 
-		if (targetClass.isAssignableFrom(sourceClass)) {
-			return convertListElements(td, argument);
-		}
+			if (argument instanceof TokenBuffer) {
+				return readTokenBuffer((TokenBuffer) argument);
+			}
 
-		if (this.conversionService.canConvert(sourceClass, targetClass)) {
-			try {
-				return convertListElements(td,
-						this.conversionService.convert(argument, targetClass));
+			Class<?> sourceClass = argument.getClass();
+			if (this.targetClass.isAssignableFrom(sourceClass)) {
+				return convertListElements(argument);
 			}
-			catch (Exception e) {
-				// ignore this exception for collections and arrays.
-				// try to convert the value with jackson
-
-				TypeFactory typeFactory = this.objectMapper
-						.getTypeFactory();
-				if (td.isCollection()) {
-
-					JavaType elemType = typeFactory
-							.constructType(td
-									.getElementTypeDescriptor().getType());
-					TypeVariable<?>[] vars = targetClass.getTypeParameters();
-					TypeBindings bindings;
-					if ((vars == null) || (vars.length != 1)) {
-						bindings = TypeBindings.emptyBindings();
-					}
-					else {
-						bindings = TypeBindings.create(targetClass, elemType);
-					}
-					JavaType superClass = null;
-					Class<?> parent = targetClass.getSuperclass();
-					if (parent != null) {
-						superClass = TypeFactory.unknownType();
-					}
 
-					JavaType type = CollectionType.construct(targetClass, bindings,
-							superClass, null, elemType);
-					return this.objectMapper.convertValue(argument, type);
+			if (canConvert(sourceClass)) {
+				if (this.jacksonContainerConversion && (argument instanceof Collection
+						|| sourceClass.isArray())) {
+					return MethodParameterConverter.this.objectMapper
+							.convertValue(argument, this.containerType);
+				}
+
+				try {
+					return convertListElements(MethodParameterConverter.this.conversionService
+							.convert(argument, this.targetClass));
 				}
-				else if (td.isArray()) {
-					JavaType type = typeFactory
-							.constructArrayType(td
-									.getElementTypeDescriptor().getType());
-					return this.objectMapper.convertValue(argument, type);
+				catch (Exception e) {
+					// ignore this exception for collections and arrays.
+					// try to convert the value with jackson
+					if (this.containerType != null) {
+						return MethodParameterConverter.this.objectMapper
+								.convertValue(argument, this.containerType);
+					}
+					throw e;
 				}
+			}
+			return MethodParameterConverter.this.objectMapper.convertValue(argument,
+					this.targetClass);
+		}
 
-				throw e;
+		private boolean canConvert(Class<?> sourceClass) {
+			Boolean convertible = this.convertibleSourceClasses.get(sourceClass);
+			if (convertible == null) {
+				convertible = MethodParameterConverter.this.conversionService
+						.canConvert(sourceClass, this.targetClass);
+				this.convertibleSourceClasses.put(sourceClass, convertible);
 			}
+			return convertible;
 		}
-		return this.objectMapper.convertValue(argument, targetClass);
-	}
 
-	@SuppressWarnings("unchecked")
-	private Object convertListElements(TypeDescriptor td, Object convertedValue) {
-		if (List.class.isAssignableFrom(convertedValue.getClass()) && td.isCollection()
-				&& td.getElementTypeDescriptor() != null) {
-			Class<?> elementType = td.getElementTypeDescriptor().getType();
-
-			Collection<Object> convertedList = new ArrayList<>();
-			for (Object record : (List<Object>) convertedValue) {
-				Object convertedObject = this.objectMapper.convertValue(record,
-						elementType);
-				convertedList.add(convertedObject);
+		/**
+		 * Reads an argument that was kept as {@link TokenBuffer} (deferred payload
+		 * parsing) directly into the generic type of the parameter.
+		 */
+		private Object readTokenBuffer(TokenBuffer tokenBuffer) {
+			ObjectMapper mapper = MethodParameterConverter.this.objectMapper;
+			try (JsonParser jp = tokenBuffer.asParser(mapper)) {
+				Object value = mapper.readValue(jp, this.javaType);
+				if (this.optional) {
+					return OptionalUnwrapper.ofNullable(value);
+				}
+				return value;
 			}
-			return convertedList;
+			catch (IOException e) {
+				throw new IllegalArgumentException(
+						"Could not read argument of type " + this.javaType, e);
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private Object convertListElements(Object convertedValue) {
+			if (this.elementType != null
+					&& List.class.isAssignableFrom(convertedValue.getClass())) {
+				Collection<Object> convertedList = new ArrayList<>();
+				for (Object record : (List<Object>) convertedValue) {
+					Object convertedObject = MethodParameterConverter.this.objectMapper
+							.convertValue(record, this.elementType);
+					convertedList.add(convertedObject);
+				}
+				return convertedList;
 
+			}
+			return convertedValue;
 		}
-		return convertedValue;
 	}
 
 	@UsesJava8
@@ -132,5 +232,9 @@ public class MethodParameterConverter {
 		public static Object empty() {
 			return Optional.empty();
 		}
+
+		public static Object ofNullable(Object value) {
+			return Optional.ofNullable(value);
+		}
 	}
 }
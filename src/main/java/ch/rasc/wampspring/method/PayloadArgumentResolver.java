@@ -39,6 +39,8 @@ import org.springframework.validation.SmartValidator;
 import org.springframework.validation.Validator;
 import org.springframework.validation.annotation.Validated;
 
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
 import ch.rasc.wampspring.annotation.WampPublishListener;
 
 /**
@@ -130,7 +132,8 @@ public class PayloadArgumentResolver implements HandlerMethodArgumentResolver {
 		}
 
 		Class<?> targetClass = param.getParameterType();
-		if (ClassUtils.isAssignable(targetClass, payload.getClass())) {
+		if (!(payload instanceof TokenBuffer)
+				&& ClassUtils.isAssignable(targetClass, payload.getClass())) {
 			validate(message, param, payload);
 			return payload;
 		}
@@ -18,11 +18,17 @@ package ch.rasc.wampspring.method;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.LinkedHashSet;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -49,6 +55,7 @@ import org.springframework.messaging.handler.annotation.support.HeadersMethodArg
 import org.springframework.messaging.handler.annotation.support.MessageMethodArgumentResolver;
 import org.springframework.messaging.handler.invocation.HandlerMethodArgumentResolver;
 import org.springframework.messaging.handler.invocation.HandlerMethodArgumentResolverComposite;
+import org.springframework.scheduling.TaskScheduler;
 import org.springframework.util.ClassUtils;
 import org.springframework.util.CollectionUtils;
 import org.springframework.util.LinkedMultiValueMap;
@@ -56,6 +63,8 @@ import org.springframework.util.MultiValueMap;
 import org.springframework.util.PathMatcher;
 import org.springframework.util.ReflectionUtils.MethodFilter;
 import org.springframework.util.StringUtils;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.ListenableFutureCallback;
 
 import ch.rasc.wampspring.EventMessenger;
 import ch.rasc.wampspring.annotation.WampAuthenticated;
@@ -64,15 +73,20 @@ import ch.rasc.wampspring.annotation.WampPublishListener;
 import ch.rasc.wampspring.annotation.WampSubscribeListener;
 import ch.rasc.wampspring.annotation.WampUnsubscribeListener;
 import ch.rasc.wampspring.config.WampMessageSelector;
+import ch.rasc.wampspring.config.WampMetrics;
 import ch.rasc.wampspring.config.WampSession;
 import ch.rasc.wampspring.config.WampSessionContextHolder;
 import ch.rasc.wampspring.message.CallErrorMessage;
 import ch.rasc.wampspring.message.CallMessage;
 import ch.rasc.wampspring.message.CallResultMessage;
+import ch.rasc.wampspring.message.CallTrace;
+import ch.rasc.wampspring.message.CallTrace.Stage;
+import ch.rasc.wampspring.message.EventMessage;
 import ch.rasc.wampspring.message.PublishMessage;
 import ch.rasc.wampspring.message.SubscribeMessage;
 import ch.rasc.wampspring.message.UnsubscribeMessage;
 import ch.rasc.wampspring.message.WampMessage;
+import ch.rasc.wampspring.message.WampMessageHeader;
 
 /**
  * Internal class that is responsible for calling methods that are annotated with
@@ -89,6 +103,8 @@ import ch.rasc.wampspring.message.WampMessage;
 public class WampAnnotationMethodMessageHandler implements MessageHandler,
 		ApplicationContextAware, InitializingBean, SmartLifecycle {
 
+	private static final int DEFAULT_ROUTING_CACHE_LIMIT = 1024;
+
 	private final Object lifecycleMonitor = new Object();
 
 	private volatile boolean running = false;
@@ -122,7 +138,22 @@ public class WampAnnotationMethodMessageHandler implements MessageHandler,
 
 	private final MultiValueMap<WampMessageMappingInfo, WampHandlerMethod> handlerMethods = new LinkedMultiValueMap<>();
 
-	private final MultiValueMap<String, WampMessageMappingInfo> destinationLookup = new LinkedMultiValueMap<>();
+	private DestinationRoutingTable routingTable;
+
+	private int routingCacheLimit = DEFAULT_ROUTING_CACHE_LIMIT;
+
+	private TaskScheduler taskScheduler;
+
+	private int streamWindowSize = 16;
+
+	private long streamWindowTimeout = 30_000;
+
+	private WampMetrics wampMetrics;
+
+	private final Set<CallResultStreamer> callResultStreamers = Collections
+			.newSetFromMap(new ConcurrentHashMap<CallResultStreamer, Boolean>());
+
+	private final Map<WampHandlerMethod, InvocableWampHandlerMethod> invocableHandlerMethods = new HashMap<>();
 
 	private final MessageConverter messageConverter;
 	
@@ -149,6 +180,59 @@ public class WampAnnotationMethodMessageHandler implements MessageHandler,
 		this.sendTimeout = sendTimeout;
 	}
 
+	/**
+	 * Specify the maximum number of destinations per message type for which the
+	 * resolved handler methods are cached. Has to be set before
+	 * {@link #afterPropertiesSet()} is called.
+	 * <p>
+	 * By default this is set to 1024.
+	 */
+	public void setRoutingCacheLimit(int routingCacheLimit) {
+		this.routingCacheLimit = routingCacheLimit;
+	}
+
+	/**
+	 * The scheduler that enforces the {@link WampCallListener#timeout()} of methods with
+	 * an asynchronous return value. Without a scheduler the timeouts are ignored.
+	 */
+	public void setTaskScheduler(TaskScheduler taskScheduler) {
+		this.taskScheduler = taskScheduler;
+	}
+
+	/**
+	 * Maximum number of chunks of a streamed CALL result that were sent to the
+	 * clientOutboundChannel but not yet written to the WebSocket session. When the window
+	 * is full no thread waits, reading the result is resumed by the thread that wrote a
+	 * chunk to the session. This keeps a large stream within the limits of the
+	 * {@link ch.rasc.wampspring.config.OutboundMailbox}, the window should be smaller
+	 * than the outbound message limit. A value of 0 or less disables the flow control and
+	 * the whole result is sent by the thread that handles the CALL.
+	 * <p>
+	 * By default this is set to 16.
+	 */
+	public void setStreamWindowSize(int streamWindowSize) {
+		this.streamWindowSize = streamWindowSize;
+	}
+
+	/**
+	 * Time in milliseconds a streamed CALL result waits for the client to receive a chunk
+	 * when the window is full. When the time elapses the stream is aborted and closed.
+	 * Only enforced when a {@link #setTaskScheduler(TaskScheduler) task scheduler} is
+	 * set. Streams of a closed session are always closed.
+	 * <p>
+	 * By default this is set to 30000.
+	 */
+	public void setStreamWindowTimeout(long streamWindowTimeout) {
+		this.streamWindowTimeout = streamWindowTimeout;
+	}
+
+	/**
+	 * Reports the latency of every CALL to the given metrics.
+	 */
+	public void setWampMetrics(WampMetrics wampMetrics) {
+		this.wampMetrics = wampMetrics;
+	}
+
 	@Override
 	public boolean isAutoStartup() {
 		return true;
@@ -265,6 +349,12 @@ public class WampAnnotationMethodMessageHandler implements MessageHandler,
 	@Override
 	public void handleMessage(Message<?> message) throws MessagingException {
 
+		if (message instanceof UnsubscribeMessage
+				&& ((UnsubscribeMessage) message).isCleanup()
+				&& !this.callResultStreamers.isEmpty()) {
+			cancelCallResultStreams(((UnsubscribeMessage) message).getWebSocketSessionId());
+		}
+
 		if (!(message instanceof WampMessage
 				&& this.wampMessageSelector.accept((WampMessage) message))) {
 			return;
@@ -281,37 +371,194 @@ public class WampAnnotationMethodMessageHandler implements MessageHandler,
 
 	private void handleCallMessage(CallMessage callMessage,
 			WampHandlerMethod handlerMethod) {
+		CallTrace trace = callMessage.getCallTrace();
+		long start = this.wampMetrics != null || trace != null ? System.nanoTime() : 0;
+		if (trace != null) {
+			trace.stageCompleted(Stage.DISPATCH, start);
+		}
 		try {
 			checkAuthentication(handlerMethod, callMessage);
 
-			InvocableWampHandlerMethod invocable = new InvocableWampHandlerMethod(
-					handlerMethod.createWithResolvedBean(),
-					this.methodParameterConverter);
-			invocable.setMessageMethodArgumentResolvers(this.argumentResolvers);
+			InvocableWampHandlerMethod invocable = this.invocableHandlerMethods
+					.get(handlerMethod);
 
 			Object[] arguments = null;
 			if (callMessage.getArguments() != null) {
 				arguments = callMessage.getArguments().toArray();
 			}
-			Object returnValue = invocable.invoke(callMessage, arguments);
+			Object[] resolvedArguments = invocable.resolveArguments(callMessage,
+					arguments);
+			if (trace != null) {
+				trace.stageCompleted(Stage.ARGUMENT_RESOLUTION);
+			}
+			Object returnValue = invocable.invokeWithArguments(resolvedArguments);
+			if (handlerMethod.isStreaming()) {
+				markInvoked(callMessage);
+				streamCallResult(callMessage, handlerMethod.getStreamChunkSize(),
+						returnValue, start);
+				return;
+			}
+			if (AsyncReturnValues.isAsyncReturnValue(returnValue)) {
+				handleAsyncCallResult(callMessage, handlerMethod,
+						AsyncReturnValues.toListenableFuture(returnValue), start);
+				return;
+			}
+			markInvoked(callMessage);
 			CallResultMessage callResultMessage = new CallResultMessage(callMessage,
 					returnValue);
 			send(callResultMessage);
+			recordCall(callMessage, start, false);
 		}
 		catch (Exception ex) {
+			markInvoked(callMessage);
 			CallErrorMessage callErrorMessage = new CallErrorMessage(callMessage, "",
 					ex.toString());
 			send(callErrorMessage);
+			recordCall(callMessage, start, true);
 			this.logger.error("Error while processing message " + callMessage, ex);
 		}
 		catch (Throwable t) {
+			markInvoked(callMessage);
 			CallErrorMessage callErrorMessage = new CallErrorMessage(callMessage, "",
 					t.toString());
 			send(callErrorMessage);
+			recordCall(callMessage, start, true);
 			this.logger.error("Error while processing message " + callErrorMessage, t);
 		}
 	}
 
+	/**
+	 * Marks the end of the invocation in the trace of the call. Stages that were not
+	 * reached, e.g. because the arguments could not be resolved, are left empty.
+	 */
+	private static void markInvoked(CallMessage callMessage) {
+		CallTrace trace = callMessage.getCallTrace();
+		if (trace != null) {
+			trace.stageCompleted(Stage.INVOCATION);
+		}
+	}
+
+	private void recordCall(CallMessage callMessage, long start, boolean error) {
+		if (this.wampMetrics != null) {
+			this.wampMetrics.callCompleted(callMessage.getProcURI(),
+					System.nanoTime() - start, error);
+		}
+	}
+
+	/**
+	 * Sends the CALLRESULT or CALLERROR message when the asynchronous result completes.
+	 * If the method has a timeout and the result does not complete in time a CALLERROR
+	 * message is sent and the result is cancelled.
+	 */
+	private void handleAsyncCallResult(final CallMessage callMessage,
+			WampHandlerMethod handlerMethod, final ListenableFuture<Object> future,
+			final long start) {
+
+		final AtomicBoolean completed = new AtomicBoolean(false);
+		final long timeout = handlerMethod.getTimeout();
+
+		final ScheduledFuture<?> timeoutTask;
+		if (timeout > 0 && this.taskScheduler != null) {
+			timeoutTask = this.taskScheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					if (completed.compareAndSet(false, true)) {
+						markInvoked(callMessage);
+						future.cancel(true);
+						sendCallError(callMessage, new TimeoutException(
+								"Call did not complete within " + timeout + " ms"));
+						recordCall(callMessage, start, true);
+					}
+				}
+			}, new Date(System.currentTimeMillis() + timeout));
+		}
+		else {
+			timeoutTask = null;
+		}
+
+		future.addCallback(new ListenableFutureCallback<Object>() {
+			@Override
+			public void onSuccess(Object result) {
+				if (completed.compareAndSet(false, true)) {
+					cancelTimeout(timeoutTask);
+					markInvoked(callMessage);
+					try {
+						send(new CallResultMessage(callMessage, result));
+						recordCall(callMessage, start, false);
+					}
+					catch (Exception ex) {
+						WampAnnotationMethodMessageHandler.this.logger.error(
+								"Error while sending result of message " + callMessage,
+								ex);
+					}
+				}
+			}
+
+			@Override
+			public void onFailure(Throwable ex) {
+				if (completed.compareAndSet(false, true)) {
+					cancelTimeout(timeoutTask);
+					markInvoked(callMessage);
+					sendCallError(callMessage, ex);
+					recordCall(callMessage, start, true);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Answers the CALL with the topicURI of the stream and sends the elements of the
+	 * result in chunks as EVENT messages to the caller.
+	 */
+	private void streamCallResult(CallMessage callMessage, int chunkSize,
+			Object returnValue, long start) {
+		CallResultStream stream = CallResultStream.of(returnValue);
+		String streamTopicURI = callMessage.getProcURI() + "#"
+				+ callMessage.getCallID();
+		try {
+			send(new CallResultMessage(callMessage,
+					Collections.singletonMap("streamTopicURI", streamTopicURI)));
+		}
+		catch (RuntimeException ex) {
+			stream.close();
+			throw ex;
+		}
+
+		CallResultStreamer streamer = new CallResultStreamer(callMessage,
+				streamTopicURI, stream, chunkSize, start);
+		this.callResultStreamers.add(streamer);
+		streamer.pump();
+	}
+
+	/**
+	 * Stops the streamed CALL results of a closed session.
+	 */
+	private void cancelCallResultStreams(String webSocketSessionId) {
+		for (CallResultStreamer streamer : this.callResultStreamers) {
+			if (streamer.callMessage.getWebSocketSessionId() != null
+					&& streamer.callMessage.getWebSocketSessionId()
+							.equals(webSocketSessionId)) {
+				streamer.cancel();
+			}
+		}
+	}
+
+	private static void cancelTimeout(ScheduledFuture<?> timeoutTask) {
+		if (timeoutTask != null) {
+			timeoutTask.cancel(false);
+		}
+	}
+
+	private void sendCallError(CallMessage callMessage, Throwable ex) {
+		this.logger.error("Error while processing message " + callMessage, ex);
+		try {
+			send(new CallErrorMessage(callMessage, "", ex.toString()));
+		}
+		catch (Exception e) {
+			this.logger.error("Error while sending error of message " + callMessage, e);
+		}
+	}
+
 	public void send(WampMessage wampMessage) {
 		long timeout = this.sendTimeout;
 		boolean sent = timeout >= 0
@@ -332,10 +579,8 @@ public class WampAnnotationMethodMessageHandler implements MessageHandler,
 		try {
 			checkAuthentication(wampHandlerMethod, wampMessage);
 
-			InvocableWampHandlerMethod invocable = new InvocableWampHandlerMethod(
-					wampHandlerMethod.createWithResolvedBean(),
-					this.methodParameterConverter);
-			invocable.setMessageMethodArgumentResolvers(this.argumentResolvers);
+			InvocableWampHandlerMethod invocable = this.invocableHandlerMethods
+					.get(wampHandlerMethod);
 
 			Object returnValue = invocable.invoke(wampMessage, argument);
 			if (returnValue != null) {
@@ -403,9 +648,14 @@ public class WampAnnotationMethodMessageHandler implements MessageHandler,
 				authenticationRequired = true;
 			}
 
+			Long timeout = (Long) AnnotationUtils.getValue(annotation, "timeout");
+			Integer streamChunkSize = (Integer) AnnotationUtils.getValue(annotation,
+					"streamChunkSize");
+
 			WampHandlerMethod newHandlerMethod = new WampHandlerMethod(beanName,
 					this.applicationContext, method, replyTo, broadcast, excludeSender,
-					authenticationRequired);
+					authenticationRequired, timeout != null ? timeout.longValue() : -1,
+					streamChunkSize != null ? streamChunkSize.intValue() : 0);
 
 			String[] destinations = (String[]) AnnotationUtils.getValue(annotation);
 			if (destinations.length == 0) {
@@ -448,13 +698,14 @@ public class WampAnnotationMethodMessageHandler implements MessageHandler,
 			WampMessageMappingInfo mapping) {
 
 		this.handlerMethods.add(mapping, newHandlerMethod);
+
+		InvocableWampHandlerMethod invocable = new InvocableWampHandlerMethod(
+				newHandlerMethod, this.applicationContext, this.methodParameterConverter);
+		invocable.setMessageMethodArgumentResolvers(this.argumentResolvers);
+		this.invocableHandlerMethods.put(newHandlerMethod, invocable);
 		if (this.logger.isInfoEnabled()) {
 			this.logger.info("Mapped \"" + mapping + "\" onto " + newHandlerMethod);
 		}
-
-		for (String pattern : getDirectLookupDestinations(mapping)) {
-			this.destinationLookup.add(pattern, mapping);
-		}
 	}
 
 	private void detectHandlerMethods(String beanName) {
@@ -468,16 +719,6 @@ public class WampAnnotationMethodMessageHandler implements MessageHandler,
 		detectHandlerMethods(beanName, userType, WampUnsubscribeListener.class);
 	}
 
-	private Set<String> getDirectLookupDestinations(WampMessageMappingInfo mapping) {
-		Set<String> result = new LinkedHashSet<>();
-		for (String pattern : mapping.getDestinationConditions().getPatterns()) {
-			if (!this.pathMatcher.isPattern(pattern)) {
-				result.add(pattern);
-			}
-		}
-		return result;
-	}
-
 	/**
 	 * Sets the list of custom {@code HandlerMethodArgumentResolver}s that will be used
 	 * after resolvers for supported argument type.
@@ -533,21 +774,13 @@ public class WampAnnotationMethodMessageHandler implements MessageHandler,
 				.getBeanNamesForType(Object.class)) {
 			detectHandlerMethods(beanName);
 		}
+
+		this.routingTable = new DestinationRoutingTable(this.handlerMethods,
+				this.pathMatcher, this.routingCacheLimit);
 	}
 
 	private void handleMessageInternal(WampMessage message, String lookupDestination) {
-		List<Match> matches = new ArrayList<>();
-
-		List<WampMessageMappingInfo> mappingsByUrl = this.destinationLookup
-				.get(lookupDestination);
-		if (mappingsByUrl != null) {
-			addMatchesToCollection(mappingsByUrl, message, matches);
-		}
-		if (matches.isEmpty()) {
-			// No direct hits, go through all mappings
-			Set<WampMessageMappingInfo> allMappings = this.handlerMethods.keySet();
-			addMatchesToCollection(allMappings, message, matches);
-		}
+		List<Match> matches = this.routingTable.getMatches(message, lookupDestination);
 		if (matches.isEmpty()) {
 			handleNoMatch(this.handlerMethods.keySet(), lookupDestination, message);
 			return;
@@ -558,42 +791,24 @@ public class WampAnnotationMethodMessageHandler implements MessageHandler,
 		}
 
 		for (Match match : matches) {
-			handleMatch(match.mapping, match.handlerMethod, lookupDestination, message);
-		}
-	}
-
-	private void addMatchesToCollection(
-			Collection<WampMessageMappingInfo> mappingsToCheck, Message<?> message,
-			List<Match> matches) {
-		for (WampMessageMappingInfo mapping : mappingsToCheck) {
-			WampMessageMappingInfo match = mapping.getMatchingCondition(message);
-			if (match != null) {
-				List<WampHandlerMethod> methods = this.handlerMethods.get(mapping);
-				for (WampHandlerMethod method : methods) {
-					matches.add(new Match(match, method));
-				}
-			}
+			handleMatch(match, lookupDestination, message);
 		}
 	}
 
-	private void handleMatch(WampMessageMappingInfo mapping,
-			WampHandlerMethod handlerMethod, String lookupDestination,
+	private void handleMatch(Match match, String lookupDestination,
 			WampMessage message) {
 
 		if (!"**".equals(message.getDestination())) {
-			String matchedPattern = mapping.getDestinationConditions().getPatterns()
-					.iterator().next();
-			Map<String, String> vars = this.pathMatcher
-					.extractUriTemplateVariables(matchedPattern, lookupDestination);
-
-			if (!CollectionUtils.isEmpty(vars)) {
+			Map<String, String> vars = match
+					.getDestinationTemplateVariables(lookupDestination, this.pathMatcher);
+			if (!vars.isEmpty()) {
 				message.setDestinationTemplateVariables(vars);
 			}
 		}
 
 		try {
 			WampSessionContextHolder.setAttributesFromMessage(message);
-			handleMatchInternal(handlerMethod, message);
+			handleMatchInternal(match.handlerMethod, message);
 		}
 		finally {
 			WampSessionContextHolder.resetAttributes();
@@ -616,6 +831,9 @@ public class WampAnnotationMethodMessageHandler implements MessageHandler,
 	/**
 	 * A thin wrapper around a matched HandlerMethod and its matched mapping for the
 	 * purpose of comparing the best match with a comparator in the context of a message.
+	 * <p>
+	 * Matches are cached per destination by the {@link DestinationRoutingTable}, so the
+	 * URI template variables of the destination are extracted only once per match.
 	 */
 	static class Match {
 
@@ -623,15 +841,205 @@ public class WampAnnotationMethodMessageHandler implements MessageHandler,
 
 		final WampHandlerMethod handlerMethod;
 
-		private Match(WampMessageMappingInfo mapping, WampHandlerMethod handlerMethod) {
+		private volatile Map<String, String> destinationTemplateVariables;
+
+		Match(WampMessageMappingInfo mapping, WampHandlerMethod handlerMethod) {
 			this.mapping = mapping;
 			this.handlerMethod = handlerMethod;
 		}
 
+		Map<String, String> getDestinationTemplateVariables(String destination,
+				PathMatcher pathMatcher) {
+			Map<String, String> vars = this.destinationTemplateVariables;
+			if (vars == null) {
+				String matchedPattern = this.mapping.getDestinationConditions()
+						.getPatterns().iterator().next();
+				vars = pathMatcher.extractUriTemplateVariables(matchedPattern,
+						destination);
+				vars = CollectionUtils.isEmpty(vars)
+						? Collections.<String, String>emptyMap()
+						: Collections.unmodifiableMap(vars);
+				this.destinationTemplateVariables = vars;
+			}
+			return vars;
+		}
+
 		@Override
 		public String toString() {
 			return this.mapping.toString();
 		}
 	}
 
+	/**
+	 * Reads a streamed CALL result and sends it in chunks to the caller. Without a window
+	 * all chunks are sent by the thread that handles the CALL. With a window the
+	 * streamer sends chunks until the credits are used up and returns. It is resumed by
+	 * the {@link WampMessageHeader#SENT_CALLBACK} of a chunk that was written to the
+	 * session, so no thread waits for a slow client. Only one thread at a time reads the
+	 * stream.
+	 */
+	private class CallResultStreamer implements Runnable {
+
+		private final CallMessage callMessage;
+
+		private final String streamTopicURI;
+
+		private final CallResultStream stream;
+
+		private final int chunkSize;
+
+		private final long start;
+
+		/** Number of chunks that may be sent, null if the window is disabled */
+		private final AtomicInteger credits;
+
+		/** Number of requests to resume the streamer, only the first one reads */
+		private final AtomicInteger resumeRequests = new AtomicInteger();
+
+		private volatile Exception abortReason;
+
+		private volatile boolean cancelled;
+
+		private long seq = 0;
+
+		private boolean done = false;
+
+		private ScheduledFuture<?> timeoutTask;
+
+		CallResultStreamer(CallMessage callMessage, String streamTopicURI,
+				CallResultStream stream, int chunkSize, long start) {
+			this.callMessage = callMessage;
+			this.streamTopicURI = streamTopicURI;
+			this.stream = stream;
+			this.chunkSize = chunkSize;
+			this.start = start;
+			int windowSize = WampAnnotationMethodMessageHandler.this.streamWindowSize;
+			this.credits = windowSize > 0 ? new AtomicInteger(windowSize) : null;
+		}
+
+		/**
+		 * Called when a chunk was written to the session. Returns the credit and resumes
+		 * the streamer.
+		 */
+		@Override
+		public void run() {
+			this.credits.incrementAndGet();
+			pump();
+		}
+
+		/**
+		 * Stops the stream without sending further chunks.
+		 */
+		void cancel() {
+			this.cancelled = true;
+			pump();
+		}
+
+		void pump() {
+			if (this.resumeRequests.getAndIncrement() != 0) {
+				// another thread reads the stream and sees this request
+				return;
+			}
+			do {
+				if (!this.done) {
+					sendChunks();
+				}
+			}
+			while (this.resumeRequests.decrementAndGet() != 0);
+		}
+
+		private void sendChunks() {
+			cancelTimeout(this.timeoutTask);
+			this.timeoutTask = null;
+			try {
+				while (true) {
+					if (this.cancelled) {
+						finish(true);
+						return;
+					}
+					if (this.abortReason != null) {
+						throw this.abortReason;
+					}
+					if (this.credits != null && this.credits.get() <= 0) {
+						scheduleTimeout();
+						return;
+					}
+					List<Object> items = new ArrayList<>(this.chunkSize);
+					while (items.size() < this.chunkSize && this.stream.hasNext()) {
+						items.add(this.stream.next());
+					}
+					boolean last = items.size() < this.chunkSize;
+					sendChunk(new CallResultChunk(this.seq, items, last, null));
+					this.seq++;
+					if (last) {
+						finish(false);
+						return;
+					}
+				}
+			}
+			catch (Exception ex) {
+				WampAnnotationMethodMessageHandler.this.logger.error(
+						"Error while streaming result of message " + this.callMessage,
+						ex);
+				try {
+					EventMessage eventMessage = new EventMessage(this.streamTopicURI,
+							new CallResultChunk(this.seq,
+									Collections.emptyList(), true, ex.toString()));
+					eventMessage
+							.setWebSocketSessionId(this.callMessage.getWebSocketSessionId());
+					send(eventMessage);
+				}
+				catch (Exception e) {
+					WampAnnotationMethodMessageHandler.this.logger.error(
+							"Error while sending error of message " + this.callMessage,
+							e);
+				}
+				finish(true);
+			}
+		}
+
+		private void sendChunk(CallResultChunk chunk) {
+			EventMessage eventMessage = new EventMessage(this.streamTopicURI, chunk);
+			eventMessage.setWebSocketSessionId(this.callMessage.getWebSocketSessionId());
+			if (this.credits != null) {
+				this.credits.decrementAndGet();
+				eventMessage.setHeader(WampMessageHeader.SENT_CALLBACK, this);
+			}
+			send(eventMessage);
+		}
+
+		/**
+		 * Aborts the stream when the client does not receive a chunk within the
+		 * {@link #setStreamWindowTimeout(long) streamWindowTimeout}.
+		 */
+		private void scheduleTimeout() {
+			TaskScheduler scheduler = WampAnnotationMethodMessageHandler.this.taskScheduler;
+			if (scheduler == null) {
+				return;
+			}
+			final long timeout = WampAnnotationMethodMessageHandler.this.streamWindowTimeout;
+			this.timeoutTask = scheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					if (CallResultStreamer.this.credits.get() <= 0) {
+						CallResultStreamer.this.abortReason = new TimeoutException(
+								"Client did not receive the chunks of "
+										+ CallResultStreamer.this.streamTopicURI
+										+ " within " + timeout + " ms");
+						pump();
+					}
+				}
+			}, new Date(System.currentTimeMillis() + timeout));
+		}
+
+		private void finish(boolean error) {
+			this.done = true;
+			cancelTimeout(this.timeoutTask);
+			this.timeoutTask = null;
+			this.stream.close();
+			WampAnnotationMethodMessageHandler.this.callResultStreamers.remove(this);
+			recordCall(this.callMessage, this.start, error);
+		}
+	}
+
 }
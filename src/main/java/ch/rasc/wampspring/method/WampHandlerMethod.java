@@ -30,9 +30,20 @@ public class WampHandlerMethod extends HandlerMethod {
 
 	private final boolean authenticationRequired;
 
+	private final long timeout;
+
+	private final int streamChunkSize;
+
 	public WampHandlerMethod(String beanName, BeanFactory beanFactory, Method method,
 			String[] replyTo, Boolean broadcast, Boolean excludeSender,
 			boolean authenticationRequired) {
+		this(beanName, beanFactory, method, replyTo, broadcast, excludeSender,
+				authenticationRequired, -1, 0);
+	}
+
+	public WampHandlerMethod(String beanName, BeanFactory beanFactory, Method method,
+			String[] replyTo, Boolean broadcast, Boolean excludeSender,
+			boolean authenticationRequired, long timeout, int streamChunkSize) {
 		super(beanName, beanFactory, method);
 
 		if (replyTo != null) {
@@ -47,6 +58,10 @@ public class WampHandlerMethod extends HandlerMethod {
 		this.excludeSender = excludeSender;
 
 		this.authenticationRequired = authenticationRequired;
+
+		this.timeout = timeout;
+
+		this.streamChunkSize = streamChunkSize;
 	}
 
 	public String[] getReplyTo() {
@@ -65,4 +80,24 @@ public class WampHandlerMethod extends HandlerMethod {
 		return this.authenticationRequired;
 	}
 
+	/**
+	 * Timeout in milliseconds for asynchronous return values. 0 or less if the method
+	 * has no timeout.
+	 */
+	public long getTimeout() {
+		return this.timeout;
+	}
+
+	/**
+	 * Number of elements per chunk when the result of the method is streamed. 0 or less
+	 * if the result is sent in one CALLRESULT message.
+	 */
+	public int getStreamChunkSize() {
+		return this.streamChunkSize;
+	}
+
+	public boolean isStreaming() {
+		return this.streamChunkSize > 0;
+	}
+
 }
@@ -0,0 +1,93 @@
+/**
+ * Copyright 2014-2017 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.broker;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+public class CountingBloomFilterTest {
+
+	@Test
+	public void testAddRemove() {
+		CountingBloomFilter filter = new CountingBloomFilter(100, 0.01);
+		assertThat(filter.mightContain("/foo")).isFalse();
+
+		filter.add("/foo");
+		filter.add("/bar");
+		filter.add("/foo");
+		assertThat(filter.mightContain("/foo")).isTrue();
+		assertThat(filter.mightContain("/bar")).isTrue();
+
+		filter.remove("/foo");
+		assertThat(filter.mightContain("/foo")).isTrue();
+		filter.remove("/foo");
+		assertThat(filter.mightContain("/foo")).isFalse();
+		assertThat(filter.mightContain("/bar")).isTrue();
+
+		filter.remove("/bar");
+		assertThat(filter.toBloomFilter().isEmpty()).isTrue();
+	}
+
+	@Test
+	public void testSnapshot() {
+		CountingBloomFilter filter = new CountingBloomFilter(1000, 0.01);
+		for (int i = 0; i < 1000; i++) {
+			filter.add("/topic/" + i);
+		}
+		BloomFilter snapshot = filter.toBloomFilter();
+		filter.remove("/topic/0");
+
+		assertThat(snapshot.getBitSize()).isEqualTo(filter.getSize());
+		assertThat(snapshot.getHashFunctions()).isEqualTo(filter.getHashFunctions());
+		for (int i = 0; i < 1000; i++) {
+			assertThat(snapshot.mightContain("/topic/" + i)).isTrue();
+		}
+		assertThat(snapshot).isEqualTo(new BloomFilter(snapshot.toLongArray(),
+				snapshot.getBitSize(), snapshot.getHashFunctions()));
+	}
+
+	@Test
+	public void testFalsePositiveRate() {
+		CountingBloomFilter filter = new CountingBloomFilter(1000, 0.01);
+		for (int i = 0; i < 1000; i++) {
+			filter.add("/topic/" + i);
+		}
+		BloomFilter snapshot = filter.toBloomFilter();
+
+		int falsePositives = 0;
+		for (int i = 0; i < 10_000; i++) {
+			if (snapshot.mightContain("/other/" + i)) {
+				falsePositives++;
+			}
+		}
+		assertThat(falsePositives).isLessThan(300);
+	}
+
+	@Test
+	public void testSaturation() {
+		CountingBloomFilter filter = new CountingBloomFilter(10, 0.1);
+		for (int i = 0; i < 300; i++) {
+			filter.add("/foo");
+		}
+		for (int i = 0; i < 300; i++) {
+			filter.remove("/foo");
+		}
+		// saturated counters are never decremented
+		assertThat(filter.mightContain("/foo")).isTrue();
+	}
+
+}
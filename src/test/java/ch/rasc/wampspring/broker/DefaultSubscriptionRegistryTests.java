@@ -17,6 +17,7 @@ package ch.rasc.wampspring.broker;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -41,11 +42,15 @@ import ch.rasc.wampspring.message.UnsubscribeMessage;
  */
 public class DefaultSubscriptionRegistryTests {
 
-	private DefaultSubscriptionRegistry registry;
+	protected SubscriptionRegistry registry;
 
 	@Before
 	public void setup() {
-		this.registry = new DefaultSubscriptionRegistry(new AntPathMatcher());
+		this.registry = createRegistry();
+	}
+
+	protected SubscriptionRegistry createRegistry() {
+		return new DefaultSubscriptionRegistry(new AntPathMatcher());
 	}
 
 	@Test
@@ -293,6 +298,36 @@ public class DefaultSubscriptionRegistryTests {
 		assertThat(actual).hasSize(1).contains(sessIds.get(2));
 	}
 
+	@Test
+	public void unregisterSessions() {
+		for (int i = 0; i < 100; i++) {
+			this.registry.registerSubscription(subscribeMessage("sess" + i, "/foo"));
+			this.registry.registerSubscription(subscribeMessage("sess" + i, "/bar/*"));
+		}
+		assertEquals(100, this.registry.findSubscriptions(message("/foo")).size());
+		assertEquals(100, this.registry.findSubscriptions(message("/bar/1")).size());
+
+		List<String> sessIds = new ArrayList<>();
+		for (int i = 0; i < 99; i++) {
+			sessIds.add("sess" + i);
+		}
+		sessIds.add("bogus");
+		((BatchSubscriptionRegistry) this.registry).unregisterSessions(sessIds);
+
+		assertThat(this.registry.findSubscriptions(message("/foo")))
+				.containsOnly("sess99");
+		assertThat(this.registry.findSubscriptions(message("/bar/1")))
+				.containsOnly("sess99");
+		assertThat(this.registry.findSubscriptions(message("/bar/2")))
+				.containsOnly("sess99");
+
+		((BatchSubscriptionRegistry) this.registry)
+				.unregisterSessions(Arrays.asList("sess99"));
+		assertThat(this.registry.hasSubscriptions()).isFalse();
+		assertThat(this.registry.findSubscriptions(message("/foo"))).isEmpty();
+		assertThat(this.registry.findSubscriptions(message("/bar/1"))).isEmpty();
+	}
+
 	@Test
 	public void unregisterAllSubscriptionsNoMatch() {
 		this.registry.unregisterSession("bogus");
@@ -321,20 +356,82 @@ public class DefaultSubscriptionRegistryTests {
 		assertEquals("Expected no elements " + actual, 0, actual.size());
 	}
 
-	private static SubscribeMessage subscribeMessage(String sessionId, String topicURI) {
+	@Test
+	public void unregisterOverlappingSubscriptionsWithCachedDestination() {
+		this.registry.registerSubscription(subscribeMessage("sess1", "/topic/*"));
+		this.registry.registerSubscription(subscribeMessage("sess1", "/topic/a"));
+		this.registry.registerSubscription(subscribeMessage("sess2", "/topic/a"));
+		assertEquals(2, this.registry.findSubscriptions(message("/topic/a")).size());
+
+		this.registry.unregisterSubscription(unsubscribeMessage("sess1", "/topic/a"));
+		Set<String> actual = this.registry.findSubscriptions(message("/topic/a"));
+		assertEquals(2, actual.size());
+
+		this.registry.registerSubscription(subscribeMessage("sess1", "/topic/a"));
+		this.registry.unregisterSubscription(unsubscribeMessage("sess1", "/topic/*"));
+		actual = this.registry.findSubscriptions(message("/topic/a"));
+		assertEquals(2, actual.size());
+
+		this.registry.unregisterSubscription(unsubscribeMessage("sess1", "/topic/a"));
+		actual = this.registry.findSubscriptions(message("/topic/a"));
+		assertThat(actual).containsOnly("sess2");
+	}
+
+	@Test
+	public void cacheLimitEvictsDestinations() {
+		((DefaultSubscriptionRegistry) this.registry).setCacheLimit(2);
+		this.registry.registerSubscription(subscribeMessage("sess1", "/topic/**"));
+		for (int i = 0; i < 10; i++) {
+			assertEquals(1, this.registry.findSubscriptions(message("/topic/" + i)).size());
+		}
+
+		this.registry.unregisterSession("sess1");
+		for (int i = 0; i < 10; i++) {
+			assertEquals(0, this.registry.findSubscriptions(message("/topic/" + i)).size());
+		}
+	}
+
+	@Test
+	public void emptiedDestinationsDoNotCountAgainstCacheLimit() {
+		// the destination cache only exists in the default registry
+		assumeTrue(this.registry instanceof DefaultSubscriptionRegistry);
+		DefaultSubscriptionRegistry defaultRegistry = (DefaultSubscriptionRegistry) this.registry;
+		defaultRegistry.setCacheLimit(2);
+		this.registry.registerSubscription(subscribeMessage("sess1", "/live"));
+		this.registry.registerSubscription(subscribeMessage("sess1", "/dead1"));
+		this.registry.registerSubscription(subscribeMessage("sess1", "/dead2"));
+		this.registry.registerSubscription(subscribeMessage("sess1", "/other"));
+
+		this.registry.findSubscriptions(message("/live"));
+		this.registry.findSubscriptions(message("/dead1"));
+		this.registry.unregisterSubscription(unsubscribeMessage("sess1", "/dead1"));
+		this.registry.findSubscriptions(message("/dead2"));
+		this.registry.unregisterSubscription(unsubscribeMessage("sess1", "/dead2"));
+		assertThat(defaultRegistry.getCacheSize()).isEqualTo(1);
+
+		this.registry.findSubscriptions(message("/other"));
+		assertThat(defaultRegistry.getCacheSize()).isEqualTo(2);
+
+		long hits = defaultRegistry.getCacheHits();
+		assertThat(this.registry.findSubscriptions(message("/live")))
+				.containsOnly("sess1");
+		assertThat(defaultRegistry.getCacheHits()).isEqualTo(hits + 1);
+	}
+
+	static SubscribeMessage subscribeMessage(String sessionId, String topicURI) {
 		SubscribeMessage message = new SubscribeMessage(topicURI);
 		message.setWebSocketSessionId(sessionId);
 		return message;
 	}
 
-	private static UnsubscribeMessage unsubscribeMessage(String sessionId,
+	static UnsubscribeMessage unsubscribeMessage(String sessionId,
 			String topicURI) {
 		UnsubscribeMessage message = new UnsubscribeMessage(topicURI);
 		message.setWebSocketSessionId(sessionId);
 		return message;
 	}
 
-	private static PubSubMessage message(String destination) {
+	static PubSubMessage message(String destination) {
 		EventMessage eventMessage = new EventMessage(destination, "the payload");
 		return eventMessage;
 	}
@@ -0,0 +1,81 @@
+/**
+ * Copyright 2014-2017 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.broker;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+import org.springframework.util.AntPathMatcher;
+
+public class InterestTrackerTest {
+
+	private final AntPathMatcher pathMatcher = new AntPathMatcher();
+
+	@Test
+	public void testSummary() {
+		InterestTracker tracker = new InterestTracker(this.pathMatcher);
+		assertThat(tracker.getSummary().isEmpty()).isTrue();
+
+		assertThat(tracker.subscribe("ws1", "/topic/a")).isTrue();
+		assertThat(tracker.subscribe("ws2", "/topic/a")).isFalse();
+		assertThat(tracker.subscribe("ws1", "/topic/*")).isTrue();
+
+		InterestSummary summary = tracker.getSummary();
+		assertThat(summary.getTopics()).containsOnly("/topic/a");
+		assertThat(summary.getPatterns()).containsOnly("/topic/*");
+
+		assertThat(tracker.unregisterSession("ws1")).isTrue();
+		summary = tracker.getSummary();
+		assertThat(summary.getTopics()).containsOnly("/topic/a");
+		assertThat(summary.getPatterns()).isEmpty();
+
+		assertThat(tracker.unsubscribe("ws2", "/topic/a")).isTrue();
+		assertThat(tracker.getSummary().isEmpty()).isTrue();
+	}
+
+	@Test
+	public void testSummaryIsRebuiltOnlyWhenRequested() {
+		InterestTracker tracker = new InterestTracker(this.pathMatcher);
+		for (int i = 0; i < 1000; i++) {
+			tracker.subscribe("ws" + i, "/topic/" + i);
+		}
+		InterestSummary summary = tracker.getSummary();
+		assertThat(summary.getTopics()).hasSize(1000);
+		assertThat(tracker.getSummary()).isSameAs(summary);
+
+		tracker.subscribe("ws0", "/topic/0");
+		assertThat(tracker.getSummary()).isSameAs(summary);
+
+		tracker.unsubscribe("ws0", "/topic/0");
+		assertThat(tracker.getSummary()).isNotSameAs(summary);
+		assertThat(tracker.getSummary().getTopics()).hasSize(999)
+				.doesNotContain("/topic/0");
+	}
+
+	@Test
+	public void testBloomFilterSummary() {
+		InterestTracker tracker = new InterestTracker(this.pathMatcher, 100, 0.01);
+		tracker.subscribe("ws1", "/topic/a");
+		InterestSummary summary = tracker.getSummary();
+		assertThat(summary.getTopics()).isEmpty();
+		assertThat(summary.matches("/topic/a", this.pathMatcher)).isTrue();
+
+		tracker.unregisterSession("ws1");
+		assertThat(tracker.getSummary().matches("/topic/a", this.pathMatcher))
+				.isFalse();
+	}
+
+}
@@ -0,0 +1,371 @@
+/**
+ * Copyright 2014-2017 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.broker;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.websocket.Session;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.SubscribableChannel;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.web.socket.adapter.standard.StandardWebSocketSession;
+
+import ch.rasc.wampspring.config.WampMessageSelectors;
+import ch.rasc.wampspring.message.EventMessage;
+import ch.rasc.wampspring.message.PublishMessage;
+import ch.rasc.wampspring.message.SubscribeMessage;
+import ch.rasc.wampspring.message.UnsubscribeMessage;
+
+public class LoopbackBrokerRelayTest {
+
+	private LoopbackBrokerRelay.Network network;
+
+	private List<Node> nodes;
+
+	@Before
+	public void setup() {
+		this.network = new LoopbackBrokerRelay.Network();
+		this.nodes = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			this.nodes.add(new Node("node" + i, this.network));
+		}
+	}
+
+	@After
+	public void tearDown() {
+		for (Node node : this.nodes) {
+			node.broker.stop();
+		}
+	}
+
+	@Test
+	public void testJoinAndLeave() {
+		assertThat(this.network.getNodes()).hasSize(3);
+		this.nodes.get(2).broker.stop();
+		assertThat(this.network.getNodes()).hasSize(2)
+				.doesNotContain(this.nodes.get(2).relay);
+	}
+
+	@Test
+	public void testPublishReachesRemoteSubscribers() {
+		Node node0 = this.nodes.get(0);
+		Node node1 = this.nodes.get(1);
+		Node node2 = this.nodes.get(2);
+
+		node1.broker.handleMessage(subscribeMessage("sess1", "/foo"));
+		assertThat(node1.relay.getInterestSummary().getTopics()).containsOnly("/foo");
+
+		node0.broker.handleMessage(publishMessage("sess0", "/foo", "message1"));
+
+		List<EventMessage> received = node1.sentEvents();
+		assertThat(received).hasSize(1);
+		assertThat(received.get(0).getEvent()).isEqualTo("message1");
+		assertThat(received.get(0).getWebSocketSessionId()).isEqualTo("sess1");
+		assertThat(node2.sentEvents()).isEmpty();
+
+		assertThat(node0.relay.getForwardedEvents()).isEqualTo(1);
+		assertThat(node0.relay.getSuppressedEvents()).isEqualTo(1);
+		assertThat(node1.relay.getReceivedEvents()).isEqualTo(1);
+		assertThat(node2.relay.getReceivedEvents()).isEqualTo(0);
+
+		// the relayed event is not forwarded again
+		assertThat(node1.relay.getForwardedEvents()).isEqualTo(0);
+		assertThat(node1.relay.getSuppressedEvents()).isEqualTo(0);
+	}
+
+	@Test
+	public void testEventFromBrokerChannel() {
+		Node node0 = this.nodes.get(0);
+		Node node2 = this.nodes.get(2);
+		node2.broker.handleMessage(subscribeMessage("sess2", "/topic/**"));
+		assertThat(node2.relay.getInterestSummary().getPatterns())
+				.containsOnly("/topic/**");
+
+		node0.brokerChannel.send(new EventMessage("/topic/a/b", "message2"));
+
+		List<EventMessage> received = node2.sentEvents();
+		assertThat(received).hasSize(1);
+		assertThat(received.get(0).getEvent()).isEqualTo("message2");
+		assertThat(node0.relay.getForwardedEvents()).isEqualTo(1);
+		assertThat(node0.relay.getSuppressedEvents()).isEqualTo(1);
+	}
+
+	@Test
+	public void testUnsubscribeRemovesInterest() {
+		Node node0 = this.nodes.get(0);
+		Node node1 = this.nodes.get(1);
+
+		node1.broker.handleMessage(subscribeMessage("sess1", "/foo"));
+		node1.broker.handleMessage(subscribeMessage("sess2", "/foo"));
+		node1.broker.handleMessage(unsubscribeMessage("sess1", "/foo"));
+		assertThat(node1.relay.getInterestSummary().getTopics()).containsOnly("/foo");
+
+		node1.broker.handleMessage(unsubscribeMessage("sess2", "/foo"));
+		assertThat(node1.relay.getInterestSummary().isEmpty()).isTrue();
+
+		node0.broker.handleMessage(publishMessage("sess0", "/foo", "message1"));
+		assertThat(node1.sentEvents()).isEmpty();
+		assertThat(node0.relay.getForwardedEvents()).isEqualTo(0);
+		assertThat(node0.relay.getSuppressedEvents()).isEqualTo(2);
+	}
+
+	@SuppressWarnings("resource")
+	@Test
+	public void testSessionCleanupRemovesInterest() {
+		Node node1 = this.nodes.get(1);
+		node1.broker.handleMessage(subscribeMessage("sess1", "/foo"));
+		node1.broker.handleMessage(subscribeMessage("sess1", "/bar/*"));
+		assertThat(node1.relay.getInterestSummary().isEmpty()).isFalse();
+
+		Session nativeSession = Mockito.mock(Session.class);
+		Mockito.when(nativeSession.getId()).thenReturn("sess1");
+		StandardWebSocketSession wsSession = new StandardWebSocketSession(null, null,
+				null, null);
+		wsSession.initializeNativeSession(nativeSession);
+		node1.broker.handleMessage(UnsubscribeMessage.createCleanupMessage(wsSession));
+		assertThat(node1.relay.getInterestSummary().isEmpty()).isTrue();
+	}
+
+	@Test
+	public void testExcludeAndEligible() {
+		Node node0 = this.nodes.get(0);
+		Node node1 = this.nodes.get(1);
+
+		node0.broker.handleMessage(subscribeMessage("sess0", "/foo"));
+		node1.broker.handleMessage(subscribeMessage("sess1", "/foo"));
+		node1.broker.handleMessage(subscribeMessage("sess2", "/foo"));
+
+		PublishMessage publishMessage = new PublishMessage("/foo", "message1", null,
+				Collections.singleton("sess2"));
+		publishMessage.setWebSocketSessionId("sess0");
+		node0.broker.handleMessage(publishMessage);
+
+		assertThat(node0.sentEvents()).isEmpty();
+		List<EventMessage> received = node1.sentEvents();
+		assertThat(received).hasSize(1);
+		assertThat(received.get(0).getWebSocketSessionId()).isEqualTo("sess2");
+
+		Mockito.reset(node1.clientOutboundChannel);
+		publishMessage = new PublishMessage("/foo", "message2", true);
+		publishMessage.setWebSocketSessionId("sess1");
+		node1.broker.handleMessage(publishMessage);
+
+		assertThat(node0.sentEvents()).hasSize(1);
+		received = node1.sentEvents();
+		assertThat(received).hasSize(1);
+		assertThat(received.get(0).getWebSocketSessionId()).isEqualTo("sess2");
+	}
+
+	@Test
+	public void testBloomFilterSummary() {
+		Node node0 = this.nodes.get(0);
+		Node bloomNode = new Node("bloom", this.network,
+				new InterestTracker(new AntPathMatcher(), 100, 0.01));
+		this.nodes.add(bloomNode);
+
+		bloomNode.broker.handleMessage(subscribeMessage("sess1", "/foo"));
+		bloomNode.broker.handleMessage(subscribeMessage("sess1", "/bar/*"));
+		InterestSummary summary = bloomNode.relay.getInterestSummary();
+		assertThat(summary.getTopicFilter()).isNotNull();
+		assertThat(summary.getTopics()).isEmpty();
+		assertThat(summary.getPatterns()).containsOnly("/bar/*");
+
+		node0.broker.handleMessage(publishMessage("sess0", "/foo", "message1"));
+		node0.broker.handleMessage(publishMessage("sess0", "/bar/1", "message2"));
+		assertThat(bloomNode.sentEvents()).hasSize(2);
+
+		bloomNode.broker.handleMessage(unsubscribeMessage("sess1", "/foo"));
+		bloomNode.broker.handleMessage(unsubscribeMessage("sess1", "/bar/*"));
+		assertThat(bloomNode.relay.getInterestSummary().isEmpty()).isTrue();
+	}
+
+	@Test
+	public void testSparseTopicTraffic() {
+		int topicCount = 1000;
+		int subscribedPerNode = 10;
+
+		List<Node> cluster = new ArrayList<>();
+		cluster.add(this.nodes.get(0));
+		for (int i = 1; i < 4; i++) {
+			Node node = new Node("sparse" + i, this.network,
+					new InterestTracker(new AntPathMatcher(), 1000, 0.01));
+			cluster.add(node);
+			this.nodes.add(node);
+			for (int t = 0; t < subscribedPerNode; t++) {
+				node.broker.handleMessage(subscribeMessage("sess" + i,
+						"/topic/" + (i * 100 + t)));
+			}
+		}
+		for (Node node : this.nodes) {
+			if (!cluster.contains(node)) {
+				node.broker.stop();
+			}
+		}
+
+		LoopbackBrokerRelay publisher = cluster.get(0).relay;
+		for (int t = 0; t < topicCount; t++) {
+			cluster.get(0).broker.handleMessage(
+					publishMessage("sess0", "/topic/" + t, "event" + t));
+		}
+
+		for (int i = 1; i < 4; i++) {
+			assertThat(cluster.get(i).sentEvents()).hasSize(subscribedPerNode);
+		}
+
+		long broadcast = (long) topicCount * (cluster.size() - 1);
+		long exact = subscribedPerNode * (cluster.size() - 1);
+		assertThat(publisher.getForwardedEvents()
+				+ publisher.getSuppressedEvents()).isEqualTo(broadcast);
+		assertThat(publisher.getForwardedEvents()).isGreaterThanOrEqualTo(exact)
+				.isLessThan(broadcast / 20);
+	}
+
+	@Test
+	public void testInterestAnnouncedInOrder() throws Exception {
+		final CountDownLatch firstAnnouncement = new CountDownLatch(1);
+		final CountDownLatch releaseFirst = new CountDownLatch(1);
+		final List<InterestSummary> announced = new CopyOnWriteArrayList<>();
+		BrokerRelay relay = mock(BrokerRelay.class);
+		Mockito.doAnswer(invocation -> {
+			InterestSummary summary = (InterestSummary) invocation.getArguments()[0];
+			// the first announcement after start is held back
+			if (!announced.isEmpty() && firstAnnouncement.getCount() > 0) {
+				firstAnnouncement.countDown();
+				releaseFirst.await();
+			}
+			announced.add(summary);
+			return null;
+		}).when(relay).updateInterest(Mockito.any(InterestSummary.class));
+
+		final SimpleBrokerMessageHandler broker = new SimpleBrokerMessageHandler(
+				mock(SubscribableChannel.class), mock(MessageChannel.class),
+				new ExecutorSubscribableChannel(),
+				new DefaultSubscriptionRegistry(new AntPathMatcher()),
+				WampMessageSelectors.ACCEPT_ALL);
+		broker.setBrokerRelay(relay);
+		broker.setInterestTracker(new InterestTracker(new AntPathMatcher()));
+		broker.start();
+
+		Thread first = new Thread(
+				() -> broker.handleMessage(subscribeMessage("s1", "/a")));
+		first.start();
+		assertThat(firstAnnouncement.await(5, TimeUnit.SECONDS)).isTrue();
+
+		Thread second = new Thread(
+				() -> broker.handleMessage(subscribeMessage("s2", "/b")));
+		second.start();
+		second.join(200);
+		releaseFirst.countDown();
+		first.join(5000);
+		second.join(5000);
+		broker.stop();
+
+		assertThat(announced).hasSize(3);
+		assertThat(announced.get(0).isEmpty()).isTrue();
+		assertThat(announced.get(2).getTopics()).containsOnly("/a", "/b");
+	}
+
+		@Test
+	public void testInterestTracker() {
+		InterestTracker tracker = new InterestTracker(new AntPathMatcher());
+		assertThat(tracker.subscribe("s1", "/a")).isTrue();
+		assertThat(tracker.subscribe("s1", "/a")).isFalse();
+		assertThat(tracker.subscribe("s2", "/a")).isFalse();
+		assertThat(tracker.subscribe("s2", "/b/*")).isTrue();
+		assertThat(tracker.getSummary().getTopics()).containsOnly("/a");
+		assertThat(tracker.getSummary().getPatterns()).containsOnly("/b/*");
+		assertThat(tracker.getSummary().matches("/b/c", new AntPathMatcher())).isTrue();
+		assertThat(tracker.getSummary().matches("/c", new AntPathMatcher())).isFalse();
+
+		assertThat(tracker.unsubscribe("s1", "/a")).isFalse();
+		assertThat(tracker.unsubscribe("s1", "/a")).isFalse();
+		assertThat(tracker.unregisterSession("s2")).isTrue();
+		assertThat(tracker.getSummary().isEmpty()).isTrue();
+	}
+
+	private static SubscribeMessage subscribeMessage(String sessionId, String topicURI) {
+		SubscribeMessage message = new SubscribeMessage(topicURI);
+		message.setWebSocketSessionId(sessionId);
+		return message;
+	}
+
+	private static UnsubscribeMessage unsubscribeMessage(String sessionId,
+			String topicURI) {
+		UnsubscribeMessage message = new UnsubscribeMessage(topicURI);
+		message.setWebSocketSessionId(sessionId);
+		return message;
+	}
+
+	private static PublishMessage publishMessage(String sessionId, String topicURI,
+			Object payload) {
+		PublishMessage message = new PublishMessage(topicURI, payload);
+		message.setWebSocketSessionId(sessionId);
+		return message;
+	}
+
+	static class Node {
+
+		final MessageChannel clientOutboundChannel = mock(MessageChannel.class);
+
+		final SubscribableChannel brokerChannel = new ExecutorSubscribableChannel();
+
+		final LoopbackBrokerRelay relay;
+
+		final SimpleBrokerMessageHandler broker;
+
+		Node(String nodeId, LoopbackBrokerRelay.Network network) {
+			this(nodeId, network, null);
+		}
+
+		Node(String nodeId, LoopbackBrokerRelay.Network network,
+				InterestTracker interestTracker) {
+			this.relay = new LoopbackBrokerRelay(nodeId, network);
+			this.broker = new SimpleBrokerMessageHandler(
+					mock(SubscribableChannel.class), this.clientOutboundChannel,
+					this.brokerChannel,
+					new DefaultSubscriptionRegistry(new AntPathMatcher()),
+					WampMessageSelectors.ACCEPT_ALL);
+			this.broker.setBrokerRelay(this.relay);
+			this.broker.setInterestTracker(interestTracker);
+			this.broker.start();
+		}
+
+		List<EventMessage> sentEvents() {
+			ArgumentCaptor<EventMessage> captor = ArgumentCaptor
+					.forClass(EventMessage.class);
+			Mockito.verify(this.clientOutboundChannel, Mockito.atLeast(0))
+					.send(captor.capture());
+			return captor.getAllValues();
+		}
+
+	}
+
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright 2014-2017 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.broker;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.util.AntPathMatcher;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ch.rasc.wampspring.message.EventMessage;
+
+public class MappedFileEventJournalTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	private MappedFileEventJournal journal;
+
+	@After
+	public void tearDown() throws IOException {
+		if (this.journal != null) {
+			this.journal.close();
+		}
+	}
+
+	@Test
+	public void testAppendAndRead() throws IOException {
+		this.journal = new MappedFileEventJournal(this.folder.getRoot(),
+				this.objectMapper);
+
+		assertThat(this.journal.append(new EventMessage("/a", "one"))).isEqualTo(1);
+		assertThat(this.journal.append(new EventMessage("/b", 2))).isEqualTo(2);
+		assertThat(this.journal.append(new EventMessage("/a",
+				Collections.singletonMap("three", 3)))).isEqualTo(3);
+
+		List<EventMessage> events = this.journal.read("/a", 0, 100);
+		assertThat(events).hasSize(2);
+		assertThat(events.get(0).getTopicURI()).isEqualTo("/a");
+		assertThat(events.get(0).getEvent()).isEqualTo("one");
+		assertThat(events.get(0).getOffset()).isEqualTo(1L);
+		assertThat(events.get(1).getEvent())
+				.isEqualTo(Collections.singletonMap("three", 3));
+		assertThat(events.get(1).getOffset()).isEqualTo(3L);
+
+		assertThat(offsets(this.journal.read("/a", 1, 100))).containsExactly(3L);
+		assertThat(offsets(this.journal.read("/a", 0, 1))).containsExactly(1L);
+		assertThat(this.journal.read("/a", 3, 100)).isEmpty();
+		assertThat(this.journal.read("/c", 0, 100)).isEmpty();
+	}
+
+	@Test
+	public void testTopicPatterns() throws IOException {
+		this.journal = new MappedFileEventJournal(this.folder.getRoot(),
+				this.objectMapper, 1024, 4, Arrays.asList("/journaled/**"),
+				new AntPathMatcher());
+
+		assertThat(this.journal.append(new EventMessage("/other", 1))).isEqualTo(-1);
+		assertThat(this.journal.append(new EventMessage("/journaled/a", 2)))
+				.isEqualTo(1);
+		assertThat(this.journal.append(new EventMessage("/journaled/b", 3)))
+				.isEqualTo(2);
+
+		assertThat(offsets(this.journal.read("/journaled/*", 0, 100)))
+				.containsExactly(1L, 2L);
+		assertThat(offsets(this.journal.read("/journaled/b", 0, 100)))
+				.containsExactly(2L);
+	}
+
+	@Test
+	public void testSegments() throws IOException {
+		this.journal = new MappedFileEventJournal(this.folder.getRoot(),
+				this.objectMapper, 256, 3, Collections.<String>emptyList(), null);
+
+		for (int i = 1; i <= 50; i++) {
+			assertThat(this.journal.append(new EventMessage("/topic", i))).isEqualTo(i);
+		}
+		assertThat(this.journal.getSegmentCount()).isEqualTo(3);
+		assertThat(this.folder.getRoot().listFiles()).hasSize(3);
+
+		// the oldest events were deleted with their segments
+		List<EventMessage> events = this.journal.read("/topic", 0, 100);
+		assertThat(events).isNotEmpty();
+		assertThat(events.get(0).getOffset()).isGreaterThan(1L);
+		assertThat(events.get(events.size() - 1).getOffset()).isEqualTo(50L);
+		for (int i = 1; i < events.size(); i++) {
+			assertThat(events.get(i).getOffset())
+					.isEqualTo(events.get(i - 1).getOffset() + 1);
+		}
+
+		// events that do not fit into a segment are not journaled
+		char[] large = new char[300];
+		Arrays.fill(large, 'x');
+		assertThat(this.journal.append(new EventMessage("/topic", new String(large))))
+				.isEqualTo(-1);
+	}
+
+	@Test
+	public void testReopen() throws IOException {
+		File directory = this.folder.getRoot();
+		this.journal = new MappedFileEventJournal(directory, this.objectMapper);
+		for (int i = 1; i <= 200; i++) {
+			this.journal.append(new EventMessage(i % 2 == 0 ? "/even" : "/odd", i));
+		}
+		this.journal.close();
+
+		this.journal = new MappedFileEventJournal(directory, this.objectMapper);
+		assertThat(this.journal.getNextOffset()).isEqualTo(201);
+		assertThat(offsets(this.journal.read("/even", 190, 100))).containsExactly(192L,
+				194L, 196L, 198L, 200L);
+		assertThat(this.journal.read("/odd", 0, 1000)).hasSize(100);
+
+		assertThat(this.journal.append(new EventMessage("/odd", 201))).isEqualTo(201);
+		assertThat(offsets(this.journal.read("/odd", 197, 100))).containsExactly(199L,
+				201L);
+	}
+
+	private static Long[] offsets(List<EventMessage> events) {
+		Long[] offsets = new Long[events.size()];
+		for (int i = 0; i < offsets.length; i++) {
+			offsets[i] = events.get(i).getOffset();
+		}
+		return offsets;
+	}
+
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright 2014-2017 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.broker;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.springframework.util.AntPathMatcher;
+
+import ch.rasc.wampspring.message.EventMessage;
+
+public class RetainedEventStoreTest {
+
+	@Test
+	public void testEventsPerTopic() {
+		RetainedEventStore store = new RetainedEventStore(10, 2);
+		store.retain(new EventMessage("/a", 1));
+		store.retain(new EventMessage("/a", 2));
+		store.retain(new EventMessage("/a", 3));
+
+		assertThat(events(store.getRetainedEvents("/a"))).containsExactly(2, 3);
+		assertThat(store.getRetainedEvents("/b")).isEmpty();
+		assertThat(store.getTopicCount()).isEqualTo(1);
+	}
+
+	@Test
+	public void testEvictLeastRecentlyUsedTopic() {
+		RetainedEventStore store = new RetainedEventStore(2, 1);
+		store.retain(new EventMessage("/a", 1));
+		store.retain(new EventMessage("/b", 2));
+		// access /a, so /b is the least recently used topic
+		store.getRetainedEvents("/a");
+		store.retain(new EventMessage("/c", 3));
+
+		assertThat(store.getTopicCount()).isEqualTo(2);
+		assertThat(events(store.getRetainedEvents("/a"))).containsExactly(1);
+		assertThat(store.getRetainedEvents("/b")).isEmpty();
+		assertThat(events(store.getRetainedEvents("/c"))).containsExactly(3);
+
+		store.remove("/a");
+		assertThat(store.getRetainedEvents("/a")).isEmpty();
+	}
+
+	@Test
+	public void testTargetedEventsAreNotRetained() {
+		RetainedEventStore store = new RetainedEventStore(10, 1);
+		EventMessage eligible = new EventMessage("/a", 1);
+		eligible.setEligibleWebSocketSessionIds(Collections.singleton("ws1"));
+		store.retain(eligible);
+		EventMessage exclude = new EventMessage("/a", 2);
+		exclude.setExcludeWebSocketSessionIds(Collections.singleton("ws1"));
+		store.retain(exclude);
+
+		assertThat(store.getRetainedEvents("/a")).isEmpty();
+	}
+
+	@Test
+	public void testPattern() {
+		RetainedEventStore store = new RetainedEventStore(10, 1, new AntPathMatcher());
+		store.retain(new EventMessage("/a/1", 1));
+		store.retain(new EventMessage("/a/2", 2));
+		store.retain(new EventMessage("/b/1", 3));
+
+		assertThat(events(store.getRetainedEvents("/a/*"))).containsOnly(1, 2);
+		assertThat(events(store.getRetainedEvents("/**"))).containsOnly(1, 2, 3);
+
+		RetainedEventStore exactOnly = new RetainedEventStore(10, 1);
+		exactOnly.retain(new EventMessage("/a/1", 1));
+		assertThat(exactOnly.getRetainedEvents("/a/*")).isEmpty();
+	}
+
+	private static Object[] events(List<EventMessage> eventMessages) {
+		Object[] events = new Object[eventMessages.size()];
+		for (int i = 0; i < events.length; i++) {
+			events[i] = eventMessages.get(i).getEvent();
+		}
+		return events;
+	}
+
+}
@@ -21,6 +21,8 @@ import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
+import java.io.IOException;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -40,6 +42,10 @@ import org.springframework.util.AntPathMatcher;
 import org.springframework.util.ObjectUtils;
 import org.springframework.web.socket.adapter.standard.StandardWebSocketSession;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.MappingJsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 import ch.rasc.wampspring.config.WampMessageSelectors;
 import ch.rasc.wampspring.message.EventMessage;
 import ch.rasc.wampspring.message.PublishMessage;
@@ -479,6 +485,135 @@ public class SimpleBrokerMessageHandlerTests {
 				eventMessage("sess2", "/foo/middle/test/1", "message4"));
 	}
 
+	@Test
+	public void testPreEncodedEvents() throws IOException {
+		JsonFactory jsonFactory = new MappingJsonFactory(new ObjectMapper());
+		this.messageHandler.setJsonFactory(jsonFactory);
+
+		this.messageHandler.handleMessage(subscribeMessage("sess1", "/topic"));
+		this.messageHandler.handleMessage(subscribeMessage("sess2", "/topic"));
+
+		this.messageHandler
+				.handleMessage(publishMessage("sess1", "/topic", "publishMessage1"));
+
+		verify(this.clientOutboundChannel, times(2)).send(this.messageCaptor.capture());
+		assertCapturedMessage(eventMessage("sess1", "/topic", "publishMessage1"),
+				eventMessage("sess2", "/topic", "publishMessage1"));
+
+		List<EventMessage> messages = this.messageCaptor.getAllValues();
+		assertThat(messages.get(0).isEncoded()).isTrue();
+		assertThat(messages.get(0)).isNotSameAs(messages.get(1));
+		assertThat(messages.get(0).toJson(jsonFactory))
+				.isSameAs(messages.get(1).toJson(jsonFactory))
+				.isEqualTo("[8,\"/topic\",\"publishMessage1\"]");
+	}
+
+	@Test
+	public void testRetainedEvents() {
+		this.messageHandler.setRetainedEventStore(
+				new RetainedEventStore(10, 2, new AntPathMatcher()));
+
+		this.messageHandler.handleMessage(eventMessage("sess1", "/foo", "message1"));
+		this.messageHandler
+				.handleMessage(publishMessage("sess1", "/foo", "publishMessage2"));
+		this.messageHandler.handleMessage(eventMessage("sess1", "/foo", "message3"));
+		this.messageHandler.handleMessage(eventMessage("sess1", "/bar", "message4"));
+
+		Set<String> eligible = new HashSet<>();
+		eligible.add("sess3");
+		PublishMessage eligibleOnly = new PublishMessage("/bar", "message5", null,
+				eligible);
+		eligibleOnly.setWebSocketSessionId("sess1");
+		this.messageHandler.handleMessage(eligibleOnly);
+
+		PublishMessage excludeMe = new PublishMessage("/foo", "message6", true);
+		excludeMe.setWebSocketSessionId("sess2");
+		this.messageHandler.handleMessage(excludeMe);
+
+		this.messageHandler.handleMessage(subscribeMessage("sess2", "/foo"));
+		this.messageHandler.handleMessage(subscribeMessage("sess3", "/*"));
+		this.messageHandler.handleMessage(subscribeMessage("sess4", "/baz"));
+
+		verify(this.clientOutboundChannel, times(5)).send(this.messageCaptor.capture());
+		assertCapturedMessage(eventMessage("sess2", "/foo", "publishMessage2"),
+				eventMessage("sess2", "/foo", "message3"),
+				eventMessage("sess3", "/foo", "publishMessage2"),
+				eventMessage("sess3", "/foo", "message3"),
+				eventMessage("sess3", "/bar", "message4"));
+		assertThat(this.messageCaptor.getAllValues()).extracting("event")
+				.containsOnly("publishMessage2", "message3", "message4");
+	}
+
+	@Test
+	public void testEventJournalReplay() {
+		EventJournal journal = Mockito.mock(EventJournal.class);
+		Mockito.when(journal.append(Mockito.any(EventMessage.class))).thenReturn(5L);
+		EventMessage journaled = eventMessage(null, "/foo", "message1");
+		journaled.setOffset(5L);
+		Mockito.when(journal.read("/foo", 4L, 10_000))
+				.thenReturn(Collections.singletonList(journaled));
+		this.messageHandler.setEventJournal(journal);
+
+		this.messageHandler.handleMessage(subscribeMessage("sess1", "/foo"));
+		this.messageHandler
+				.handleMessage(publishMessage("sess2", "/foo", "publishMessage1"));
+		verify(this.clientOutboundChannel, times(1)).send(this.messageCaptor.capture());
+		// sess1 did not subscribe with an offset
+		assertThat(this.messageCaptor.getValue().getOffset()).isNull();
+		assertThat(this.messageCaptor.getValue().isConflatable()).isTrue();
+
+		SubscribeMessage replay = new SubscribeMessage("/foo", 4L);
+		replay.setWebSocketSessionId("sess3");
+		this.messageHandler.handleMessage(replay);
+
+		verify(this.clientOutboundChannel, times(2)).send(this.messageCaptor.capture());
+		EventMessage replayed = this.messageCaptor.getValue();
+		assertThat(replayed.getWebSocketSessionId()).isEqualTo("sess3");
+		assertThat(replayed.getEvent()).isEqualTo("message1");
+		assertThat(replayed.getOffset()).isEqualTo(5L);
+		assertThat(replayed.isConflatable()).isFalse();
+
+		this.messageHandler
+				.handleMessage(publishMessage("sess2", "/foo", "publishMessage2"));
+		verify(this.clientOutboundChannel, times(4)).send(this.messageCaptor.capture());
+		for (EventMessage live : this.messageCaptor.getAllValues().subList(
+				this.messageCaptor.getAllValues().size() - 2,
+				this.messageCaptor.getAllValues().size())) {
+			assertThat(live.getOffset()).isEqualTo(
+					"sess3".equals(live.getWebSocketSessionId()) ? Long.valueOf(5L)
+							: null);
+		}
+	}
+
+	@Test
+	public void testPublishDuringReplayIsDeliveredOnce() throws Exception {
+		final Thread[] publisher = new Thread[1];
+		EventJournal journal = Mockito.mock(EventJournal.class);
+		Mockito.when(journal.append(Mockito.any(EventMessage.class))).thenReturn(6L);
+		Mockito.when(journal.read("/foo", 4L, 10_000)).thenAnswer(invocation -> {
+			// the publish has to wait until the subscription is registered and the
+			// missed events are read
+			publisher[0] = new Thread(() -> this.messageHandler
+					.handleMessage(publishMessage("sess2", "/foo", "live")));
+			publisher[0].start();
+			publisher[0].join(200);
+			assertThat(publisher[0].isAlive()).isTrue();
+			EventMessage journaled = eventMessage(null, "/foo", "missed");
+			journaled.setOffset(5L);
+			return Collections.singletonList(journaled);
+		});
+		this.messageHandler.setEventJournal(journal);
+
+		SubscribeMessage replay = new SubscribeMessage("/foo", 4L);
+		replay.setWebSocketSessionId("sess1");
+		this.messageHandler.handleMessage(replay);
+		publisher[0].join(5000);
+
+		verify(this.clientOutboundChannel, times(2)).send(this.messageCaptor.capture());
+		assertThat(this.messageCaptor.getAllValues()).extracting("event")
+				.containsExactly("missed", "live");
+	}
+
 	@SuppressWarnings("resource")
 	@Test
 	public void testCleanupMessage() {
@@ -0,0 +1,129 @@
+/**
+ * Copyright 2014-2017 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.broker;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+import org.springframework.util.AntPathMatcher;
+
+/**
+ * Runs the {@link DefaultSubscriptionRegistryTests} against the
+ * {@link TrieSubscriptionRegistry} and adds tests for the different wildcard types.
+ */
+public class TrieSubscriptionRegistryTests extends DefaultSubscriptionRegistryTests {
+
+	@Override
+	protected SubscriptionRegistry createRegistry() {
+		return new TrieSubscriptionRegistry(new AntPathMatcher());
+	}
+
+	/**
+	 * The trie registry has no destination cache, a pattern subscription has to match
+	 * any number of destinations and must not leave anything behind when the session is
+	 * removed.
+	 */
+	@Override
+	@Test
+	public void cacheLimitEvictsDestinations() {
+		this.registry.registerSubscription(subscribeMessage("sess1", "/topic/**"));
+		for (int i = 0; i < 10; i++) {
+			assertThat(this.registry.findSubscriptions(message("/topic/" + i)))
+					.containsOnly("sess1");
+		}
+
+		this.registry.unregisterSession("sess1");
+		for (int i = 0; i < 10; i++) {
+			assertThat(this.registry.findSubscriptions(message("/topic/" + i)))
+					.isEmpty();
+		}
+		assertThat(this.registry.hasSubscriptions()).isFalse();
+	}
+
+	@Test
+	public void singleSegmentWildcards() {
+		this.registry.registerSubscription(subscribeMessage("sess1", "/fo?"));
+		this.registry.registerSubscription(subscribeMessage("sess2", "/*"));
+		this.registry.registerSubscription(subscribeMessage("sess3", "/foo/{id}"));
+
+		assertThat(this.registry.findSubscriptions(message("/foo"))).hasSize(2)
+				.contains("sess1", "sess2");
+		assertThat(this.registry.findSubscriptions(message("/boo"))).hasSize(1)
+				.contains("sess2");
+		assertThat(this.registry.findSubscriptions(message("/foo/1"))).hasSize(1)
+				.contains("sess3");
+		assertThat(this.registry.findSubscriptions(message("foo"))).isEmpty();
+		assertThat(this.registry.findSubscriptions(message("/foo/1/2"))).isEmpty();
+	}
+
+	@Test
+	public void multiSegmentWildcards() {
+		this.registry.registerSubscription(subscribeMessage("sess1", "/foo/**/1"));
+		this.registry.registerSubscription(subscribeMessage("sess2", "/foo/**"));
+		this.registry.registerSubscription(subscribeMessage("sess3", "/**"));
+
+		assertThat(this.registry.findSubscriptions(message("/foo"))).hasSize(2)
+				.contains("sess2", "sess3");
+		assertThat(this.registry.findSubscriptions(message("/foo/1"))).hasSize(3)
+				.contains("sess1", "sess2", "sess3");
+		assertThat(this.registry.findSubscriptions(message("/foo/a/b/1"))).hasSize(3)
+				.contains("sess1", "sess2", "sess3");
+		assertThat(this.registry.findSubscriptions(message("/bar/1"))).hasSize(1)
+				.contains("sess3");
+
+		this.registry.unregisterSubscription(unsubscribeMessage("sess3", "/**"));
+		assertThat(this.registry.findSubscriptions(message("/bar/1"))).isEmpty();
+		assertThat(this.registry.findSubscriptions(message("/foo/a/b/1"))).hasSize(2)
+				.contains("sess1", "sess2");
+	}
+
+	@Test
+	public void wampTopicURIs() {
+		this.registry.registerSubscription(
+				subscribeMessage("sess1", "http://example.com/event#myevent"));
+		this.registry.registerSubscription(
+				subscribeMessage("sess2", "http://example.com/event#*"));
+		this.registry.registerSubscription(subscribeMessage("sess3", "pubSubService.*"));
+
+		assertThat(this.registry
+				.findSubscriptions(message("http://example.com/event#myevent")))
+						.hasSize(2).contains("sess1", "sess2");
+		assertThat(this.registry
+				.findSubscriptions(message("http://example.com/event#other")))
+						.hasSize(1).contains("sess2");
+		assertThat(this.registry.findSubscriptions(message("pubSubService.dto")))
+				.hasSize(1).contains("sess3");
+	}
+
+	@Test
+	public void unregisterSessionRemovesPatterns() {
+		this.registry.registerSubscription(subscribeMessage("sess1", "/topic/*/a"));
+		this.registry.registerSubscription(subscribeMessage("sess1", "/topic/**"));
+		this.registry.registerSubscription(subscribeMessage("sess1", "/topic/x/a"));
+		this.registry.registerSubscription(subscribeMessage("sess2", "/topic/x/a"));
+		assertThat(this.registry.hasSubscriptions()).isTrue();
+
+		this.registry.unregisterSession("sess1");
+		assertThat(this.registry.findSubscriptions(message("/topic/x/a"))).hasSize(1)
+				.contains("sess2");
+		assertThat(this.registry.findSubscriptions(message("/topic/y/a"))).isEmpty();
+
+		this.registry.unregisterSession("sess2");
+		assertThat(this.registry.hasSubscriptions()).isFalse();
+		assertThat(this.registry.findSubscriptions(message("/topic/x/a"))).isEmpty();
+	}
+
+}
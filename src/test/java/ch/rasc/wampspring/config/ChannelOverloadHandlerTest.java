@@ -0,0 +1,256 @@
+/**
+ * Copyright 2014-2017 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.web.socket.WebSocketSession;
+
+import ch.rasc.wampspring.message.CallErrorMessage;
+import ch.rasc.wampspring.message.CallMessage;
+import ch.rasc.wampspring.message.CallResultMessage;
+import ch.rasc.wampspring.message.EventMessage;
+import ch.rasc.wampspring.message.PublishMessage;
+import ch.rasc.wampspring.message.UnsubscribeMessage;
+import ch.rasc.wampspring.message.WampMessage;
+
+public class ChannelOverloadHandlerTest {
+
+	private final CountDownLatch blockLatch = new CountDownLatch(1);
+
+	private final CountDownLatch blockedLatch = new CountDownLatch(1);
+
+	private final List<WampMessage> handled = new CopyOnWriteArrayList<>();
+
+	private ThreadPoolExecutor executor;
+
+	@After
+	public void tearDown() {
+		this.blockLatch.countDown();
+		if (this.executor != null) {
+			this.executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testAbort() {
+		createBlockedExecutor(OverloadPolicy.ABORT);
+		execute(event("1"));
+		execute(event("2"));
+		try {
+			execute(event("3"));
+			fail("RejectedExecutionException expected");
+		}
+		catch (RejectedExecutionException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testCallerRuns() {
+		createBlockedExecutor(OverloadPolicy.CALLER_RUNS);
+		execute(event("1"));
+		execute(event("2"));
+		EventMessage third = event("3");
+		execute(third);
+		assertThat(this.handled).containsExactly(third);
+	}
+
+	@Test
+	public void testDiscard() {
+		createBlockedExecutor(OverloadPolicy.DISCARD);
+		execute(event("1"));
+		execute(event("2"));
+		execute(event("3"));
+		assertThat(this.executor.getQueue()).hasSize(2);
+		try {
+			execute(new CallMessage("1", "call"));
+			fail("RejectedExecutionException expected");
+		}
+		catch (RejectedExecutionException e) {
+			// calls are never dropped
+		}
+	}
+
+	@Test
+	public void testDiscardOnlyPublishAndBroadcastEvents() {
+		createBlockedExecutor(OverloadPolicy.DISCARD);
+		execute(event("1"));
+		execute(event("2"));
+
+		execute(new PublishMessage("topic", "3"));
+		execute(event("4"));
+		assertThat(this.executor.getQueue()).hasSize(2);
+
+		WebSocketSession session = Mockito.mock(WebSocketSession.class);
+		Mockito.when(session.getId()).thenReturn("ws1");
+		CallMessage call = new CallMessage("1", "call");
+		WampMessage[] undroppable = { new CallResultMessage(call, "result"),
+				new CallErrorMessage(call, "error", "desc"),
+				UnsubscribeMessage.createCleanupMessage(session),
+				new EventMessage("topic", "chunk") };
+		for (WampMessage message : undroppable) {
+			try {
+				execute(message);
+				fail("RejectedExecutionException expected for " + message);
+			}
+			catch (RejectedExecutionException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testDiscardOldestEvent() throws InterruptedException {
+		createBlockedExecutor(OverloadPolicy.DISCARD_OLDEST_EVENT);
+		CallMessage call = new CallMessage("1", "call");
+		EventMessage event1 = event("1");
+		EventMessage event2 = event("2");
+		execute(call);
+		execute(event1);
+		execute(event2);
+
+		this.blockLatch.countDown();
+		this.executor.shutdown();
+		assertThat(this.executor.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+		assertThat(this.handled).containsExactly(call, event2);
+	}
+
+	@Test
+	public void testDiscardOldestEventKeepsNonConflatableEvents()
+			throws InterruptedException {
+		createBlockedExecutor(OverloadPolicy.DISCARD_OLDEST_EVENT);
+		EventMessage chunk = new EventMessage("topic", "chunk");
+		EventMessage event1 = event("1");
+		EventMessage event2 = event("2");
+		execute(chunk);
+		execute(event1);
+		execute(event2);
+
+		this.blockLatch.countDown();
+		this.executor.shutdown();
+		assertThat(this.executor.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+		assertThat(this.handled).containsExactly(chunk, event2);
+	}
+
+	@Test
+	public void testDiscardOldestEventWithoutConflatableEvent() {
+		createBlockedExecutor(OverloadPolicy.DISCARD_OLDEST_EVENT);
+		execute(new EventMessage("topic", "chunk1"));
+		execute(new EventMessage("topic", "chunk2"));
+		try {
+			execute(event("1"));
+			fail("RejectedExecutionException expected");
+		}
+		catch (RejectedExecutionException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testDiscardOldestEventWithoutQueuedEvent() {
+		createBlockedExecutor(OverloadPolicy.DISCARD_OLDEST_EVENT);
+		execute(new CallMessage("1", "call"));
+		execute(new CallMessage("2", "call"));
+		try {
+			execute(event("1"));
+			fail("RejectedExecutionException expected");
+		}
+		catch (RejectedExecutionException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testSessionOrderedExecutor() throws InterruptedException {
+		this.executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(10));
+		SessionOrderedExecutor sessionOrderedExecutor = new SessionOrderedExecutor(
+				this.executor, 1, 2,
+				new ChannelOverloadHandler(OverloadPolicy.DISCARD_OLDEST_EVENT));
+
+		sessionOrderedExecutor.execute(blockingTask());
+		assertThat(this.blockedLatch.await(5, TimeUnit.SECONDS)).isTrue();
+		EventMessage event1 = event("1");
+		EventMessage event2 = event("2");
+		EventMessage event3 = event("3");
+		sessionOrderedExecutor.execute(task(event1));
+		sessionOrderedExecutor.execute(task(event2));
+		sessionOrderedExecutor.execute(task(event3));
+
+		this.blockLatch.countDown();
+		this.executor.shutdown();
+		assertThat(this.executor.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+		assertThat(this.handled).containsExactly(event2, event3);
+	}
+
+	private void createBlockedExecutor(OverloadPolicy overloadPolicy) {
+		this.executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(2),
+				new ChannelOverloadHandler(overloadPolicy));
+		this.executor.execute(blockingTask());
+	}
+
+	private Runnable blockingTask() {
+		return new TestMessageTask(new CallMessage("0", "block"), "ws1", new Runnable() {
+			@Override
+			public void run() {
+				try {
+					ChannelOverloadHandlerTest.this.blockedLatch.countDown();
+					ChannelOverloadHandlerTest.this.blockLatch.await();
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+	}
+
+	private void execute(WampMessage message) {
+		this.executor.execute(task(message));
+	}
+
+	private TestMessageTask task(final WampMessage message) {
+		return new TestMessageTask(message, "ws1", new Runnable() {
+			@Override
+			public void run() {
+				ChannelOverloadHandlerTest.this.handled.add(message);
+			}
+		});
+	}
+
+	/**
+	 * Creates an EVENT message like the broker sends to the subscribers of a topic.
+	 */
+	private static EventMessage event(String no) {
+		EventMessage event = new EventMessage("topic", no);
+		event.setConflatable(true);
+		return event;
+	}
+
+}
@@ -22,11 +22,14 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeoutException;
 
 import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.SubscribableChannel;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
 
 import ch.rasc.wampspring.annotation.WampCallListener;
 import ch.rasc.wampspring.message.CallMessage;
@@ -38,6 +41,19 @@ import ch.rasc.wampspring.testsupport.BaseWampTest;
 		classes = EnableWampWithDefaultConfigurerTest.Config.class)
 public class EnableWampWithDefaultConfigurerTest extends BaseWampTest {
 
+	@Autowired
+	private SubscribableChannel clientInboundChannel;
+
+	@Test
+	public void testSessionOrderedInboundChannel() {
+		assertThat(this.clientInboundChannel)
+				.isInstanceOf(ExecutorSubscribableChannel.class);
+		assertThat(((ExecutorSubscribableChannel) this.clientInboundChannel).getExecutor())
+				.isInstanceOf(SessionOrderedExecutor.class);
+		assertThat(((SessionOrderedExecutor) ((ExecutorSubscribableChannel) this.clientInboundChannel)
+				.getExecutor()).getLanes()).isEqualTo(4);
+	}
+
 	@Test
 	public void testCall() throws InterruptedException, ExecutionException,
 			TimeoutException, IOException {
@@ -63,6 +79,12 @@ public class EnableWampWithDefaultConfigurerTest extends BaseWampTest {
 			registry.addEndpoint("/ws");
 		}
 
+		@Override
+		public void configureClientInboundChannelExecutor(
+				ChannelExecutorRegistration registration) {
+			registration.setSessionOrdered(true).setSessionLanes(4);
+		}
+
 		@Bean
 		TestService testService() {
 			return new TestService();
@@ -22,9 +22,11 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeoutException;
 
 import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -37,6 +39,9 @@ import ch.rasc.wampspring.testsupport.BaseWampTest;
 @SpringBootTest(webEnvironment=WebEnvironment.RANDOM_PORT, classes = EnableWampWithoutConfigurerTest.Config.class)
 public class EnableWampWithoutConfigurerTest extends BaseWampTest {
 
+	@Autowired
+	private ApplicationContext applicationContext;
+
 	@Test
 	public void testCall() throws InterruptedException, ExecutionException,
 			TimeoutException, IOException {
@@ -47,6 +52,12 @@ public class EnableWampWithoutConfigurerTest extends BaseWampTest {
 		assertThat(result.getResult()).isEqualTo(6);
 	}
 
+	@Test
+	public void testStatsDisabled() {
+		assertThat(this.applicationContext.getBeansOfType(WampMessageBrokerStats.class))
+				.isEmpty();
+	}
+
 	@Configuration
 	@EnableAutoConfiguration
 	@EnableWamp
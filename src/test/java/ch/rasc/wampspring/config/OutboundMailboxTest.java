@@ -0,0 +1,354 @@
+/**
+ * Copyright 2014-2017 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.SessionLimitExceededException;
+
+import com.fasterxml.jackson.databind.MappingJsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ch.rasc.wampspring.message.CallMessage;
+import ch.rasc.wampspring.message.CallResultMessage;
+import ch.rasc.wampspring.message.EventMessage;
+import ch.rasc.wampspring.message.JsonWampMessageCodec;
+import ch.rasc.wampspring.message.WampMessage;
+import ch.rasc.wampspring.message.WampMessageHeader;
+import ch.rasc.wampspring.method.CallResultChunk;
+
+public class OutboundMailboxTest {
+
+	private final List<String> sent = new CopyOnWriteArrayList<>();
+
+	private final CountDownLatch sendStarted = new CountDownLatch(1);
+
+	private final CountDownLatch releaseSend = new CountDownLatch(1);
+
+	private final JsonWampMessageCodec codec = new JsonWampMessageCodec(
+			new MappingJsonFactory(new ObjectMapper()));
+
+	private WebSocketSession session;
+
+	private Thread blockedSender;
+
+	@Before
+	public void setup() throws IOException {
+		this.session = Mockito.mock(WebSocketSession.class);
+		Mockito.when(this.session.getId()).thenReturn("ws1");
+		Mockito.doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				WebSocketMessage<?> frame = (WebSocketMessage<?>) invocation
+						.getArguments()[0];
+				if (OutboundMailboxTest.this.sent.isEmpty()) {
+					OutboundMailboxTest.this.sendStarted.countDown();
+					OutboundMailboxTest.this.releaseSend.await();
+				}
+				OutboundMailboxTest.this.sent.add(((TextMessage) frame).getPayload());
+				return null;
+			}
+		}).when(this.session).sendMessage(Mockito.any(WebSocketMessage.class));
+	}
+
+	@After
+	public void tearDown() throws InterruptedException {
+		this.releaseSend.countDown();
+		if (this.blockedSender != null) {
+			this.blockedSender.join(5000);
+		}
+	}
+
+	@Test
+	public void testConflation() throws Exception {
+		OutboundMailbox mailbox = new OutboundMailbox(this.session, this.codec, 10,
+				64 * 1024, true);
+		blockSession(mailbox);
+
+		mailbox.send(broadcast("a", 1));
+		mailbox.send(broadcast("b", 1));
+		mailbox.send(broadcast("a", 2));
+		mailbox.send(new CallResultMessage(new CallMessage("c1", "call"), "r"));
+		mailbox.send(broadcast("a", 3));
+
+		assertThat(mailbox.getQueuedMessages()).isEqualTo(3);
+		assertThat(mailbox.getMaxQueuedMessages()).isEqualTo(3);
+		assertThat(mailbox.getConflatedMessages()).isEqualTo(2);
+		assertThat(mailbox.getQueuedBytes())
+				.isEqualTo(length(new EventMessage("a", 3))
+						+ length(new EventMessage("b", 1))
+						+ length(new CallResultMessage(new CallMessage("c1", "call"), "r")));
+
+		releaseSession();
+		assertThat(this.sent).containsExactly(json(new EventMessage("first", 0)),
+				json(new EventMessage("a", 3)), json(new EventMessage("b", 1)),
+				json(new CallResultMessage(new CallMessage("c1", "call"), "r")));
+		assertThat(mailbox.getSentMessages()).isEqualTo(4);
+		assertThat(mailbox.getQueuedMessages()).isEqualTo(0);
+		assertThat(mailbox.getQueuedBytes()).isEqualTo(0);
+	}
+
+	@Test
+	public void testWithoutConflation() throws Exception {
+		OutboundMailbox mailbox = new OutboundMailbox(this.session, this.codec, 10,
+				64 * 1024, false);
+		blockSession(mailbox);
+
+		mailbox.send(new EventMessage("a", 1));
+		mailbox.send(new EventMessage("a", 2));
+		assertThat(mailbox.getQueuedMessages()).isEqualTo(2);
+		assertThat(mailbox.getConflatedMessages()).isEqualTo(0);
+
+		releaseSession();
+		assertThat(this.sent).containsExactly(json(new EventMessage("first", 0)),
+				json(new EventMessage("a", 1)), json(new EventMessage("a", 2)));
+	}
+
+	@Test
+	public void testMessageLimit() throws Exception {
+		OutboundMailbox mailbox = new OutboundMailbox(this.session, this.codec, 2,
+				64 * 1024, true);
+		blockSession(mailbox);
+
+		mailbox.send(broadcast("a", 1));
+		mailbox.send(broadcast("b", 1));
+		// conflated events do not count against the limit
+		mailbox.send(broadcast("a", 2));
+		try {
+			mailbox.send(broadcast("c", 1));
+			fail("SessionLimitExceededException expected");
+		}
+		catch (SessionLimitExceededException e) {
+			assertThat(e.getStatus()).isEqualTo(CloseStatus.SESSION_NOT_RELIABLE);
+		}
+	}
+
+	@Test
+	public void testBufferSizeLimit() throws Exception {
+		EventMessage event = new EventMessage("a", 1);
+		OutboundMailbox mailbox = new OutboundMailbox(this.session, this.codec, 10,
+				length(event) + 1, false);
+		blockSession(mailbox);
+
+		mailbox.send(event);
+		try {
+			mailbox.send(new EventMessage("a", 2));
+			fail("SessionLimitExceededException expected");
+		}
+		catch (SessionLimitExceededException e) {
+			assertThat(e.getStatus()).isEqualTo(CloseStatus.SESSION_NOT_RELIABLE);
+		}
+	}
+
+	@Test
+	public void testConflationBufferSizeLimit() throws Exception {
+		OutboundMailbox mailbox = new OutboundMailbox(this.session, this.codec, 10,
+				length(new EventMessage("a", 1)) + 1, true);
+		blockSession(mailbox);
+
+		mailbox.send(broadcast("a", 1));
+		try {
+			mailbox.send(broadcast("a", "a larger event"));
+			fail("SessionLimitExceededException expected");
+		}
+		catch (SessionLimitExceededException e) {
+			assertThat(e.getStatus()).isEqualTo(CloseStatus.SESSION_NOT_RELIABLE);
+		}
+		assertThat(mailbox.getConflatedMessages()).isEqualTo(0);
+		assertThat(mailbox.getQueuedBytes())
+				.isEqualTo(length(new EventMessage("a", 1)));
+	}
+
+	@Test
+	public void testStreamOverConflatingMailbox() throws Exception {
+		OutboundMailbox mailbox = new OutboundMailbox(this.session, this.codec, 10,
+				64 * 1024, true);
+		blockSession(mailbox);
+
+		final AtomicInteger received = new AtomicInteger();
+		Runnable sentCallback = new Runnable() {
+			@Override
+			public void run() {
+				received.incrementAndGet();
+			}
+		};
+
+		List<String> expected = new ArrayList<>();
+		expected.add(json(new EventMessage("first", 0)));
+		for (int seq = 0; seq < 3; seq++) {
+			EventMessage chunk = new EventMessage("proc#c1", new CallResultChunk(seq,
+					Collections.<Object>singletonList(seq), seq == 2, null));
+			chunk.setHeader(WampMessageHeader.SENT_CALLBACK, sentCallback);
+			mailbox.send(chunk);
+			expected.add(json(chunk));
+		}
+
+		// replayed events are not conflatable either
+		mailbox.send(new EventMessage("a", 1));
+		mailbox.send(new EventMessage("a", 2));
+		expected.add(json(new EventMessage("a", 1)));
+		expected.add(json(new EventMessage("a", 2)));
+
+		assertThat(mailbox.getQueuedMessages()).isEqualTo(5);
+		assertThat(mailbox.getConflatedMessages()).isEqualTo(0);
+		assertThat(received.get()).isEqualTo(0);
+
+		releaseSession();
+		assertThat(this.sent).containsExactlyElementsOf(expected);
+		assertThat(received.get()).isEqualTo(3);
+	}
+
+	@Test
+	public void testClearRunsSentCallbacks() throws Exception {
+		OutboundMailbox mailbox = new OutboundMailbox(this.session, this.codec, 10,
+				64 * 1024, false);
+		blockSession(mailbox);
+
+		final AtomicInteger released = new AtomicInteger();
+		Runnable sentCallback = new Runnable() {
+			@Override
+			public void run() {
+				released.incrementAndGet();
+			}
+		};
+		for (int seq = 0; seq < 2; seq++) {
+			EventMessage chunk = new EventMessage("proc#c1", new CallResultChunk(seq,
+					Collections.<Object>singletonList(seq), false, null));
+			chunk.setHeader(WampMessageHeader.SENT_CALLBACK, sentCallback);
+			mailbox.send(chunk);
+		}
+
+		mailbox.clear();
+		assertThat(mailbox.getQueuedMessages()).isEqualTo(0);
+		assertThat(mailbox.getQueuedBytes()).isEqualTo(0);
+		assertThat(released.get()).isEqualTo(2);
+		releaseSession();
+	}
+
+	@Test
+	public void testBatchSize() throws Exception {
+		OutboundMailbox mailbox = new OutboundMailbox(this.session, this.codec, 10,
+				64 * 1024, false, 2, 0, null);
+		blockSession(mailbox);
+
+		mailbox.send(new EventMessage("a", 1));
+		mailbox.send(new EventMessage("a", 2));
+		mailbox.send(new EventMessage("a", 3));
+		assertThat(mailbox.getQueuedMessages()).isEqualTo(3);
+
+		releaseSession();
+		assertThat(this.sent).containsExactly(json(new EventMessage("first", 0)),
+				json(new EventMessage("a", 1)), json(new EventMessage("a", 2)),
+				json(new EventMessage("a", 3)));
+		assertThat(mailbox.getSentMessages()).isEqualTo(4);
+		// without a delay the queued messages are written at once
+		assertThat(mailbox.getSentBatches()).isEqualTo(2);
+	}
+
+	@Test
+	public void testBatchDelay() throws Exception {
+		this.releaseSend.countDown();
+		ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+		scheduler.afterPropertiesSet();
+		try {
+			OutboundMailbox mailbox = new OutboundMailbox(this.session, this.codec, 10,
+					64 * 1024, false, 3, 10_000, scheduler);
+
+			mailbox.send(new EventMessage("a", 1));
+			mailbox.send(new EventMessage("a", 2));
+			assertThat(this.sent).isEmpty();
+			assertThat(mailbox.getQueuedMessages()).isEqualTo(2);
+
+			// the third message fills the batch
+			mailbox.send(new EventMessage("a", 3));
+			assertThat(this.sent).containsExactly(json(new EventMessage("a", 1)),
+					json(new EventMessage("a", 2)), json(new EventMessage("a", 3)));
+			assertThat(mailbox.getSentBatches()).isEqualTo(1);
+
+			mailbox = new OutboundMailbox(this.session, this.codec, 10, 64 * 1024,
+					false, 3, 50, scheduler);
+			mailbox.send(new EventMessage("b", 1));
+			assertThat(this.sent).hasSize(3);
+			long end = System.currentTimeMillis() + 5000;
+			while (mailbox.getSentBatches() == 0 && System.currentTimeMillis() < end) {
+				Thread.sleep(10);
+			}
+			assertThat(mailbox.getSentBatches()).isEqualTo(1);
+			assertThat(this.sent).hasSize(4).endsWith(json(new EventMessage("b", 1)));
+		}
+		finally {
+			scheduler.shutdown();
+		}
+	}
+
+	private static EventMessage broadcast(String topicURI, Object event) {
+		EventMessage eventMessage = new EventMessage(topicURI, event);
+		eventMessage.setConflatable(true);
+		return eventMessage;
+	}
+
+	private void blockSession(final OutboundMailbox mailbox)
+			throws InterruptedException {
+		this.blockedSender = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					mailbox.send(new EventMessage("first", 0));
+				}
+				catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		});
+		this.blockedSender.start();
+		assertThat(this.sendStarted.await(5, TimeUnit.SECONDS)).isTrue();
+	}
+
+	private void releaseSession() throws InterruptedException {
+		this.releaseSend.countDown();
+		this.blockedSender.join(5000);
+	}
+
+	private String json(WampMessage message) throws IOException {
+		return ((TextMessage) this.codec.encode(message)).getPayload();
+	}
+
+	private int length(WampMessage message) throws IOException {
+		return this.codec.encode(message).getPayloadLength();
+	}
+
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright 2014-2017 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.rasc.wampspring.message.CallMessage;
+
+public class SessionOrderedExecutorTest {
+
+	private ExecutorService executorService;
+
+	@Before
+	public void setup() {
+		this.executorService = Executors.newFixedThreadPool(4);
+	}
+
+	@After
+	public void tearDown() {
+		this.executorService.shutdownNow();
+	}
+
+	@Test
+	public void testOrderPerSession() throws InterruptedException {
+		SessionOrderedExecutor executor = new SessionOrderedExecutor(
+				this.executorService, 3);
+
+		int sessions = 8;
+		int messagesPerSession = 500;
+		final Map<String, List<Integer>> received = new ConcurrentHashMap<>();
+		final AtomicInteger concurrentPerSession = new AtomicInteger();
+		final CountDownLatch latch = new CountDownLatch(sessions * messagesPerSession);
+
+		for (int s = 0; s < sessions; s++) {
+			received.put("ws" + s,
+					Collections.synchronizedList(new ArrayList<Integer>()));
+		}
+
+		for (int i = 0; i < messagesPerSession; i++) {
+			for (int s = 0; s < sessions; s++) {
+				final String sessionId = "ws" + s;
+				final int no = i;
+				executor.execute(task(sessionId, new Runnable() {
+					@Override
+					public void run() {
+						List<Integer> list = received.get(sessionId);
+						synchronized (list) {
+							if (!list.isEmpty() && list.get(list.size() - 1) != no - 1) {
+								concurrentPerSession.incrementAndGet();
+							}
+							list.add(no);
+						}
+						latch.countDown();
+					}
+				}));
+			}
+		}
+
+		assertThat(latch.await(10, TimeUnit.SECONDS)).isTrue();
+		assertThat(concurrentPerSession.get()).isEqualTo(0);
+		for (List<Integer> list : received.values()) {
+			assertThat(list).hasSize(messagesPerSession);
+			for (int i = 0; i < messagesPerSession; i++) {
+				assertThat(list.get(i)).isEqualTo(i);
+			}
+		}
+	}
+
+	@Test
+	public void testFailingTaskDoesNotBlockLane() throws InterruptedException {
+		SessionOrderedExecutor executor = new SessionOrderedExecutor(
+				this.executorService, 1);
+		final CountDownLatch latch = new CountDownLatch(1);
+
+		executor.execute(task("ws1", new Runnable() {
+			@Override
+			public void run() {
+				throw new IllegalStateException("failed");
+			}
+		}));
+		executor.execute(task("ws1", new Runnable() {
+			@Override
+			public void run() {
+				latch.countDown();
+			}
+		}));
+
+		assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+	}
+
+	@Test
+	public void testTaskWithoutSession() throws InterruptedException {
+		SessionOrderedExecutor executor = new SessionOrderedExecutor(
+				this.executorService, 1);
+		final CountDownLatch latch = new CountDownLatch(2);
+		Runnable countDown = new Runnable() {
+			@Override
+			public void run() {
+				latch.countDown();
+			}
+		};
+		executor.execute(countDown);
+		executor.execute(task(null, countDown));
+		assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+	}
+
+	private static TestMessageTask task(String sessionId, Runnable runnable) {
+		return new TestMessageTask(new CallMessage("1", "call"), sessionId, runnable);
+	}
+
+}
@@ -23,6 +23,7 @@ import java.util.concurrent.Executor;
 import java.util.concurrent.TimeoutException;
 
 import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
@@ -34,12 +35,16 @@ import ch.rasc.wampspring.annotation.WampCallListener;
 import ch.rasc.wampspring.message.CallMessage;
 import ch.rasc.wampspring.message.CallResultMessage;
 import ch.rasc.wampspring.message.WampMessage;
+import ch.rasc.wampspring.message.WampMessageType;
 import ch.rasc.wampspring.testsupport.BaseWampTest;
 
 @SpringBootTest(webEnvironment=WebEnvironment.RANDOM_PORT, 
 		classes = SubclassDefaultWampConfigurationTest.Config.class)
 public class SubclassDefaultWampConfigurationTest extends BaseWampTest {
 
+	@Autowired
+	private WampMessageBrokerStats stats;
+
 	@Test
 	public void testCall() throws InterruptedException, ExecutionException,
 			TimeoutException, IOException {
@@ -48,6 +53,7 @@ public class SubclassDefaultWampConfigurationTest extends BaseWampTest {
 		CallResultMessage result = (CallResultMessage) response;
 		assertThat(result.getCallID()).isEqualTo("1");
 		assertThat(result.getResult()).isEqualTo(6);
+		assertThat(this.stats.getReceivedMessages(WampMessageType.CALL)).isEqualTo(1);
 	}
 
 	@Override
@@ -64,6 +70,14 @@ public class SubclassDefaultWampConfigurationTest extends BaseWampTest {
 			registry.addEndpoint("/w");
 		}
 
+		@Override
+		@Bean
+		public WampMessageBrokerStats wampMessageBrokerStats() {
+			WampMessageBrokerStats stats = new WampMessageBrokerStats();
+			stats.setSubscriptionRegistry(subscriptionRegistry());
+			return stats;
+		}
+
 		@Override
 		@Bean
 		public Executor clientInboundChannelExecutor() {
@@ -0,0 +1,61 @@
+/**
+ * Copyright 2014-2017 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.config;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.support.MessageHandlingRunnable;
+
+import ch.rasc.wampspring.message.WampMessage;
+import ch.rasc.wampspring.message.WampMessageHeader;
+
+/**
+ * {@link MessageHandlingRunnable} like the tasks an
+ * {@link org.springframework.messaging.support.ExecutorSubscribableChannel} passes to its
+ * executor.
+ */
+class TestMessageTask implements MessageHandlingRunnable {
+
+	private final WampMessage message;
+
+	private final Runnable runnable;
+
+	TestMessageTask(WampMessage message, String sessionId, Runnable runnable) {
+		this.message = message;
+		this.runnable = runnable;
+		if (sessionId != null) {
+			message.setHeader(WampMessageHeader.WEBSOCKET_SESSION_ID, sessionId);
+		}
+	}
+
+	@Override
+	public void run() {
+		if (this.runnable != null) {
+			this.runnable.run();
+		}
+	}
+
+	@Override
+	public Message<?> getMessage() {
+		return this.message;
+	}
+
+	@Override
+	public MessageHandler getMessageHandler() {
+		return null;
+	}
+
+}
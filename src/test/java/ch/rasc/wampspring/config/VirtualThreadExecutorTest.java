@@ -0,0 +1,108 @@
+/**
+ * Copyright 2014-2017 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class VirtualThreadExecutorTest {
+
+	private VirtualThreadExecutor executor;
+
+	@After
+	public void tearDown() {
+		if (this.executor != null) {
+			this.executor.destroy();
+		}
+	}
+
+	@Test
+	public void testExecute() throws InterruptedException {
+		this.executor = new VirtualThreadExecutor("test-", 10);
+		assertThat(this.executor.isVirtual())
+				.isEqualTo(VirtualThreadExecutor.isVirtualThreadsSupported());
+
+		final CountDownLatch latch = new CountDownLatch(1);
+		this.executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				latch.countDown();
+			}
+		});
+		assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+	}
+
+	@Test
+	public void testMaxConcurrency() throws InterruptedException {
+		this.executor = new VirtualThreadExecutor("test-", 2);
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(20);
+
+		for (int i = 0; i < 20; i++) {
+			this.executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					int current = running.incrementAndGet();
+					synchronized (maxRunning) {
+						maxRunning.set(Math.max(maxRunning.get(), current));
+					}
+					try {
+						Thread.sleep(5);
+					}
+					catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					running.decrementAndGet();
+					done.countDown();
+				}
+			});
+		}
+
+		assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+		assertThat(maxRunning.get()).isLessThanOrEqualTo(2);
+		assertThat(this.executor.getMaxConcurrency()).isEqualTo(2);
+	}
+
+	@Test
+	public void testPermitReleasedOnException() throws InterruptedException {
+		this.executor = new VirtualThreadExecutor("test-", 1);
+		for (int i = 0; i < 3; i++) {
+			this.executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					throw new IllegalStateException("failed");
+				}
+			});
+		}
+
+		final CountDownLatch latch = new CountDownLatch(1);
+		this.executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				latch.countDown();
+			}
+		});
+		assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+	}
+
+}
@@ -0,0 +1,258 @@
+/**
+ * Copyright 2014-2017 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.Map;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.SubscribableChannel;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.util.AntPathMatcher;
+
+import ch.rasc.wampspring.broker.DefaultSubscriptionRegistry;
+import ch.rasc.wampspring.broker.SimpleBrokerMessageHandler;
+import ch.rasc.wampspring.broker.TrieSubscriptionRegistry;
+import ch.rasc.wampspring.message.CallMessage;
+import ch.rasc.wampspring.message.CallTrace;
+import ch.rasc.wampspring.message.CallTrace.Stage;
+import ch.rasc.wampspring.message.EventMessage;
+import ch.rasc.wampspring.message.PublishMessage;
+import ch.rasc.wampspring.message.SubscribeMessage;
+import ch.rasc.wampspring.message.WampMessageType;
+
+public class WampMessageBrokerStatsTest {
+
+	@Test
+	public void testHistogram() {
+		LongHistogram histogram = new LongHistogram();
+		assertThat(histogram.getValueAtPercentile(99)).isEqualTo(0);
+
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i * 1000L);
+		}
+		assertThat(histogram.getCount()).isEqualTo(1000);
+		assertThat(histogram.getMax()).isEqualTo(1_000_000);
+		assertThat(histogram.getMean()).isEqualTo(500_500.0);
+		assertThat(histogram.getValueAtPercentile(50)).isBetween(500_000L, 562_500L);
+		assertThat(histogram.getValueAtPercentile(99)).isBetween(990_000L, 1_000_000L);
+		assertThat(histogram.getValueAtPercentile(100)).isEqualTo(1_000_000);
+
+		histogram.record(-5);
+		assertThat(histogram.getValueAtPercentile(0)).isEqualTo(0);
+
+		histogram.reset();
+		assertThat(histogram.getCount()).isEqualTo(0);
+		assertThat(histogram.getMax()).isEqualTo(0);
+	}
+
+	@Test
+	public void testBuckets() {
+		long previousUpperBound = -1;
+		for (long value : new long[] { 0, 1, 15, 16, 17, 100, 1023, 1024, 123_456_789,
+				Long.MAX_VALUE }) {
+			int index = LongHistogram.bucketIndex(value);
+			long upperBound = LongHistogram.bucketUpperBound(index);
+			assertThat(upperBound).isGreaterThanOrEqualTo(value);
+			assertThat(upperBound - value).isLessThanOrEqualTo(value / 8);
+			assertThat(upperBound).isGreaterThanOrEqualTo(previousUpperBound);
+			previousUpperBound = upperBound;
+		}
+	}
+
+	@Test
+	public void testRegistry() {
+		DefaultSubscriptionRegistry registry = new DefaultSubscriptionRegistry(
+				new AntPathMatcher());
+		WampMessageBrokerStats stats = new WampMessageBrokerStats();
+		stats.setSubscriptionRegistry(registry);
+		assertThat(stats.getSubscriptionCount()).isEqualTo(0);
+		assertThat(stats.getDestinationCacheHitRate()).isEqualTo(0);
+
+		registry.registerSubscription(subscribeMessage("sess1", "/foo"));
+		registry.registerSubscription(subscribeMessage("sess1", "/bar"));
+		registry.registerSubscription(subscribeMessage("sess2", "/foo"));
+		assertThat(stats.getSubscribedSessionCount()).isEqualTo(2);
+		assertThat(stats.getSubscriptionCount()).isEqualTo(3);
+
+		for (int i = 0; i < 4; i++) {
+			registry.findSubscriptions(new EventMessage("/foo", "data"));
+		}
+		assertThat(registry.getCacheMisses()).isEqualTo(1);
+		assertThat(registry.getCacheHits()).isEqualTo(3);
+		assertThat(registry.getCacheSize()).isEqualTo(1);
+		assertThat(stats.getDestinationCacheHitRate()).isEqualTo(0.75);
+
+		TrieSubscriptionRegistry trieRegistry = new TrieSubscriptionRegistry(
+				new AntPathMatcher());
+		trieRegistry.registerSubscription(subscribeMessage("sess1", "/foo/*"));
+		stats.setSubscriptionRegistry(trieRegistry);
+		assertThat(stats.getSubscribedSessionCount()).isEqualTo(1);
+		assertThat(stats.getSubscriptionCount()).isEqualTo(1);
+		assertThat(stats.getDestinationCacheHitRate()).isEqualTo(-1);
+	}
+
+	@Test
+	public void testBroker() {
+		WampMessageBrokerStats stats = new WampMessageBrokerStats();
+		SimpleBrokerMessageHandler broker = new SimpleBrokerMessageHandler(
+				mock(SubscribableChannel.class), mock(MessageChannel.class),
+				mock(SubscribableChannel.class),
+				new DefaultSubscriptionRegistry(new AntPathMatcher()),
+				WampMessageSelectors.ACCEPT_ALL);
+		broker.setWampMetrics(stats);
+		broker.start();
+
+		broker.handleMessage(subscribeMessage("sess1", "/foo"));
+		broker.handleMessage(subscribeMessage("sess2", "/foo"));
+		broker.handleMessage(new EventMessage("/foo", "data"));
+		broker.handleMessage(new EventMessage("/bar", "data"));
+		PublishMessage publishMessage = new PublishMessage("/foo", "data", true);
+		publishMessage.setWebSocketSessionId("sess1");
+		broker.handleMessage(publishMessage);
+
+		assertThat(stats.getFanOut().getCount()).isEqualTo(3);
+		assertThat(stats.getFanOut().getSum()).isEqualTo(3);
+		assertThat(stats.getFanOut().getMax()).isEqualTo(2);
+		assertThat(stats.getSubscriptionLookupTime().getCount()).isEqualTo(3);
+	}
+
+	@Test
+	public void testCalls() {
+		WampMessageBrokerStats stats = new WampMessageBrokerStats();
+		stats.setMaxProcedures(2);
+		stats.callCompleted("proc1", 1000, false);
+		stats.callCompleted("proc1", 3000, true);
+		stats.callCompleted("proc2", 2000, false);
+		stats.callCompleted("proc3", 2000, false);
+		stats.callCompleted("proc4", 2000, true);
+
+		assertThat(stats.getProcedures()).containsOnly("proc1", "proc2",
+				WampMessageBrokerStats.OTHER_PROCEDURES);
+		assertThat(stats.getCallLatency("proc1").getCount()).isEqualTo(2);
+		assertThat(stats.getCallLatency("proc1").getMax()).isEqualTo(3000);
+		assertThat(stats.getCallErrors("proc1")).isEqualTo(1);
+		assertThat(stats.getCallLatency("proc3")).isNull();
+		assertThat(stats.getCallLatency(WampMessageBrokerStats.OTHER_PROCEDURES)
+				.getCount()).isEqualTo(2);
+		assertThat(stats.getCallErrors(WampMessageBrokerStats.OTHER_PROCEDURES))
+				.isEqualTo(1);
+	}
+
+	@Test
+	public void testMetricsAndLogging() {
+		WampMessageBrokerStats stats = new WampMessageBrokerStats();
+		stats.messageReceived(WampMessageType.CALL, 100);
+		stats.messageSent(WampMessageType.CALLRESULT, 200);
+		stats.callCompleted("proc", 5000, false);
+
+		Map<String, Number> metrics = stats.getMetrics();
+		assertThat(metrics.get("wamp.messages.received.CALL")).isEqualTo(1L);
+		assertThat(metrics.get("wamp.messages.sent.CALLRESULT")).isEqualTo(1L);
+		assertThat(metrics.get("wamp.messages.sent.EVENT")).isEqualTo(0L);
+		assertThat(metrics.get("wamp.decode.time.max")).isEqualTo(100L);
+		assertThat(metrics.get("wamp.call.count[proc]")).isEqualTo(1L);
+		assertThat(metrics.get("wamp.registry.subscriptions")).isEqualTo(-1);
+		assertThat(stats.toString()).contains("CALL=1", "CALLRESULT=1", "proc[");
+
+		TaskScheduler scheduler = mock(TaskScheduler.class);
+		stats.setTaskScheduler(scheduler);
+		stats.setLoggingPeriod(60_000);
+		stats.afterPropertiesSet();
+		ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+		verify(scheduler).scheduleAtFixedRate(task.capture(), eq(60_000L));
+		task.getValue().run();
+		stats.destroy();
+	}
+
+	@Test
+	public void testNoLoggingWithoutPeriod() {
+		WampMessageBrokerStats stats = new WampMessageBrokerStats();
+		TaskScheduler scheduler = mock(TaskScheduler.class);
+		stats.setTaskScheduler(scheduler);
+		stats.setLoggingPeriod(0);
+		stats.afterPropertiesSet();
+		verify(scheduler, never())
+				.scheduleAtFixedRate(any(Runnable.class), eq(0L));
+	}
+
+	@Test
+	public void testCallTrace() {
+		CallTrace trace = new CallTrace(new CallMessage("call1", "proc"), 1000);
+		trace.stageCompleted(Stage.PARSE, 1100);
+		trace.stageCompleted(Stage.DISPATCH, 1300);
+		trace.stageCompleted(Stage.INVOCATION, 2300);
+		trace.stageCompleted(Stage.OUTBOUND_DISPATCH, 2400);
+		trace.stageCompleted(Stage.SERIALIZATION, 2700);
+		trace.stageCompleted(Stage.WRITE, 3000);
+
+		assertThat(trace.getCallID()).isEqualTo("call1");
+		assertThat(trace.getProcURI()).isEqualTo("proc");
+		assertThat(trace.getStageNanos(Stage.PARSE)).isEqualTo(100);
+		assertThat(trace.getStageNanos(Stage.DISPATCH)).isEqualTo(200);
+		assertThat(trace.getStageNanos(Stage.ARGUMENT_RESOLUTION)).isEqualTo(0);
+		assertThat(trace.getStageNanos(Stage.INVOCATION)).isEqualTo(1000);
+		assertThat(trace.getStageNanos(Stage.OUTBOUND_DISPATCH)).isEqualTo(100);
+		assertThat(trace.getStageNanos(Stage.SERIALIZATION)).isEqualTo(300);
+		assertThat(trace.getStageNanos(Stage.WRITE)).isEqualTo(300);
+		assertThat(trace.getTotalNanos()).isEqualTo(2000);
+		assertThat(trace.toString()).contains("callID=call1", "invocation=0.001");
+	}
+
+	@Test
+	public void testSlowCalls() {
+		WampMessageBrokerStats stats = new WampMessageBrokerStats();
+		stats.callTraced(trace("proc", 5_000_000));
+		assertThat(stats.getSlowCalls()).isEqualTo(0);
+
+		stats.setSlowCallThreshold(10);
+		stats.callTraced(trace("proc", 5_000_000));
+		stats.callTraced(trace("proc", 15_000_000));
+		assertThat(stats.getSlowCalls()).isEqualTo(1);
+
+		assertThat(stats.getCallEndToEndLatency("proc").getCount()).isEqualTo(3);
+		assertThat(stats.getCallEndToEndLatency("proc").getMax())
+				.isEqualTo(15_000_000);
+		assertThat(stats.getCallStageLatency("proc", Stage.INVOCATION).getMax())
+				.isEqualTo(15_000_000);
+		assertThat(stats.getCallStageLatency("proc", Stage.PARSE).getMax())
+				.isEqualTo(0);
+		assertThat(stats.getCallStageLatency("other", Stage.PARSE)).isNull();
+		assertThat(stats.getMetrics().get("wamp.call.slow")).isEqualTo(1L);
+		assertThat(stats.getMetrics()).containsKey("wamp.call.stage.write.p99[proc]");
+	}
+
+	private static CallTrace trace(String procURI, long invocationNanos) {
+		CallTrace trace = new CallTrace(new CallMessage("1", procURI), 1);
+		trace.stageCompleted(Stage.INVOCATION, 1 + invocationNanos);
+		return trace;
+	}
+
+	private static SubscribeMessage subscribeMessage(String sessionId, String topicURI) {
+		SubscribeMessage message = new SubscribeMessage(topicURI);
+		message.setWebSocketSessionId(sessionId);
+		return message;
+	}
+
+}
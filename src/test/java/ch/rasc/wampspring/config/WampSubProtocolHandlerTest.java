@@ -0,0 +1,184 @@
+/**
+ * Copyright 2014-2017 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import com.fasterxml.jackson.databind.MappingJsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+
+import ch.rasc.wampspring.message.BinaryWampMessageCodec;
+import ch.rasc.wampspring.message.CallErrorMessage;
+import ch.rasc.wampspring.message.CallMessage;
+import ch.rasc.wampspring.message.CallTrace;
+import ch.rasc.wampspring.message.EventMessage;
+import ch.rasc.wampspring.message.JsonWampMessageCodec;
+import ch.rasc.wampspring.message.WampMessage;
+import ch.rasc.wampspring.message.WampMessageCodec;
+import ch.rasc.wampspring.message.WampMessageType;
+
+public class WampSubProtocolHandlerTest {
+
+	private final JsonWampMessageCodec jsonCodec = new JsonWampMessageCodec(
+			new MappingJsonFactory(new ObjectMapper()));
+
+	private final BinaryWampMessageCodec cborCodec = new BinaryWampMessageCodec(
+			"wamp.cbor", new ObjectMapper(new CBORFactory()).getFactory());
+
+	private final WampSubProtocolHandler handler = new WampSubProtocolHandler(
+			Arrays.<WampMessageCodec>asList(this.jsonCodec, this.cborCodec));
+
+	@Test
+	public void supportedProtocols() {
+		assertThat(this.handler.getSupportedProtocols()).containsExactly("wamp",
+				"wamp.cbor");
+		assertThat(new WampSubProtocolHandler(new MappingJsonFactory())
+				.getSupportedProtocols()).containsExactly("wamp");
+	}
+
+	@Test
+	public void binaryProtocol() throws Exception {
+		WebSocketSession session = createSession("wamp.cbor");
+
+		this.handler.handleMessageToClient(session, new EventMessage("topic", "data"));
+		WebSocketMessage<?> sent = captureSentMessage(session);
+		assertThat(sent).isInstanceOf(BinaryMessage.class);
+
+		MessageChannel channel = Mockito.mock(MessageChannel.class);
+		this.handler.handleMessageFromClient(session,
+				this.cborCodec.encode(new CallMessage("1", "proc", "arg")), channel);
+		ArgumentCaptor<WampMessage> captor = ArgumentCaptor.forClass(WampMessage.class);
+		Mockito.verify(channel).send(captor.capture());
+		CallMessage callMessage = (CallMessage) captor.getValue();
+		assertThat(callMessage.getProcURI()).isEqualTo("proc");
+		assertThat(callMessage.getArguments()).containsExactly("arg");
+		assertThat(callMessage.getWebSocketSessionId()).isEqualTo("ws1");
+	}
+
+	@Test
+	public void defaultProtocol() throws Exception {
+		for (String protocol : Arrays.asList(null, "", "wamp", "unknown")) {
+			WebSocketSession session = createSession(protocol);
+			this.handler.handleMessageToClient(session,
+					new EventMessage("topic", "data"));
+			WebSocketMessage<?> sent = captureSentMessage(session);
+			assertThat(sent).isInstanceOf(TextMessage.class);
+			assertThat(((TextMessage) sent).getPayload())
+					.isEqualTo("[8,\"topic\",\"data\"]");
+		}
+	}
+
+	@Test
+	public void outboundMailbox() throws Exception {
+		WampSubProtocolHandler mailboxHandler = new WampSubProtocolHandler(
+				Arrays.<WampMessageCodec>asList(this.jsonCodec));
+		mailboxHandler.setOutboundMailboxEnabled(true);
+		mailboxHandler.setConflateEvents(true);
+
+		WebSocketSession session = createSession("wamp");
+		MessageChannel channel = Mockito.mock(MessageChannel.class);
+		mailboxHandler.afterSessionStarted(session, channel);
+		OutboundMailbox mailbox = mailboxHandler.getOutboundMailbox("ws1");
+		assertThat(mailbox).isNotNull();
+		assertThat(mailboxHandler.getOutboundMailboxes()).containsExactly(mailbox);
+
+		mailboxHandler.handleMessageToClient(session, new EventMessage("topic", "data"));
+		assertThat(mailbox.getSentMessages()).isEqualTo(1);
+
+		mailboxHandler.afterSessionEnded(session, CloseStatus.NORMAL, channel);
+		assertThat(mailboxHandler.getOutboundMailbox("ws1")).isNull();
+		assertThat(this.handler.getOutboundMailbox("ws1")).isNull();
+	}
+
+	@Test
+	public void metrics() throws Exception {
+		WampMessageBrokerStats stats = new WampMessageBrokerStats();
+		WampSubProtocolHandler metricsHandler = new WampSubProtocolHandler(
+				Arrays.<WampMessageCodec>asList(this.jsonCodec));
+		metricsHandler.setWampMetrics(stats);
+		metricsHandler.setOutboundMailboxEnabled(true);
+		stats.setSubProtocolHandler(metricsHandler);
+
+		WebSocketSession session = createSession("wamp");
+		MessageChannel channel = Mockito.mock(MessageChannel.class);
+		metricsHandler.afterSessionStarted(session, channel);
+		metricsHandler.handleMessageFromClient(session,
+				this.jsonCodec.encode(new CallMessage("1", "proc", "arg")), channel);
+		metricsHandler.handleMessageToClient(session, new EventMessage("topic", "data"));
+
+		assertThat(stats.getReceivedMessages(WampMessageType.CALL)).isEqualTo(1);
+		assertThat(stats.getSentMessages(WampMessageType.WELCOME)).isEqualTo(1);
+		assertThat(stats.getSentMessages(WampMessageType.EVENT)).isEqualTo(1);
+		assertThat(stats.getDecodeTime().getCount()).isEqualTo(1);
+		assertThat(stats.getEncodeTime().getCount()).isEqualTo(2);
+		assertThat(stats.getOutboundQueueDepth()).isEqualTo(0);
+	}
+
+	@Test
+	public void callTrace() throws Exception {
+		WampMessageBrokerStats stats = new WampMessageBrokerStats();
+		WampSubProtocolHandler metricsHandler = new WampSubProtocolHandler(
+				Arrays.<WampMessageCodec>asList(this.jsonCodec));
+		metricsHandler.setWampMetrics(stats);
+
+		WebSocketSession session = createSession("wamp");
+		MessageChannel channel = Mockito.mock(MessageChannel.class);
+		metricsHandler.handleMessageFromClient(session,
+				this.jsonCodec.encode(new CallMessage("1", "proc", "arg")), channel);
+		ArgumentCaptor<WampMessage> captor = ArgumentCaptor.forClass(WampMessage.class);
+		Mockito.verify(channel).send(captor.capture());
+		CallMessage callMessage = (CallMessage) captor.getValue();
+		CallTrace trace = callMessage.getCallTrace();
+		assertThat(trace.getCallID()).isEqualTo("1");
+		assertThat(trace.getWebSocketSessionId()).isEqualTo("ws1");
+
+		metricsHandler.handleMessageToClient(session,
+				new CallErrorMessage(callMessage, "", "error"));
+		assertThat(trace.isError()).isTrue();
+		assertThat(trace.getTotalNanos()).isGreaterThan(0);
+		assertThat(stats.getCallEndToEndLatency("proc").getCount()).isEqualTo(1);
+	}
+
+	private static WebSocketSession createSession(String protocol) {
+		WebSocketSession session = Mockito.mock(WebSocketSession.class);
+		Mockito.when(session.getId()).thenReturn("ws1");
+		Mockito.when(session.getAcceptedProtocol()).thenReturn(protocol);
+		return session;
+	}
+
+	private static WebSocketMessage<?> captureSentMessage(WebSocketSession session)
+			throws Exception {
+		@SuppressWarnings("rawtypes")
+		ArgumentCaptor<WebSocketMessage> captor = ArgumentCaptor
+				.forClass(WebSocketMessage.class);
+		Mockito.verify(session).sendMessage(captor.capture());
+		return captor.getValue();
+	}
+
+}
@@ -24,6 +24,10 @@ import java.util.Map;
 import org.assertj.core.data.MapEntry;
 import org.junit.Test;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.MappingJsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 public class EventMessageTest extends BaseMessageTest {
 
 	@Test
@@ -99,6 +103,38 @@ public class EventMessageTest extends BaseMessageTest {
 				MapEntry.entry("created", "2012-03-29T10:41:09.864Z"));
 	}
 
+	@Test
+	public void offsetTest() throws IOException {
+		EventMessage eventMessage = new EventMessage("http://example.com/simple",
+				"event");
+		eventMessage.setOffset(7L);
+		String json = eventMessage.toJson(getJsonFactory());
+		assertThat(json).isEqualTo(toJsonArray(WampMessageType.EVENT.getTypeId(),
+				"http://example.com/simple", "event", 7));
+		assertThat(new EventMessage(eventMessage, "ws1").getOffset()).isEqualTo(7L);
+
+		eventMessage = WampMessage.fromJson(getJsonFactory(), json);
+		assertThat(eventMessage.getEvent()).isEqualTo("event");
+		assertThat(eventMessage.getOffset()).isEqualTo(7L);
+	}
+
+	@Test
+	public void encodedOffsetTest() throws IOException {
+		EventMessage eventMessage = new EventMessage("topic", "event");
+		eventMessage.setOffset(7L);
+		eventMessage.encode(getJsonFactory());
+
+		EventMessage withOffset = new EventMessage(eventMessage, "ws1");
+		EventMessage withoutOffset = new EventMessage(eventMessage, "ws2");
+		withoutOffset.setOffset(null);
+		assertThat(withoutOffset.toJson(getJsonFactory())).isEqualTo(toJsonArray(
+				WampMessageType.EVENT.getTypeId(), "topic", "event"));
+		assertThat(withOffset.toJson(getJsonFactory())).isEqualTo(toJsonArray(
+				WampMessageType.EVENT.getTypeId(), "topic", "event", 7));
+		assertThat(new EventMessage(withoutOffset, "ws3").toJson(getJsonFactory()))
+				.isSameAs(withoutOffset.toJson(getJsonFactory()));
+	}
+
 	@Test
 	public void copyConstructorTest() {
 		EventMessage eventMessage = new EventMessage("topicURI", 1L);
@@ -119,4 +155,24 @@ public class EventMessageTest extends BaseMessageTest {
 		assertThat(copyOfMsg.getTopicURI()).isEqualTo("topicURI");
 		assertThat(copyOfMsg.getDestination()).isEqualTo("topicURI");
 	}
+
+	@Test
+	public void encodeTest() throws IOException {
+		EventMessage eventMessage = new EventMessage("topicURI", "event");
+		assertThat(eventMessage.isEncoded()).isFalse();
+		eventMessage.encode(getJsonFactory());
+		assertThat(eventMessage.isEncoded()).isTrue();
+
+		String json = eventMessage.toJson(getJsonFactory());
+		assertThat(json).isEqualTo(
+				toJsonArray(WampMessageType.EVENT.getTypeId(), "topicURI", "event"));
+
+		EventMessage copyOfMsg = new EventMessage(eventMessage, "wsId");
+		assertThat(copyOfMsg.isEncoded()).isTrue();
+		assertThat(copyOfMsg.toJson(getJsonFactory())).isSameAs(json);
+
+		JsonFactory otherJsonFactory = new MappingJsonFactory(new ObjectMapper());
+		assertThat(copyOfMsg.toJson(otherJsonFactory)).isEqualTo(json)
+				.isNotSameAs(json);
+	}
 }
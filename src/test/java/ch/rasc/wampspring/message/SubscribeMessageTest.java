@@ -47,4 +47,21 @@ public class SubscribeMessageTest extends BaseMessageTest {
 				.isEqualTo("http://example.com/simple");
 
 	}
+
+	@Test
+	public void replayOffsetTest() throws IOException {
+		SubscribeMessage subscribeMessage = new SubscribeMessage(
+				"http://example.com/simple", 42L);
+		String json = subscribeMessage.toJson(getJsonFactory());
+		assertThat(json).isEqualTo("[5,\"http://example.com/simple\",{\"offset\":42}]");
+
+		subscribeMessage = WampMessage.fromJson(getJsonFactory(),
+				"[5,\"http://example.com/simple\",{\"other\":[1],\"offset\":43}]");
+		assertThat(subscribeMessage.getTopicURI()).isEqualTo("http://example.com/simple");
+		assertThat(subscribeMessage.getReplayOffset()).isEqualTo(43L);
+
+		subscribeMessage = WampMessage.fromJson(getJsonFactory(),
+				toJsonArray(5, "http://example.com/simple"));
+		assertThat(subscribeMessage.getReplayOffset()).isNull();
+	}
 }
@@ -0,0 +1,164 @@
+/**
+ * Copyright 2014-2017 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.message;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Collections;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+
+public class WampMessageCodecTest extends BaseMessageTest {
+
+	private final JsonFactory cborFactory = new ObjectMapper(new CBORFactory())
+			.getFactory();
+
+	@Test
+	public void jsonCodecTest() throws Exception {
+		JsonWampMessageCodec codec = new JsonWampMessageCodec(getJsonFactory());
+		assertThat(codec.getSubProtocol()).isEqualTo("wamp");
+
+		WebSocketMessage<?> frame = codec.encode(new CallMessage("1", "proc", "arg", 2));
+		assertThat(frame).isInstanceOf(TextMessage.class);
+		assertThat(((TextMessage) frame).getPayload())
+				.isEqualTo(toJsonArray(2, "1", "proc", "arg", 2));
+
+		CallMessage callMessage = (CallMessage) codec.decode(createSession(), frame);
+		assertThat(callMessage.getCallID()).isEqualTo("1");
+		assertThat(callMessage.getProcURI()).isEqualTo("proc");
+		assertThat(callMessage.getArguments()).containsExactly("arg", 2);
+		assertThat(callMessage.getWebSocketSessionId()).isEqualTo("ws1");
+		assertThat(callMessage.getWampSession()).isNotNull();
+	}
+
+	@Test
+	public void binaryCodecTest() throws Exception {
+		BinaryWampMessageCodec codec = new BinaryWampMessageCodec("wamp.cbor",
+				this.cborFactory);
+		assertThat(codec.getSubProtocol()).isEqualTo("wamp.cbor");
+
+		WebSocketMessage<?> frame = codec.encode(new CallMessage("1", "proc", "arg", 2));
+		assertThat(frame).isInstanceOf(BinaryMessage.class);
+
+		CallMessage callMessage = (CallMessage) codec.decode(createSession(), frame);
+		assertThat(callMessage.getCallID()).isEqualTo("1");
+		assertThat(callMessage.getProcURI()).isEqualTo("proc");
+		assertThat(callMessage.getArguments()).containsExactly("arg", 2);
+		assertThat(callMessage.getWebSocketSessionId()).isEqualTo("ws1");
+
+		PublishMessage publishMessage = new PublishMessage("topic",
+				Collections.singletonMap("value", 1), Collections.singleton("ws2"));
+		PublishMessage decodedPublishMessage = (PublishMessage) codec
+				.decode(createSession(), codec.encode(publishMessage));
+		assertThat(decodedPublishMessage.getTopicURI()).isEqualTo("topic");
+		assertThat(decodedPublishMessage.getEvent())
+				.isEqualTo(Collections.singletonMap("value", 1));
+		assertThat(decodedPublishMessage.getExclude()).containsExactly("ws2");
+
+		WelcomeMessage welcomeMessage = (WelcomeMessage) codec.decode(createSession(),
+				codec.encode(new WelcomeMessage("ws1", "server")));
+		assertThat(welcomeMessage.getWebSocketSessionId()).isEqualTo("ws1");
+		assertThat(welcomeMessage.getServerIdent()).isEqualTo("server");
+	}
+
+	@Test
+	public void binaryCodecUsesEncodedEvent() throws Exception {
+		BinaryWampMessageCodec codec = new BinaryWampMessageCodec("wamp.cbor",
+				this.cborFactory);
+
+		EventMessage eventMessage = new EventMessage("topic", "payload");
+		eventMessage.encode(this.cborFactory);
+		EventMessage copy = new EventMessage(eventMessage, "ws2");
+
+		BinaryMessage frame1 = (BinaryMessage) codec.encode(eventMessage);
+		BinaryMessage frame2 = (BinaryMessage) codec.encode(copy);
+		assertThat(frame1.getPayload().array())
+				.isSameAs(frame2.getPayload().array());
+		assertThat(copy.toBytes(this.cborFactory))
+				.isSameAs(eventMessage.toBytes(this.cborFactory));
+
+		EventMessage decoded = (EventMessage) codec.decode(createSession(), frame2);
+		assertThat(decoded.getTopicURI()).isEqualTo("topic");
+		assertThat(decoded.getEvent()).isEqualTo("payload");
+
+		// a JSON codec ignores the binary frame
+		assertThat(copy.toJson(getJsonFactory()))
+				.isEqualTo(toJsonArray(8, "topic", "payload"));
+	}
+
+	@Test
+	public void binaryCodecSharesFrameOfJsonEncodedEvent() throws Exception {
+		BinaryWampMessageCodec codec = new BinaryWampMessageCodec("wamp.cbor",
+				this.cborFactory);
+
+		// the broker encodes the event with the JSON factory only
+		EventMessage eventMessage = new EventMessage("topic", "payload");
+		eventMessage.encode(getJsonFactory());
+		EventMessage copy1 = new EventMessage(eventMessage, "ws1");
+		EventMessage copy2 = new EventMessage(eventMessage, "ws2");
+
+		BinaryMessage frame1 = (BinaryMessage) codec.encode(copy1);
+		BinaryMessage frame2 = (BinaryMessage) codec.encode(copy2);
+		assertThat(frame1.getPayload().array())
+				.isSameAs(frame2.getPayload().array());
+
+		EventMessage decoded = (EventMessage) codec.decode(createSession(), frame2);
+		assertThat(decoded.getTopicURI()).isEqualTo("topic");
+		assertThat(decoded.getEvent()).isEqualTo("payload");
+
+		assertThat(copy2.toJson(getJsonFactory()))
+				.isSameAs(eventMessage.toJson(getJsonFactory()));
+	}
+
+	@Test
+	public void deferPayloadParsingTest() throws Exception {
+		JsonWampMessageCodec codec = new JsonWampMessageCodec(getJsonFactory());
+		codec.setDeferPayloadParsing(true);
+
+		CallMessage callMessage = (CallMessage) codec.decode(createSession(),
+				new TextMessage("[2,\"1\",\"proc\",\"arg\",{\"a\":1},[1,2]]"));
+		assertThat(callMessage.getArguments()).hasSize(3);
+		assertThat(callMessage.getArguments().get(0)).isEqualTo("arg");
+		assertThat(callMessage.getArguments().get(1)).isInstanceOf(TokenBuffer.class);
+		assertThat(callMessage.getArguments().get(2)).isInstanceOf(TokenBuffer.class);
+
+		PublishMessage publishMessage = (PublishMessage) codec.decode(createSession(),
+				new TextMessage("[7,\"topic\",{\"a\":1}]"));
+		assertThat(publishMessage.getEvent()).isInstanceOf(TokenBuffer.class);
+
+		// the buffer is written unchanged when the event is sent to the subscribers
+		EventMessage eventMessage = new EventMessage(publishMessage, "ws2");
+		assertThat(eventMessage.toJson(getJsonFactory()))
+				.isEqualTo("[8,\"topic\",{\"a\":1}]");
+	}
+
+	private static WebSocketSession createSession() {
+		WebSocketSession session = Mockito.mock(WebSocketSession.class);
+		Mockito.when(session.getId()).thenReturn("ws1");
+		return session;
+	}
+
+}
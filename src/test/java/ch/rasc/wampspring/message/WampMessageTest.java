@@ -17,6 +17,8 @@ package ch.rasc.wampspring.message;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.security.Principal;
 
 import org.assertj.core.data.MapEntry;
@@ -25,6 +27,10 @@ import org.mockito.Mockito;
 import org.springframework.messaging.MessageHeaders;
 import org.springframework.web.socket.WebSocketSession;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.MappingJsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 import ch.rasc.wampspring.config.WampSession;
 import ch.rasc.wampspring.testsupport.TestPrincipal;
 
@@ -72,6 +78,35 @@ public class WampMessageTest {
 				MapEntry.entry("WAMP_MESSAGE_TYPE", WampMessageType.CALLERROR));
 	}
 
+	@Test
+	public void callTraceTest() {
+		CallMessage callMessage = new CallMessage("1", "call");
+		assertThat(callMessage.getCallTrace()).isNull();
+
+		CallTrace trace = new CallTrace(callMessage, 1);
+		callMessage.setCallTrace(trace);
+		// the trace is not visible to @Headers and Message arguments
+		assertThat(callMessage.getHeaders()).hasSize(1);
+
+		assertThat(new CallResultMessage(callMessage, "result").getCallTrace())
+				.isSameAs(trace);
+		assertThat(new CallErrorMessage(callMessage, "error", "desc").getCallTrace())
+				.isSameAs(trace);
+	}
+
+	@Test
+	public void toBytesTest() throws IOException {
+		JsonFactory jsonFactory = new MappingJsonFactory(new ObjectMapper());
+		for (int i = 0; i < 3; i++) {
+			CallResultMessage message = new CallResultMessage(
+					new CallMessage("1", "call"), "r\u00e9sult " + i);
+			String json = message.toJson(jsonFactory);
+			assertThat(json).isEqualTo("[3,\"1\",\"r\u00e9sult " + i + "\"]");
+			assertThat(message.toBytes(jsonFactory))
+					.isEqualTo(json.getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
 	@Test
 	public void isPubSubMessageTest() {
 		assertThat(PubSubMessage.class.isAssignableFrom(CallErrorMessage.class))
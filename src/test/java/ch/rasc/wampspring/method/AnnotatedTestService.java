@@ -15,6 +15,15 @@
  */
 package ch.rasc.wampspring.method;
 
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+import org.springframework.web.context.request.async.DeferredResult;
+
 import ch.rasc.wampspring.annotation.WampCallListener;
 import ch.rasc.wampspring.annotation.WampPublishListener;
 import ch.rasc.wampspring.annotation.WampSubscribeListener;
@@ -27,6 +36,55 @@ public class AnnotatedTestService {
 		return one + two;
 	}
 
+	@WampCallListener
+	public CompletableFuture<Integer> callCompletableFuture(int one, int two) {
+		return CompletableFuture.supplyAsync(() -> one + two);
+	}
+
+	@WampCallListener
+	public ListenableFuture<Integer> callListenableFutureError() {
+		SettableListenableFuture<Integer> future = new SettableListenableFuture<>();
+		future.setException(new IllegalArgumentException("wrong argument"));
+		return future;
+	}
+
+	@WampCallListener
+	public DeferredResult<Integer> callDeferredResult(int one, int two) {
+		DeferredResult<Integer> result = new DeferredResult<>();
+		result.setResult(one + two);
+		return result;
+	}
+
+	@WampCallListener(streamChunkSize = 2)
+	public Stream<Integer> callStream(int count) {
+		return IntStream.rangeClosed(1, count).boxed();
+	}
+
+	@WampCallListener(streamChunkSize = 2)
+	public Iterator<Integer> callStreamError() {
+		return new Iterator<Integer>() {
+			private int i = 0;
+
+			@Override
+			public boolean hasNext() {
+				return true;
+			}
+
+			@Override
+			public Integer next() {
+				if (this.i == 3) {
+					throw new IllegalStateException("read failed");
+				}
+				return this.i++;
+			}
+		};
+	}
+
+	@WampCallListener(timeout = 50)
+	public ListenableFuture<Integer> callTimeout() {
+		return new SettableListenableFuture<>();
+	}
+
 	@WampSubscribeListener
 	public int subscribe() {
 		return 2;
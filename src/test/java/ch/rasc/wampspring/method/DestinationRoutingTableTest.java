@@ -0,0 +1,183 @@
+/**
+ * Copyright 2014-2017 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.method;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.context.support.StaticApplicationContext;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.util.PathMatcher;
+
+import ch.rasc.wampspring.message.CallMessage;
+import ch.rasc.wampspring.message.PublishMessage;
+import ch.rasc.wampspring.method.WampAnnotationMethodMessageHandler.Match;
+
+public class DestinationRoutingTableTest {
+
+	private final PathMatcher pathMatcher = new AntPathMatcher();
+
+	private MultiValueMap<WampMessageMappingInfo, WampHandlerMethod> handlerMethods;
+
+	private StaticApplicationContext applicationContext;
+
+	@Before
+	public void setup() {
+		this.applicationContext = new StaticApplicationContext();
+		this.applicationContext.registerSingleton("testService", TestService.class);
+		this.applicationContext.refresh();
+		this.handlerMethods = new LinkedMultiValueMap<>();
+	}
+
+	@Test
+	public void testLiteralPrefix() {
+		assertThat(DestinationRoutingTable.literalPrefix("/orders/{id}/cancel",
+				this.pathMatcher)).isEqualTo("/orders");
+		assertThat(DestinationRoutingTable.literalPrefix("/orders/**", this.pathMatcher))
+				.isEqualTo("/orders");
+		assertThat(DestinationRoutingTable.literalPrefix("/order?", this.pathMatcher))
+				.isEqualTo("/order");
+		assertThat(DestinationRoutingTable.literalPrefix("/orders", this.pathMatcher))
+				.isEqualTo("/orders");
+		assertThat(DestinationRoutingTable.literalPrefix("**", this.pathMatcher))
+				.isEqualTo("");
+		assertThat(DestinationRoutingTable.literalPrefix("/orders/**",
+				Mockito.mock(PathMatcher.class))).isEqualTo("");
+	}
+
+	@Test
+	public void testExactBeforePattern() throws Exception {
+		WampMessageMappingInfo exact = call("/orders/new");
+		WampMessageMappingInfo pattern = call("/orders/{id}");
+		WampMessageMappingInfo publish = publish("/orders/new");
+		DestinationRoutingTable table = new DestinationRoutingTable(this.handlerMethods,
+				this.pathMatcher, 10);
+
+		List<Match> matches = table.getMatches(new CallMessage("1", "/orders/new"),
+				"/orders/new");
+		assertThat(matches).hasSize(1);
+		assertThat(matches.get(0).mapping).isEqualTo(exact);
+
+		matches = table.getMatches(new CallMessage("1", "/orders/12"), "/orders/12");
+		assertThat(matches).hasSize(1);
+		assertThat(matches.get(0).mapping).isEqualTo(pattern);
+
+		matches = table.getMatches(new PublishMessage("/orders/new", 1), "/orders/new");
+		assertThat(matches).hasSize(1);
+		assertThat(matches.get(0).mapping).isEqualTo(publish);
+
+		assertThat(table.getMatches(new CallMessage("1", "/order"), "/order")).isEmpty();
+		assertThat(table.getMatches(new CallMessage("1", "/customers/1"), "/customers/1"))
+				.isEmpty();
+		assertThat(table.getMatches(new CallMessage("1", "**"), "**")).hasSize(2);
+	}
+
+	@Test
+	public void testMultiplePatterns() throws Exception {
+		call("/orders/{id}/cancel");
+		call("/orders/**");
+		call("/**");
+		DestinationRoutingTable table = new DestinationRoutingTable(this.handlerMethods,
+				this.pathMatcher, 10);
+
+		assertThat(table.getMatches(new CallMessage("1", "/orders/1/cancel"),
+				"/orders/1/cancel")).hasSize(3);
+		assertThat(table.getMatches(new CallMessage("1", "/orders"), "/orders"))
+				.hasSize(2);
+		assertThat(table.getMatches(new CallMessage("1", "/customers"), "/customers"))
+				.hasSize(1);
+	}
+
+	@Test
+	public void testCache() throws Exception {
+		call("/orders/{id}");
+		DestinationRoutingTable table = new DestinationRoutingTable(this.handlerMethods,
+				this.pathMatcher, 2);
+
+		List<Match> first = table.getMatches(new CallMessage("1", "/orders/1"),
+				"/orders/1");
+		assertThat(table.getMatches(new CallMessage("2", "/orders/1"), "/orders/1"))
+				.isSameAs(first);
+
+		table.getMatches(new CallMessage("3", "/orders/2"), "/orders/2");
+		table.getMatches(new CallMessage("4", "/orders/3"), "/orders/3");
+
+		List<Match> afterEviction = table.getMatches(new CallMessage("5", "/orders/1"),
+				"/orders/1");
+		assertThat(afterEviction).isNotSameAs(first).hasSize(1);
+	}
+
+	@Test
+	public void testDestinationTemplateVariables() throws Exception {
+		call("/orders/{id}/{action}");
+		DestinationRoutingTable table = new DestinationRoutingTable(this.handlerMethods,
+				this.pathMatcher, 10);
+
+		Match match = table
+				.getMatches(new CallMessage("1", "/orders/1/cancel"), "/orders/1/cancel")
+				.get(0);
+		Map<String, String> vars = match
+				.getDestinationTemplateVariables("/orders/1/cancel", this.pathMatcher);
+		assertThat(vars).hasSize(2).containsEntry("id", "1").containsEntry("action",
+				"cancel");
+
+		match = table
+				.getMatches(new CallMessage("2", "/orders/1/cancel"), "/orders/1/cancel")
+				.get(0);
+		assertThat(match.getDestinationTemplateVariables("/orders/1/cancel",
+				this.pathMatcher)).isSameAs(vars);
+
+		match = table.getMatches(new CallMessage("3", "/orders/2/ship"), "/orders/2/ship")
+				.get(0);
+		assertThat(match.getDestinationTemplateVariables("/orders/2/ship",
+				this.pathMatcher)).hasSize(2).containsEntry("id", "2")
+						.containsEntry("action", "ship");
+	}
+
+	private WampMessageMappingInfo call(String pattern) throws Exception {
+		return register(WampMessageTypeMessageCondition.CALL, pattern);
+	}
+
+	private WampMessageMappingInfo publish(String pattern) throws Exception {
+		return register(WampMessageTypeMessageCondition.PUBLISH, pattern);
+	}
+
+	private WampMessageMappingInfo register(WampMessageTypeMessageCondition type,
+			String pattern) throws Exception {
+		WampMessageMappingInfo mapping = new WampMessageMappingInfo(type,
+				new DestinationPatternsMessageCondition(new String[] { pattern },
+						this.pathMatcher));
+		this.handlerMethods.add(mapping,
+				new WampHandlerMethod("testService", this.applicationContext,
+						TestService.class.getMethod("handle"), null, null, null,
+						false));
+		return mapping;
+	}
+
+	public static class TestService {
+		public void handle() {
+			// nothing here
+		}
+	}
+
+}
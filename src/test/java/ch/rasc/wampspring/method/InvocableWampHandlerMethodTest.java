@@ -0,0 +1,184 @@
+/**
+ * Copyright 2014-2017 Ralph Schaer <ralphschaer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.rasc.wampspring.method;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.format.support.DefaultFormattingConversionService;
+import org.springframework.messaging.handler.HandlerMethod;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ch.rasc.wampspring.message.CallMessage;
+
+public class InvocableWampHandlerMethodTest {
+
+	private MethodParameterConverter methodParameterConverter;
+
+	private CallMessage callMessage;
+
+	@Before
+	public void setup() {
+		this.methodParameterConverter = new MethodParameterConverter(new ObjectMapper(),
+				new DefaultFormattingConversionService());
+		this.callMessage = new CallMessage("1", "call");
+	}
+
+	@Test
+	public void testInvoke() throws Exception {
+		TestService service = new TestService();
+		assertThat(invocable(service, "sum", int.class, int.class)
+				.invoke(this.callMessage, 1, 2)).isEqualTo(3);
+		assertThat(invocable(service, "concat", String.class, String.class)
+				.invoke(this.callMessage, "a", "b")).isEqualTo("ab");
+		assertThat(invocable(service, "increment").invoke(this.callMessage)).isNull();
+		assertThat(invocable(service, "increment").invoke(this.callMessage)).isNull();
+		assertThat(service.counter).isEqualTo(2);
+	}
+
+	@Test
+	public void testCheckedException() throws Exception {
+		try {
+			invocable(new TestService(), "fail").invoke(this.callMessage);
+			fail("IOException expected");
+		}
+		catch (IOException e) {
+			assertThat(e.getMessage()).isEqualTo("failed");
+		}
+	}
+
+	@Test
+	public void testRuntimeException() throws Exception {
+		try {
+			invocable(new TestService(), "failUnchecked").invoke(this.callMessage);
+			fail("IllegalArgumentException expected");
+		}
+		catch (IllegalArgumentException e) {
+			assertThat(e.getMessage()).isEqualTo("unchecked");
+		}
+	}
+
+	@Test
+	public void testBeanNotInstanceOfDeclaringClass() throws Exception {
+		HandlerMethod handlerMethod = new HandlerMethod(new TestService(),
+				TestService.class.getMethod("increment"));
+		InvocableWampHandlerMethod invocable = new InvocableWampHandlerMethod(
+				handlerMethod, this.methodParameterConverter) {
+			@Override
+			protected Object getTargetBean() {
+				return "not a TestService";
+			}
+		};
+		try {
+			invocable.invoke(this.callMessage);
+			fail("IllegalStateException expected");
+		}
+		catch (IllegalStateException e) {
+			assertThat(e.getMessage()).contains("is not an instance");
+		}
+	}
+
+	@Test
+	public void testArgumentTypeMismatch() throws Exception {
+		InvocableWampHandlerMethod invocable = invocable(new TestService(), "sum",
+				int.class, int.class);
+		try {
+			invocable.invokeWithArguments(new Object[] { "1", 2 });
+			fail("IllegalStateException expected");
+		}
+		catch (IllegalStateException e) {
+			assertThat(e.getMessage()).startsWith("argument type mismatch")
+					.contains("[0] [type=java.lang.String] [value=1]");
+		}
+
+		try {
+			invocable.invokeWithArguments(new Object[] { null, 2 });
+			fail("IllegalStateException expected");
+		}
+		catch (IllegalStateException e) {
+			assertThat(e.getMessage()).startsWith("argument type mismatch")
+					.contains("[0] [null]");
+		}
+	}
+
+	@Test
+	public void testClassCastExceptionOfMethod() throws Exception {
+		try {
+			invocable(new TestService(), "failClassCast").invoke(this.callMessage);
+			fail("ClassCastException expected");
+		}
+		catch (ClassCastException e) {
+			assertThat(e.getMessage()).isEqualTo("cast");
+		}
+	}
+
+	@Test
+	public void testOverrideDoInvoke() throws Exception {
+		HandlerMethod handlerMethod = new HandlerMethod(new TestService(),
+				TestService.class.getMethod("sum", int.class, int.class));
+		InvocableWampHandlerMethod invocable = new InvocableWampHandlerMethod(
+				handlerMethod, this.methodParameterConverter) {
+			@Override
+			protected Object doInvoke(Object... args) throws Exception {
+				return (Integer) super.doInvoke(args) * 10;
+			}
+		};
+		assertThat(invocable.invoke(this.callMessage, 1, 2)).isEqualTo(30);
+	}
+
+	private InvocableWampHandlerMethod invocable(Object bean, String methodName,
+			Class<?>... parameterTypes) throws NoSuchMethodException {
+		return new InvocableWampHandlerMethod(new HandlerMethod(bean,
+				bean.getClass().getDeclaredMethod(methodName, parameterTypes)),
+				this.methodParameterConverter);
+	}
+
+	@SuppressWarnings("unused")
+	private static class TestService {
+
+		int counter = 0;
+
+		public int sum(int a, int b) {
+			return a + b;
+		}
+
+		private String concat(String a, String b) {
+			return a + b;
+		}
+
+		public void failClassCast() {
+			throw new ClassCastException("cast");
+		}
+
+		public void increment() {
+			this.counter++;
+		}
+
+		public void fail() throws IOException {
+			throw new IOException("failed");
+		}
+
+		public void failUnchecked() {
+			throw new IllegalArgumentException("unchecked");
+		}
+	}
+
+}
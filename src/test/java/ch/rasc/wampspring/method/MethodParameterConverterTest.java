@@ -17,6 +17,7 @@ package ch.rasc.wampspring.method;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.io.IOException;
 import java.lang.reflect.Method;
 import java.math.BigDecimal;
 import java.util.Arrays;
@@ -24,6 +25,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -31,7 +33,9 @@ import org.springframework.core.MethodParameter;
 import org.springframework.core.convert.ConversionFailedException;
 import org.springframework.format.support.DefaultFormattingConversionService;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 
 @SuppressWarnings("unused")
 public class MethodParameterConverterTest {
@@ -209,6 +213,127 @@ public class MethodParameterConverterTest {
 				.hasSize(3).containsExactly("1", "2", "3");
 	}
 
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	@Test
+	public void testToDtoContainers() throws NoSuchMethodException, SecurityException {
+		TestDto dto = new TestDto();
+		dto.setV1("str");
+		dto.setV2(1);
+		Map<String, Object> fromJson = new HashMap<>();
+		fromJson.put("v1", "str");
+		fromJson.put("v2", 1);
+
+		Method testMethod = getClass().getDeclaredMethod("dtoArrayParam",
+				TestDto[].class);
+		MethodParameter param = new MethodParameter(testMethod, 0);
+		assertThat((TestDto[]) this.converter.convert(param,
+				Arrays.asList(fromJson, fromJson))).containsExactly(dto, dto);
+
+		testMethod = getClass().getDeclaredMethod("dtoSetParam", Set.class);
+		param = new MethodParameter(testMethod, 0);
+		assertThat((Set) this.converter.convert(param, Arrays.asList(fromJson)))
+				.containsExactly(dto);
+
+		testMethod = getClass().getDeclaredMethod("dtoListParam", List.class);
+		param = new MethodParameter(testMethod, 0);
+		assertThat((List) this.converter.convert(param, Arrays.asList(fromJson)))
+				.containsExactly(dto);
+	}
+
+	/**
+	 * Collections and arrays with elements that are no simple values are converted by
+	 * Jackson alone. A converter of the ConversionService for the element type is not
+	 * used for them, simple element types still go through the ConversionService.
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	@Test
+	public void testJacksonContainerConversion()
+			throws NoSuchMethodException, SecurityException {
+		DefaultFormattingConversionService conversionService = new DefaultFormattingConversionService();
+		conversionService.addConverter(Map.class, TestDto.class, source -> {
+			TestDto converted = new TestDto();
+			converted.setV1("converted");
+			return converted;
+		});
+		conversionService.addConverter(Integer.class, String.class,
+				source -> "#" + source);
+		MethodParameterConverter jacksonConverter = new MethodParameterConverter(
+				new ObjectMapper(), conversionService);
+
+		Map<String, Object> fromJson = new HashMap<>();
+		fromJson.put("v1", "str");
+		fromJson.put("v2", 1);
+		TestDto dto = new TestDto();
+		dto.setV1("str");
+		dto.setV2(1);
+
+		Method testMethod = getClass().getDeclaredMethod("dtoArrayParam",
+				TestDto[].class);
+		MethodParameterConverter.Binding binding = jacksonConverter
+				.bind(new MethodParameter(testMethod, 0));
+		assertThat((TestDto[]) binding.convert(Arrays.asList(fromJson, fromJson)))
+				.containsExactly(dto, dto);
+
+		testMethod = getClass().getDeclaredMethod("dtoSetParam", Set.class);
+		binding = jacksonConverter.bind(new MethodParameter(testMethod, 0));
+		assertThat((Set) binding.convert(Arrays.asList(fromJson)))
+				.containsExactly(dto);
+
+		// a single DTO is still converted by the ConversionService
+		testMethod = getClass().getDeclaredMethod("dtoParam", TestDto.class);
+		binding = jacksonConverter.bind(new MethodParameter(testMethod, 0));
+		assertThat(((TestDto) binding.convert(fromJson)).getV1())
+				.isEqualTo("converted");
+
+		// simple element types are still converted by the ConversionService
+		testMethod = getClass().getDeclaredMethod("stringArrayParam", String[].class);
+		binding = jacksonConverter.bind(new MethodParameter(testMethod, 0));
+		assertThat((String[]) binding.convert(Arrays.asList(1, 2))).containsExactly("#1",
+				"#2");
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	@Test
+	public void testTokenBuffer() throws Exception {
+		TestDto dto = new TestDto();
+		dto.setV1("str");
+		dto.setV2(1);
+		dto.setV3(Integer.valueOf(2));
+		dto.setV4(new BigDecimal("3.1"));
+		String json = "{\"v1\":\"str\",\"v2\":1,\"v3\":2,\"v4\":3.1}";
+
+		Method testMethod = getClass().getDeclaredMethod("dtoParam", TestDto.class);
+		MethodParameter param = new MethodParameter(testMethod, 0);
+		TokenBuffer tokenBuffer = tokenBuffer(json);
+		assertThat(this.converter.convert(param, tokenBuffer)).isEqualTo(dto);
+		// a buffer can be read more than once
+		assertThat(this.converter.convert(param, tokenBuffer)).isEqualTo(dto);
+
+		testMethod = getClass().getDeclaredMethod("dtoListParam", List.class);
+		param = new MethodParameter(testMethod, 0);
+		assertThat((List) this.converter.convert(param,
+				tokenBuffer("[" + json + "," + json + "]"))).containsExactly(dto, dto);
+
+		testMethod = getClass().getDeclaredMethod("dtoOptionalParam", Optional.class);
+		param = new MethodParameter(testMethod, 0);
+		assertThat(this.converter.convert(param, tokenBuffer(json)))
+				.isEqualTo(Optional.of(dto));
+
+		testMethod = getClass().getDeclaredMethod("listParam", List.class);
+		param = new MethodParameter(testMethod, 0);
+		assertThat((List) this.converter.convert(param, tokenBuffer("[1,2,3]")))
+				.containsExactly("1", "2", "3");
+	}
+
+	private static TokenBuffer tokenBuffer(String json) throws IOException {
+		try (JsonParser jp = new ObjectMapper().getFactory().createParser(json)) {
+			jp.nextToken();
+			TokenBuffer tokenBuffer = new TokenBuffer(jp);
+			tokenBuffer.copyCurrentStructure(jp);
+			return tokenBuffer;
+		}
+	}
+
 	private void stringParam(String param) {
 		// nothing here
 	}
@@ -237,6 +362,26 @@ public class MethodParameterConverterTest {
 		// nothing here
 	}
 
+	private void dtoListParam(List<TestDto> list) {
+		// nothing here
+	}
+
+	private void stringArrayParam(String[] param) {
+		// nothing here
+	}
+
+	private void dtoOptionalParam(Optional<TestDto> param) {
+		// nothing here
+	}
+
+	private void dtoArrayParam(TestDto[] param) {
+		// nothing here
+	}
+
+	private void dtoSetParam(Set<TestDto> param) {
+		// nothing here
+	}
+
 	private static class TestDto {
 		private String v1;
 		private int v2;
@@ -17,35 +17,48 @@ package ch.rasc.wampspring.method;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
+import java.util.Collections;
+import java.util.List;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.Mock;
+import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 import org.springframework.context.support.StaticApplicationContext;
 import org.springframework.format.support.DefaultFormattingConversionService;
 import org.springframework.messaging.MessageChannel;
 import org.springframework.messaging.SubscribableChannel;
 import org.springframework.messaging.converter.GenericMessageConverter;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 import org.springframework.util.AntPathMatcher;
+import org.springframework.web.socket.WebSocketSession;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import ch.rasc.wampspring.EventMessenger;
+import ch.rasc.wampspring.annotation.WampCallListener;
+import ch.rasc.wampspring.config.WampMessageBrokerStats;
 import ch.rasc.wampspring.config.WampMessageSelectors;
+import ch.rasc.wampspring.message.CallErrorMessage;
 import ch.rasc.wampspring.message.CallMessage;
 import ch.rasc.wampspring.message.CallResultMessage;
+import ch.rasc.wampspring.message.CallTrace;
+import ch.rasc.wampspring.message.CallTrace.Stage;
 import ch.rasc.wampspring.message.EventMessage;
 import ch.rasc.wampspring.message.PublishMessage;
 import ch.rasc.wampspring.message.SubscribeMessage;
 import ch.rasc.wampspring.message.UnsubscribeMessage;
 import ch.rasc.wampspring.message.WampMessage;
+import ch.rasc.wampspring.message.WampMessageHeader;
 
 /**
  * @author Brian Clozel
@@ -112,6 +125,249 @@ public class WampAnnotationMethodMessageHandlerTest {
 		assertThat(result.getResult()).isEqualTo(3);
 	}
 
+	@Test
+	public void testCallMetrics() {
+		WampMessageBrokerStats stats = new WampMessageBrokerStats();
+		this.messageHandler.setWampMetrics(stats);
+
+		this.messageHandler.handleMessage(
+				new CallMessage("call1", "annotatedTestService.call", 1, 2));
+		this.messageHandler.handleMessage(
+				new CallMessage("call2", "annotatedTestService.call", 3, 4));
+		this.messageHandler.handleMessage(new CallMessage("call3",
+				"annotatedTestService.callListenableFutureError"));
+
+		assertThat(stats.getCallLatency("annotatedTestService.call").getCount())
+				.isEqualTo(2);
+		assertThat(stats.getCallErrors("annotatedTestService.call")).isEqualTo(0);
+		assertThat(stats
+				.getCallLatency("annotatedTestService.callListenableFutureError")
+				.getCount()).isEqualTo(1);
+		assertThat(stats.getCallErrors("annotatedTestService.callListenableFutureError"))
+				.isEqualTo(1);
+	}
+
+	@Test
+	public void testCallTrace() {
+		CallMessage callMessage = new CallMessage("call1", "annotatedTestService.call", 1,
+				2);
+		CallTrace trace = new CallTrace(callMessage, System.nanoTime());
+		callMessage.setCallTrace(trace);
+		this.messageHandler.handleMessage(callMessage);
+
+		verify(this.clientOutboundChannel, times(1)).send(this.messageCaptor.capture());
+		WampMessage result = this.messageCaptor.getValue();
+		assertThat(result).isInstanceOf(CallResultMessage.class);
+		assertThat(result.getCallTrace())
+				.isSameAs(trace);
+		assertThat(result.getHeaders().values()).doesNotContain(trace);
+		assertThat(trace.getStageNanos(Stage.DISPATCH)).isGreaterThan(0);
+		assertThat(trace.getStageNanos(Stage.ARGUMENT_RESOLUTION)).isGreaterThan(0);
+		assertThat(trace.getStageNanos(Stage.INVOCATION)).isGreaterThan(0);
+	}
+
+	@Test
+	public void testCallCompletableFuture() {
+		CallMessage callMessage = new CallMessage("call1",
+				"annotatedTestService.callCompletableFuture", 1, 2);
+		this.messageHandler.handleMessage(callMessage);
+
+		verify(this.clientOutboundChannel, timeout(5000).times(1))
+				.send(this.messageCaptor.capture());
+		CallResultMessage result = (CallResultMessage) this.messageCaptor.getValue();
+		assertThat(result.getCallID()).isEqualTo("call1");
+		assertThat(result.getResult()).isEqualTo(3);
+	}
+
+	@Test
+	public void testCallListenableFutureError() {
+		CallMessage callMessage = new CallMessage("call1",
+				"annotatedTestService.callListenableFutureError");
+		this.messageHandler.handleMessage(callMessage);
+
+		verify(this.clientOutboundChannel, times(1)).send(this.messageCaptor.capture());
+		CallErrorMessage error = (CallErrorMessage) this.messageCaptor.getValue();
+		assertThat(error.getCallID()).isEqualTo("call1");
+		assertThat(error.getErrorDesc())
+				.isEqualTo("java.lang.IllegalArgumentException: wrong argument");
+	}
+
+	@Test
+	public void testCallDeferredResult() {
+		CallMessage callMessage = new CallMessage("call1",
+				"annotatedTestService.callDeferredResult", 3, 4);
+		this.messageHandler.handleMessage(callMessage);
+
+		verify(this.clientOutboundChannel, times(1)).send(this.messageCaptor.capture());
+		CallResultMessage result = (CallResultMessage) this.messageCaptor.getValue();
+		assertThat(result.getResult()).isEqualTo(7);
+	}
+
+	@Test
+	public void testCallTimeout() {
+		ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+		scheduler.afterPropertiesSet();
+		this.messageHandler.setTaskScheduler(scheduler);
+		try {
+			CallMessage callMessage = new CallMessage("call1",
+					"annotatedTestService.callTimeout");
+			this.messageHandler.handleMessage(callMessage);
+
+			verify(this.clientOutboundChannel, timeout(5000).times(1))
+					.send(this.messageCaptor.capture());
+			CallErrorMessage error = (CallErrorMessage) this.messageCaptor.getValue();
+			assertThat(error.getCallID()).isEqualTo("call1");
+			assertThat(error.getErrorDesc())
+					.startsWith("java.util.concurrent.TimeoutException");
+		}
+		finally {
+			scheduler.shutdown();
+		}
+	}
+
+	@Test
+	public void testCallStream() {
+		CallMessage callMessage = new CallMessage("call1",
+				"annotatedTestService.callStream", 5);
+		callMessage.setWebSocketSessionId("ws1");
+		this.messageHandler.handleMessage(callMessage);
+
+		verify(this.clientOutboundChannel, times(4)).send(this.messageCaptor.capture());
+		List<WampMessage> messages = this.messageCaptor.getAllValues();
+
+		CallResultMessage result = (CallResultMessage) messages.get(0);
+		assertThat(result.getCallID()).isEqualTo("call1");
+		assertThat(result.getResult()).isEqualTo(Collections.singletonMap(
+				"streamTopicURI", "annotatedTestService.callStream#call1"));
+
+		for (int i = 1; i < 4; i++) {
+			EventMessage event = (EventMessage) messages.get(i);
+			assertThat(event.getTopicURI())
+					.isEqualTo("annotatedTestService.callStream#call1");
+			assertThat(event.getWebSocketSessionId()).isEqualTo("ws1");
+			CallResultChunk chunk = (CallResultChunk) event.getEvent();
+			assertThat(chunk.getSeq()).isEqualTo(i - 1);
+			assertThat(chunk.isLast()).isEqualTo(i == 3);
+			assertThat(chunk.getError()).isNull();
+		}
+		assertThat(((CallResultChunk) ((EventMessage) messages.get(1)).getEvent())
+				.getItems()).containsExactly(1, 2);
+		assertThat(((CallResultChunk) ((EventMessage) messages.get(2)).getEvent())
+				.getItems()).containsExactly(3, 4);
+		assertThat(((CallResultChunk) ((EventMessage) messages.get(3)).getEvent())
+				.getItems()).containsExactly(5);
+	}
+
+	@Test
+	public void testCallStreamError() {
+		CallMessage callMessage = new CallMessage("call1",
+				"annotatedTestService.callStreamError");
+		this.messageHandler.handleMessage(callMessage);
+
+		verify(this.clientOutboundChannel, times(3)).send(this.messageCaptor.capture());
+		List<WampMessage> messages = this.messageCaptor.getAllValues();
+		assertThat(messages.get(0)).isInstanceOf(CallResultMessage.class);
+		CallResultChunk chunk = (CallResultChunk) ((EventMessage) messages.get(2))
+				.getEvent();
+		assertThat(chunk.getSeq()).isEqualTo(1);
+		assertThat(chunk.isLast()).isTrue();
+		assertThat(chunk.getItems()).isEmpty();
+		assertThat(chunk.getError())
+				.isEqualTo("java.lang.IllegalStateException: read failed");
+	}
+
+	@Test
+	public void testCallStreamWindow() {
+		ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+		scheduler.afterPropertiesSet();
+		try {
+			this.messageHandler.setTaskScheduler(scheduler);
+			this.messageHandler.setStreamWindowSize(2);
+			this.messageHandler.setStreamWindowTimeout(50);
+			CallMessage callMessage = new CallMessage("call1",
+					"annotatedTestService.callStream", 10);
+			this.messageHandler.handleMessage(callMessage);
+
+			// the window is full, the inbound thread returns without waiting
+			verify(this.clientOutboundChannel, times(3)).send(any(WampMessage.class));
+
+			// the client does not receive the chunks, the stream is aborted
+			verify(this.clientOutboundChannel, timeout(5000).times(4))
+					.send(this.messageCaptor.capture());
+			List<WampMessage> messages = this.messageCaptor.getAllValues();
+			assertThat(
+					messages.get(1).<Runnable>getHeader(WampMessageHeader.SENT_CALLBACK))
+							.isNotNull();
+			CallResultChunk chunk = (CallResultChunk) ((EventMessage) messages.get(3))
+					.getEvent();
+			assertThat(chunk.getSeq()).isEqualTo(2);
+			assertThat(chunk.isLast()).isTrue();
+			assertThat(chunk.getError())
+					.startsWith("java.util.concurrent.TimeoutException");
+		}
+		finally {
+			scheduler.shutdown();
+		}
+	}
+
+	@Test
+	public void testCallStreamResumedBySentCallback() {
+		this.messageHandler.setStreamWindowSize(2);
+		CallMessage callMessage = new CallMessage("call1",
+				"annotatedTestService.callStream", 10);
+		callMessage.setWebSocketSessionId("ws1");
+		this.messageHandler.handleMessage(callMessage);
+
+		verify(this.clientOutboundChannel, times(3)).send(this.messageCaptor.capture());
+		Runnable sentCallback = this.messageCaptor.getValue()
+				.getHeader(WampMessageHeader.SENT_CALLBACK);
+
+		// the thread that wrote a chunk resumes the stream
+		sentCallback.run();
+		verify(this.clientOutboundChannel, times(4)).send(this.messageCaptor.capture());
+		CallResultChunk chunk = (CallResultChunk) ((EventMessage) this.messageCaptor
+				.getValue()).getEvent();
+		assertThat(chunk.getSeq()).isEqualTo(2);
+		assertThat(chunk.getItems()).containsExactly(5, 6);
+
+		// closing the session stops the stream
+		WebSocketSession session = Mockito.mock(WebSocketSession.class);
+		when(session.getId()).thenReturn("ws1");
+		this.messageHandler.handleMessage(UnsubscribeMessage.createCleanupMessage(session));
+		sentCallback.run();
+		sentCallback.run();
+		verify(this.clientOutboundChannel, times(4)).send(any(WampMessage.class));
+	}
+
+	@Test
+	public void testCallStreamWindowCredits() {
+		when(this.clientOutboundChannel.send(any(WampMessage.class)))
+				.thenAnswer(invocation -> {
+					WampMessage message = (WampMessage) invocation.getArguments()[0];
+					Runnable sentCallback = message
+							.getHeader(WampMessageHeader.SENT_CALLBACK);
+					if (sentCallback != null) {
+						sentCallback.run();
+					}
+					return true;
+				});
+		this.messageHandler.setStreamWindowSize(2);
+		this.messageHandler.setStreamWindowTimeout(50);
+		CallMessage callMessage = new CallMessage("call1",
+				"annotatedTestService.callStream", 10);
+		this.messageHandler.handleMessage(callMessage);
+
+		verify(this.clientOutboundChannel, times(7)).send(this.messageCaptor.capture());
+		CallResultChunk chunk = (CallResultChunk) ((EventMessage) this.messageCaptor
+				.getAllValues().get(5)).getEvent();
+		assertThat(chunk.getItems()).containsExactly(9, 10);
+		chunk = (CallResultChunk) ((EventMessage) this.messageCaptor.getValue())
+				.getEvent();
+		assertThat(chunk.getSeq()).isEqualTo(5);
+		assertThat(chunk.isLast()).isTrue();
+		assertThat(chunk.getError()).isNull();
+	}
+
 	@Test
 	public void testSubscribe() {
 		SubscribeMessage subscribeMessage = new SubscribeMessage(
@@ -334,4 +590,49 @@ public class WampAnnotationMethodMessageHandlerTest {
 		verifyZeroInteractions(this.clientOutboundChannel);
 		verifyZeroInteractions(this.eventMessenger);
 	}
+
+	@Test
+	public void testBeanResolution() {
+		StaticApplicationContext applicationContext = new StaticApplicationContext();
+		applicationContext.registerSingleton("singletonService", InstanceService.class);
+		applicationContext.registerPrototype("prototypeService", InstanceService.class);
+		applicationContext.refresh();
+
+		DefaultFormattingConversionService conversionService = new DefaultFormattingConversionService();
+		WampAnnotationMethodMessageHandler handler = new WampAnnotationMethodMessageHandler(
+				this.clientInboundChannel, this.clientOutboundChannel,
+				this.eventMessenger, conversionService,
+				new MethodParameterConverter(new ObjectMapper(), conversionService),
+				new AntPathMatcher(), WampMessageSelectors.ACCEPT_ALL,
+				new GenericMessageConverter());
+		handler.setApplicationContext(applicationContext);
+		handler.afterPropertiesSet();
+
+		handler.handleMessage(new CallMessage("1", "singletonService.identity"));
+		handler.handleMessage(new CallMessage("2", "singletonService.identity"));
+		handler.handleMessage(new CallMessage("3", "prototypeService.identity"));
+		handler.handleMessage(new CallMessage("4", "prototypeService.identity"));
+
+		verify(this.clientOutboundChannel, times(4)).send(this.messageCaptor.capture());
+		Object[] results = new Object[4];
+		for (int i = 0; i < 4; i++) {
+			assertThat(this.messageCaptor.getAllValues().get(i))
+					.isInstanceOf(CallResultMessage.class);
+			results[i] = ((CallResultMessage) this.messageCaptor.getAllValues().get(i))
+					.getResult();
+		}
+
+		assertThat(results[0]).isSameAs(results[1])
+				.isSameAs(applicationContext.getBean("singletonService"));
+		assertThat(results[2]).isNotSameAs(results[3]).isNotSameAs(results[0]);
+		applicationContext.close();
+	}
+
+	public static class InstanceService {
+		@WampCallListener
+		public InstanceService identity() {
+			return this;
+		}
+	}
+
 }